@@ -0,0 +1,63 @@
+package pawnshop;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations on the {@code lender_flags} and {@code enabled_lender_flags} strings, as the script does them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LenderSlotBenchmark {
+
+    @Param({"1", "2", "5", "10", "15", "20"})
+    public int lenders;
+
+    private String flags;
+    private int last;
+
+    @Setup
+    public void setup() {
+        StringBuilder acc = new StringBuilder();
+        for (int i = 0; i < lenders; i++)
+            acc.append('1');
+        flags = acc.toString();
+        last = lenders - 1;
+    }
+
+    @Benchmark
+    public String set() {
+        return PawnshopEngine.setFlag(flags, lenders, "1");
+    }
+
+    @Benchmark
+    public String clearFirst() {
+        return PawnshopEngine.setFlag(flags, 0, "0");
+    }
+
+    @Benchmark
+    public String clearLast() {
+        return PawnshopEngine.setFlag(flags, last, "0");
+    }
+
+    @Benchmark
+    public long count() {
+        return PawnshopEngine.countSet(flags);
+    }
+
+    @Benchmark
+    public boolean isSetLast() {
+        return PawnshopEngine.isSet(flags, last);
+    }
+
+    @Benchmark
+    public boolean hasNoSlot() {
+        return PawnshopEngine.hasSlot(flags, -1);
+    }
+
+}
@@ -0,0 +1,107 @@
+package pawnshop.ride;
+
+import org.openjdk.jmh.annotations.*;
+import pawnshop.Payment;
+import pawnshop.ScriptResult;
+import pawnshop.state.DecodedChanges;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of the callables of ride/pawnshop_wbtc.ride against a fixed state, as the lender set grows up to the
+ * FOLD limit. Results are not applied, so every invocation sees the same state.
+ * <ul>
+ * <li>borrow folds over the slots of the enabled lenders in incrementOpenLends</li>
+ * <li>buyBack in the interest period folds over the slots of the loan's lenders in profitDistribution</li>
+ * <li>closeExpiredFor and discard fold over them in unclaimedDistribution</li>
+ * </ul>
+ * Run from the repository root, the script is read from {@code ride/}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallableBenchmark {
+
+    private static final long TOKEN = 100_000_000L;
+    private static final byte[] TX_ID = new byte[32];
+
+    @Param({"1", "2", "5", "10", "15", "20"})
+    public int lenders;
+
+    @Param({"0", "1000"})
+    public int openLoans;
+
+    private LocalNode node;
+    private RideScript script;
+    private String dApp;
+    private String btcId;
+    private String borrower;
+    private String payingBack, payingBackLoan;
+    private String expired, expiredLoan;
+
+    @Setup
+    public void setup() {
+        node = new LocalNode();
+        script = RideScript.fromFile("ride/pawnshop_wbtc.ride");
+        LocalAccount oracle = node.createAccount(TOKEN);
+        LocalAccount owner = node.createAccount(TOKEN);
+        LocalAccount dAppAccount = node.createAccount(10 * TOKEN);
+        dApp = dAppAccount.address();
+
+        oracle.writes(d -> d.integer("waves_btc_8", 10000));
+        btcId = dAppAccount.issues(1000 * TOKEN);
+        dAppAccount.setsScript(script);
+        dAppAccount.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(),
+                50000, 80, 5, 4, 10, 10, 10));
+        for (int i = 0; i < lenders; i++) {
+            LocalAccount lender = node.createAccount(TOKEN);
+            dAppAccount.transfers(lender, 10 * TOKEN, btcId);
+            lender.invokes(d -> d.dApp(dApp).function("depositBtc").payment(10 * TOKEN, btcId));
+        }
+        for (int i = 0; i < openLoans; i++)
+            node.createAccount(TOKEN).invokes(b -> b.dApp(dApp).function("borrow").wavesPayment(TOKEN / 2));
+
+        // expires at +9, pays interest at +10
+        LocalAccount expiring = node.createAccount(100 * TOKEN);
+        expired = expiring.address();
+        expiredLoan = openLoan(expiring);
+        node.mine(4);
+        LocalAccount paying = node.createAccount(100 * TOKEN);
+        payingBack = paying.address();
+        payingBackLoan = openLoan(paying);
+        node.mine(6);
+        borrower = node.createAccount(100 * TOKEN).address();
+    }
+
+    private String openLoan(LocalAccount renter) {
+        return DecodedChanges.of(renter.invokes(b -> b.dApp(dApp).function("borrow").wavesPayment(10 * TOKEN))
+                .stateChanges).borrowedLoan();
+    }
+
+    @Benchmark
+    public ScriptResult borrow() {
+        return script.invoke(node, dApp, borrower, "borrow", Collections.emptyList(), Payment.waves(TOKEN), TX_ID);
+    }
+
+    @Benchmark
+    public ScriptResult buyBack() {
+        return script.invoke(node, dApp, payingBack, "buyBack", Arrays.asList(payingBackLoan),
+                Payment.of(TOKEN, btcId), TX_ID);
+    }
+
+    @Benchmark
+    public ScriptResult closeExpiredFor() {
+        return script.invoke(node, dApp, borrower, "closeExpiredFor", Arrays.asList(expiredLoan), null, TX_ID);
+    }
+
+    @Benchmark
+    public ScriptResult discard() {
+        return script.invoke(node, dApp, expired, "discard", Arrays.asList(expiredLoan), null, TX_ID);
+    }
+
+}
@@ -1,17 +1,17 @@
-const dappAddress = "3MwHAghvVSNQUvsYHsHSR4tAEYiVarQRrtG"
-
-async function go() {
-    const tx = invokeScript({
-        dApp: dappAddress,
-        call: {
-            function: "closeExpiredFor", args: [{ type: "string", value: env.for }]
-        }
-    },
-    env.SEED
-    )
-    await broadcast(tx)
-    await waitForTx(tx.id)
-    console.log(tx.id)
-}
-
+const dappAddress = "3MwHAghvVSNQUvsYHsHSR4tAEYiVarQRrtG"
+
+async function go() {
+    const tx = invokeScript({
+        dApp: dappAddress,
+        call: {
+            function: "closeExpiredFor", args: [{ type: "string", value: env.loan }]
+        }
+    },
+    env.SEED
+    )
+    await broadcast(tx)
+    await waitForTx(tx.id)
+    console.log(tx.id)
+}
+
 go()
\ No newline at end of file
@@ -0,0 +1,46 @@
+package pawnshop;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Waves address helpers used by the in-process models.
+ * The checksum is never verified, the same way addressFromString is only used here to reject garbage.
+ */
+public class Address {
+
+    public static final int LENGTH = 26;
+    private static final byte VERSION = 1;
+
+    public static boolean isValid(String address, char chainId) {
+        if (address == null || address.isEmpty() || address.length() > 36 || !Base58.isValid(address))
+            return false;
+        byte[] bytes = Base58.decode(address);
+        return bytes.length == LENGTH && bytes[0] == VERSION && bytes[1] == (byte) chainId;
+    }
+
+    /**
+     * Deterministic address for a local account name.
+     * It is well-formed for the given chain but has no key pair behind it, so it only makes sense in-process.
+     */
+    public static String of(String name, char chainId) {
+        byte[] hash = sha256(name.getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = new byte[LENGTH];
+        bytes[0] = VERSION;
+        bytes[1] = (byte) chainId;
+        System.arraycopy(hash, 0, bytes, 2, 20);
+        System.arraycopy(sha256(Arrays.copyOf(bytes, 22)), 0, bytes, 22, 4);
+        return Base58.encode(bytes);
+    }
+
+    static byte[] sha256(byte[] input) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(input);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package pawnshop;
+
+import java.util.Arrays;
+
+public class Base58 {
+
+    private static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
+    private static final int[] INDEXES = new int[128];
+
+    static {
+        Arrays.fill(INDEXES, -1);
+        for (int i = 0; i < ALPHABET.length; i++)
+            INDEXES[ALPHABET[i]] = i;
+    }
+
+    public static String encode(byte[] input) {
+        if (input.length == 0)
+            return "";
+        int zeros = 0;
+        while (zeros < input.length && input[zeros] == 0)
+            zeros++;
+        byte[] copy = Arrays.copyOf(input, input.length);
+        char[] encoded = new char[copy.length * 2];
+        int out = encoded.length;
+        for (int start = zeros; start < copy.length; ) {
+            encoded[--out] = ALPHABET[divmod(copy, start, 256, 58)];
+            if (copy[start] == 0)
+                start++;
+        }
+        while (out < encoded.length && encoded[out] == ALPHABET[0])
+            out++;
+        while (--zeros >= 0)
+            encoded[--out] = ALPHABET[0];
+        return new String(encoded, out, encoded.length - out);
+    }
+
+    public static byte[] decode(String input) {
+        if (input.isEmpty())
+            return new byte[0];
+        byte[] input58 = new byte[input.length()];
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            int digit = c < 128 ? INDEXES[c] : -1;
+            if (digit < 0)
+                throw new IllegalArgumentException("Invalid base58 character '" + c + "' in " + input);
+            input58[i] = (byte) digit;
+        }
+        int zeros = 0;
+        while (zeros < input58.length && input58[zeros] == 0)
+            zeros++;
+        byte[] decoded = new byte[input.length()];
+        int out = decoded.length;
+        for (int start = zeros; start < input58.length; ) {
+            decoded[--out] = divmod(input58, start, 58, 256);
+            if (input58[start] == 0)
+                start++;
+        }
+        while (out < decoded.length && decoded[out] == 0)
+            out++;
+        return Arrays.copyOfRange(decoded, out - zeros, decoded.length);
+    }
+
+    public static boolean isValid(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c >= 128 || INDEXES[c] < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static byte divmod(byte[] number, int first, int base, int divisor) {
+        int remainder = 0;
+        for (int i = first; i < number.length; i++) {
+            int temp = remainder * base + (number[i] & 0xFF);
+            number[i] = (byte) (temp / divisor);
+            remainder = temp % divisor;
+        }
+        return (byte) remainder;
+    }
+
+}
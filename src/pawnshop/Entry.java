@@ -0,0 +1,69 @@
+package pawnshop;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A data entry as written by the script: integer, string, boolean or binary value under a key.
+ */
+public class Entry {
+
+    public final String key;
+    public final Object value;
+
+    public Entry(String key, Object value) {
+        if (!(value instanceof Long || value instanceof String || value instanceof Boolean || value instanceof byte[]))
+            throw new IllegalArgumentException("Unsupported value of " + key + ": " + value);
+        this.key = key;
+        this.value = value;
+    }
+
+    public static Entry integer(String key, long value) {
+        return new Entry(key, value);
+    }
+
+    public static Entry string(String key, String value) {
+        return new Entry(key, value);
+    }
+
+    public static Entry bool(String key, boolean value) {
+        return new Entry(key, value);
+    }
+
+    public long asInteger() {
+        return (Long) value;
+    }
+
+    public String asString() {
+        return (String) value;
+    }
+
+    public boolean asBoolean() {
+        return (Boolean) value;
+    }
+
+    public byte[] asBinary() {
+        return (byte[]) value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Entry)) return false;
+        Entry that = (Entry) o;
+        return key.equals(that.key) && (value instanceof byte[] && that.value instanceof byte[]
+                ? Arrays.equals((byte[]) value, (byte[]) that.value)
+                : value.equals(that.value));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, value instanceof byte[] ? Arrays.hashCode((byte[]) value) : value);
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + (value instanceof byte[] ? "base58:" + Base58.encode((byte[]) value) : value);
+    }
+
+}
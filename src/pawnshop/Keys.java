@@ -0,0 +1,137 @@
+package pawnshop;
+
+/**
+ * State keys of ride/pawnshop_wbtc.ride, spelled exactly as the script writes them.
+ */
+public class Keys {
+
+    public static final String ORACLE_DATA = "waves_btc_8";
+
+    public static final String LENDER_ADDRESSES = "lender_addresses";
+    public static final String LENDER_FLAGS = "lender_flags";
+    public static final String ENABLED_LENDER_FLAGS = "enabled_lender_flags";
+    public static final String GRACE_PERIOD = "gracePeriod";
+    public static final String INTEREST_PERIOD = "interestPeriod";
+    public static final String BURNDOWN_PERIOD = "burndownPeriod";
+    public static final String ORACLE = "oracle";
+    public static final String DISCOUNT_PERCENTILE = "discountPercentile";
+    public static final String MAX_RATE = "maxRate";
+    public static final String ASSET_TOKEN = "assetToken";
+    public static final String OWNER = "owner";
+    public static final String SERVICE_FEE = "service_fee";
+    public static final String LEND_SIZE = "lend_size";
+    public static final String ENABLE_DEPOSIT_BTC = "enable_deposit_btc";
+    public static final String ENABLE_NEW_LOANS = "enable_new_loans";
+    public static final String LOAN_COUNT = "loan_count";
+    public static final String COHORT_COUNT = "cohort_count";
+
+    public static final String START_OF = "start_of_";
+    public static final String END_OF_GRACE_OF = "end_of_grace_of_";
+    public static final String END_OF_INTEREST_OF = "end_of_interest_of_";
+    public static final String END_OF_BURNDOWN_OF = "end_of_burndown_of_";
+    public static final String RATE_OF = "rate_of_";
+    public static final String DEPOSIT_OF = "deposit_of_";
+    public static final String LEND_OF = "lend_of_";
+    public static final String LENDER_FLAGS_OF = "lender_flags_of_";
+    public static final String RENTER_OF = "renter_of_";
+
+    public static final String PROFIT_FOR = "profit_for_";
+    public static final String UNCLAIMED_FOR = "unclaimied_for_";
+    public static final String CIRCULATING_ASSETS_OF = "curculating_assets_of_";
+    public static final String SLOT_OF = "slot_of_";
+
+    /** Cohorts group the loans taken with the same enabled lenders and accumulate the share of each of them. */
+    public static final String COHORT_OF = "cohort_of_";
+    public static final String COHORT_FLAGS = "cohort_flags_";
+    public static final String COHORT_OPEN = "cohort_open_";
+    public static final String COHORT_PROFIT = "cohort_profit_";
+    public static final String COHORT_UNCLAIMED = "cohort_unclaimed_";
+    public static final String COHORT_LOSS = "cohort_loss_";
+    public static final String SETTLED_COHORT_OF = "settled_cohort_of_";
+    public static final String SETTLED_PROFIT = "settled_profit_";
+    public static final String SETTLED_UNCLAIMED = "settled_unclaimed_";
+    public static final String SETTLED_LOSS = "settled_loss_";
+
+    /** Pipe-separated lender lists of the layout before lender slots, see {@link pawnshop.migrate.LenderSlotMigration}. */
+    public static final String LEGACY_LENDERS = "lenders";
+    public static final String LEGACY_ENABLED_LENDERS = "enabledLenders";
+    public static final String LEGACY_LENDERS_OF = "lenders_of_";
+
+    /**
+     * Prefixes of the keys of a {@link pawnshop.state.Loan} record, in the order the script writes them on borrow and
+     * on closing. Along with them the script writes {@link #COHORT_OF}, which is cohort accounting and not part of
+     * the record. A loan is keyed by its id, the {@code loan_count} when it was taken, or by the address of its renter
+     * if it was taken before loan ids.
+     */
+    public static final String[] LOAN_PREFIXES = {
+            START_OF, END_OF_GRACE_OF, END_OF_INTEREST_OF, END_OF_BURNDOWN_OF,
+            RATE_OF, DEPOSIT_OF, LEND_OF, LENDER_FLAGS_OF, RENTER_OF
+    };
+
+    /** Per-lender accounting key prefixes. */
+    public static final String[] LENDER_PREFIXES = {
+            PROFIT_FOR, UNCLAIMED_FOR, CIRCULATING_ASSETS_OF
+    };
+
+    /**
+     * Key prefixes of the cohorts and of what each lender settled of them, which the stored accounting keys of a lender
+     * lag behind, see {@link pawnshop.state.LenderLedger#owed}.
+     */
+    public static final String[] SETTLEMENT_PREFIXES = {
+            SLOT_OF, COHORT_FLAGS, COHORT_OPEN, COHORT_PROFIT, COHORT_UNCLAIMED, COHORT_LOSS,
+            SETTLED_COHORT_OF, SETTLED_PROFIT, SETTLED_UNCLAIMED, SETTLED_LOSS
+    };
+
+    public static String startOf(String loan) { return START_OF + loan; }
+    public static String endOfGraceOf(String loan) { return END_OF_GRACE_OF + loan; }
+    public static String endOfInterestOf(String loan) { return END_OF_INTEREST_OF + loan; }
+    public static String endOfBurndownOf(String loan) { return END_OF_BURNDOWN_OF + loan; }
+    public static String rateOf(String loan) { return RATE_OF + loan; }
+    public static String depositOf(String loan) { return DEPOSIT_OF + loan; }
+    public static String lendOf(String loan) { return LEND_OF + loan; }
+    public static String lenderFlagsOf(String loan) { return LENDER_FLAGS_OF + loan; }
+    public static String renterOf(String loan) { return RENTER_OF + loan; }
+
+    public static String profitFor(String lender) { return PROFIT_FOR + lender; }
+    public static String unclaimedFor(String lender) { return UNCLAIMED_FOR + lender; }
+    public static String circulatingAssetsOf(String lender) { return CIRCULATING_ASSETS_OF + lender; }
+    public static String slotOf(String lender) { return SLOT_OF + lender; }
+
+    public static String cohortOf(String loan) { return COHORT_OF + loan; }
+    public static String cohortFlags(long cohort) { return COHORT_FLAGS + cohort; }
+    public static String cohortOpen(long cohort) { return COHORT_OPEN + cohort; }
+    public static String cohortProfit(long cohort) { return COHORT_PROFIT + cohort; }
+    public static String cohortUnclaimed(long cohort) { return COHORT_UNCLAIMED + cohort; }
+    public static String cohortLoss(long cohort) { return COHORT_LOSS + cohort; }
+    public static String settledCohortOf(String lender) { return SETTLED_COHORT_OF + lender; }
+    public static String settledProfit(long cohort, String lender) { return SETTLED_PROFIT + cohort + "_" + lender; }
+    public static String settledUnclaimed(long cohort, String lender) { return SETTLED_UNCLAIMED + cohort + "_" + lender; }
+    public static String settledLoss(long cohort, String lender) { return SETTLED_LOSS + cohort + "_" + lender; }
+
+    /**
+     * Returns the prefix of a per-loan or per-lender key, or null for a global key.
+     */
+    public static String prefixOf(String key) {
+        for (String prefix : LOAN_PREFIXES)
+            if (key.startsWith(prefix))
+                return prefix;
+        for (String prefix : LENDER_PREFIXES)
+            if (key.startsWith(prefix))
+                return prefix;
+        return null;
+    }
+
+    /**
+     * True for keys holding a string value, i.e. the lender slots and flags, the renters and the string parameters.
+     */
+    public static boolean isString(String key) {
+        return key.startsWith(LENDER_FLAGS_OF) || key.startsWith(RENTER_OF) || key.startsWith(COHORT_FLAGS) || key.equals(LENDER_ADDRESSES) || key.equals(LENDER_FLAGS)
+                || key.equals(ENABLED_LENDER_FLAGS) || key.startsWith(LEGACY_LENDERS_OF) || key.equals(LEGACY_LENDERS)
+                || key.equals(LEGACY_ENABLED_LENDERS) || key.equals(OWNER) || key.equals(ASSET_TOKEN) || key.equals(ORACLE);
+    }
+
+    public static boolean isBoolean(String key) {
+        return key.equals(ENABLE_DEPOSIT_BTC) || key.equals(ENABLE_NEW_LOANS);
+    }
+
+}
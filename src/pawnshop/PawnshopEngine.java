@@ -0,0 +1,746 @@
+package pawnshop;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static pawnshop.Keys.*;
+
+/**
+ * In-JVM model of ride/pawnshop_wbtc.ride.
+ * <p>
+ * Every callable of the script has a method here taking the caller address first. A call either returns the
+ * data entries and transfers the script would produce, in the same order, and applies the entries to the
+ * dApp state, or throws {@link ScriptError} with the script's message and leaves the state untouched.
+ * Integer math follows RIDE: exact 64-bit arithmetic, floor division and {@code fraction} via big integers.
+ * <p>
+ * The height is an explicit clock, so loan lifecycles run without waiting for blocks.
+ * Only the dApp data and the oracle value are modelled, balances are not.
+ */
+public class PawnshopEngine {
+
+    public static final long TEN8 = 100_000_000L;
+    public static final int MAX_LENDERS = 20;
+    public static final int ADDRESS_SIZE = 35;
+    /** Accounts a batch payout pays out at most: two transfers each fit {@link pawnshop.ride.RideScript#MAX_TRANSFERS}. */
+    public static final int MAX_PAYOUTS = 5;
+    /**
+     * Loans closeExpiredLoans lists at most, as many as the local estimate fits in the complexity limit of a callable.
+     */
+    public static final int MAX_CLOSING_LOANS = 2;
+
+    private final String dApp;
+    private final char chainId;
+    private final Map<String, Object> state = new HashMap<>();
+    private final Map<String, Long> oracleValues = new HashMap<>();
+    private int height;
+
+    public PawnshopEngine(String dApp, int height) {
+        this.dApp = dApp;
+        this.chainId = (char) Base58.decode(dApp)[1];
+        this.height = height;
+    }
+
+    public String dApp() {
+        return dApp;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public PawnshopEngine setHeight(int height) {
+        this.height = height;
+        return this;
+    }
+
+    public PawnshopEngine advance(int blocks) {
+        this.height += blocks;
+        return this;
+    }
+
+    /** Posts the integer the oracle account keeps under {@code waves_btc_8}. */
+    public PawnshopEngine postOracle(String oracle, long value) {
+        oracleValues.put(oracle, value);
+        return this;
+    }
+
+    /** Takes the storage of a deployed dApp, on top of what the engine holds. */
+    public PawnshopEngine load(Map<String, Object> data) {
+        state.putAll(data);
+        return this;
+    }
+
+    public Object get(String key) {
+        return state.get(key);
+    }
+
+    public Map<String, Object> state() {
+        return Collections.unmodifiableMap(state);
+    }
+
+    // callables
+
+    public ScriptResult init(String caller, String owner, String token, String oracle, long maxRate, long discount,
+                             long grace, long interest, long burndown, long serviceFee, long lendSize) {
+        if (interest > burndown) throw new ScriptError("interest must be less or equal to burndown");
+        if (!caller.equals(dApp)) throw new ScriptError("only dapp itself can init");
+        return apply(Arrays.asList(
+                Entry.string(OWNER, owner),
+                Entry.string(ASSET_TOKEN, token),
+                Entry.string(ORACLE, oracle),
+                Entry.integer(MAX_RATE, maxRate),
+                Entry.integer(DISCOUNT_PERCENTILE, discount),
+                Entry.integer(GRACE_PERIOD, grace),
+                Entry.integer(INTEREST_PERIOD, interest),
+                Entry.integer(BURNDOWN_PERIOD, burndown),
+                Entry.integer(SERVICE_FEE, serviceFee),
+                Entry.integer(LEND_SIZE, lendSize)
+        ), Collections.emptyList());
+    }
+
+    public ScriptResult updateParams(String caller, String oracle, long maxRate, long discount, long grace,
+                                     long interest, long burndown, long serviceFee, long lendSize) {
+        if (interest > burndown) throw new ScriptError("interest must be less or equal to burndown");
+        if (!caller.equals(owner())) throw new ScriptError("only owner can update params");
+        return apply(Arrays.asList(
+                Entry.string(ORACLE, oracle),
+                Entry.integer(MAX_RATE, maxRate),
+                Entry.integer(DISCOUNT_PERCENTILE, discount),
+                Entry.integer(GRACE_PERIOD, grace),
+                Entry.integer(INTEREST_PERIOD, interest),
+                Entry.integer(BURNDOWN_PERIOD, burndown),
+                Entry.integer(SERVICE_FEE, serviceFee),
+                Entry.integer(LEND_SIZE, lendSize)
+        ), Collections.emptyList());
+    }
+
+    public ScriptResult borrow(String caller, Payment payment) {
+        String renter = caller;
+        String loan = String.valueOf(add(loanCount(), 1));
+        boolean newCohort = !cohortFlags_(cohortCount()).equals(enabledLenderFlags());
+        long cohort = newCohort ? cohortCount() + 1 : cohortCount();
+        if (!newLoansEnabled()) throw new ScriptError("New loans temporarily disabled");
+        if (payment == null) throw new ScriptError("payment in assetTokens must be attached");
+        if (payment.asset != null) throw new ScriptError("can only lend WBTC for WAVES, but got " + payment.asset);
+
+        long depositAmount = payment.amount;
+        long assetTokensLent = fraction(depositAmount, mul(rate(), discountPercentile()), TEN8 * 100);
+        if (assetTokensLent <= 0)
+            throw new ScriptError("payment can't be less than " + minimalLendAmount() + " wavelets (price of 1 satoshi)");
+
+        long endOfGrace = add(height, gracePeriod());
+        long endOfInterest = add(endOfGrace, interestPeriod());
+        long endOfBurndown = add(endOfGrace, burndownPeriod());
+        List<Entry> data = new ArrayList<>(Arrays.asList(
+                Entry.integer(LOAN_COUNT, loanCount() + 1),
+                Entry.integer(startOf(loan), height),
+                Entry.integer(endOfGraceOf(loan), endOfGrace),
+                Entry.integer(endOfInterestOf(loan), endOfInterest),
+                Entry.integer(endOfBurndownOf(loan), endOfBurndown),
+                Entry.integer(rateOf(loan), fraction(rate(), discountPercentile(), 100)),
+                Entry.integer(depositOf(loan), depositAmount),
+                Entry.integer(lendOf(loan), assetTokensLent),
+                Entry.string(lenderFlagsOf(loan), enabledLenderFlags()),
+                Entry.string(renterOf(loan), renter),
+                Entry.integer(cohortOf(loan), cohort),
+                Entry.integer(cohortOpen(cohort), add(integerOrZero(cohortOpen(cohort)), 1))));
+        if (newCohort) {
+            data.add(Entry.integer(COHORT_COUNT, cohort));
+            data.add(Entry.string(cohortFlags(cohort), enabledLenderFlags()));
+        }
+        return apply(data, Arrays.asList(new Transfer(caller, assetTokensLent, assetToken())));
+    }
+
+    public ScriptResult buyBack(String caller, String loan, Payment payment) {
+        if (payment == null) throw new ScriptError("payment must be attached");
+        if (payment.asset == null) throw new ScriptError("payment in WBTC must be attached");
+
+        String renter = caller;
+        if (!isLendOpen(loan) || !renterOf_(loan).equals(renter)) throw new ScriptError("No open loan for caller");
+        if (!payment.asset.equals(assetToken()))
+            throw new ScriptError("User must return WBTC: " + assetToken() + " but returning: " + payment.asset);
+        long endOfGrace = integerValue(endOfGraceOf(loan));
+        long endOfBurndown = integerValue(endOfBurndownOf(loan));
+        long endOfInterest = integerValue(endOfInterestOf(loan));
+        if (height >= endOfInterest) throw new ScriptError("your loan has expired");
+
+        long loanAmount = integerValue(lendOf(loan));
+        long lendersProfit = height > endOfGrace
+                ? fraction(loanAmount, height - endOfGrace, sub(endOfBurndown, endOfGrace))
+                : 0;
+        long requiredAmount = height <= endOfGrace ? loanAmount : add(loanAmount, lendersProfit);
+        if (payment.amount < requiredAmount)
+            throw new ScriptError("User must return " + loanAmount + " satoshis, but returning " + payment.amount);
+
+        List<Transfer> transfers = new ArrayList<>();
+        transfers.add(new Transfer(caller, integerValue(depositOf(loan)), null));
+        if (payment.amount != requiredAmount)
+            transfers.add(new Transfer(caller, payment.amount - requiredAmount, assetToken()));
+        return apply(closing(loan, 0, lendersProfit, true), transfers);
+    }
+
+    public ScriptResult closeExpiredFor(String caller, String loan) {
+        long endOfInterest = valueOrErrorMessage(getInteger(endOfInterestOf(loan)), "no end of interest");
+        if (height <= endOfInterest)
+            throw new ScriptError("Only expired rents can be closed by non-lender. Expiring on height "
+                    + endOfInterest + ", current height: " + height);
+        if (!isLendOpen(loan)) throw new ScriptError("the loan is already closed");
+        return closeExpired(loan);
+    }
+
+    public ScriptResult closeExpiredLoans(String caller, String loans) {
+        String[] list = loans.split("\\|", -1);
+        if (list.length > MAX_CLOSING_LOANS)
+            throw new ScriptError("at most " + MAX_CLOSING_LOANS + " loans per invocation");
+        // id, cohort, what the open, unclaimed and lost of the cohort and the unclaimed of the owner come to with the
+        // loan; the last first, after a run of no loan
+        List<long[]> runs = new ArrayList<>();
+        runs.add(new long[]{0, -1, 0, 0, 0, unclaimedFor_(ownerStr())});
+        for (String loan : list) {
+            long endOfInterest = integerOrZero(endOfInterestOf(loan));
+            Long id = parseInt(loan);
+            long[] last = runs.get(0);
+            if (id == null || endOfInterest == 0 || height <= endOfInterest || last[0] >= id) continue;
+            long cohort = integerValue(cohortOf(loan));
+            long lendersAmt = countSet(cohortFlags_(cohort));
+            long deposit = integerValue(depositOf(loan));
+            long wavesServicePart = fraction(deposit, serviceFeePercentile(), 10000);
+            boolean same = last[1] == cohort;
+            runs.add(0, new long[]{id, cohort,
+                    sub(same ? last[2] : integerValue(cohortOpen(cohort)), 1),
+                    add(same ? last[3] : integerOrZero(cohortUnclaimed(cohort)),
+                            lendersAmt > 0 ? div(sub(deposit, wavesServicePart), lendersAmt) : 0),
+                    add(same ? last[4] : integerOrZero(cohortLoss(cohort)),
+                            lendersAmt > 0 ? div(integerValue(lendOf(loan)), lendersAmt) : 0),
+                    add(last[5], wavesServicePart)});
+        }
+        int closed = runs.size() - 1;
+        if (closed == 0) throw new ScriptError("no expired loan to close");
+
+        List<Entry> data = new ArrayList<>();
+        data.add(Entry.integer(unclaimedFor(ownerStr()), runs.get(0)[5]));
+        for (int q = 0; q < closed; q++) {
+            long[] run = runs.get(q);
+            long cohort = run[1];
+            if (q == 0 || runs.get(q - 1)[1] != cohort)
+                data.addAll(0, Arrays.asList(
+                        Entry.integer(cohortOpen(cohort), run[2]),
+                        Entry.integer(cohortUnclaimed(cohort), run[3]),
+                        Entry.integer(cohortLoss(cohort), run[4])));
+            data.addAll(0, closedLoan(Long.toString(run[0])));
+        }
+        return apply(data, Collections.emptyList());
+    }
+
+    public ScriptResult discard(String caller, String loan) {
+        if (!renterOf_(loan).equals(caller)) throw new ScriptError("only renter can discard the loan");
+        return closeExpired(loan);
+    }
+
+    public ScriptResult sendProfit(String caller, String lender) {
+        if (!Address.isValid(lender, chainId)) throw new ScriptError("incorrect address");
+        return doTakeProfit(lender);
+    }
+
+    public ScriptResult takeProfit(String caller) {
+        return doTakeProfit(caller);
+    }
+
+    public ScriptResult settle(String caller, String lender, long cohort) {
+        long slot = slotOf_(lender);
+        long from = integerOrZero(settledCohortOf(lender));
+        if (!hasSlot(lenderFlags(), slot)) throw new ScriptError("is not lender");
+        if (cohort < from) throw new ScriptError("cohort " + cohort + " is settled");
+        if (cohort > cohortCount()) throw new ScriptError("no cohort " + cohort);
+        if (!isSet(cohortFlags_(cohort), slot)) {
+            if (cohort != from) throw new ScriptError("lender is not in cohort " + cohort);
+            return apply(Arrays.asList(Entry.integer(settledCohortOf(lender), cohort + 1)), Collections.emptyList());
+        }
+        long[] s = shares(lender, cohort);
+        boolean done = cohort == from && cohort < cohortCount() && integerOrZero(cohortOpen(cohort)) == 0;
+        List<Entry> data = new ArrayList<>(Arrays.asList(
+                Entry.integer(profitFor(lender), add(profitFor_(lender), s[0])),
+                Entry.integer(unclaimedFor(lender), add(unclaimedFor_(lender), s[1])),
+                Entry.integer(circulatingAssetsOf(lender), sub(integerValue(circulatingAssetsOf(lender)), s[2]))));
+        if (done) data.add(Entry.integer(settledCohortOf(lender), cohort + 1));
+        else data.addAll(Arrays.asList(
+                Entry.integer(settledProfit(cohort, lender), integerOrZero(cohortProfit(cohort))),
+                Entry.integer(settledUnclaimed(cohort, lender), integerOrZero(cohortUnclaimed(cohort))),
+                Entry.integer(settledLoss(cohort, lender), integerOrZero(cohortLoss(cohort)))));
+        return apply(data, Collections.emptyList());
+    }
+
+    public ScriptResult sendProfits(String caller, String accounts) {
+        String[] list = accounts.split("\\|", -1);
+        if (list.length > MAX_PAYOUTS) throw new ScriptError("at most " + MAX_PAYOUTS + " accounts per payout");
+        for (int k = 0; k < list.length; k++) {
+            if (!Address.isValid(list[k], chainId)) throw new ScriptError("incorrect address " + list[k]);
+            if (Arrays.asList(list).subList(k + 1, list.length).contains(list[k]))
+                throw new ScriptError("address " + list[k] + " is listed twice");
+        }
+        List<Entry> data = new ArrayList<>();
+        List<Transfer> transfers = new ArrayList<>();
+        for (String account : list) {
+            data.addAll(0, payoutEntries(account));
+            transfers.addAll(0, payoutTransfers(account));
+        }
+        return apply(data, transfers);
+    }
+
+    public ScriptResult enableLending(String caller, boolean b) {
+        String lender = caller;
+        long slot = slotOf_(lender);
+        boolean isLender = hasSlot(lenderFlags(), slot);
+        boolean isActiveLender = hasSlot(enabledLenderFlags(), slot);
+        if (!isLender) throw new ScriptError("is not lender");
+        String r;
+        if (isActiveLender) {
+            if (b) throw new ScriptError("is already active lender");
+            r = setFlag(enabledLenderFlags(), slot, "0");
+        } else {
+            if (!b) throw new ScriptError("is already disabled lender");
+            r = setFlag(enabledLenderFlags(), slot, "1");
+        }
+        boolean inPlace = cohortCount() > 0 && isSet(cohortFlags_(cohortCount()), slot) != b
+                && integerOrZero(cohortOpen(cohortCount())) == 0;
+        long from = integerOrZero(settledCohortOf(lender));
+        List<Entry> data = new ArrayList<>(Arrays.asList(Entry.string(ENABLED_LENDER_FLAGS, r)));
+        if (inPlace)
+            data.addAll(b ? joinLastCohort(lender, slot, Math.min(from, cohortCount())) : leaveLastCohort(lender, slot));
+        return apply(data, Collections.emptyList());
+    }
+
+    public ScriptResult depositBtc(String caller, Payment payment) {
+        String lender = caller;
+        int free = lenderFlags().indexOf('0');
+        long slot = free >= 0 ? free : lenderFlags().length();
+        if (!newDepositBtcEnabled()) throw new ScriptError("New deposits temporarily disabled");
+        if (slot >= MAX_LENDERS) throw new ScriptError("too much lenders already");
+        if (hasSlot(lenderFlags(), slotOf_(lender)))
+            throw new ScriptError("lender " + lender + " already participates in the dApp");
+        String errorMessage = "exactly" + valueOf(getInteger(LEND_SIZE)) + " BTC must be attached";
+        if (payment == null) throw new ScriptError(errorMessage);
+        if (!assetToken().equals(payment.asset) || payment.amount != lendSize()) throw new ScriptError(errorMessage);
+        long at = slot * ADDRESS_SIZE;
+        String enabled = setFlag(enabledLenderFlags(), slot, "1");
+        boolean inPlace = cohortCount() > 0 && integerOrZero(cohortOpen(cohortCount())) == 0;
+        List<Entry> data = new ArrayList<>(Arrays.asList(
+                Entry.integer(circulatingAssetsOf(lender), lendSize()),
+                Entry.integer(slotOf(lender), slot),
+                Entry.string(LENDER_ADDRESSES, take(lenderAddresses(), at) + lender + drop(lenderAddresses(), at + ADDRESS_SIZE)),
+                Entry.string(LENDER_FLAGS, setFlag(lenderFlags(), slot, "1")),
+                Entry.string(ENABLED_LENDER_FLAGS, enabled)));
+        if (inPlace) data.addAll(joinLastCohort(lender, slot, cohortCount()));
+        else data.addAll(Arrays.asList(
+                Entry.integer(COHORT_COUNT, cohortCount() + 1),
+                Entry.string(cohortFlags(cohortCount() + 1), enabled),
+                Entry.integer(settledCohortOf(lender), cohortCount() + 1)));
+        return apply(data, Collections.emptyList());
+    }
+
+    public ScriptResult withdrawBtc(String caller) {
+        String lender = caller;
+        long slot = slotOf_(lender);
+        long from = integerOrZero(settledCohortOf(lender));
+        boolean inFrom = from <= cohortCount() && isSet(cohortFlags_(from), slot);
+        long open = inFrom ? integerOrZero(cohortOpen(from)) : 0;
+        if (!hasSlot(lenderFlags(), slot)) throw new ScriptError("is not lender");
+        if (from < cohortCount() && open == 0)
+            throw new ScriptError("cohort " + from + " is not settled, invoke settle first");
+        if (open != 0)
+            throw new ScriptError("withdraw not allowed, you have open lends. invoke enableLending(false) and wait for loans to be closed");
+        long[] s = inFrom ? shares(lender, from) : new long[3];
+        List<Entry> data = new ArrayList<>(Arrays.asList(
+                Entry.integer(slotOf(lender), -1),
+                Entry.string(LENDER_FLAGS, setFlag(lenderFlags(), slot, "0")),
+                Entry.string(ENABLED_LENDER_FLAGS, setFlag(enabledLenderFlags(), slot, "0")),
+                Entry.integer(profitFor(lender), add(profitFor_(lender), s[0])),
+                Entry.integer(unclaimedFor(lender), add(unclaimedFor_(lender), s[1])),
+                Entry.integer(circulatingAssetsOf(lender), 0),
+                Entry.integer(settledCohortOf(lender), cohortCount() + 1)));
+        if (inFrom) data.add(Entry.string(cohortFlags(from), setFlag(cohortFlags_(from), slot, "0")));
+        return apply(data, Arrays.asList(new Transfer(caller, sub(integerValue(circulatingAssetsOf(lender)), s[2]), assetToken())));
+    }
+
+    public ScriptResult enableDepositBtc(String caller, boolean b) {
+        if (!caller.equals(owner())) throw new ScriptError("admin permissions required");
+        if (b == newDepositBtcEnabled()) throw new ScriptError("the value already set");
+        return apply(Arrays.asList(Entry.bool(ENABLE_DEPOSIT_BTC, b)), Collections.emptyList());
+    }
+
+    public ScriptResult enableNewLoans(String caller, boolean b) {
+        if (!caller.equals(owner())) throw new ScriptError("admin permissions required");
+        if (b == newLoansEnabled()) throw new ScriptError("the value already set");
+        return apply(Arrays.asList(Entry.bool(ENABLE_NEW_LOANS, b)), Collections.emptyList());
+    }
+
+    // script helpers
+
+    private ScriptResult closeExpired(String loan) {
+        long waves = integerValue(depositOf(loan));
+        long btc = integerValue(lendOf(loan));
+        return apply(closing(loan, waves, btc, false), Collections.emptyList());
+    }
+
+    private List<Entry> closedLoan(String loan) {
+        return new ArrayList<>(Arrays.asList(
+                Entry.integer(startOf(loan), 0),
+                Entry.integer(endOfGraceOf(loan), 0),
+                Entry.integer(endOfInterestOf(loan), 0),
+                Entry.integer(endOfBurndownOf(loan), 0),
+                Entry.integer(rateOf(loan), 0),
+                Entry.integer(depositOf(loan), 0),
+                Entry.integer(lendOf(loan), 0),
+                Entry.string(lenderFlagsOf(loan), ""),
+                Entry.string(renterOf(loan), ""),
+                Entry.integer(cohortOf(loan), 0)));
+    }
+
+    private List<Entry> closing(String loan, long waves, long btc, boolean isProfit) {
+        long cohort = integerValue(cohortOf(loan));
+        List<Entry> data = closedLoan(loan);
+        data.add(Entry.integer(cohortOpen(cohort), sub(integerValue(cohortOpen(cohort)), 1)));
+        data.addAll(isProfit ? profitDistribution(cohort, btc) : unclaimedDistribution(cohort, waves, btc));
+        return data;
+    }
+
+    private List<Entry> profitDistribution(long cohort, long btc) {
+        long servicePart = fraction(btc, serviceFeePercentile(), 100);
+        long distribute = btc - servicePart;
+        long lendersAmt = countSet(cohortFlags_(cohort));
+        long share = lendersAmt > 0 ? div(distribute, lendersAmt) : 0;
+        return Arrays.asList(
+                Entry.integer(cohortProfit(cohort), add(integerOrZero(cohortProfit(cohort)), share)),
+                Entry.integer(profitFor(ownerStr()), add(profitFor_(ownerStr()), servicePart)));
+    }
+
+    private List<Entry> unclaimedDistribution(long cohort, long waves, long btc) {
+        long wavesServicePart = fraction(waves, serviceFeePercentile(), 10000);
+        long wavesDistribute = waves - wavesServicePart;
+        long lendersAmt = countSet(cohortFlags_(cohort));
+        long share = lendersAmt > 0 ? div(wavesDistribute, lendersAmt) : 0;
+        long loss = lendersAmt > 0 ? div(btc, lendersAmt) : 0;
+        return Arrays.asList(
+                Entry.integer(cohortUnclaimed(cohort), add(integerOrZero(cohortUnclaimed(cohort)), share)),
+                Entry.integer(cohortLoss(cohort), add(integerOrZero(cohortLoss(cohort)), loss)),
+                Entry.integer(unclaimedFor(ownerStr()), add(unclaimedFor_(ownerStr()), wavesServicePart)));
+    }
+
+    /**
+     * The lender joins the last cohort, which has no open loans, with no share of what it gained so far.
+     */
+    private List<Entry> joinLastCohort(String lender, long slot, long from) {
+        long last = cohortCount();
+        return Arrays.asList(
+                Entry.string(cohortFlags(last), setFlag(cohortFlags_(last), slot, "1")),
+                Entry.integer(settledCohortOf(lender), from),
+                Entry.integer(settledProfit(last, lender), integerOrZero(cohortProfit(last))),
+                Entry.integer(settledUnclaimed(last, lender), integerOrZero(cohortUnclaimed(last))),
+                Entry.integer(settledLoss(last, lender), integerOrZero(cohortLoss(last))));
+    }
+
+    /**
+     * The lender leaves the last cohort, which has no open loans, and takes its shares of it.
+     */
+    private List<Entry> leaveLastCohort(String lender, long slot) {
+        long last = cohortCount();
+        long[] s = shares(lender, last);
+        return Arrays.asList(
+                Entry.string(cohortFlags(last), setFlag(cohortFlags_(last), slot, "0")),
+                Entry.integer(profitFor(lender), add(profitFor_(lender), s[0])),
+                Entry.integer(unclaimedFor(lender), add(unclaimedFor_(lender), s[1])),
+                Entry.integer(circulatingAssetsOf(lender), sub(integerValue(circulatingAssetsOf(lender)), s[2])));
+    }
+
+    /**
+     * The growth of the accumulators of the cohort since the lender's checkpoint: profit, unclaimed deposit and loss.
+     */
+    private long[] shares(String lender, long cohort) {
+        return new long[]{
+                sub(integerOrZero(cohortProfit(cohort)), integerOrZero(settledProfit(cohort, lender))),
+                sub(integerOrZero(cohortUnclaimed(cohort)), integerOrZero(settledUnclaimed(cohort, lender))),
+                sub(integerOrZero(cohortLoss(cohort)), integerOrZero(settledLoss(cohort, lender)))};
+    }
+
+    private List<Entry> payoutEntries(String account) {
+        return Arrays.asList(Entry.integer(profitFor(account), 0), Entry.integer(unclaimedFor(account), 0));
+    }
+
+    private List<Transfer> payoutTransfers(String account) {
+        long profit = profitFor_(account);
+        long unclaimed = unclaimedFor_(account);
+        List<Transfer> transfers = new ArrayList<>();
+        if (unclaimed > 0) transfers.add(new Transfer(account, unclaimed, null));
+        if (profit > 0) transfers.add(new Transfer(account, profit, assetToken()));
+        return transfers;
+    }
+
+    private ScriptResult doTakeProfit(String lender) {
+        List<Entry> data = Arrays.asList(Entry.integer(profitFor(lender), 0), Entry.integer(unclaimedFor(lender), 0));
+        List<Transfer> transfers = Arrays.asList(
+                new Transfer(lender, profitFor_(lender), assetToken()),
+                new Transfer(lender, unclaimedFor_(lender), null));
+        return apply(data, transfers);
+    }
+
+    static boolean isSet(String flags, long slot) {
+        return take(drop(flags, slot), 1).equals("1");
+    }
+
+    static boolean hasSlot(String flags, long slot) {
+        return slot >= 0 && isSet(flags, slot);
+    }
+
+    static String setFlag(String flags, long slot, String flag) {
+        return take(flags, slot) + flag + drop(flags, slot + 1);
+    }
+
+    static long countSet(String flags) {
+        return split(flags, "1").size() - 1;
+    }
+
+    // state accessors
+
+    private boolean isLendOpen(String loan) {
+        Long s = getInteger(startOf(loan));
+        return s != null && s > 0;
+    }
+
+    private String renterOf_(String loan) {
+        String r = getString(renterOf(loan));
+        return r == null ? loan : r;
+    }
+
+    private long loanCount() {
+        return integerOrZero(LOAN_COUNT);
+    }
+
+    private long cohortCount() {
+        return integerOrZero(COHORT_COUNT);
+    }
+
+    private String cohortFlags_(long cohort) {
+        String s = getString(cohortFlags(cohort));
+        return s == null ? "" : s;
+    }
+
+    private long profitFor_(String lender) {
+        Long i = getInteger(profitFor(lender));
+        return i == null ? 0 : i;
+    }
+
+    private long unclaimedFor_(String lender) {
+        Long i = getInteger(unclaimedFor(lender));
+        return i == null ? 0 : i;
+    }
+
+    private long lendSize() {
+        return mul(valueOrErrorMessage(getInteger(LEND_SIZE), "no lendSize"), TEN8);
+    }
+
+    private boolean newDepositBtcEnabled() {
+        Boolean b = getBoolean(ENABLE_DEPOSIT_BTC);
+        return b == null || b;
+    }
+
+    private boolean newLoansEnabled() {
+        Boolean b = getBoolean(ENABLE_NEW_LOANS);
+        return b == null || b;
+    }
+
+    private String lenderAddresses() {
+        String s = getString(LENDER_ADDRESSES);
+        return s == null ? "" : s;
+    }
+
+    private String lenderFlags() {
+        String s = getString(LENDER_FLAGS);
+        return s == null ? "" : s;
+    }
+
+    private String enabledLenderFlags() {
+        String s = getString(ENABLED_LENDER_FLAGS);
+        return s == null ? "" : s;
+    }
+
+    private long slotOf_(String lender) {
+        Long i = getInteger(slotOf(lender));
+        return i == null ? -1 : i;
+    }
+
+    private String ownerStr() {
+        return valueOrErrorMessage(getString(OWNER), "No owner");
+    }
+
+    private String owner() {
+        String owner = ownerStr();
+        if (!Address.isValid(owner, chainId)) throw new ScriptError("No owner");
+        return owner;
+    }
+
+    private String assetToken() {
+        return valueOrErrorMessage(getString(ASSET_TOKEN), "No assetId");
+    }
+
+    private long gracePeriod() {
+        return valueOrErrorMessage(getInteger(GRACE_PERIOD), "No grace period");
+    }
+
+    private long interestPeriod() {
+        return valueOrErrorMessage(getInteger(INTEREST_PERIOD), "No interest period");
+    }
+
+    private long burndownPeriod() {
+        return valueOrErrorMessage(getInteger(BURNDOWN_PERIOD), "No burndown period");
+    }
+
+    private long maxRate() {
+        return valueOrErrorMessage(getInteger(MAX_RATE), "No oracle max value");
+    }
+
+    private long oracleValue() {
+        String oracle = valueOrErrorMessage(getString(ORACLE), "No oracle");
+        if (!Address.isValid(oracle, chainId)) throw new ScriptError("bad oracle address");
+        return valueOrErrorMessage(oracleValues.get(oracle), "No oracle value");
+    }
+
+    private long discountPercentile() {
+        return valueOrErrorMessage(getInteger(DISCOUNT_PERCENTILE), "No discount percentile");
+    }
+
+    private long serviceFeePercentile() {
+        return valueOrErrorMessage(getInteger(SERVICE_FEE), "No service fee percentile");
+    }
+
+    private long rate() {
+        long oracleValue = oracleValue();
+        long maxRate = maxRate();
+        if (oracleValue > maxRate)
+            throw new ScriptError("Suspicious rate value: actual: " + oracleValue + ", max: " + maxRate);
+        return oracleValue;
+    }
+
+    private long minimalLendAmount() {
+        long divisor = mul(discountPercentile(), rate());
+        return add(div(100 * TEN8, divisor), Math.floorMod(100 * TEN8, divisor) > 0 ? 1 : 0);
+    }
+
+    private Long getInteger(String key) {
+        Object v = state.get(key);
+        return v instanceof Long ? (Long) v : null;
+    }
+
+    private String getString(String key) {
+        Object v = state.get(key);
+        return v instanceof String ? (String) v : null;
+    }
+
+    private Boolean getBoolean(String key) {
+        Object v = state.get(key);
+        return v instanceof Boolean ? (Boolean) v : null;
+    }
+
+    private long integerOrZero(String key) {
+        Long i = getInteger(key);
+        return i == null ? 0 : i;
+    }
+
+    private long integerValue(String key) {
+        return valueOf(getInteger(key));
+    }
+
+    private ScriptResult apply(List<Entry> data, List<Transfer> transfers) {
+        for (Entry e : data)
+            state.put(e.key, e.value);
+        return new ScriptResult(data, transfers);
+    }
+
+    // RIDE semantics
+
+    static <T> T valueOf(T value) {
+        if (value == null) throw new ScriptError("value() called on unit value");
+        return value;
+    }
+
+    static <T> T valueOrErrorMessage(T value, String message) {
+        if (value == null) throw new ScriptError(message);
+        return value;
+    }
+
+    /**
+     * {@code parseInt} of RIDE: unit for a string that is not a number.
+     */
+    static Long parseInt(String str) {
+        try {
+            return Long.parseLong(str);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@code split} of RIDE: an empty string gives one empty part.
+     */
+    static List<String> split(String str, String separator) {
+        List<String> parts = new ArrayList<>();
+        int from = 0;
+        for (int i = str.indexOf(separator); i >= 0; i = str.indexOf(separator, from)) {
+            parts.add(str.substring(from, i));
+            from = i + separator.length();
+        }
+        parts.add(str.substring(from));
+        return parts;
+    }
+
+    /** {@code take} of RIDE: a count out of the string's bounds is clamped. */
+    static String take(String str, long n) {
+        return str.substring(0, (int) Math.max(0, Math.min(n, str.length())));
+    }
+
+    static String drop(String str, long n) {
+        return str.substring((int) Math.max(0, Math.min(n, str.length())));
+    }
+
+    public static long fraction(long value, long numerator, long denominator) {
+        if (denominator == 0) throw new ScriptError("Fraction: division by zero");
+        BigInteger result = BigInteger.valueOf(value).multiply(BigInteger.valueOf(numerator))
+                .divide(BigInteger.valueOf(denominator));
+        if (result.bitLength() > 63) throw new ScriptError("Long overflow");
+        return result.longValue();
+    }
+
+    static long add(long a, long b) {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException e) {
+            throw new ScriptError("long overflow");
+        }
+    }
+
+    static long sub(long a, long b) {
+        try {
+            return Math.subtractExact(a, b);
+        } catch (ArithmeticException e) {
+            throw new ScriptError("long overflow");
+        }
+    }
+
+    static long mul(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            throw new ScriptError("long overflow");
+        }
+    }
+
+    static long div(long a, long b) {
+        if (b == 0) throw new ScriptError("/ by zero");
+        return Math.floorDiv(a, b);
+    }
+
+}
@@ -0,0 +1,29 @@
+package pawnshop;
+
+/**
+ * A payment attached to an invocation. {@code asset} is null for WAVES.
+ */
+public class Payment {
+
+    public final long amount;
+    public final String asset;
+
+    public Payment(long amount, String asset) {
+        this.amount = amount;
+        this.asset = asset;
+    }
+
+    public static Payment waves(long amount) {
+        return new Payment(amount, null);
+    }
+
+    public static Payment of(long amount, String asset) {
+        return new Payment(amount, asset);
+    }
+
+    @Override
+    public String toString() {
+        return amount + " " + (asset == null ? "WAVES" : asset);
+    }
+
+}
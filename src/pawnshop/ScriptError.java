@@ -0,0 +1,14 @@
+package pawnshop;
+
+/**
+ * Raised when an invocation is rejected by the script. The message is the one the script throws.
+ */
+public class ScriptError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ScriptError(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,24 @@
+package pawnshop;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Data entries and transfers produced by one invocation, in the order the script lists them.
+ */
+public class ScriptResult {
+
+    public final List<Entry> data;
+    public final List<Transfer> transfers;
+
+    public ScriptResult(List<Entry> data, List<Transfer> transfers) {
+        this.data = Collections.unmodifiableList(data);
+        this.transfers = Collections.unmodifiableList(transfers);
+    }
+
+    @Override
+    public String toString() {
+        return "data: " + data + ", transfers: " + transfers;
+    }
+
+}
@@ -0,0 +1,38 @@
+package pawnshop;
+
+import java.util.Objects;
+
+/**
+ * A script transfer from the dApp. {@code asset} is null for WAVES.
+ */
+public class Transfer {
+
+    public final String address;
+    public final long amount;
+    public final String asset;
+
+    public Transfer(String address, long amount, String asset) {
+        this.address = address;
+        this.amount = amount;
+        this.asset = asset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Transfer)) return false;
+        Transfer that = (Transfer) o;
+        return amount == that.amount && address.equals(that.address) && Objects.equals(asset, that.asset);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(address, amount, asset);
+    }
+
+    @Override
+    public String toString() {
+        return amount + " " + (asset == null ? "WAVES" : asset) + " -> " + address;
+    }
+
+}
@@ -0,0 +1,217 @@
+package pawnshop.backtest;
+
+import pawnshop.Address;
+import pawnshop.PawnshopEngine;
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.quote.BuyBackQuotes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static pawnshop.Keys.*;
+import static pawnshop.PawnshopEngine.TEN8;
+import static pawnshop.PawnshopEngine.fraction;
+
+/**
+ * Replays a history through {@link PawnshopEngine} initialized with another set of parameters.
+ * <p>
+ * Borrowers keep their recorded choices. A buyBack pays what the loan requires at its height, and a loan whose
+ * buyBack comes after its end of interest under the replayed windows is left to expire instead. A recorded expiry or
+ * a late buyBack closes the loan once it is expired in the replay, which with a longer interest period can be blocks
+ * after the recorded one, or at the end of the history. A borrow the replayed parameters reject drops its loan from
+ * the events after it. An event the script rejects otherwise, a buyBack by another account than the renter, is an
+ * error of the history.
+ * <p>
+ * Amounts are totals of the script's own integer math, before the per-lender rounding of the cohorts.
+ */
+public class Backtest {
+
+    private static final String DAPP = Address.of("backtest dApp", 'W');
+    private static final String OWNER = Address.of("backtest owner", 'W');
+    private static final String ORACLE = Address.of("backtest oracle", 'W');
+    private static final String BTC = Address.of("backtest WBTC", 'W');
+
+    /**
+     * Outcome of one replay. WBTC amounts are in satoshis, WAVES in wavelets.
+     */
+    public static class Result {
+        public final BacktestParams params;
+        public int borrows;
+        public int rejectedBorrows;
+        public int boughtBack;
+        public int discarded;
+        public int expired;
+        public int open;
+        /** WBTC the lenders deposited. */
+        public long deposited;
+        public long lent;
+        /** WBTC interest the lenders got from buyBacks, after the service fee. */
+        public long lenderProfit;
+        /** WAVES the lenders got from discarded and expired loans, after the service fee. */
+        public long lenderWaves;
+        /** {@link #lenderWaves} in WBTC at the oracle rate of each liquidation. */
+        public long lenderWavesInBtc;
+        /** WBTC lent on discarded and expired loans. */
+        public long lenderLoss;
+        public long ownerFeeBtc;
+        public long ownerFeeWaves;
+        /** WAVES deposits of discarded and expired loans. */
+        public long liquidatedWaves;
+
+        Result(BacktestParams params) {
+            this.params = params;
+        }
+
+        /**
+         * Profit and WAVES got by the lenders less their losses, as a share of what they deposited.
+         */
+        public double lenderYield() {
+            return deposited == 0 ? 0 : (double) (lenderProfit + lenderWavesInBtc - lenderLoss) / deposited;
+        }
+
+        @Override
+        public String toString() {
+            return params + ": " + borrows + " borrows (" + rejectedBorrows + " rejected), " + boughtBack
+                    + " bought back, " + discarded + " discarded, " + expired + " expired, " + open + " open; "
+                    + String.format("lender yield %.4f%%", lenderYield() * 100) + ", lender profit " + lenderProfit
+                    + ", lender WAVES " + lenderWaves + ", lender loss " + lenderLoss + ", owner fees "
+                    + ownerFeeBtc + " sat and " + ownerFeeWaves + " wavelets, liquidated " + liquidatedWaves
+                    + " wavelets";
+        }
+    }
+
+    private final List<HistoryEvent> history;
+    private final long maxRate;
+
+    public Backtest(List<HistoryEvent> history, long maxRate) {
+        this.history = history;
+        this.maxRate = maxRate;
+    }
+
+    public Result replay(BacktestParams params) {
+        return new Replay(params).run();
+    }
+
+    private class Replay {
+        final BacktestParams params;
+        final Result result;
+        final PawnshopEngine engine;
+        final Map<String, String> loans = new HashMap<>();
+        final Set<String> expiring = new LinkedHashSet<>();
+        long rate;
+
+        Replay(BacktestParams params) {
+            this.params = params;
+            this.result = new Result(params);
+            this.engine = new PawnshopEngine(DAPP, history.isEmpty() ? 1 : history.get(0).height);
+            engine.init(DAPP, OWNER, BTC, ORACLE, maxRate, params.discount, params.grace, params.interest,
+                    params.burndown, params.serviceFee, params.lendSize);
+        }
+
+        Result run() {
+            for (HistoryEvent event : history) {
+                engine.setHeight(event.height);
+                closeExpired(event.height);
+                apply(event);
+            }
+            for (String loan : new ArrayList<>(expiring)) {
+                long end = integer(endOfInterestOf(loan));
+                engine.setHeight((int) Math.max(engine.height(), end + 1));
+                close(loan, false);
+            }
+            for (String loan : loans.values())
+                if (integer(startOf(loan)) > 0) result.open++;
+            return result;
+        }
+
+        void apply(HistoryEvent event) {
+            String loan = event.loan == null ? null : loans.get(event.loan);
+            switch (event.kind) {
+                case ORACLE:
+                    rate = event.amount;
+                    engine.postOracle(ORACLE, rate);
+                    break;
+                case DEPOSIT:
+                    try {
+                        engine.depositBtc(event.account, Payment.of(params.lendSize * TEN8, BTC));
+                        result.deposited += params.lendSize * TEN8;
+                    } catch (ScriptError e) {
+                        // a lender that already joins or one over the limit
+                    }
+                    break;
+                case BORROW:
+                    String id = String.valueOf(integer(LOAN_COUNT) + 1);
+                    try {
+                        engine.borrow(event.account, Payment.waves(event.amount));
+                    } catch (ScriptError e) {
+                        result.rejectedBorrows++;
+                        break;
+                    }
+                    loans.put(event.loan, id);
+                    result.borrows++;
+                    result.lent += integer(lendOf(id));
+                    break;
+                case BUY_BACK:
+                    if (loan == null || integer(startOf(loan)) == 0) break;
+                    long lend = integer(lendOf(loan));
+                    long required = BuyBackQuotes.quote(lend, integer(endOfGraceOf(loan)),
+                            integer(endOfInterestOf(loan)), integer(endOfBurndownOf(loan)), event.height);
+                    if (required < 0) {
+                        expiring.add(loan);
+                        break;
+                    }
+                    try {
+                        engine.buyBack(event.account, loan, Payment.of(required, BTC));
+                    } catch (ScriptError e) {
+                        throw new IllegalArgumentException("Can't replay " + event + ": " + e.getMessage(), e);
+                    }
+                    long fee = fraction(required - lend, params.serviceFee, 100);
+                    result.boughtBack++;
+                    result.ownerFeeBtc += fee;
+                    result.lenderProfit += required - lend - fee;
+                    break;
+                case DISCARD:
+                    if (loan == null || integer(startOf(loan)) == 0) break;
+                    close(loan, true);
+                    break;
+                case CLOSE_EXPIRED:
+                    if (loan == null || integer(startOf(loan)) == 0) break;
+                    expiring.add(loan);
+                    closeExpired(event.height);
+                    break;
+            }
+        }
+
+        void closeExpired(int height) {
+            for (String loan : new ArrayList<>(expiring))
+                if (height > integer(endOfInterestOf(loan))) close(loan, false);
+        }
+
+        void close(String loan, boolean discard) {
+            long waves = integer(depositOf(loan));
+            long lend = integer(lendOf(loan));
+            if (discard) engine.discard((String) engine.get(renterOf(loan)), loan);
+            else engine.closeExpiredFor(OWNER, loan);
+            expiring.remove(loan);
+            long fee = fraction(waves, params.serviceFee, 10000);
+            if (discard) result.discarded++;
+            else result.expired++;
+            result.ownerFeeWaves += fee;
+            result.lenderWaves += waves - fee;
+            result.lenderWavesInBtc += fraction(waves - fee, rate, TEN8);
+            result.lenderLoss += lend;
+            result.liquidatedWaves += waves;
+        }
+
+        long integer(String key) {
+            Object value = engine.get(key);
+            return value instanceof Long ? (Long) value : 0;
+        }
+    }
+
+}
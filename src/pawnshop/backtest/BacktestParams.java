@@ -0,0 +1,52 @@
+package pawnshop.backtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parameters {@code updateParams} sets besides the oracle and the max rate.
+ */
+public final class BacktestParams {
+
+    public final long discount;
+    public final long grace;
+    public final long interest;
+    public final long burndown;
+    public final long serviceFee;
+    public final long lendSize;
+
+    public BacktestParams(long discount, long grace, long interest, long burndown, long serviceFee, long lendSize) {
+        this.discount = discount;
+        this.grace = grace;
+        this.interest = interest;
+        this.burndown = burndown;
+        this.serviceFee = serviceFee;
+        this.lendSize = lendSize;
+    }
+
+    /**
+     * Every combination of the values, leaving out those the script rejects with an interest longer than the
+     * burndown.
+     */
+    public static List<BacktestParams> grid(long[] discounts, long[] graces, long[] interests, long[] burndowns,
+                                            long[] serviceFees, long[] lendSizes) {
+        List<BacktestParams> grid = new ArrayList<>();
+        for (long discount : discounts)
+            for (long grace : graces)
+                for (long interest : interests)
+                    for (long burndown : burndowns)
+                        for (long serviceFee : serviceFees)
+                            for (long lendSize : lendSizes)
+                                if (interest <= burndown)
+                                    grid.add(new BacktestParams(discount, grace, interest, burndown, serviceFee,
+                                            lendSize));
+        return grid;
+    }
+
+    @Override
+    public String toString() {
+        return "discount " + discount + ", grace " + grace + ", interest " + interest + ", burndown " + burndown
+                + ", service fee " + serviceFee + ", lend size " + lendSize;
+    }
+
+}
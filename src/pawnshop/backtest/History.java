@@ -0,0 +1,62 @@
+package pawnshop.backtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads and writes a history as NDJSON, a {@link HistoryEvent} per line, in the order of heights.
+ */
+public class History {
+
+    private History() {
+    }
+
+    public static List<HistoryEvent> read(Path path) {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Events of the lines, blank lines skipped.
+     *
+     * @throws IllegalArgumentException if an event is lower than the one before it
+     */
+    public static List<HistoryEvent> read(BufferedReader reader) throws IOException {
+        List<HistoryEvent> events = new ArrayList<>();
+        int line = 0;
+        for (String s = reader.readLine(); s != null; s = reader.readLine()) {
+            line++;
+            if (s.trim().isEmpty()) continue;
+            HistoryEvent event = HistoryEvent.parse(s);
+            if (!events.isEmpty() && event.height < events.get(events.size() - 1).height)
+                throw new IllegalArgumentException("Line " + line + " goes back to height " + event.height);
+            events.add(event);
+        }
+        return Collections.unmodifiableList(events);
+    }
+
+    public static void write(Path path, List<HistoryEvent> events) {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(writer, events);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void write(Writer writer, List<HistoryEvent> events) throws IOException {
+        for (HistoryEvent event : events)
+            writer.write(event.toJson() + "\n");
+    }
+
+}
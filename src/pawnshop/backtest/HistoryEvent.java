@@ -0,0 +1,103 @@
+package pawnshop.backtest;
+
+import pawnshop.node.Json;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One recorded event of the dApp: an oracle post, a lender joining, or a borrow, buyBack, discard or expiry of a
+ * loan. Loans are named by their recorded id; a replay numbers them again since another set of parameters can reject
+ * some borrows.
+ * <p>
+ * A history is stored as NDJSON, an event per line:
+ * <pre>
+ * {"height":100,"kind":"oracle","amount":10000}
+ * {"height":100,"kind":"deposit","account":"3P..."}
+ * {"height":101,"kind":"borrow","account":"3P...","loan":"1","amount":1000000000000}
+ * {"height":150,"kind":"buyBack","account":"3P...","loan":"1"}
+ * </pre>
+ * The amount of a borrow is its WAVES payment, of an oracle post the rate. A buyBack pays what the loan requires at
+ * the height of the replay, the recorded payment is not kept.
+ */
+public final class HistoryEvent {
+
+    public enum Kind {
+        ORACLE("oracle"), DEPOSIT("deposit"), BORROW("borrow"), BUY_BACK("buyBack"), DISCARD("discard"),
+        CLOSE_EXPIRED("closeExpired");
+
+        final String json;
+
+        Kind(String json) {
+            this.json = json;
+        }
+
+        static Kind of(String json) {
+            for (Kind kind : values())
+                if (kind.json.equals(json)) return kind;
+            throw new IllegalArgumentException("Unknown event kind " + json);
+        }
+    }
+
+    public final int height;
+    public final Kind kind;
+    public final String account;
+    public final String loan;
+    public final long amount;
+
+    public HistoryEvent(int height, Kind kind, String account, String loan, long amount) {
+        this.height = height;
+        this.kind = kind;
+        this.account = account;
+        this.loan = loan;
+        this.amount = amount;
+    }
+
+    public static HistoryEvent oracle(int height, long rate) {
+        return new HistoryEvent(height, Kind.ORACLE, null, null, rate);
+    }
+
+    public static HistoryEvent deposit(int height, String lender) {
+        return new HistoryEvent(height, Kind.DEPOSIT, lender, null, 0);
+    }
+
+    public static HistoryEvent borrow(int height, String renter, String loan, long waves) {
+        return new HistoryEvent(height, Kind.BORROW, renter, loan, waves);
+    }
+
+    public static HistoryEvent buyBack(int height, String renter, String loan) {
+        return new HistoryEvent(height, Kind.BUY_BACK, renter, loan, 0);
+    }
+
+    public static HistoryEvent discard(int height, String renter, String loan) {
+        return new HistoryEvent(height, Kind.DISCARD, renter, loan, 0);
+    }
+
+    public static HistoryEvent closeExpired(int height, String loan) {
+        return new HistoryEvent(height, Kind.CLOSE_EXPIRED, null, loan, 0);
+    }
+
+    public static HistoryEvent parse(String line) {
+        Map<?, ?> json = (Map<?, ?>) Json.parse(line);
+        Object amount = json.get("amount");
+        return new HistoryEvent(((Number) json.get("height")).intValue(), Kind.of((String) json.get("kind")),
+                (String) json.get("account"), (String) json.get("loan"),
+                amount == null ? 0 : ((Number) amount).longValue());
+    }
+
+    public String toJson() {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("height", height);
+        json.put("kind", kind.json);
+        if (account != null) json.put("account", account);
+        if (loan != null) json.put("loan", loan);
+        if (amount != 0) json.put("amount", amount);
+        return Json.write(json);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+}
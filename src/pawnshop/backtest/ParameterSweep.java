@@ -0,0 +1,101 @@
+package pawnshop.backtest;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays a history with every combination of a parameter grid, in parallel on a fork/join pool. Each replay runs
+ * on its own engine, the history is shared read-only.
+ * <pre>
+ * java -cp &lt;classes&gt; pawnshop.backtest.ParameterSweep history.ndjson maxRate=20000 discount=60,70,80 \
+ *     grace=1440 interest=21600,43200 burndown=1440000 serviceFee=5,10 lendSize=10
+ * </pre>
+ * A parameter left out takes the value {@code scripts/update-params.js} sets.
+ */
+public class ParameterSweep {
+
+    private final Backtest backtest;
+    private final int parallelism;
+
+    public ParameterSweep(Backtest backtest, int parallelism) {
+        this.backtest = backtest;
+        this.parallelism = parallelism;
+    }
+
+    public ParameterSweep(Backtest backtest) {
+        this(backtest, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Results in the order of the grid.
+     */
+    public List<Backtest.Result> run(List<BacktestParams> grid) {
+        Backtest.Result[] results = new Backtest.Result[grid.size()];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Slice(grid, results, 0, grid.size()));
+        } finally {
+            pool.shutdownNow();
+        }
+        return Arrays.asList(results);
+    }
+
+    private class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final List<BacktestParams> grid;
+        final Backtest.Result[] results;
+        final int from;
+        final int to;
+
+        Slice(List<BacktestParams> grid, Backtest.Result[] results, int from, int to) {
+            this.grid = grid;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) results[from] = backtest.replay(grid.get(from));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Slice(grid, results, from, middle), new Slice(grid, results, middle, to));
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: ParameterSweep <history.ndjson> [name=value,value...]...");
+            System.exit(2);
+        }
+        Map<String, long[]> values = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            values.put(option[0], Arrays.stream(option[1].split(",")).mapToLong(Long::parseLong).toArray());
+        }
+        List<HistoryEvent> history = History.read(Paths.get(args[0]));
+        List<BacktestParams> grid = BacktestParams.grid(
+                values.getOrDefault("discount", new long[]{80}),
+                values.getOrDefault("grace", new long[]{1440}),
+                values.getOrDefault("interest", new long[]{43200}),
+                values.getOrDefault("burndown", new long[]{1440000}),
+                values.getOrDefault("serviceFee", new long[]{10}),
+                values.getOrDefault("lendSize", new long[]{10}));
+        long maxRate = values.getOrDefault("maxRate", new long[]{20000})[0];
+        long start = System.nanoTime();
+        List<Backtest.Result> results = new ParameterSweep(new Backtest(history, maxRate)).run(grid);
+        for (Backtest.Result result : results)
+            System.out.println(result);
+        System.out.printf("%d events replayed with %d combinations in %d ms%n", history.size(), grid.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+}
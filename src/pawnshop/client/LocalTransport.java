@@ -0,0 +1,50 @@
+package pawnshop.client;
+
+import pawnshop.Payment;
+import pawnshop.ride.LocalNode;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Transport} over a {@link LocalNode}, which applies an invocation when it is broadcast. The invocation is
+ * confirmed once the node has mined its block.
+ */
+public class LocalTransport implements Transport {
+
+    private final LocalNode node;
+    private final Map<String, LocalNode.LocalTx> sent = new ConcurrentHashMap<>();
+
+    public LocalTransport(LocalNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public int height() {
+        return node.height();
+    }
+
+    @Override
+    public String broadcast(String sender, String dApp, String function, List<Object> args, Payment payment) {
+        LocalNode.LocalTx tx = node.invoke(sender, dApp, function, args, payment);
+        sent.put(tx.id, tx);
+        return tx.id;
+    }
+
+    @Override
+    public Map<String, Outcome> confirmed(Collection<String> ids) {
+        int height = node.height();
+        Map<String, Outcome> confirmed = new HashMap<>();
+        for (String id : ids) {
+            LocalNode.LocalTx tx = sent.get(id);
+            if (tx == null || tx.height >= height) continue;
+            sent.remove(id);
+            confirmed.put(id, new Outcome(id, tx.height, tx.stateChanges));
+        }
+        return confirmed;
+    }
+
+}
@@ -0,0 +1,63 @@
+package pawnshop.client;
+
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.node.NodeHttp;
+import pawnshop.node.NodeInvocationFeed;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Transport} over the REST API of a node. Transactions are signed by the {@link Signer} and sent to
+ * {@code /transactions/broadcast}; confirmations of many of them are asked with one {@code /transactions/status}
+ * request, and the state changes are read for the confirmed ones only.
+ */
+public class NodeTransport implements Transport {
+
+    private final NodeHttp http;
+    private final Signer signer;
+
+    public NodeTransport(NodeHttp http, Signer signer) {
+        this.http = http;
+        this.signer = signer;
+    }
+
+    @Override
+    public int height() {
+        return http.height();
+    }
+
+    @Override
+    public String broadcast(String sender, String dApp, String function, List<Object> args, Payment payment) {
+        Map<String, Object> tx = signer.signInvoke(sender, dApp, function, args, payment);
+        try {
+            return (String) ((Map<?, ?>) http.post("/transactions/broadcast", tx)).get("id");
+        } catch (NodeHttp.NodeHttpError e) {
+            if (e.getMessage() != null && e.getMessage().contains("Error while executing account-script"))
+                throw new ScriptError(e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, Outcome> confirmed(Collection<String> ids) {
+        Map<String, Outcome> confirmed = new HashMap<>();
+        if (ids.isEmpty()) return confirmed;
+        Object statuses = http.post("/transactions/status", Collections.singletonMap("ids", new ArrayList<>(ids)));
+        for (Object o : (List<?>) statuses) {
+            Map<?, ?> status = (Map<?, ?>) o;
+            if (!"confirmed".equals(status.get("status"))) continue;
+            String id = (String) status.get("id");
+            Map<?, ?> info = (Map<?, ?>) http.get("/debug/stateChanges/info/" + id);
+            confirmed.put(id, new Outcome(id, ((Number) status.get("height")).intValue(),
+                    NodeInvocationFeed.scriptResult((Map<?, ?>) info.get("stateChanges"))));
+        }
+        return confirmed;
+    }
+
+}
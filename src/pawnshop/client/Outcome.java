@@ -0,0 +1,38 @@
+package pawnshop.client;
+
+import pawnshop.ScriptResult;
+import pawnshop.state.DecodedChanges;
+import pawnshop.state.Loan;
+
+/**
+ * A confirmed invocation: its transaction, the height of its block and its decoded state changes.
+ */
+public class Outcome {
+
+    public final String id;
+    public final int height;
+    public final ScriptResult result;
+    public final DecodedChanges changes;
+
+    public Outcome(String id, int height, ScriptResult result) {
+        this.id = id;
+        this.height = height;
+        this.result = result;
+        this.changes = DecodedChanges.of(result);
+    }
+
+    /**
+     * The loan the invocation opened or closed, or null if it touched none.
+     */
+    public Loan loan() {
+        String borrowed = changes.borrowedLoan();
+        if (borrowed != null && changes.loan(borrowed) != null) return changes.loan(borrowed);
+        return changes.loans().values().stream().findFirst().orElse(null);
+    }
+
+    @Override
+    public String toString() {
+        return "Outcome of " + id + " at " + height + ": " + result;
+    }
+
+}
@@ -0,0 +1,219 @@
+package pawnshop.client;
+
+import pawnshop.Payment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Invokes the callables of the dApp without a thread waiting for each transaction.
+ * <p>
+ * Every call returns at once with a future of the {@link Outcome}. Up to {@code parallelism} invocations are signed
+ * and broadcast at the same time; an invocation the node rejects fails its future with the error, a
+ * {@link pawnshop.ScriptError} if the script rejected it. A single poller checks the height every
+ * {@code pollMillis} and, once per new block, asks the transport which of the pending transactions are confirmed, up
+ * to {@link #MAX_IDS_PER_REQUEST} at a time. A transaction not confirmed within {@code maxBlocks} fails.
+ * <p>
+ * Invocations of one account are not ordered: an invocation that needs another one confirmed, a buyBack of a loan
+ * still being borrowed, is chained on its future.
+ */
+public class PawnshopClient implements AutoCloseable {
+
+    public static final int MAX_IDS_PER_REQUEST = 1000;
+
+    private static class Pending {
+        final CompletableFuture<Outcome> future;
+        final int height;
+
+        Pending(CompletableFuture<Outcome> future, int height) {
+            this.future = future;
+            this.height = height;
+        }
+    }
+
+    private final Transport transport;
+    private final String dApp;
+    private final String btcId;
+    private final int maxBlocks;
+    private final ExecutorService signers;
+    private final ScheduledExecutorService poller;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger confirmationRequests = new AtomicInteger();
+    private volatile int height;
+    private volatile boolean closed;
+
+    public PawnshopClient(Transport transport, String dApp, String btcId, int parallelism, long pollMillis,
+                          int maxBlocks) {
+        this.transport = transport;
+        this.dApp = dApp;
+        this.btcId = btcId;
+        this.maxBlocks = maxBlocks;
+        this.height = transport.height();
+        AtomicInteger n = new AtomicInteger();
+        this.signers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "pawnshop-client-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pawnshop-client-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public PawnshopClient(Transport transport, String dApp, String btcId) {
+        this(transport, dApp, btcId, 16, 1000, 20);
+    }
+
+    public CompletableFuture<Outcome> borrow(String sender, long waves) {
+        return invoke(sender, "borrow", Collections.emptyList(), Payment.waves(waves));
+    }
+
+    public CompletableFuture<Outcome> buyBack(String sender, String loan, long btc) {
+        return invoke(sender, "buyBack", Collections.singletonList(loan), Payment.of(btc, btcId));
+    }
+
+    public CompletableFuture<Outcome> discard(String sender, String loan) {
+        return invoke(sender, "discard", Collections.singletonList(loan), null);
+    }
+
+    public CompletableFuture<Outcome> closeExpiredFor(String sender, String loan) {
+        return invoke(sender, "closeExpiredFor", Collections.singletonList(loan), null);
+    }
+
+    public CompletableFuture<Outcome> closeExpiredLoans(String sender, List<String> loans) {
+        return invoke(sender, "closeExpiredLoans", Collections.singletonList(String.join("|", loans)), null);
+    }
+
+    public CompletableFuture<Outcome> sendProfit(String sender, String account) {
+        return invoke(sender, "sendProfit", Collections.singletonList(account), null);
+    }
+
+    public CompletableFuture<Outcome> sendProfits(String sender, List<String> accounts) {
+        return invoke(sender, "sendProfits", Collections.singletonList(String.join("|", accounts)), null);
+    }
+
+    public CompletableFuture<Outcome> takeProfit(String sender) {
+        return invoke(sender, "takeProfit", Collections.emptyList(), null);
+    }
+
+    public CompletableFuture<Outcome> depositBtc(String sender, long btc) {
+        return invoke(sender, "depositBtc", Collections.emptyList(), Payment.of(btc, btcId));
+    }
+
+    public CompletableFuture<Outcome> withdrawBtc(String sender) {
+        return invoke(sender, "withdrawBtc", Collections.emptyList(), null);
+    }
+
+    public CompletableFuture<Outcome> enableLending(String sender, boolean enabled) {
+        return invoke(sender, "enableLending", Collections.singletonList(enabled), null);
+    }
+
+    public CompletableFuture<Outcome> enableDepositBtc(String sender, boolean enabled) {
+        return invoke(sender, "enableDepositBtc", Collections.singletonList(enabled), null);
+    }
+
+    public CompletableFuture<Outcome> enableNewLoans(String sender, boolean enabled) {
+        return invoke(sender, "enableNewLoans", Collections.singletonList(enabled), null);
+    }
+
+    public CompletableFuture<Outcome> updateParams(String sender, String oracle, long maxRate, long discount,
+                                                   long grace, long interest, long burndown, long serviceFee,
+                                                   long lendSize) {
+        return invoke(sender, "updateParams", Arrays.asList(oracle, maxRate, discount, grace, interest, burndown,
+                serviceFee, lendSize), null);
+    }
+
+    /**
+     * Signs and broadcasts the invocation on one of the signing threads.
+     */
+    public CompletableFuture<Outcome> invoke(String sender, String function, List<Object> args, Payment payment) {
+        CompletableFuture<Outcome> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("The client is closed"));
+            return future;
+        }
+        signers.execute(() -> {
+            try {
+                String id = transport.broadcast(sender, dApp, function, args, payment);
+                pending.put(id, new Pending(future, height));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Transactions broadcast and not confirmed yet.
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Number of confirmation requests sent to the transport.
+     */
+    public int confirmationRequests() {
+        return confirmationRequests.get();
+    }
+
+    private void poll() {
+        try {
+            int current = transport.height();
+            if (current == height) return;
+            height = current;
+            List<String> ids = new ArrayList<>(pending.keySet());
+            for (int from = 0; from < ids.size(); from += MAX_IDS_PER_REQUEST) {
+                List<String> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_REQUEST));
+                Map<String, Outcome> confirmed = transport.confirmed(chunk);
+                confirmationRequests.incrementAndGet();
+                for (String id : chunk) {
+                    Outcome outcome = confirmed.get(id);
+                    Pending p = pending.get(id);
+                    if (p == null) continue;
+                    if (outcome != null) {
+                        pending.remove(id);
+                        p.future.complete(outcome);
+                    } else if (current - p.height > maxBlocks) {
+                        pending.remove(id);
+                        p.future.completeExceptionally(new IllegalStateException(
+                                "Transaction " + id + " is not confirmed in " + maxBlocks + " blocks"));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // the node is unreachable, the next poll asks again
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        signers.shutdown();
+        try {
+            signers.awaitTermination(1, TimeUnit.MINUTES);
+            poller.shutdownNow();
+            poller.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            poller.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (Pending p : pending.values())
+            p.future.completeExceptionally(new IllegalStateException("The client is closed"));
+        pending.clear();
+    }
+
+}
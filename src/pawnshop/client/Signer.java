@@ -0,0 +1,20 @@
+package pawnshop.client;
+
+import pawnshop.Payment;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs invoke script transactions of the accounts it holds the keys of.
+ */
+public interface Signer {
+
+    /**
+     * The signed transaction as the JSON the node broadcasts.
+     *
+     * @throws IllegalArgumentException if the signer has no key of the sender
+     */
+    Map<String, Object> signInvoke(String sender, String dApp, String function, List<Object> args, Payment payment);
+
+}
@@ -0,0 +1,30 @@
+package pawnshop.client;
+
+import pawnshop.Payment;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where {@link PawnshopClient} sends invocations. Broadcasting returns as soon as the node has taken the transaction,
+ * confirmations are asked for many transactions at once.
+ */
+public interface Transport {
+
+    int height();
+
+    /**
+     * Signs the invocation by the sender and broadcasts it.
+     *
+     * @return the id of the transaction
+     * @throws pawnshop.ScriptError if the script rejected the invocation
+     */
+    String broadcast(String sender, String dApp, String function, List<Object> args, Payment payment);
+
+    /**
+     * The transactions among the ids that are in a block, by id.
+     */
+    Map<String, Outcome> confirmed(Collection<String> ids);
+
+}
@@ -0,0 +1,252 @@
+package pawnshop.complexity;
+
+import pawnshop.Keys;
+import pawnshop.PawnshopEngine;
+import pawnshop.node.NodeHttp;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+import pawnshop.ride.LocalNode.LocalTx;
+import pawnshop.ride.RideScript;
+import pawnshop.state.DecodedChanges;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static pawnshop.PawnshopEngine.TEN8;
+
+/**
+ * Complexity of every call path of the pawnshop script for each number of enabled lenders.
+ * <p>
+ * For every lender count a fresh {@link LocalNode} gets that many lenders, then each path is invoked and the
+ * complexity of what the evaluation actually ran is recorded. Next to the paths the report holds the static
+ * estimate of each callable, the worst case over all branches with every {@code FOLD} at its limit, which is what
+ * the node checks against {@link RideScript#MAX_CALLABLE_COMPLEXITY} when the script is set. The estimates come from
+ * the node through {@link NodeEstimator} when one is given; otherwise from {@link RideScript#estimate()}, an
+ * approximation of the node's costs that is not calibrated against it, and the report says which. The complexity of
+ * the paths is always the local approximation.
+ */
+public class ComplexityProfiler {
+
+    public static final String BORROW = "borrow";
+    public static final String BUY_BACK_IN_GRACE = "buyBack in grace";
+    public static final String BUY_BACK_WITH_INTEREST = "buyBack with interest";
+    public static final String DISCARD = "discard";
+    public static final String CLOSE_EXPIRED_FOR = "closeExpiredFor";
+    public static final String CLOSE_EXPIRED_LOANS = "closeExpiredLoans";
+    public static final String DEPOSIT_BTC = "depositBtc";
+    public static final String DISABLE_LENDING = "enableLending(false)";
+    public static final String ENABLE_LENDING = "enableLending(true)";
+    public static final String TAKE_PROFIT = "takeProfit";
+    public static final String SETTLE = "settle";
+    public static final String SEND_PROFITS = "sendProfits";
+    public static final String WITHDRAW_BTC = "withdrawBtc";
+    public static final String UPDATE_PARAMS = "updateParams";
+
+    static final long GRACE = 2, INTEREST = 3, BURNDOWN = 6;
+    static final String APPROXIMATE = "approximate local estimate (uncalibrated)";
+    /** Loans closed together by closeExpiredLoans and lenders paid out with the owner by sendProfits, as many as fit. */
+    static final int CLOSING_LOANS = PawnshopEngine.MAX_CLOSING_LOANS, PAYEES = PawnshopEngine.MAX_PAYOUTS - 1;
+
+    public static class Report {
+        /** Complexity per path and lender count. */
+        public final Map<String, Map<Integer, Long>> paths;
+        /** Static estimate per callable. */
+        public final Map<String, Long> estimates;
+        /** Whether the estimates are the node's rather than the local approximation. */
+        public final boolean nodeEstimates;
+
+        Report(Map<String, Map<Integer, Long>> paths, Map<String, Long> estimates, boolean nodeEstimates) {
+            this.paths = Collections.unmodifiableMap(paths);
+            this.estimates = Collections.unmodifiableMap(estimates);
+            this.nodeEstimates = nodeEstimates;
+        }
+
+        public long max(String path) {
+            return Collections.max(paths.get(path).values());
+        }
+
+        /**
+         * Share of {@link RideScript#MAX_CALLABLE_COMPLEXITY} the path uses at its most expensive lender count.
+         */
+        public double usage(String path) {
+            return (double) max(path) / RideScript.MAX_CALLABLE_COMPLEXITY;
+        }
+
+        /**
+         * The most lenders the path runs with under the limit, or -1 if it exceeds it with none.
+         */
+        public int maxLenders(String path) {
+            int result = -1;
+            for (Map.Entry<Integer, Long> e : new TreeMap<>(paths.get(path)).entrySet()) {
+                if (e.getValue() > RideScript.MAX_CALLABLE_COMPLEXITY) break;
+                result = e.getKey();
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder(String.format("evaluated complexity, %s%n", APPROXIMATE));
+            s.append(String.format("%-24s", "lenders"));
+            List<Integer> counts = new ArrayList<>(new TreeMap<>(paths.values().iterator().next()).keySet());
+            for (int n : counts)
+                s.append(String.format("%6d", n));
+            s.append(String.format("%8s%n", "limit"));
+            paths.forEach((path, values) -> {
+                s.append(String.format("%-24s", path));
+                for (int n : counts)
+                    s.append(values.containsKey(n) ? String.format("%6d", values.get(n)) : String.format("%6s", "-"));
+                s.append(String.format("%7.0f%%%n", usage(path) * 100));
+            });
+            s.append(String.format("%nstatic estimate, %s, limit %d%n", nodeEstimates ? "node" : APPROXIMATE,
+                    RideScript.MAX_CALLABLE_COMPLEXITY));
+            estimates.forEach((callable, estimate) -> s.append(String.format("%-24s%6d%7.0f%%%n", callable, estimate,
+                    100.0 * estimate / RideScript.MAX_CALLABLE_COMPLEXITY)));
+            return s.toString();
+        }
+    }
+
+    private final RideScript script;
+    private final Map<String, Long> estimates;
+    private final boolean nodeEstimates;
+
+    public ComplexityProfiler(RideScript script) {
+        this(script, script.estimate(), false);
+    }
+
+    /**
+     * A profiler reporting the estimates of the node, as {@link NodeEstimator} returns them.
+     */
+    public ComplexityProfiler(RideScript script, Map<String, Long> nodeEstimates) {
+        this(script, nodeEstimates, true);
+    }
+
+    private ComplexityProfiler(RideScript script, Map<String, Long> estimates, boolean nodeEstimates) {
+        this.script = script;
+        this.estimates = estimates;
+        this.nodeEstimates = nodeEstimates;
+    }
+
+    /**
+     * Arguments: the script, {@code ride/pawnshop_wbtc.ride} by default, and the URL of a node to take the estimates
+     * from.
+     */
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : "ride/pawnshop_wbtc.ride";
+        String source = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        RideScript script = RideScript.parse(source);
+        ComplexityProfiler profiler = args.length > 1
+                ? new ComplexityProfiler(script, new NodeEstimator(new NodeHttp(args[1])).estimate(source))
+                : new ComplexityProfiler(script);
+        System.out.print(profiler.profile(PawnshopEngine.MAX_LENDERS));
+    }
+
+    /**
+     * Profiles every path with 0 to {@code maxLenders} enabled lenders.
+     */
+    public Report profile(int maxLenders) {
+        Map<String, Map<Integer, Long>> paths = new LinkedHashMap<>();
+        for (int lenders = 0; lenders <= maxLenders; lenders++)
+            new Deployment(lenders).profile(paths);
+        return new Report(paths, estimates, nodeEstimates);
+    }
+
+    private class Deployment {
+        final int lenders;
+        final LocalNode node = new LocalNode('R', 100);
+        final LocalAccount dApp = node.createAccount(TEN8);
+        final LocalAccount owner = node.createAccount(10 * TEN8);
+        final LocalAccount oracle = node.createAccount(TEN8);
+        final List<LocalAccount> accounts = new ArrayList<>();
+        final String btcId;
+
+        Deployment(int lenders) {
+            this.lenders = lenders;
+            btcId = owner.issues(1_000_000 * TEN8);
+            for (int i = 0; i < lenders + 5; i++)
+                accounts.add(node.createAccount(100_000 * TEN8));
+            owner.massTransfers(btcId, 100 * TEN8, accounts.toArray(new LocalAccount[0]));
+            owner.transfers(dApp, 10_000 * TEN8, btcId);
+            oracle.writes(d -> d.integer("waves_btc_8", 10_000));
+            dApp.setsScript(script);
+            dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(), 50_000L, 80L,
+                    GRACE, INTEREST, BURNDOWN, 10L, 1L));
+        }
+
+        void profile(Map<String, Map<Integer, Long>> paths) {
+            for (int i = 0; i < lenders; i++) {
+                LocalTx deposit = accounts.get(i).invokes(d -> d.dApp(dApp).function("depositBtc").payment(TEN8, btcId));
+                if (i == lenders - 1) record(paths, DEPOSIT_BTC, deposit);
+            }
+            if (lenders > 0) {
+                LocalAccount last = accounts.get(lenders - 1);
+                record(paths, DISABLE_LENDING, last.invokes(i -> i.dApp(dApp).function("enableLending", false)));
+                record(paths, ENABLE_LENDING, last.invokes(i -> i.dApp(dApp).function("enableLending", true)));
+            }
+
+            LocalAccount inGrace = accounts.get(lenders), withInterest = accounts.get(lenders + 1),
+                    expired = accounts.get(lenders + 2), discarded = accounts.get(lenders + 3);
+            LocalTx borrowed = borrow(inGrace);
+            record(paths, BORROW, borrowed);
+            String inGraceLoan = loan(borrowed), withInterestLoan = loan(borrow(withInterest)),
+                    expiredLoan = loan(borrow(expired)), discardedLoan = loan(borrow(discarded));
+            List<String> closing = new ArrayList<>();
+            for (int i = 0; i < CLOSING_LOANS; i++)
+                closing.add(loan(borrow(expired)));
+            record(paths, BUY_BACK_IN_GRACE, buyBack(inGrace, inGraceLoan));
+            record(paths, DISCARD, discarded.invokes(i -> i.dApp(dApp).function("discard", discardedLoan)));
+            node.mine((int) GRACE + 1);
+            record(paths, BUY_BACK_WITH_INTEREST, buyBack(withInterest, withInterestLoan));
+            node.mine((int) INTEREST);
+            record(paths, CLOSE_EXPIRED_FOR,
+                    owner.invokes(i -> i.dApp(dApp).function("closeExpiredFor", expiredLoan)));
+            record(paths, CLOSE_EXPIRED_LOANS,
+                    owner.invokes(i -> i.dApp(dApp).function("closeExpiredLoans", String.join("|", closing))));
+
+            LocalAccount lender = lenders > 0 ? accounts.get(0) : owner;
+            record(paths, TAKE_PROFIT, lender.invokes(i -> i.dApp(dApp).function("takeProfit")));
+            List<String> payees = new ArrayList<>(Collections.singletonList(owner.address()));
+            for (int i = 1; i < Math.min(lenders, PAYEES + 1); i++)
+                payees.add(accounts.get(i).address());
+            record(paths, SEND_PROFITS,
+                    owner.invokes(i -> i.dApp(dApp).function("sendProfits", String.join("|", payees))));
+            if (lenders > 0) {
+                // the lenders joined the first cohort in place, before any loan, and it holds all the loans
+                record(paths, SETTLE, settle(lender, 1));
+                record(paths, WITHDRAW_BTC, lender.invokes(i -> i.dApp(dApp).function("withdrawBtc")));
+            }
+            record(paths, UPDATE_PARAMS, owner.invokes(i -> i.dApp(dApp).function("updateParams", oracle.address(),
+                    50_000L, 80L, GRACE, INTEREST, BURNDOWN, 10L, 1L)));
+        }
+
+        private LocalTx borrow(LocalAccount renter) {
+            return renter.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(100 * TEN8));
+        }
+
+        private LocalTx settle(LocalAccount lender, long cohort) {
+            return owner.invokes(i -> i.dApp(dApp).function("settle", lender.address(), cohort));
+        }
+
+        private LocalTx buyBack(LocalAccount renter, String loan) {
+            long lend = (Long) node.data(dApp.address(), Keys.lendOf(loan));
+            return renter.invokes(i -> i.dApp(dApp).function("buyBack", loan).payment(2 * lend, btcId));
+        }
+
+        private String loan(LocalTx borrowed) {
+            return DecodedChanges.of(borrowed.stateChanges).borrowedLoan();
+        }
+
+        private void record(Map<String, Map<Integer, Long>> paths, String path, LocalTx tx) {
+            paths.computeIfAbsent(path, p -> new TreeMap<>()).put(lenders, tx.complexity);
+        }
+    }
+
+}
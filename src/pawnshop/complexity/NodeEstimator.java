@@ -0,0 +1,31 @@
+package pawnshop.complexity;
+
+import pawnshop.node.NodeHttp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Complexity of each callable as the node estimates it: the source goes to {@code /utils/script/compileCode}, the
+ * same estimator that checks the limit when the script is set.
+ */
+public class NodeEstimator {
+
+    private final NodeHttp http;
+
+    public NodeEstimator(NodeHttp http) {
+        this.http = http;
+    }
+
+    public Map<String, Long> estimate(String source) {
+        Map<?, ?> compiled = (Map<?, ?>) http.postText("/utils/script/compileCode", source);
+        Object callables = compiled == null ? null : compiled.get("callableComplexities");
+        if (!(callables instanceof Map))
+            throw new IllegalStateException("The node returned no complexity per callable: " + compiled);
+        Map<String, Long> estimates = new LinkedHashMap<>();
+        ((Map<?, ?>) callables).forEach((callable, complexity) ->
+                estimates.put((String) callable, ((Number) complexity).longValue()));
+        return estimates;
+    }
+
+}
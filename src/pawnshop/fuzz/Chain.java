@@ -0,0 +1,53 @@
+package pawnshop.fuzz;
+
+import pawnshop.Payment;
+import pawnshop.ScriptResult;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where a {@link DifferentialRunner} runs a sequence: a dApp with the script set, its owner, the oracle, the BTC
+ * asset and the participants funded with both. Actors are indexed the way {@link Op} indexes them.
+ */
+public interface Chain {
+
+    String dApp();
+
+    String owner();
+
+    String oracle();
+
+    String btcId();
+
+    /**
+     * Addresses of the participants, then of the owner, then of the dApp.
+     */
+    List<String> actors();
+
+    int height();
+
+    /**
+     * The height the last transaction ran at, or was rejected at.
+     */
+    int lastHeight();
+
+    void mine(int blocks);
+
+    void postOracle(long rate);
+
+    /**
+     * Invokes the dApp as the actor and returns the state changes.
+     *
+     * @throws pawnshop.ScriptError if the script rejected the invocation, with the message the script threw
+     * @throws IllegalStateException if the chain rejected it before or after the script, for a balance or a
+     *                               non-positive payment
+     */
+    ScriptResult invoke(int actor, String function, Payment payment, List<Object> args);
+
+    /**
+     * The whole storage of the dApp.
+     */
+    Map<String, Object> storage();
+
+}
@@ -0,0 +1,182 @@
+package pawnshop.fuzz;
+
+import pawnshop.ride.RideScript;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Generates sequences from consecutive seeds and runs them with a {@link DifferentialRunner} in parallel, each on
+ * its own local node and dApp. Failing sequences are shrunk; a failure is reproduced by its seed alone.
+ * <p>
+ * {@link #replay} runs a sample of the same sequences on another {@link Chain}, such as a node through
+ * {@code PaddleChain}, to check the local node against the real one as well.
+ */
+public class DifferentialFuzzer {
+
+    public static class Config {
+        int sequences = 1000;
+        int length = 40;
+        int participants = 6;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxFailures = 5;
+
+        public Config sequences(int sequences) { this.sequences = sequences; return this; }
+        public Config length(int length) { this.length = length; return this; }
+        public Config participants(int participants) { this.participants = participants; return this; }
+        public Config seed(long seed) { this.seed = seed; return this; }
+        public Config threads(int threads) { this.threads = threads; return this; }
+        /** Failures to shrink and report, later ones are only counted. */
+        public Config maxFailures(int maxFailures) { this.maxFailures = maxFailures; return this; }
+    }
+
+    public static class Failure {
+        public final long seed;
+        public final List<Op> sequence;
+        public final List<Op> shrunk;
+        public final DifferentialRunner.Mismatch mismatch;
+
+        Failure(long seed, List<Op> sequence, List<Op> shrunk, DifferentialRunner.Mismatch mismatch) {
+            this.seed = seed;
+            this.sequence = sequence;
+            this.shrunk = shrunk;
+            this.mismatch = mismatch;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder("Seed " + seed + ", " + sequence.size() + " steps shrunk to "
+                    + shrunk.size() + ":\n");
+            for (Op op : shrunk)
+                s.append("  ").append(op).append('\n');
+            return s.append(mismatch).toString();
+        }
+    }
+
+    public static class Report {
+        public final int sequences;
+        public final int failed;
+        public final List<Failure> failures;
+        public final Map<Op.Kind, Integer> accepted;
+        public final long rejected;
+        public final long skipped;
+
+        Report(int sequences, int failed, List<Failure> failures, Map<Op.Kind, Integer> accepted, long rejected,
+               long skipped) {
+            this.sequences = sequences;
+            this.failed = failed;
+            this.failures = Collections.unmodifiableList(failures);
+            this.accepted = Collections.unmodifiableMap(accepted);
+            this.rejected = rejected;
+            this.skipped = skipped;
+        }
+
+        @Override
+        public String toString() {
+            return sequences + " sequences, " + failed + " failed, accepted " + accepted + ", rejected " + rejected
+                    + ", skipped " + skipped;
+        }
+    }
+
+    private final RideScript script;
+    private final Config config;
+
+    public DifferentialFuzzer(RideScript script, Config config) {
+        this.script = script;
+        this.config = config;
+    }
+
+    public static Config config() {
+        return new Config();
+    }
+
+    public Report run() {
+        List<Long> seeds = new ArrayList<>(config.sequences);
+        for (int i = 0; i < config.sequences; i++)
+            seeds.add(config.seed + i);
+        return run(new DifferentialRunner(script, config.participants), seeds, true);
+    }
+
+    /**
+     * Replays {@code sample} of the sequences, spread evenly over the seeds, each on a chain the function deploys
+     * for it. Failures are reported as they ran, not shrunk, since shrinking runs a sequence over and over.
+     */
+    public Report replay(IntFunction<? extends Chain> deploy, int sample) {
+        List<Long> seeds = new ArrayList<>(sample);
+        for (int i = 0; i < sample; i++)
+            seeds.add(config.seed + (long) i * config.sequences / sample);
+        return run(new DifferentialRunner(deploy, config.participants), seeds, false);
+    }
+
+    private Report run(DifferentialRunner runner, List<Long> seeds, boolean shrink) {
+        AtomicInteger n = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(config.threads, r -> {
+            Thread t = new Thread(r, "fuzzer-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            List<Future<DifferentialRunner.Run>> runs = new ArrayList<>(seeds.size());
+            List<Future<Failure>> failures = new ArrayList<>();
+            for (long seed : seeds)
+                runs.add(pool.submit(() -> runner.run(sequence(seed))));
+
+            Map<Op.Kind, Integer> accepted = new EnumMap<>(Op.Kind.class);
+            long rejected = 0, skipped = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                DifferentialRunner.Run run = runs.get(i).get();
+                run.accepted.forEach((kind, count) -> accepted.merge(kind, count, Integer::sum));
+                rejected += run.rejected;
+                skipped += run.skipped;
+                if (run.mismatch != null && failed.incrementAndGet() <= config.maxFailures) {
+                    long seed = seeds.get(i);
+                    List<Op> sequence = sequence(seed);
+                    failures.add(shrink ? pool.submit(() -> shrink(runner, seed))
+                            : CompletableFuture.completedFuture(new Failure(seed, sequence, sequence, run.mismatch)));
+                }
+            }
+            List<Failure> shrunk = new ArrayList<>();
+            for (Future<Failure> f : failures)
+                shrunk.add(f.get());
+            return new Report(seeds.size(), failed.get(), shrunk, accepted, rejected, skipped);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Regenerates the sequence of the seed and shrinks it.
+     */
+    public Failure shrink(long seed) {
+        return shrink(new DifferentialRunner(script, config.participants), seed);
+    }
+
+    private Failure shrink(DifferentialRunner runner, long seed) {
+        List<Op> sequence = sequence(seed);
+        List<Op> shrunk = new Shrinker(ops -> runner.run(ops).mismatch != null).shrink(sequence);
+        return new Failure(seed, sequence, shrunk, runner.run(shrunk).mismatch);
+    }
+
+    private List<Op> sequence(long seed) {
+        return new OpGenerator(seed, config.participants).sequence(config.length);
+    }
+
+}
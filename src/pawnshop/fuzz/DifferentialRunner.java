@@ -0,0 +1,434 @@
+package pawnshop.fuzz;
+
+import pawnshop.Payment;
+import pawnshop.PawnshopEngine;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+import pawnshop.ride.RideScript;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+import static pawnshop.Keys.*;
+import static pawnshop.PawnshopEngine.TEN8;
+import static pawnshop.PawnshopEngine.fraction;
+
+/**
+ * Runs a sequence of steps against the script on a fresh {@link Chain}, a {@link LocalNode} unless another is given,
+ * and against a {@link PawnshopEngine}, and compares the outcome of every step: the data entries and transfers in
+ * order, or the error message. After every step the whole storage of the dApp is compared too. The engine runs a
+ * step at the height the chain ran it at.
+ * <p>
+ * Steps the node rejects before or after the script, for a balance or a non-positive payment, are not run on the
+ * engine, which does not model balances.
+ */
+public class DifferentialRunner {
+
+    static final long PARTICIPANT_WAVES = 1_000_000 * TEN8;
+    static final long PARTICIPANT_BTC = 1_000 * TEN8;
+    static final long DAPP_BTC = 10_000 * TEN8;
+    static final long ORACLE_RATE = 10_000;
+    static final String UNKNOWN = "3MunknownLoan";
+
+    /** The first step where the script and the engine disagree. */
+    public static class Mismatch {
+        public final int step;
+        public final Op op;
+        public final String script;
+        public final String model;
+
+        Mismatch(int step, Op op, String script, String model) {
+            this.step = step;
+            this.op = op;
+            this.script = script;
+            this.model = model;
+        }
+
+        @Override
+        public String toString() {
+            return "Step " + step + " " + op + ": script " + script + ", model " + model;
+        }
+    }
+
+    /** Outcome of a sequence. {@code accepted} counts the steps per kind the script accepted. */
+    public static class Run {
+        public final Mismatch mismatch;
+        public final Map<Op.Kind, Integer> accepted;
+        public final int rejected;
+        public final int skipped;
+
+        Run(Mismatch mismatch, Map<Op.Kind, Integer> accepted, int rejected, int skipped) {
+            this.mismatch = mismatch;
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.skipped = skipped;
+        }
+    }
+
+    private final IntFunction<? extends Chain> deploy;
+    private final int participants;
+
+    public DifferentialRunner(RideScript script, int participants) {
+        this(n -> new LocalChain(script, n), participants);
+    }
+
+    /**
+     * @param deploy deploys a fresh chain with the given number of participants for each sequence
+     */
+    public DifferentialRunner(IntFunction<? extends Chain> deploy, int participants) {
+        this.deploy = deploy;
+        this.participants = participants;
+    }
+
+    public int participants() {
+        return participants;
+    }
+
+    public Run run(List<Op> ops) {
+        return new Sequence().run(ops);
+    }
+
+    private class Sequence {
+        final Chain chain = deploy.apply(participants);
+        final List<String> actors = chain.actors();
+        final String btcId = chain.btcId();
+        final PawnshopEngine engine = new PawnshopEngine(chain.dApp(), chain.height())
+                .postOracle(chain.oracle(), ORACLE_RATE);
+
+        final Map<Op.Kind, Integer> accepted = new EnumMap<>(Op.Kind.class);
+        int rejected, skipped;
+
+        Run run(List<Op> ops) {
+            for (int step = 0; step < ops.size(); step++) {
+                Op op = ops.get(step);
+                if (op.blocks > 0) chain.mine(op.blocks);
+                engine.setHeight(chain.height());
+                Payment payment = payment(op);
+
+                Object onScript;
+                try {
+                    onScript = onScript(op, payment);
+                } catch (ScriptError e) {
+                    onScript = e;
+                } catch (IllegalStateException e) {
+                    skipped++;
+                    continue;
+                }
+                engine.setHeight(chain.lastHeight());
+                Object onModel;
+                try {
+                    onModel = onModel(op, payment);
+                } catch (ScriptError e) {
+                    onModel = e;
+                }
+
+                Mismatch mismatch = difference(onScript, onModel)
+                        ? new Mismatch(step, op, describe(onScript), describe(onModel)) : null;
+                if (mismatch == null) {
+                    Map<String, Object> storage = chain.storage();
+                    if (!storage.equals(engine.state()))
+                        mismatch = new Mismatch(step, op, "storage " + storage, "storage " + engine.state());
+                }
+                if (mismatch != null) return new Run(mismatch, accepted, rejected, skipped);
+                if (onScript instanceof ScriptError) rejected++;
+                else accepted.merge(op.kind, 1, Integer::sum);
+            }
+            return new Run(null, accepted, rejected, skipped);
+        }
+
+        private Object onScript(Op op, Payment payment) {
+            int caller = op.actor;
+            switch (op.kind) {
+                case ORACLE:
+                    chain.postOracle(op.amount);
+                    return null;
+                case INIT:
+                    return invoke(caller, "init", null, chain.owner(), btcId, chain.oracle(),
+                            op.param(Op.MAX_RATE), op.param(Op.DISCOUNT), op.param(Op.GRACE), op.param(Op.INTEREST),
+                            op.param(Op.BURNDOWN), op.param(Op.SERVICE_FEE), op.param(Op.LEND_SIZE));
+                case UPDATE_PARAMS:
+                    return invoke(caller, "updateParams", null, chain.oracle(),
+                            op.param(Op.MAX_RATE), op.param(Op.DISCOUNT), op.param(Op.GRACE), op.param(Op.INTEREST),
+                            op.param(Op.BURNDOWN), op.param(Op.SERVICE_FEE), op.param(Op.LEND_SIZE));
+                case BORROW:
+                    return invoke(caller, "borrow", payment);
+                case BUY_BACK:
+                    return invoke(caller, "buyBack", payment, loan(op));
+                case DISCARD:
+                    return invoke(caller, "discard", null, loan(op));
+                case CLOSE_EXPIRED_FOR:
+                    return invoke(caller, "closeExpiredFor", null, loan(op));
+                case DEPOSIT_BTC:
+                    return invoke(caller, "depositBtc", payment);
+                case ENABLE_LENDING:
+                    return invoke(caller, "enableLending", null, op.flag);
+                case WITHDRAW_BTC:
+                    return invoke(caller, "withdrawBtc", null);
+                case TAKE_PROFIT:
+                    return invoke(caller, "takeProfit", null);
+                case SETTLE:
+                    return invoke(caller, "settle", null, lender(op), cohort(op));
+                case SEND_PROFITS:
+                    return invoke(caller, "sendProfits", null, payees(op));
+                case CLOSE_EXPIRED_LOANS:
+                    return invoke(caller, "closeExpiredLoans", null, loans(op));
+                case ENABLE_NEW_LOANS:
+                    return invoke(caller, "enableNewLoans", null, op.flag);
+                default:
+                    throw new IllegalArgumentException("Unknown step " + op.kind);
+            }
+        }
+
+        private Object onModel(Op op, Payment payment) {
+            String caller = actors.get(op.actor);
+            switch (op.kind) {
+                case ORACLE:
+                    engine.postOracle(chain.oracle(), op.amount);
+                    return null;
+                case INIT:
+                    return engine.init(caller, chain.owner(), btcId, chain.oracle(),
+                            op.param(Op.MAX_RATE), op.param(Op.DISCOUNT), op.param(Op.GRACE), op.param(Op.INTEREST),
+                            op.param(Op.BURNDOWN), op.param(Op.SERVICE_FEE), op.param(Op.LEND_SIZE));
+                case UPDATE_PARAMS:
+                    return engine.updateParams(caller, chain.oracle(),
+                            op.param(Op.MAX_RATE), op.param(Op.DISCOUNT), op.param(Op.GRACE), op.param(Op.INTEREST),
+                            op.param(Op.BURNDOWN), op.param(Op.SERVICE_FEE), op.param(Op.LEND_SIZE));
+                case BORROW:
+                    return engine.borrow(caller, payment);
+                case BUY_BACK:
+                    return engine.buyBack(caller, loan(op), payment);
+                case DISCARD:
+                    return engine.discard(caller, loan(op));
+                case CLOSE_EXPIRED_FOR:
+                    return engine.closeExpiredFor(caller, loan(op));
+                case DEPOSIT_BTC:
+                    return engine.depositBtc(caller, payment);
+                case ENABLE_LENDING:
+                    return engine.enableLending(caller, op.flag);
+                case WITHDRAW_BTC:
+                    return engine.withdrawBtc(caller);
+                case TAKE_PROFIT:
+                    return engine.takeProfit(caller);
+                case SETTLE:
+                    return engine.settle(caller, lender(op), cohort(op));
+                case SEND_PROFITS:
+                    return engine.sendProfits(caller, payees(op));
+                case CLOSE_EXPIRED_LOANS:
+                    return engine.closeExpiredLoans(caller, loans(op));
+                case ENABLE_NEW_LOANS:
+                    return engine.enableNewLoans(caller, op.flag);
+                default:
+                    throw new IllegalArgumentException("Unknown step " + op.kind);
+            }
+        }
+
+        private ScriptResult invoke(int caller, String function, Payment payment, Object... args) {
+            return chain.invoke(caller, function, payment, Arrays.asList(args));
+        }
+
+        private String payees(Op op) {
+            List<String> payees = new ArrayList<>();
+            for (int i = 0; i < actors.size(); i++)
+                if ((op.amount >> i & 1) == 1) payees.add(actors.get(i));
+            if (op.flag && !payees.isEmpty()) payees.add(payees.get(0));
+            return String.join("|", payees);
+        }
+
+        private String lender(Op op) {
+            return actors.get(op.target);
+        }
+
+        /**
+         * The settled cohort of the lender plus the step's amount, read from the engine storage.
+         */
+        private long cohort(Op op) {
+            return integer(settledCohortOf(lender(op)), 0) + op.amount;
+        }
+
+        private String loans(Op op) {
+            List<String> loans = new ArrayList<>();
+            for (int i = 0; i < participants; i++)
+                if ((op.amount >> i & 1) == 1 && !loans.contains(loan(i))) loans.add(loan(i));
+            loans.sort(Comparator.comparingLong(loan -> UNKNOWN.equals(loan) ? Long.MAX_VALUE : Long.parseLong(loan)));
+            if (op.flag && !loans.isEmpty()) loans.add(loans.get(0));
+            return String.join("|", loans);
+        }
+
+        /**
+         * The payment of the step, worked out at the height before it is sent: a step that lands in a later block
+         * still pays the same on the chain and on the engine.
+         */
+        private Payment payment(Op op) {
+            switch (op.kind) {
+                case BORROW:
+                    return borrowPayment(op);
+                case BUY_BACK:
+                    return buyBackPayment(op, loan(op));
+                case DEPOSIT_BTC:
+                    return depositPayment(op);
+                default:
+                    return null;
+            }
+        }
+
+        private Payment borrowPayment(Op op) {
+            return op.flag ? Payment.of(op.amount, btcId) : Payment.waves(op.amount);
+        }
+
+        /**
+         * The amount the loan requires at the current height plus the step's amount, read from the engine
+         * storage, which equals the node storage as long as no mismatch was found.
+         */
+        private Payment buyBackPayment(Op op, String loan) {
+            Long lend = integer(lendOf(loan));
+            long required = TEN8 / 100;
+            if (lend != null && lend > 0) {
+                long graceEnd = integer(endOfGraceOf(loan), 0);
+                long burndownEnd = integer(endOfBurndownOf(loan), 0);
+                required = engine.height() > graceEnd && burndownEnd > graceEnd
+                        ? lend + fraction(lend, engine.height() - graceEnd, burndownEnd - graceEnd)
+                        : lend;
+            }
+            return op.flag ? Payment.waves(required + op.amount) : Payment.of(required + op.amount, btcId);
+        }
+
+        private Payment depositPayment(Op op) {
+            return Payment.of(integer(LEND_SIZE, 1) * TEN8 + op.amount, btcId);
+        }
+
+        /**
+         * The loan of the step's target, see {@link Op#target}, found in the engine storage.
+         */
+        private String loan(Op op) {
+            return loan(op.target);
+        }
+
+        private String loan(int target) {
+            if (target < 0) return UNKNOWN;
+            String renter = actors.get(target);
+            long count = integer(LOAN_COUNT, 0);
+            for (long id = 1; id <= count; id++)
+                if (renter.equals(engine.get(renterOf(String.valueOf(id)))) && integer(startOf(String.valueOf(id)), 0) > 0)
+                    return String.valueOf(id);
+            return count > 0 ? String.valueOf(count) : UNKNOWN;
+        }
+
+        private Long integer(String key) {
+            Object value = engine.get(key);
+            return value instanceof Long ? (Long) value : null;
+        }
+
+        private long integer(String key, long otherwise) {
+            Long value = integer(key);
+            return value != null ? value : otherwise;
+        }
+    }
+
+    /**
+     * A fresh {@link LocalNode} with the dApp, its owner, the oracle and the participants.
+     */
+    static class LocalChain implements Chain {
+        final LocalNode node = new LocalNode('R', 100);
+        final LocalAccount dApp = node.createAccount(TEN8);
+        final LocalAccount owner = node.createAccount(10 * TEN8);
+        final LocalAccount oracle = node.createAccount(10 * TEN8);
+        final List<LocalAccount> actors = new ArrayList<>();
+        final String btcId;
+
+        LocalChain(RideScript script, int participants) {
+            for (int i = 0; i < participants; i++)
+                actors.add(node.createAccount(PARTICIPANT_WAVES));
+            actors.add(owner);
+            actors.add(dApp);
+            btcId = owner.issues(DAPP_BTC + participants * PARTICIPANT_BTC);
+            owner.massTransfers(btcId, PARTICIPANT_BTC, actors.subList(0, participants).toArray(new LocalAccount[0]));
+            owner.transfers(dApp, DAPP_BTC, btcId);
+            oracle.writes(d -> d.integer(ORACLE_DATA, ORACLE_RATE));
+            dApp.setsScript(script);
+        }
+
+        @Override
+        public String dApp() {
+            return dApp.address();
+        }
+
+        @Override
+        public String owner() {
+            return owner.address();
+        }
+
+        @Override
+        public String oracle() {
+            return oracle.address();
+        }
+
+        @Override
+        public String btcId() {
+            return btcId;
+        }
+
+        @Override
+        public List<String> actors() {
+            List<String> addresses = new ArrayList<>(actors.size());
+            for (LocalAccount actor : actors)
+                addresses.add(actor.address());
+            return addresses;
+        }
+
+        @Override
+        public int height() {
+            return node.height();
+        }
+
+        /** Transactions apply at the current height. */
+        @Override
+        public int lastHeight() {
+            return node.height();
+        }
+
+        @Override
+        public void mine(int blocks) {
+            node.mine(blocks);
+        }
+
+        @Override
+        public void postOracle(long rate) {
+            oracle.writes(d -> d.integer(ORACLE_DATA, rate));
+        }
+
+        @Override
+        public ScriptResult invoke(int actor, String function, Payment payment, List<Object> args) {
+            return actors.get(actor).invokes(i -> {
+                i.dApp(dApp).function(function, args.toArray());
+                if (payment != null) i.payment(payment.amount, payment.asset);
+            }).stateChanges;
+        }
+
+        @Override
+        public Map<String, Object> storage() {
+            return node.data(dApp.address());
+        }
+    }
+
+    static boolean difference(Object script, Object model) {
+        if (script instanceof ScriptError && model instanceof ScriptError)
+            return !Objects.equals(((ScriptError) script).getMessage(), ((ScriptError) model).getMessage());
+        if (!(script instanceof ScriptResult) || !(model instanceof ScriptResult)) return script != model;
+        ScriptResult s = (ScriptResult) script, m = (ScriptResult) model;
+        return !s.data.equals(m.data) || !s.transfers.equals(m.transfers);
+    }
+
+    static String describe(Object outcome) {
+        return outcome instanceof ScriptError ? "threw '" + ((ScriptError) outcome).getMessage() + "'"
+                : String.valueOf(outcome);
+    }
+
+}
@@ -0,0 +1,94 @@
+package pawnshop.fuzz;
+
+import java.util.Arrays;
+
+/**
+ * One step of a fuzzed sequence: blocks to mine, then an invocation of the dApp or an oracle post.
+ * <p>
+ * Actors are indexes: participants first, who both borrow and lend, then the owner, then the dApp itself.
+ * Amounts that only make sense against the current state are relative: {@code amount} of a buyBack is added to
+ * what the loan requires at that height, of a depositBtc to the lend size, of a settle to the settled cohort of the
+ * target. The {@code amount} of a sendProfits has a
+ * bit set for every actor to pay out, of a closeExpiredLoans for every renter whose loan is listed, in id order; the
+ * flag lists the first of them again at the end. This keeps a step meaningful when the
+ * steps before it are removed while shrinking.
+ */
+public final class Op {
+
+    public enum Kind {
+        INIT, ORACLE, BORROW, BUY_BACK, DISCARD, CLOSE_EXPIRED_FOR, DEPOSIT_BTC, ENABLE_LENDING, WITHDRAW_BTC,
+        CLOSE_EXPIRED_LOANS, TAKE_PROFIT, SETTLE, SEND_PROFITS, UPDATE_PARAMS, ENABLE_NEW_LOANS
+    }
+
+    /** Index of {@code params} of INIT and UPDATE_PARAMS. */
+    public static final int MAX_RATE = 0, DISCOUNT = 1, GRACE = 2, INTEREST = 3, BURNDOWN = 4, SERVICE_FEE = 5,
+            LEND_SIZE = 6;
+
+    public final Kind kind;
+    public final int blocks;
+    public final int actor;
+    /**
+     * Renter whose loan the step is about, for buyBack, discard and closeExpiredFor: the renter's oldest open loan, or
+     * the latest loan of anyone if the renter has none open; -1 for a loan id that does not exist. For settle the
+     * lender to settle.
+     */
+    public final int target;
+    public final long amount;
+    /** The boolean argument, or for borrow and buyBack a payment in the wrong asset. */
+    public final boolean flag;
+    final long[] params;
+
+    Op(Kind kind, int blocks, int actor, int target, long amount, boolean flag, long[] params) {
+        this.kind = kind;
+        this.blocks = blocks;
+        this.actor = actor;
+        this.target = target;
+        this.amount = amount;
+        this.flag = flag;
+        this.params = params;
+    }
+
+    public long param(int index) {
+        return params[index];
+    }
+
+    Op withBlocks(int blocks) {
+        return new Op(kind, blocks, actor, target, amount, flag, params);
+    }
+
+    Op withAmount(long amount) {
+        return new Op(kind, blocks, actor, target, amount, flag, params);
+    }
+
+    Op withFlag(boolean flag) {
+        return new Op(kind, blocks, actor, target, amount, flag, params);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Op)) return false;
+        Op op = (Op) o;
+        return kind == op.kind && blocks == op.blocks && actor == op.actor && target == op.target
+                && amount == op.amount && flag == op.flag && Arrays.equals(params, op.params);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * kind.hashCode() + blocks) + actor) + Long.hashCode(amount);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        if (blocks > 0) s.append("+").append(blocks).append(" ");
+        s.append(kind.name().toLowerCase()).append(" by #").append(actor);
+        if (kind == Kind.BUY_BACK || kind == Kind.DISCARD || kind == Kind.CLOSE_EXPIRED_FOR || kind == Kind.SETTLE)
+            s.append(" of #").append(target);
+        if (amount != 0) s.append(" amount ").append(amount);
+        if (flag) s.append(" flag");
+        if (params != null) s.append(" ").append(Arrays.toString(params));
+        return s.toString();
+    }
+
+}
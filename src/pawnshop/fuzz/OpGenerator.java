@@ -0,0 +1,165 @@
+package pawnshop.fuzz;
+
+import pawnshop.PawnshopEngine;
+import pawnshop.fuzz.Op.Kind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static pawnshop.fuzz.Op.Kind.*;
+
+/**
+ * Random sequences of steps. A sequence starts with {@code init} and then picks callables with fixed weights, so
+ * that loans are opened, closed and expire with lenders joining and leaving in between.
+ * <p>
+ * Rates and periods are drawn around the boundaries the script checks: oracle values above {@code maxRate},
+ * deposits below the price of one satoshi, interest periods longer than burndown, payments one satoshi short.
+ */
+public class OpGenerator {
+
+    private static final Kind[] KINDS = {BORROW, BUY_BACK, DISCARD, CLOSE_EXPIRED_FOR, CLOSE_EXPIRED_LOANS, DEPOSIT_BTC,
+            ENABLE_LENDING, WITHDRAW_BTC, TAKE_PROFIT, SETTLE, SEND_PROFITS, UPDATE_PARAMS, ORACLE, ENABLE_NEW_LOANS};
+    private static final int[] WEIGHTS = {20, 18, 5, 8, 4, 12, 8, 8, 5, 10, 3, 4, 5, 2};
+
+    private final Random random;
+    private final int participants;
+
+    public OpGenerator(long seed, int participants) {
+        this.random = new Random(seed);
+        this.participants = participants;
+    }
+
+    public List<Op> sequence(int length) {
+        List<Op> ops = new ArrayList<>(length);
+        ops.add(new Op(INIT, 0, random.nextInt(10) == 0 ? owner() : dApp(), 0, 0, false, params()));
+        while (ops.size() < length)
+            ops.add(next());
+        return ops;
+    }
+
+    Op next() {
+        Kind kind = kind();
+        int blocks = random.nextInt(10) < 6 ? 0 : 1 + random.nextInt(12);
+        int actor = kind == UPDATE_PARAMS || kind == ENABLE_NEW_LOANS
+                ? (random.nextInt(5) == 0 ? participant() : owner())
+                : (random.nextInt(12) == 0 ? owner() : participant());
+        switch (kind) {
+            case ORACLE:
+                return new Op(kind, blocks, actor, 0, rate(), false, null);
+            case BORROW:
+                return new Op(kind, blocks, actor, 0, deposit(), random.nextInt(20) == 0, null);
+            case BUY_BACK:
+                return new Op(kind, blocks, actor, renter(actor), overpayment(), random.nextInt(20) == 0, null);
+            case DISCARD:
+                return new Op(kind, blocks, actor, renter(actor), 0, false, null);
+            case CLOSE_EXPIRED_FOR:
+                return new Op(kind, blocks, actor, random.nextInt(10) == 0 ? -1 : participant(), 0, false, null);
+            case DEPOSIT_BTC:
+                return new Op(kind, blocks, actor, 0, random.nextInt(8) == 0 ? random.nextInt(3) - 1 : 0, false, null);
+            case ENABLE_LENDING:
+            case ENABLE_NEW_LOANS:
+                return new Op(kind, blocks, actor, 0, 0, random.nextBoolean(), null);
+            case UPDATE_PARAMS:
+                return new Op(kind, blocks, actor, 0, 0, false, params());
+            case SETTLE:
+                return new Op(kind, blocks, actor, random.nextInt(4) == 0 ? participant() : actor, cohortOffset(),
+                        false, null);
+            case SEND_PROFITS:
+                return new Op(kind, blocks, actor, 0, payees(), random.nextInt(20) == 0, null);
+            case CLOSE_EXPIRED_LOANS:
+                return new Op(kind, blocks, actor, 0, renters(), random.nextInt(10) == 0, null);
+            default:
+                return new Op(kind, blocks, actor, 0, 0, false, null);
+        }
+    }
+
+    private Kind kind() {
+        int total = 0;
+        for (int w : WEIGHTS) total += w;
+        int r = random.nextInt(total);
+        for (int i = 0; i < KINDS.length; i++) {
+            r -= WEIGHTS[i];
+            if (r < 0) return KINDS[i];
+        }
+        throw new AssertionError();
+    }
+
+    private long[] params() {
+        long[] p = new long[7];
+        p[Op.MAX_RATE] = 5_000 + random.nextInt(60_000);
+        p[Op.DISCOUNT] = 1 + random.nextInt(100);
+        p[Op.GRACE] = random.nextInt(8);
+        p[Op.INTEREST] = random.nextInt(8);
+        p[Op.BURNDOWN] = random.nextInt(10) == 0 ? random.nextInt(8) : p[Op.INTEREST] + random.nextInt(8);
+        p[Op.SERVICE_FEE] = random.nextInt(40);
+        p[Op.LEND_SIZE] = 1 + random.nextInt(3);
+        return p;
+    }
+
+    private long rate() {
+        return 1_000 + random.nextInt(70_000);
+    }
+
+    private long deposit() {
+        int r = random.nextInt(10);
+        if (r == 0) return 1 + random.nextInt(200_000);
+        return 1_000_000 + (long) (random.nextDouble() * 10_000_000_000L);
+    }
+
+    private long overpayment() {
+        int r = random.nextInt(10);
+        if (r < 4) return 0;
+        if (r < 6) return -1 - random.nextInt(100);
+        return 1 + random.nextInt(1_000_000);
+    }
+
+    /**
+     * Mostly the caller's own loans, sometimes someone else's or none.
+     */
+    private int renter(int actor) {
+        int r = random.nextInt(20);
+        return r == 0 ? -1 : r < 3 ? participant() : actor;
+    }
+
+    /**
+     * Mostly the settled cohort itself, sometimes one after it or one already settled.
+     */
+    private long cohortOffset() {
+        int r = random.nextInt(10);
+        return r < 6 ? 0 : r < 9 ? 1 + random.nextInt(3) : -1;
+    }
+
+    /**
+     * Up to five of the participants and the owner, so the payouts fit the transfers of one invocation.
+     */
+    private long payees() {
+        long payees = 0;
+        for (int i = random.nextInt(6); i > 0; i--)
+            payees |= 1L << random.nextInt(participants + 1);
+        return payees;
+    }
+
+    /**
+     * Up to one more renter than closeExpiredLoans takes.
+     */
+    private long renters() {
+        long renters = 0;
+        for (int i = random.nextInt(PawnshopEngine.MAX_CLOSING_LOANS + 2); i > 0; i--)
+            renters |= 1L << random.nextInt(participants);
+        return renters;
+    }
+
+    private int participant() {
+        return random.nextInt(participants);
+    }
+
+    private int owner() {
+        return participants;
+    }
+
+    private int dApp() {
+        return participants + 1;
+    }
+
+}
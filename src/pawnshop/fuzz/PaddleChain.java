@@ -0,0 +1,143 @@
+package pawnshop.fuzz;
+
+import com.wavesplatform.wavesj.transactions.InvokeScriptTransaction;
+import im.mak.paddle.Account;
+import im.mak.paddle.exceptions.NodeError;
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.node.AccountPool;
+import pawnshop.node.Actor;
+import pawnshop.node.PaddleNetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static pawnshop.Keys.ORACLE_DATA;
+import static pawnshop.PawnshopEngine.TEN8;
+import static pawnshop.fuzz.DifferentialRunner.DAPP_BTC;
+import static pawnshop.fuzz.DifferentialRunner.ORACLE_RATE;
+import static pawnshop.fuzz.DifferentialRunner.PARTICIPANT_BTC;
+
+/**
+ * A {@link Chain} on a node through {@link PaddleNetwork}: its own dApp, owner, oracle and BTC asset, and the
+ * participants funded from an {@link AccountPool}. Blocks are waited for, so a sequence takes as long as its blocks.
+ * <p>
+ * An invocation runs at the height of its block. A rejected one has no block, and the height read right after it
+ * stands in, which near the end of a period can be a block later than the node checked it at.
+ */
+public class PaddleChain implements Chain {
+
+    /** Enough for the deposits {@link OpGenerator} draws, up to 100 WAVES, over a sequence. */
+    static final long PARTICIPANT_WAVES = 1_000 * TEN8;
+    private static final String SCRIPT_ERROR = "Error while executing account-script: ";
+
+    private final PaddleNetwork network;
+    private final Account dApp, owner, oracle;
+    private final List<Account> actors = new ArrayList<>();
+    private final String btcId;
+    private int lastHeight;
+
+    public PaddleChain(PaddleNetwork network, AccountPool pool, String source, int participants) {
+        this.network = network;
+        List<Account> accounts = accounts(pool, pool.create(3, 10 * TEN8));
+        dApp = accounts.get(0);
+        owner = accounts.get(1);
+        oracle = accounts.get(2);
+
+        btcId = owner.issues(a -> a.quantity(DAPP_BTC + participants * PARTICIPANT_BTC).decimals(8))
+                .getId().toString();
+        actors.addAll(accounts(pool,
+                pool.create(participants, PARTICIPANT_WAVES, network.actor(owner), btcId, PARTICIPANT_BTC)));
+        actors.add(owner);
+        actors.add(dApp);
+        owner.transfers(t -> t.to(dApp).amount(DAPP_BTC).asset(btcId));
+        oracle.writes(d -> d.integer(ORACLE_DATA, ORACLE_RATE));
+        dApp.setsScript(s -> s.script(source));
+        lastHeight = network.height();
+    }
+
+    private List<Account> accounts(AccountPool pool, List<Actor> actors) {
+        List<Account> accounts = new ArrayList<>(actors.size());
+        for (Actor actor : actors)
+            accounts.add(new Account(pool.seed(actor), network.node));
+        return accounts;
+    }
+
+    @Override
+    public String dApp() {
+        return dApp.address();
+    }
+
+    @Override
+    public String owner() {
+        return owner.address();
+    }
+
+    @Override
+    public String oracle() {
+        return oracle.address();
+    }
+
+    @Override
+    public String btcId() {
+        return btcId;
+    }
+
+    @Override
+    public List<String> actors() {
+        List<String> addresses = new ArrayList<>(actors.size());
+        for (Account actor : actors)
+            addresses.add(actor.address());
+        return addresses;
+    }
+
+    @Override
+    public int height() {
+        return network.height();
+    }
+
+    @Override
+    public int lastHeight() {
+        return lastHeight;
+    }
+
+    @Override
+    public void mine(int blocks) {
+        network.node.waitForHeight(network.height() + blocks);
+    }
+
+    @Override
+    public void postOracle(long rate) {
+        oracle.writes(d -> d.integer(ORACLE_DATA, rate));
+        lastHeight = network.height();
+    }
+
+    /**
+     * Invokes the dApp. A script error keeps only the message the script threw, as the engine throws it.
+     */
+    @Override
+    public ScriptResult invoke(int actor, String function, Payment payment, List<Object> args) {
+        try {
+            InvokeScriptTransaction tx =
+                    PaddleNetwork.invoke(actors.get(actor), dApp.address(), function, args, payment);
+            lastHeight = tx.getHeight();
+            return PaddleNetwork.toScriptResult(network.node.api.stateChanges(tx.getId().toString()));
+        } catch (ScriptError e) {
+            lastHeight = network.height();
+            String message = e.getMessage();
+            int at = message.indexOf(SCRIPT_ERROR);
+            throw new ScriptError(at < 0 ? message : message.substring(at + SCRIPT_ERROR.length()));
+        } catch (NodeError e) {
+            lastHeight = network.height();
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> storage() {
+        return network.data(dApp.address());
+    }
+
+}
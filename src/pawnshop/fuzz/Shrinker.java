@@ -0,0 +1,81 @@
+package pawnshop.fuzz;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Reduces a failing sequence to one that still fails and has no step or detail that can be dropped.
+ * <p>
+ * Chunks of steps are removed first, halving the chunk size down to single steps, then every remaining step is
+ * simplified: no blocks mined before it, amounts moved towards zero, flags cleared. Passes repeat until nothing
+ * changes.
+ */
+public class Shrinker {
+
+    private final Predicate<List<Op>> fails;
+    private int attempts;
+
+    public Shrinker(Predicate<List<Op>> fails) {
+        this.fails = fails;
+    }
+
+    /** Sequences tried so far. */
+    public int attempts() {
+        return attempts;
+    }
+
+    public List<Op> shrink(List<Op> failing) {
+        List<Op> ops = new ArrayList<>(failing);
+        boolean changed = true;
+        while (changed) {
+            int size = ops.size();
+            ops = removeChunks(ops);
+            changed = ops.size() < size;
+            for (int i = 0; i < ops.size(); i++)
+                changed |= simplify(ops, i);
+        }
+        return ops;
+    }
+
+    private List<Op> removeChunks(List<Op> ops) {
+        for (int chunk = ops.size() / 2; chunk >= 1; chunk /= 2) {
+            for (int from = 0; from + chunk <= ops.size(); ) {
+                List<Op> candidate = new ArrayList<>(ops.subList(0, from));
+                candidate.addAll(ops.subList(from + chunk, ops.size()));
+                if (test(candidate)) ops = candidate;
+                else from += chunk;
+            }
+        }
+        return ops;
+    }
+
+    private boolean simplify(List<Op> ops, int i) {
+        boolean changed = false;
+        Op op = ops.get(i);
+        if (op.blocks > 0 && (tryReplace(ops, i, op.withBlocks(0)) || tryReplace(ops, i, op.withBlocks(op.blocks / 2))))
+            changed = true;
+        op = ops.get(i);
+        while (op.amount != 0 && op.kind != Op.Kind.ORACLE && tryReplace(ops, i, op.withAmount(op.amount / 2))) {
+            changed = true;
+            op = ops.get(i);
+        }
+        if (op.flag && tryReplace(ops, i, op.withFlag(false)))
+            changed = true;
+        return changed;
+    }
+
+    private boolean tryReplace(List<Op> ops, int i, Op simpler) {
+        if (simpler.equals(ops.get(i))) return false;
+        Op original = ops.set(i, simpler);
+        if (test(ops)) return true;
+        ops.set(i, original);
+        return false;
+    }
+
+    private boolean test(List<Op> ops) {
+        attempts++;
+        return fails.test(ops);
+    }
+
+}
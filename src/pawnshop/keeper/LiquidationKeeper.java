@@ -0,0 +1,221 @@
+package pawnshop.keeper;
+
+import pawnshop.PawnshopEngine;
+import pawnshop.ScriptError;
+import pawnshop.state.DataFeed;
+import pawnshop.state.OpenLoanIndex;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closes expired loans with closeExpiredFor as soon as they expire.
+ * <p>
+ * Each {@link #tick()} brings the {@link OpenLoanIndex} up to the feed height and submits every loan with the end of
+ * interest below it. Up to {@code maxInFlight} invocations run at once, a tick blocks while all of them are busy.
+ * With a {@code batchSize} above 1 the loans go in groups of up to that many through closeExpiredLoans, a group of
+ * one through closeExpiredFor; up to {@value #MAX_BATCH_SIZE} closings fit the complexity limit of one invocation.
+ * The script skips an id that is not above the one closed before it, so the loans are grouped in id order; it skips
+ * the loans taken before loan ids, keyed by the renter address, which go through closeExpiredFor alone.
+ * A loan is submitted once: it is skipped while its invocation is in flight, and after it is done until the
+ * index drops the loan. Failures other than script rejections are retried with a linear backoff, a loan that runs out
+ * of attempts is submitted again by the next tick.
+ * <p>
+ * The index is touched by the thread that calls {@code tick} only.
+ */
+public class LiquidationKeeper implements AutoCloseable {
+
+    public static final int MAX_BATCH_SIZE = PawnshopEngine.MAX_CLOSING_LOANS;
+
+    /** Numeric loan ids by value, the address keyed loans after them. */
+    private static final Comparator<String> ID_ORDER = Comparator
+            .comparing((String loan) -> !isLoanId(loan))
+            .thenComparing(loan -> isLoanId(loan) ? Long.parseLong(loan) : 0)
+            .thenComparing(Comparator.naturalOrder());
+
+    private final DataFeed feed;
+    private final String dApp;
+    private final OpenLoanIndex index;
+    private final Liquidator liquidator;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final int batchSize;
+
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Map<String, Long> submitted = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    private final AtomicInteger liquidated = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+
+    public LiquidationKeeper(DataFeed feed, String dApp, OpenLoanIndex index, Liquidator liquidator,
+                             int maxInFlight, int maxAttempts, long retryDelayMillis) {
+        this(feed, dApp, index, liquidator, maxInFlight, maxAttempts, retryDelayMillis, 1);
+    }
+
+    public LiquidationKeeper(DataFeed feed, String dApp, OpenLoanIndex index, Liquidator liquidator,
+                             int maxInFlight, int maxAttempts, long retryDelayMillis, int batchSize) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be positive");
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE)
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+        if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be positive");
+        this.feed = feed;
+        this.dApp = dApp;
+        this.index = index;
+        this.liquidator = liquidator;
+        this.maxInFlight = maxInFlight;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.batchSize = batchSize;
+        this.inFlight = new Semaphore(maxInFlight);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxInFlight, r -> {
+            Thread t = new Thread(r, "liquidation-keeper-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Follows the feed and submits the loans that are expired at its height.
+     *
+     * @return the number of submitted invocations
+     */
+    public int tick() throws InterruptedException {
+        index.follow(feed, dApp);
+        submitted.entrySet().removeIf(s -> s.getValue() >= 0
+                && (!index.contains(s.getKey()) || index.interestEnd(s.getKey()) != s.getValue()));
+
+        List<String> loans = new ArrayList<>();
+        for (String loan : index.expiringBy(feed.height() - 1))
+            if (!submitted.containsKey(loan)) loans.add(loan);
+        loans.sort(ID_ORDER);
+
+        int count = 0;
+        Map<String, Long> batch = new LinkedHashMap<>();
+        for (String loan : loans) {
+            if (stopped) break;
+            if (!isLoanId(loan) && !batch.isEmpty()) {
+                submit(batch);
+                batch = new LinkedHashMap<>();
+                count++;
+            }
+            batch.put(loan, index.interestEnd(loan));
+            if (batch.size() < batchSize && isLoanId(loan)) continue;
+            submit(batch);
+            batch = new LinkedHashMap<>();
+            count++;
+        }
+        if (!batch.isEmpty() && !stopped) {
+            submit(batch);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Ticks until {@link #close()} is called.
+     */
+    public void run(long pollMillis) throws InterruptedException {
+        while (!stopped) {
+            tick();
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    /**
+     * Waits until no invocation is in flight.
+     */
+    public void awaitIdle() throws InterruptedException {
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    public int liquidated() {
+        return liquidated.get();
+    }
+
+    public int rejected() {
+        return rejected.get();
+    }
+
+    public int failed() {
+        return failed.get();
+    }
+
+    public int retries() {
+        return retries.get();
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isLoanId(String loan) {
+        return !loan.isEmpty() && loan.length() <= 18 && loan.chars().allMatch(Character::isDigit);
+    }
+
+    private void submit(Map<String, Long> batch) throws InterruptedException {
+        inFlight.acquire();
+        for (String loan : batch.keySet())
+            submitted.put(loan, -1L);
+        executor.execute(() -> liquidate(batch));
+    }
+
+    private void liquidate(Map<String, Long> batch) {
+        List<String> loans = new ArrayList<>(batch.keySet());
+        boolean done = true;
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    if (loans.size() == 1) liquidator.closeExpiredFor(loans.get(0));
+                    else liquidator.closeExpiredLoans(loans);
+                    liquidated.addAndGet(loans.size());
+                    return;
+                } catch (ScriptError e) {
+                    rejected.incrementAndGet();
+                    return;
+                } catch (RuntimeException e) {
+                    if (attempt >= maxAttempts || stopped) {
+                        failed.incrementAndGet();
+                        done = false;
+                        return;
+                    }
+                    retries.incrementAndGet();
+                    Thread.sleep(retryDelayMillis * attempt);
+                }
+            }
+        } catch (InterruptedException e) {
+            failed.incrementAndGet();
+            done = false;
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Map.Entry<String, Long> loan : batch.entrySet()) {
+                if (done) submitted.put(loan.getKey(), loan.getValue());
+                else submitted.remove(loan.getKey());
+            }
+            inFlight.release();
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package pawnshop.keeper;
+
+import java.util.List;
+
+/**
+ * Sends closeExpiredFor or closeExpiredLoans to the dApp.
+ */
+public interface Liquidator {
+
+    /**
+     * Invokes closeExpiredFor for the loan and returns when the node has accepted the transaction.
+     *
+     * @throws pawnshop.ScriptError if the script rejected the invocation, it is not retried
+     * @throws RuntimeException     on any other failure, the keeper retries it
+     */
+    void closeExpiredFor(String loan);
+
+    /**
+     * Invokes closeExpiredLoans for the loans, numeric ids in increasing order, and returns when the node has accepted
+     * the transaction. The script skips the loans that are not open and expired, and rejects the invocation if none is.
+     *
+     * @throws pawnshop.ScriptError if the script rejected the invocation, it is not retried
+     * @throws RuntimeException     on any other failure, the keeper retries it
+     */
+    void closeExpiredLoans(List<String> loans);
+
+}
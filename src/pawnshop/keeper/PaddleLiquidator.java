@@ -0,0 +1,44 @@
+package pawnshop.keeper;
+
+import im.mak.paddle.Account;
+import im.mak.paddle.exceptions.NodeError;
+import pawnshop.ScriptError;
+
+import java.util.List;
+
+import static im.mak.paddle.actions.invoke.Arg.arg;
+
+/**
+ * Liquidates from an account of a real node. Any account may close an expired loan.
+ */
+public class PaddleLiquidator implements Liquidator {
+
+    private final Account account;
+    private final String dApp;
+
+    public PaddleLiquidator(Account account, String dApp) {
+        this.account = account;
+        this.dApp = dApp;
+    }
+
+    @Override
+    public void closeExpiredFor(String loan) {
+        invoke("closeExpiredFor", loan);
+    }
+
+    @Override
+    public void closeExpiredLoans(List<String> loans) {
+        invoke("closeExpiredLoans", String.join("|", loans));
+    }
+
+    private void invoke(String function, String argument) {
+        try {
+            account.invokes(i -> i.dApp(dApp).function(function, arg(argument)));
+        } catch (NodeError e) {
+            if (e.getMessage() != null && e.getMessage().contains("Error while executing account-script"))
+                throw new ScriptError(e.getMessage());
+            throw e;
+        }
+    }
+
+}
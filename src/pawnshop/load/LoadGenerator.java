@@ -0,0 +1,279 @@
+package pawnshop.load;
+
+import pawnshop.Keys;
+import pawnshop.PawnshopEngine;
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+import pawnshop.node.AccountPool;
+import pawnshop.node.Actor;
+import pawnshop.node.Network;
+import pawnshop.ride.RideScript;
+import pawnshop.state.DecodedChanges;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Drives many borrowers through borrow and buyBack or discard at a target rate of invocations, while the oracle
+ * posts new rates, lenders enable and disable lending, and lenders withdraw their deposits and deposit again.
+ * <p>
+ * Every borrower has its own thread and its own account. Each call is timed from broadcast to confirmation and
+ * counted as accepted, rejected by the script, or failed, see {@link LoadReport}. A borrower that can no longer pay
+ * the deposit and the fees of another cycle stops and is counted as exhausted.
+ */
+public class LoadGenerator {
+
+    public static class Config {
+        int borrowers = 100;
+        double invocationsPerSecond = 50;
+        long durationMillis = 60_000;
+        long borrowWaves = PawnshopEngine.TEN8;
+        long borrowerWaves = 10 * PawnshopEngine.TEN8;
+        long borrowerBtc = PawnshopEngine.TEN8 / 100;
+        double buyBackShare = 0.8;
+        long maxHoldMillis = 0;
+        int lenders = 5;
+        long oracleIntervalMillis = 1000;
+        long baseRate = 10000;
+        double rateJitter = 0.02;
+        long lenderChurnMillis = 2000;
+        long depositChurnMillis = 5000;
+
+        public Config borrowers(int borrowers) { this.borrowers = borrowers; return this; }
+        public Config invocationsPerSecond(double rate) { this.invocationsPerSecond = rate; return this; }
+        public Config durationMillis(long millis) { this.durationMillis = millis; return this; }
+        public Config borrowWaves(long amount) { this.borrowWaves = amount; return this; }
+        public Config borrowerFunds(long waves, long btc) { this.borrowerWaves = waves; this.borrowerBtc = btc; return this; }
+        public Config buyBackShare(double share) { this.buyBackShare = share; return this; }
+        public Config maxHoldMillis(long millis) { this.maxHoldMillis = millis; return this; }
+        public Config lenders(int lenders) { this.lenders = lenders; return this; }
+        public Config oracle(long baseRate, double jitter, long intervalMillis) {
+            this.baseRate = baseRate;
+            this.rateJitter = jitter;
+            this.oracleIntervalMillis = intervalMillis;
+            return this;
+        }
+        public Config lenderChurnMillis(long millis) { this.lenderChurnMillis = millis; return this; }
+        /** How often a lender withdraws its deposit, or deposits again once withdrawn, 0 to keep the deposits. */
+        public Config depositChurnMillis(long millis) { this.depositChurnMillis = millis; return this; }
+    }
+
+    private final Network network;
+    private final String dApp;
+    private final String btcId;
+    private final Actor treasury;
+    private final Actor oracle;
+    private final Config config;
+    private final LoadReport report = new LoadReport();
+
+    /**
+     * @param treasury an account with enough BTC to fund the borrowers and the lenders, WAVES come from the faucet
+     *                 of the network
+     */
+    public LoadGenerator(Network network, String dApp, String btcId, Actor treasury, Actor oracle, Config config) {
+        this.network = network;
+        this.dApp = dApp;
+        this.btcId = btcId;
+        this.treasury = treasury;
+        this.oracle = oracle;
+        this.config = config;
+    }
+
+    public LoadReport run() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(config.borrowers, 1), daemon("load-borrower"));
+        ScheduledExecutorService churn = Executors.newScheduledThreadPool(3, daemon("load-churn"));
+        try (AccountPool pool = new AccountPool(network)) {
+            List<Actor> borrowers = pool.create(config.borrowers, config.borrowerWaves, treasury, btcId, config.borrowerBtc);
+            List<Actor> lenders = pool.create(config.lenders, PawnshopEngine.TEN8, treasury, btcId, lendSize());
+            List<AtomicBoolean> enabled = new ArrayList<>();
+            List<AtomicBoolean> deposited = new ArrayList<>();
+            for (Actor lender : lenders) {
+                boolean deposit = call(lender, "depositBtc", Payment.of(lendSize(), btcId)) != null;
+                enabled.add(new AtomicBoolean(deposit));
+                deposited.add(new AtomicBoolean(deposit));
+            }
+
+            Pacer pacer = new Pacer(config.invocationsPerSecond);
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.durationMillis);
+            churn.scheduleAtFixedRate(this::postRate, 0, config.oracleIntervalMillis, TimeUnit.MILLISECONDS);
+            if (!lenders.isEmpty())
+                churn.scheduleAtFixedRate(() -> toggleLending(lenders, enabled, deposited),
+                        config.lenderChurnMillis, config.lenderChurnMillis, TimeUnit.MILLISECONDS);
+            if (!lenders.isEmpty() && config.depositChurnMillis > 0)
+                churn.scheduleAtFixedRate(() -> churnDeposit(lenders, enabled, deposited),
+                        config.depositChurnMillis, config.depositChurnMillis, TimeUnit.MILLISECONDS);
+
+            List<Future<?>> loops = new ArrayList<>();
+            for (Actor borrower : borrowers)
+                loops.add(workers.submit(() -> {
+                    cycle(borrower, pacer, deadline);
+                    return null;
+                }));
+            for (Future<?> loop : loops)
+                await(loop);
+            report.finish(System.nanoTime() - start);
+            return report;
+        } finally {
+            churn.shutdownNow();
+            workers.shutdownNow();
+            churn.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void cycle(Actor borrower, Pacer pacer, long deadline) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            // a borrower that discarded its deposits too often can't pay for the next cycle
+            if (borrower.balance(null) < config.borrowWaves + 2 * RideScript.INVOKE_FEE) {
+                report.exhausted();
+                return;
+            }
+            pacer.acquire();
+            ScriptResult borrowed = call(borrower, "borrow", Payment.waves(config.borrowWaves));
+            if (borrowed != null && config.maxHoldMillis > 0)
+                Thread.sleep(random.nextLong(config.maxHoldMillis + 1));
+            if (borrowed == null) continue;
+            long lend = 0;
+            for (Transfer t : borrowed.transfers)
+                if (t.address.equals(borrower.address())) lend += t.amount;
+            String loan = DecodedChanges.of(borrowed).borrowedLoan();
+            if (random.nextDouble() < config.buyBackShare) {
+                pacer.acquire();
+                // the interest never exceeds the loan, the script returns the excess
+                if (call(borrower, "buyBack", Payment.of(2 * lend, btcId), loan) != null) continue;
+            }
+            pacer.acquire();
+            call(borrower, "discard", null, loan);
+        }
+    }
+
+    private void postRate() {
+        double jitter = config.rateJitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        long rate = Math.max(1, Math.round(config.baseRate * (1 + jitter)));
+        timed("oracle", () -> {
+            oracle.writeInteger(Keys.ORACLE_DATA, rate);
+            return true;
+        });
+    }
+
+    private void toggleLending(List<Actor> lenders, List<AtomicBoolean> enabled, List<AtomicBoolean> deposited) {
+        int i = ThreadLocalRandom.current().nextInt(lenders.size());
+        synchronized (lenders.get(i)) {
+            if (!deposited.get(i).get()) return;
+            boolean enable = !enabled.get(i).get();
+            if (timed("enableLending", () -> lenders.get(i).invoke(dApp, "enableLending",
+                    Collections.singletonList(enable), null)) != null)
+                enabled.get(i).set(enable);
+        }
+    }
+
+    /**
+     * Withdraws the deposit of a random lender, or deposits again for one that withdrew. A withdrawal settles the
+     * cohorts the lender left behind first, and is rejected while its cohort has open loans. A deposit tops the lender
+     * up from the treasury for what the loans of its cohort lost.
+     */
+    private void churnDeposit(List<Actor> lenders, List<AtomicBoolean> enabled, List<AtomicBoolean> deposited) {
+        int i = ThreadLocalRandom.current().nextInt(lenders.size());
+        Actor lender = lenders.get(i);
+        synchronized (lender) {
+            if (deposited.get(i).get()) {
+                if (withdraw(lender)) deposited.get(i).set(false);
+                return;
+            }
+            long lendSize = lendSize();
+            long missing = lendSize - lender.balance(btcId);
+            if (missing > 0 && timed("transfer", () -> {
+                treasury.transfer(lender.address(), missing, btcId);
+                return true;
+            }) == null) return;
+            if (call(lender, "depositBtc", Payment.of(lendSize, btcId)) != null) {
+                deposited.get(i).set(true);
+                enabled.get(i).set(true);
+            }
+        }
+    }
+
+    private boolean withdraw(Actor lender) {
+        String address = lender.address();
+        long cohorts = longOrZero(Keys.COHORT_COUNT);
+        long from = longOrZero(Keys.settledCohortOf(address));
+        // a settle that leaves the checkpoint in place finds open loans, the withdrawal is rejected for them then
+        while (from < cohorts && call(lender, "settle", null, address, from) != null) {
+            long settled = longOrZero(Keys.settledCohortOf(address));
+            if (settled == from) break;
+            from = settled;
+        }
+        return call(lender, "withdrawBtc", null) != null;
+    }
+
+    private ScriptResult call(Actor actor, String function, Payment payment, Object... args) {
+        return timed(function, () -> actor.invoke(dApp, function, Arrays.asList(args), payment));
+    }
+
+    private <T> T timed(String function, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            T result = action.get();
+            report.accepted(function, start);
+            return result;
+        } catch (ScriptError e) {
+            report.rejected(function, normalize(e.getMessage()));
+        } catch (RuntimeException e) {
+            report.failed(function);
+        }
+        return null;
+    }
+
+    private long lendSize() {
+        Object lendSize = network.data(dApp, Keys.LEND_SIZE);
+        if (!(lendSize instanceof Long)) throw new IllegalStateException("The dApp is not initialized");
+        return (Long) lendSize * PawnshopEngine.TEN8;
+    }
+
+    private long longOrZero(String key) {
+        Object value = network.data(dApp, key);
+        return value instanceof Long ? (Long) value : 0;
+    }
+
+    static String normalize(String message) {
+        String m = message == null ? "" : message;
+        int script = m.indexOf("Error while executing account-script: ");
+        if (script >= 0) m = m.substring(script + "Error while executing account-script: ".length());
+        m = m.replaceAll("3[1-9A-HJ-NP-Za-km-z]{34}", "<address>").replaceAll("\\d+", "N");
+        return m.length() > 120 ? m.substring(0, 120) : m;
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+}
@@ -0,0 +1,103 @@
+package pawnshop.load;
+
+import pawnshop.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a load run per invoked function: accepted and rejected transactions, failures, and the time from
+ * broadcast to confirmation of accepted ones. Borrowers that stopped early for lack of WAVES are counted as exhausted.
+ */
+public class LoadReport {
+
+    public static class Stats {
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public final AtomicLong rejected = new AtomicLong();
+        public final AtomicLong failed = new AtomicLong();
+
+        public long accepted() {
+            return latency.count();
+        }
+    }
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> rejections = new ConcurrentHashMap<>();
+    private final AtomicLong exhausted = new AtomicLong();
+    private volatile long elapsedNanos;
+
+    public Stats stats(String function) {
+        return stats.computeIfAbsent(function, f -> new Stats());
+    }
+
+    void accepted(String function, long startNanos) {
+        stats(function).latency.recordSince(startNanos);
+    }
+
+    void rejected(String function, String message) {
+        stats(function).rejected.incrementAndGet();
+        rejections.computeIfAbsent(function + ": " + message, m -> new AtomicLong()).incrementAndGet();
+    }
+
+    void failed(String function) {
+        stats(function).failed.incrementAndGet();
+    }
+
+    void exhausted() {
+        exhausted.incrementAndGet();
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long accepted() {
+        return stats.values().stream().mapToLong(Stats::accepted).sum();
+    }
+
+    public long rejected() {
+        return stats.values().stream().mapToLong(s -> s.rejected.get()).sum();
+    }
+
+    public long failed() {
+        return stats.values().stream().mapToLong(s -> s.failed.get()).sum();
+    }
+
+    /**
+     * Borrowers that stopped before the end of the run because they could not pay for another cycle.
+     */
+    public long exhaustedBorrowers() {
+        return exhausted.get();
+    }
+
+    /**
+     * Rejection messages of the script with their counts, prefixed by the function.
+     */
+    public Map<String, Long> rejections() {
+        Map<String, Long> result = new TreeMap<>();
+        rejections.forEach((m, n) -> result.put(m, n.get()));
+        return result;
+    }
+
+    /**
+     * Accepted transactions per second over the whole run.
+     */
+    public double throughput() {
+        return elapsedNanos == 0 ? 0 : accepted() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("%d accepted, %d rejected, %d failed in %.1fs, %.1f tx/s%n",
+                accepted(), rejected(), failed(), elapsedNanos / 1e9, throughput()));
+        if (exhaustedBorrowers() > 0)
+            sb.append(String.format("  %d borrowers ran out of WAVES%n", exhaustedBorrowers()));
+        new TreeMap<>(stats).forEach((f, s) -> sb.append(String.format("  %-16s %6d ok %6d rejected %6d failed  %s%n",
+                f, s.accepted(), s.rejected.get(), s.failed.get(), s.latency)));
+        rejections().forEach((m, n) -> sb.append(String.format("  %6d x %s%n", n, m)));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,29 @@
+package pawnshop.load;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads permits evenly at a target rate over all threads that ask for them.
+ */
+class Pacer {
+
+    private final long intervalNanos;
+    private long next;
+
+    Pacer(double perSecond) {
+        if (perSecond <= 0) throw new IllegalArgumentException("Rate must be positive");
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.next = System.nanoTime();
+    }
+
+    void acquire() throws InterruptedException {
+        long at;
+        synchronized (this) {
+            at = Math.max(next, System.nanoTime());
+            next = at + intervalNanos;
+        }
+        long wait = at - System.nanoTime();
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+}
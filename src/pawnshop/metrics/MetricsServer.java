@@ -0,0 +1,67 @@
+package pawnshop.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import pawnshop.state.DataFeed;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link PawnshopMetrics} at {@code /metrics} for Prometheus to scrape. Every scrape first follows the feed,
+ * so the metrics are as fresh as the node and a scrape within the same block costs no rendering.
+ */
+public class MetricsServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final PawnshopMetrics metrics;
+    private final DataFeed feed;
+
+    /**
+     * Starts serving on the port of the loopback address, 0 for any free port.
+     */
+    public MetricsServer(PawnshopMetrics metrics, DataFeed feed, int port) {
+        this.metrics = metrics;
+        this.feed = feed;
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            synchronized (metrics) {
+                metrics.follow(feed);
+                body = metrics.scrape();
+            }
+        } catch (RuntimeException e) {
+            status = 503;
+            body = "# " + e + "\n";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,295 @@
+package pawnshop.metrics;
+
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.PawnshopEngine;
+import pawnshop.state.DataFeed;
+import pawnshop.state.DecodedChanges;
+import pawnshop.state.LenderLedger;
+import pawnshop.state.LenderSlots;
+import pawnshop.state.Loan;
+import pawnshop.state.OpenLoanIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static pawnshop.Keys.LOAN_PREFIXES;
+
+/**
+ * Health of the dApp in the Prometheus text format: open loans and what they hold, loans by period, the use of every
+ * lender's stake, what is owed to the lenders and the administrator, and the oracle rate against {@code maxRate}.
+ * <p>
+ * The metrics are built once from the whole storage with {@link #load(String, Map, Map, int)} and then follow the
+ * entries written block by block, the open loans through an {@link OpenLoanIndex} and everything else but the loan
+ * keys as a copy of the storage. The oracle rate is taken from the entries of the oracle the dApp points at; after
+ * the oracle changes the rate is the last one known until the new oracle posts. {@link #scrape()} renders the text
+ * once per applied state and returns it again until a block changes something.
+ * <p>
+ * Loans are counted at the height of the last applied block: in grace up to the end of grace, in interest until the
+ * end of interest, expired from it on, when buyBack is no longer possible, and closable after it.
+ */
+public class PawnshopMetrics {
+
+    private final String dApp;
+    private final OpenLoanIndex index;
+    private final Map<String, Object> stored = new HashMap<>();
+    private final Map<String, Loan> loans = new HashMap<>();
+    private final long[] lentBySlot = new long[PawnshopEngine.MAX_LENDERS];
+    private LenderSlots slots = LenderSlots.EMPTY;
+    private Long oracleRate;
+    private int height;
+    private int appliedEntries, appliedOracleEntries;
+    private String rendered;
+
+    private PawnshopMetrics(String dApp, OpenLoanIndex index) {
+        this.dApp = dApp;
+        this.index = index;
+    }
+
+    /**
+     * Builds the metrics from the whole storage of the dApp and of its oracle at the end of the block at the height.
+     */
+    public static PawnshopMetrics load(String dApp, Map<String, Object> data, Map<String, Object> oracleData,
+                                       int height) {
+        PawnshopMetrics metrics = new PawnshopMetrics(dApp, OpenLoanIndex.load(data, height));
+        List<Entry> entries = new ArrayList<>(data.size());
+        data.forEach((key, value) -> entries.add(new Entry(key, value)));
+        metrics.adopt(entries);
+        Object rate = oracleData.get(Keys.ORACLE_DATA);
+        if (rate instanceof Long) metrics.oracleRate = (Long) rate;
+        metrics.height = height;
+        return metrics;
+    }
+
+    /**
+     * Height of the last applied block.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Applies the entries written to the dApp and to its oracle in the block at the height.
+     */
+    public void apply(int height, List<Entry> entries, List<Entry> oracleEntries) {
+        if (!entries.isEmpty()) {
+            index.apply(height, entries);
+            adopt(entries);
+            rendered = null;
+        }
+        for (Entry e : oracleEntries) {
+            if (!e.key.equals(Keys.ORACLE_DATA) || !(e.value instanceof Long)) continue;
+            oracleRate = (Long) e.value;
+            rendered = null;
+        }
+        if (height > this.height) {
+            this.height = height;
+            rendered = null;
+        }
+    }
+
+    /**
+     * Applies the blocks from the last applied one up to the current height of the feed. The last applied block is
+     * taken again since it could get more transactions, only the entries after the ones already applied count.
+     *
+     * @return the number of applied blocks
+     */
+    public int follow(DataFeed feed) {
+        int target = feed.height();
+        int from = Math.max(height, 1);
+        for (int h = from; h <= target; h++) {
+            List<Entry> entries = feed.dataChanges(dApp, h);
+            String oracle = oracleOf(entries);
+            List<Entry> oracleEntries = oracle.isEmpty() ? Collections.emptyList() : feed.dataChanges(oracle, h);
+            int skip = h == height ? appliedEntries : 0, oracleSkip = h == height ? appliedOracleEntries : 0;
+            apply(h, entries.subList(Math.min(skip, entries.size()), entries.size()),
+                    oracleEntries.subList(Math.min(oracleSkip, oracleEntries.size()), oracleEntries.size()));
+            appliedEntries = entries.size();
+            appliedOracleEntries = oracleEntries.size();
+        }
+        return Math.max(0, target - from + 1);
+    }
+
+    public int openLoans() {
+        return index.size();
+    }
+
+    public int inGrace() {
+        return index.size() - inInterest() - expired();
+    }
+
+    public int inInterest() {
+        return index.countInInterestPeriod(height);
+    }
+
+    public int expired() {
+        return index.countExpiringBy(height);
+    }
+
+    public int closable() {
+        return index.countExpiringBy(height - 1);
+    }
+
+    /**
+     * BTC of the open loans the lender's stake covers, an equal part of each of its loans.
+     */
+    public long lent(String lender) {
+        Object slot = stored.get(Keys.slotOf(lender));
+        return slot instanceof Long && (Long) slot >= 0 ? lentBySlot[(int) (long) (Long) slot] : 0;
+    }
+
+    /**
+     * Part of the lender's stake out on open loans, 1 when all of {@code lend_size} is lent.
+     */
+    public double utilization(String lender) {
+        long lendSize = integer(Keys.LEND_SIZE) * PawnshopEngine.TEN8;
+        return lendSize == 0 ? 0 : (double) lent(lender) / lendSize;
+    }
+
+    public Long oracleRate() {
+        return oracleRate;
+    }
+
+    /**
+     * The metrics in the Prometheus text exposition format, rendered again only after a change.
+     */
+    public String scrape() {
+        if (rendered == null) rendered = render();
+        return rendered;
+    }
+
+    private String render() {
+        StringBuilder out = new StringBuilder();
+        gauge(out, "pawnshop_height", "Height of the last applied block.", height);
+        gauge(out, "pawnshop_open_loans", "Open loans.", index.size());
+        gauge(out, "pawnshop_lend_outstanding", "BTC lent on open loans, in satoshi.", index.lendTotal());
+        gauge(out, "pawnshop_deposit_locked", "WAVES deposited on open loans, in wavelets.", index.depositTotal());
+        header(out, "pawnshop_loans", "Open loans by period at the height.");
+        sample(out, "pawnshop_loans{period=\"grace\"}", inGrace());
+        sample(out, "pawnshop_loans{period=\"interest\"}", inInterest());
+        sample(out, "pawnshop_loans{period=\"expired\"}", expired());
+        gauge(out, "pawnshop_loans_closable", "Expired loans anyone can close at the height.", closable());
+        gauge(out, "pawnshop_lend_size", "Stake of every lender, in satoshi.",
+                integer(Keys.LEND_SIZE) * PawnshopEngine.TEN8);
+        gauge(out, "pawnshop_max_rate", "Highest oracle rate the dApp accepts.", integer(Keys.MAX_RATE));
+        if (oracleRate != null) {
+            gauge(out, "pawnshop_oracle_rate", "Last rate posted by the oracle.", oracleRate);
+            long maxRate = integer(Keys.MAX_RATE);
+            gauge(out, "pawnshop_oracle_rate_ratio", "Oracle rate over maxRate, borrow fails above 1.",
+                    maxRate == 0 ? 0 : (double) oracleRate / maxRate);
+        }
+
+        List<String> lenders = slots.lenders(string(Keys.LENDER_FLAGS));
+        header(out, "pawnshop_lender_lent", "BTC of open loans on the lender's stake, in satoshi.");
+        for (String lender : lenders)
+            sample(out, "pawnshop_lender_lent" + label(lender), lent(lender));
+        header(out, "pawnshop_lender_utilization", "Lent BTC over lend_size.");
+        for (String lender : lenders)
+            sample(out, "pawnshop_lender_utilization" + label(lender), utilization(lender));
+
+        Set<String> accounts = new LinkedHashSet<>(lenders);
+        if (!string(Keys.OWNER).isEmpty()) accounts.add(string(Keys.OWNER));
+        long[][] owed = new long[accounts.size()][];
+        int i = 0;
+        for (String account : accounts)
+            owed[i++] = LenderLedger.owed(stored, account);
+        long profit = 0, unclaimed = 0;
+        header(out, "pawnshop_profit_pending", "BTC profit owed to the account, settled or not, in satoshi.");
+        i = 0;
+        for (String account : accounts) {
+            sample(out, "pawnshop_profit_pending" + label(account), owed[i][0]);
+            profit += owed[i++][0];
+        }
+        header(out, "pawnshop_unclaimed_pending", "WAVES of failed loans owed to the account, in wavelets.");
+        i = 0;
+        for (String account : accounts) {
+            sample(out, "pawnshop_unclaimed_pending" + label(account), owed[i][1]);
+            unclaimed += owed[i++][1];
+        }
+        gauge(out, "pawnshop_profit_pending_total", "BTC profit owed, in satoshi.", profit);
+        gauge(out, "pawnshop_unclaimed_pending_total", "WAVES owed, in wavelets.", unclaimed);
+        return out.toString();
+    }
+
+    /**
+     * Keeps everything but the keys of single loans, and the lend and lenders of every open loan.
+     */
+    private void adopt(List<Entry> entries) {
+        for (Loan loan : new DecodedChanges(entries, Collections.emptyList()).loans().values()) {
+            Loan previous = loan.isOpen() ? loans.put(loan.id, loan) : loans.remove(loan.id);
+            if (previous != null) lend(previous, -1);
+            if (loan.isOpen()) lend(loan, 1);
+        }
+        for (Entry e : entries) {
+            if (!isMirrored(e.key)) continue;
+            stored.put(e.key, e.value);
+            if (e.key.equals(Keys.LENDER_ADDRESSES)) slots = new LenderSlots(e.asString());
+        }
+    }
+
+    private void lend(Loan loan, int sign) {
+        int lenders = loan.lenderCount();
+        if (lenders == 0) return;
+        long share = Math.floorDiv(loan.lend, lenders);
+        for (int slot = 0; slot < loan.lenderFlags.length() && slot < lentBySlot.length; slot++)
+            if (LenderSlots.isSet(loan.lenderFlags, slot)) lentBySlot[slot] += sign * share;
+    }
+
+    /** The oracle the dApp points at after the entries. */
+    private String oracleOf(List<Entry> entries) {
+        String oracle = string(Keys.ORACLE);
+        for (Entry e : entries)
+            if (e.key.equals(Keys.ORACLE)) oracle = e.asString();
+        return oracle;
+    }
+
+    private static boolean isMirrored(String key) {
+        if (key.startsWith(Keys.COHORT_OF)) return false;
+        for (String prefix : LOAN_PREFIXES)
+            if (key.startsWith(prefix)) return false;
+        return true;
+    }
+
+    private long integer(String key) {
+        Object value = stored.get(key);
+        return value instanceof Long ? (Long) value : 0;
+    }
+
+    private String string(String key) {
+        Object value = stored.get(key);
+        return value instanceof String ? (String) value : "";
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        header(out, name, help);
+        sample(out, name, value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help);
+        sample(out, name, value);
+    }
+
+    private static void header(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+    }
+
+    private static void sample(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, double value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String label(String account) {
+        return "{account=\"" + account + "\"}";
+    }
+
+}
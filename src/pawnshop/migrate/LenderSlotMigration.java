@@ -0,0 +1,174 @@
+package pawnshop.migrate;
+
+import pawnshop.Entry;
+import pawnshop.PawnshopEngine;
+import pawnshop.node.Actor;
+import pawnshop.node.NodeHttp;
+import pawnshop.ride.LocalNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static pawnshop.Keys.*;
+
+/**
+ * Converts the dApp storage from pipe-separated lender lists to lender slots.
+ * <p>
+ * The n-th lender of {@code lenders} takes slot n: its address goes to {@code lender_addresses} and its slot to
+ * {@code slot_of_}, and {@code lender_flags}, {@code enabled_lender_flags} and the {@code lender_flags_of_} of every
+ * loan mark the slots of {@code lenders}, {@code enabledLenders} and {@code lenders_of_}. The legacy keys are
+ * overwritten with empty strings, the way the script clears keys. Open loans with the same lenders form a cohort,
+ * numbered from 1 in the order of their flags, and the profit of every lender so far stays in its own keys.
+ * <p>
+ * Set the slot script first, with new loans and new deposits disabled, then apply the migration. Until it is written
+ * the script sees no lenders: closing a loan fails on its missing cohort, enableLending and withdrawBtc fail with
+ * "is not lender", and nothing is written. The entries are sent as data transactions of the dApp itself, which has
+ * no verifier.
+ */
+public class LenderSlotMigration {
+
+    private final Map<String, Object> data;
+
+    public LenderSlotMigration(Map<String, Object> data) {
+        this.data = data;
+    }
+
+    /**
+     * The whole storage of the dApp.
+     */
+    public static Map<String, Object> fetch(NodeHttp http, String dApp) {
+        Map<String, Object> data = new TreeMap<>();
+        for (Object e : (List<?>) http.get("/addresses/data/" + dApp)) {
+            Entry entry = NodeHttp.dataEntry((Map<?, ?>) e);
+            data.put(entry.key, entry.value);
+        }
+        return data;
+    }
+
+    /**
+     * The entries to write, empty if there are no legacy lender lists left.
+     *
+     * @throws IllegalStateException if the legacy lists contradict each other
+     */
+    public List<Entry> entries() {
+        String lendersStr = legacy(LEGACY_LENDERS);
+        String enabledStr = legacy(LEGACY_ENABLED_LENDERS);
+        Map<String, String> loans = new TreeMap<>();
+        data.forEach((key, value) -> {
+            if (key.startsWith(LEGACY_LENDERS_OF) && !"".equals(value))
+                loans.put(key.substring(LEGACY_LENDERS_OF.length()), (String) value);
+        });
+        if (lendersStr.isEmpty() && enabledStr.isEmpty() && loans.isEmpty()) return Collections.emptyList();
+
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        for (String lender : parts(lendersStr)) {
+            if (lender.length() != PawnshopEngine.ADDRESS_SIZE)
+                throw new IllegalStateException("Not a lender address: " + lender);
+            if (slots.putIfAbsent(lender, slots.size()) != null)
+                throw new IllegalStateException("Lender " + lender + " is listed twice");
+        }
+        if (slots.size() > PawnshopEngine.MAX_LENDERS)
+            throw new IllegalStateException("More than " + PawnshopEngine.MAX_LENDERS + " lenders: " + slots.size());
+
+        Map<String, Long> cohorts = new TreeMap<>();
+        for (Map.Entry<String, String> loan : loans.entrySet())
+            if (isOpen(loan.getKey())) cohorts.put(flags(slots, loan.getValue()), 0L);
+        long count = 0;
+        for (Map.Entry<String, Long> cohort : cohorts.entrySet())
+            cohort.setValue(++count);
+
+        List<Entry> entries = new ArrayList<>();
+        Map<Long, Long> open = new TreeMap<>();
+        for (Map.Entry<String, String> loan : loans.entrySet()) {
+            if (isOpen(loan.getKey())) {
+                String flags = flags(slots, loan.getValue());
+                long cohort = cohorts.get(flags);
+                entries.add(Entry.string(lenderFlagsOf(loan.getKey()), flags));
+                entries.add(Entry.integer(cohortOf(loan.getKey()), cohort));
+                open.merge(cohort, 1L, Long::sum);
+            } else {
+                entries.add(Entry.string(lenderFlagsOf(loan.getKey()), ""));
+            }
+            entries.add(Entry.string(LEGACY_LENDERS_OF + loan.getKey(), ""));
+        }
+        for (Map.Entry<String, Long> cohort : cohorts.entrySet()) {
+            entries.add(Entry.string(cohortFlags(cohort.getValue()), cohort.getKey()));
+            entries.add(Entry.integer(cohortOpen(cohort.getValue()), open.get(cohort.getValue())));
+        }
+        if (count > 0) entries.add(Entry.integer(COHORT_COUNT, count));
+        StringBuilder addresses = new StringBuilder();
+        for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+            entries.add(Entry.integer(slotOf(slot.getKey()), slot.getValue()));
+            addresses.append(slot.getKey());
+        }
+        entries.add(Entry.string(LENDER_ADDRESSES, addresses.toString()));
+        entries.add(Entry.string(LENDER_FLAGS, flags(slots, lendersStr)));
+        entries.add(Entry.string(ENABLED_LENDER_FLAGS, flags(slots, enabledStr)));
+        entries.add(Entry.string(LEGACY_LENDERS, ""));
+        entries.add(Entry.string(LEGACY_ENABLED_LENDERS, ""));
+        return entries;
+    }
+
+    /**
+     * The entries split into data transactions. The lender lists come last, so the slots of the loans are in place
+     * by the time the script sees any lender.
+     */
+    public List<List<Entry>> batches() {
+        List<Entry> entries = entries();
+        List<List<Entry>> batches = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += LocalNode.MAX_DATA_ENTRIES)
+            batches.add(entries.subList(from, Math.min(entries.size(), from + LocalNode.MAX_DATA_ENTRIES)));
+        return batches;
+    }
+
+    /**
+     * Writes the batches from the dApp account. Returns the number of transactions sent.
+     *
+     * @throws IllegalStateException if new loans or new deposits are enabled
+     */
+    public int apply(Actor dApp) {
+        if (!Boolean.FALSE.equals(data.get(ENABLE_NEW_LOANS)) || !Boolean.FALSE.equals(data.get(ENABLE_DEPOSIT_BTC)))
+            throw new IllegalStateException("Disable new loans and new deposits before migrating");
+        List<List<Entry>> batches = batches();
+        for (List<Entry> batch : batches)
+            dApp.writeData(batch);
+        return batches.size();
+    }
+
+    private boolean isOpen(String loan) {
+        Object start = data.get(startOf(loan));
+        return start instanceof Long && (Long) start > 0;
+    }
+
+    private String legacy(String key) {
+        Object value = data.get(key);
+        return value instanceof String ? (String) value : "";
+    }
+
+    private static String flags(Map<String, Integer> slots, String lenders) {
+        char[] flags = new char[slots.size()];
+        Arrays.fill(flags, '0');
+        for (String lender : parts(lenders)) {
+            Integer slot = slots.get(lender);
+            if (slot == null) throw new IllegalStateException("Lender " + lender + " does not participate");
+            flags[slot] = '1';
+        }
+        return new String(flags);
+    }
+
+    /**
+     * The lenders of a legacy list. A loan taken without lenders lists the empty string, which is no lender.
+     */
+    private static List<String> parts(String lenders) {
+        List<String> parts = new ArrayList<>();
+        for (String lender : lenders.split("\\|"))
+            if (!lender.isEmpty()) parts.add(lender);
+        return parts;
+    }
+
+}
@@ -0,0 +1,173 @@
+package pawnshop.node;
+
+import pawnshop.Base58;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accounts with generated seeds, funded up to {@link #MAX_RECIPIENTS} at a time by mass transfers of WAVES and of an
+ * asset, so that a thousand accounts cost a few blocks instead of a thousand transfers.
+ * <p>
+ * New accounts are leased to the caller that created them. Released accounts stay funded with whatever they have
+ * left and are leased again by {@link #lease()}.
+ */
+public class AccountPool implements AutoCloseable {
+
+    public static final int MAX_RECIPIENTS = 100;
+
+    private final Network network;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, String> seeds = new ConcurrentHashMap<>();
+    private final Deque<Actor> available = new ArrayDeque<>();
+    private final AtomicInteger leased = new AtomicInteger();
+    private final ExecutorService pool;
+
+    /**
+     * @param parallelism how many mass transfers are in flight at the same time
+     */
+    public AccountPool(Network network, int parallelism) {
+        this.network = network;
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "account-pool-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public AccountPool(Network network) {
+        this(network, 4);
+    }
+
+    /**
+     * Creates the accounts, funds each with WAVES from the faucet and leases them.
+     */
+    public List<Actor> create(int count, long waves) {
+        return create(count, waves, null, null, 0);
+    }
+
+    /**
+     * Creates the accounts, funds each with WAVES from the faucet and with the asset from its source, and leases
+     * them.
+     */
+    public List<Actor> create(int count, long waves, Actor assetSource, String asset, long assetAmount) {
+        List<Actor> actors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String seed = newSeed();
+            Actor actor = network.account(seed);
+            seeds.put(actor.address(), seed);
+            actors.add(actor);
+        }
+        List<Future<?>> transfers = new ArrayList<>();
+        if (waves > 0)
+            transfers.addAll(massTransfers(network.faucet(), null, waves, actors));
+        if (assetSource != null && assetAmount > 0)
+            transfers.addAll(massTransfers(assetSource, asset, assetAmount, actors));
+        await(transfers);
+        leased.addAndGet(count);
+        return actors;
+    }
+
+    /**
+     * Sends the amount to every account, {@link #MAX_RECIPIENTS} per transaction with the transactions in parallel.
+     */
+    public void fund(Actor source, String asset, long amount, List<Actor> accounts) {
+        await(massTransfers(source, asset, amount, accounts));
+    }
+
+    public Actor lease() {
+        synchronized (available) {
+            Actor actor = available.pollFirst();
+            if (actor == null) throw new IllegalStateException("The account pool is exhausted");
+            leased.incrementAndGet();
+            return actor;
+        }
+    }
+
+    public List<Actor> lease(int count) {
+        synchronized (available) {
+            if (available.size() < count)
+                throw new IllegalStateException("The account pool has " + available.size() + " of " + count + " accounts");
+            List<Actor> actors = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                actors.add(lease());
+            return actors;
+        }
+    }
+
+    public void release(Actor actor) {
+        if (!seeds.containsKey(actor.address()))
+            throw new IllegalArgumentException(actor.address() + " is not an account of the pool");
+        synchronized (available) {
+            available.addLast(actor);
+            leased.decrementAndGet();
+        }
+    }
+
+    public int available() {
+        synchronized (available) {
+            return available.size();
+        }
+    }
+
+    public int leased() {
+        return leased.get();
+    }
+
+    /**
+     * Seed of an account of the pool, to sign with it through another library.
+     */
+    public String seed(Actor actor) {
+        String seed = seeds.get(actor.address());
+        if (seed == null) throw new IllegalArgumentException(actor.address() + " is not an account of the pool");
+        return seed;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private String newSeed() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Base58.encode(bytes);
+    }
+
+    private List<Future<?>> massTransfers(Actor source, String asset, long amount, List<Actor> accounts) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < accounts.size(); from += MAX_RECIPIENTS) {
+            Map<String, Long> recipients = new LinkedHashMap<>();
+            for (Actor a : accounts.subList(from, Math.min(from + MAX_RECIPIENTS, accounts.size())))
+                recipients.put(a.address(), amount);
+            futures.add(pool.submit(() -> source.massTransfer(asset, recipients)));
+        }
+        return futures;
+    }
+
+    private static void await(List<Future<?>> futures) {
+        try {
+            for (Future<?> f : futures)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package pawnshop.node;
+
+import pawnshop.Entry;
+import pawnshop.Payment;
+import pawnshop.ScriptResult;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An account that sends transactions. Every method returns when the node has accepted the transaction.
+ */
+public interface Actor {
+
+    String address();
+
+    long balance(String asset);
+
+    /**
+     * Invokes the callable and returns its state changes.
+     *
+     * @throws pawnshop.ScriptError if the script rejected the invocation
+     */
+    ScriptResult invoke(String dApp, String function, List<Object> args, Payment payment);
+
+    void writeInteger(String key, long value);
+
+    /**
+     * Writes the entries in one data transaction, at most 100 of them.
+     */
+    void writeData(List<Entry> entries);
+
+    void transfer(String recipient, long amount, String asset);
+
+    void massTransfer(String asset, Map<String, Long> recipients);
+
+}
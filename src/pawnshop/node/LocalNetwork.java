@@ -0,0 +1,111 @@
+package pawnshop.node;
+
+import pawnshop.Entry;
+import pawnshop.Payment;
+import pawnshop.ScriptResult;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Network} over a {@link LocalNode}.
+ */
+public class LocalNetwork implements Network {
+
+    public final LocalNode node;
+    private final Actor faucet;
+
+    public LocalNetwork(LocalNode node) {
+        this.node = node;
+        this.faucet = actor(node.account("faucet", Long.MAX_VALUE / 2));
+    }
+
+    @Override
+    public char chainId() {
+        return node.chainId();
+    }
+
+    @Override
+    public int height() {
+        return node.height();
+    }
+
+    @Override
+    public Object data(String address, String key) {
+        return node.data(address, key);
+    }
+
+    @Override
+    public Map<String, Object> data(String address, Collection<String> keys) {
+        return node.data(address, keys);
+    }
+
+    @Override
+    public Actor createAccount(long waves) {
+        return actor(node.createAccount(waves));
+    }
+
+    @Override
+    public Actor account(String seed) {
+        return actor(node.account(seed, 0));
+    }
+
+    @Override
+    public Actor faucet() {
+        return faucet;
+    }
+
+    public static Actor actor(LocalAccount account) {
+        return new Actor() {
+            @Override
+            public String address() {
+                return account.address();
+            }
+
+            @Override
+            public long balance(String asset) {
+                return account.balance(asset);
+            }
+
+            @Override
+            public ScriptResult invoke(String dApp, String function, List<Object> args, Payment payment) {
+                return account.invokes(i -> {
+                    i.dApp(dApp).function(function, args.toArray());
+                    if (payment != null) i.payment(payment.amount, payment.asset);
+                }).stateChanges;
+            }
+
+            @Override
+            public void writeInteger(String key, long value) {
+                account.writes(d -> d.integer(key, value));
+            }
+
+            @Override
+            public void writeData(List<Entry> entries) {
+                account.writes(d -> {
+                    for (Entry e : entries)
+                        d.entry(e);
+                });
+            }
+
+            @Override
+            public void transfer(String recipient, long amount, String asset) {
+                account.transfers(recipient, amount, asset);
+            }
+
+            @Override
+            public void massTransfer(String asset, Map<String, Long> recipients) {
+                account.massTransfers(asset, recipients);
+            }
+
+            @Override
+            public String toString() {
+                return account.address();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,49 @@
+package pawnshop.node;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A blockchain that tools drive: a private node through Paddle or a {@link pawnshop.ride.LocalNode}.
+ */
+public interface Network {
+
+    char chainId();
+
+    int height();
+
+    /**
+     * Value of the key in the account's storage, Long, String, Boolean or byte[], or null if there is none.
+     */
+    Object data(String address, String key);
+
+    /**
+     * Values of the keys in the account's storage, read at once where the network allows it. Keys without a value
+     * are left out.
+     */
+    default Map<String, Object> data(String address, Collection<String> keys) {
+        Map<String, Object> values = new HashMap<>();
+        for (String key : keys) {
+            Object value = data(address, key);
+            if (value != null) values.put(key, value);
+        }
+        return values;
+    }
+
+    /**
+     * Creates an account funded with WAVES from the network's faucet.
+     */
+    Actor createAccount(long waves);
+
+    /**
+     * The account of the seed as it is, without funding it.
+     */
+    Actor account(String seed);
+
+    /**
+     * The account that funds new accounts.
+     */
+    Actor faucet();
+
+}
@@ -0,0 +1,50 @@
+package pawnshop.node;
+
+import pawnshop.Entry;
+import pawnshop.state.DataFeed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link DataFeed} over the REST API of a node: the entries of the data transactions an account sent in a block and
+ * of the invocations of it as a dApp.
+ */
+public class NodeDataFeed implements DataFeed {
+
+    private static final long DATA = 12;
+    private static final long INVOKE_SCRIPT = 16;
+
+    private final NodeHttp http;
+
+    public NodeDataFeed(NodeHttp http) {
+        this.http = http;
+    }
+
+    @Override
+    public int height() {
+        return http.height();
+    }
+
+    @Override
+    public List<Entry> dataChanges(String address, int height) {
+        Map<?, ?> block = (Map<?, ?>) http.get("/blocks/at/" + height);
+        List<?> transactions = block == null ? null : (List<?>) block.get("transactions");
+        if (transactions == null) return Collections.emptyList();
+        List<Entry> entries = new ArrayList<>();
+        for (Object o : transactions) {
+            Map<?, ?> tx = (Map<?, ?>) o;
+            if (Long.valueOf(DATA).equals(tx.get("type")) && address.equals(tx.get("sender"))) {
+                for (Object e : (List<?>) tx.get("data"))
+                    entries.add(NodeHttp.dataEntry((Map<?, ?>) e));
+            } else if (Long.valueOf(INVOKE_SCRIPT).equals(tx.get("type")) && address.equals(tx.get("dApp"))) {
+                Map<?, ?> info = (Map<?, ?>) http.get("/debug/stateChanges/info/" + tx.get("id"));
+                entries.addAll(NodeInvocationFeed.scriptResult((Map<?, ?>) info.get("stateChanges")).data);
+            }
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,124 @@
+package pawnshop.node;
+
+import pawnshop.Entry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Plain HTTP access to the REST API of a node, for the calls Paddle does not expose.
+ */
+public class NodeHttp {
+
+    private final String url;
+    private final int timeoutMillis;
+
+    public NodeHttp(String url) {
+        this(url, 10_000);
+    }
+
+    public NodeHttp(String url, int timeoutMillis) {
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public Object get(String path) {
+        return request("GET", path, null, null);
+    }
+
+    public Object post(String path, Object body) {
+        return request("POST", path, Json.write(body), "application/json");
+    }
+
+    /**
+     * Posts a plain text body, such as the RIDE source {@code /utils/script/compileCode} takes.
+     */
+    public Object postText(String path, String body) {
+        return request("POST", path, body, "text/plain; charset=UTF-8");
+    }
+
+    public int height() {
+        return ((Long) ((Map<?, ?>) get("/blocks/height")).get("height")).intValue();
+    }
+
+    public static String encode(String segment) {
+        try {
+            return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A data entry as the node returns it in JSON.
+     */
+    public static Entry dataEntry(Map<?, ?> json) {
+        String key = (String) json.get("key");
+        Object value = json.get("value");
+        switch (String.valueOf(json.get("type"))) {
+            case "integer": return Entry.integer(key, ((Number) value).longValue());
+            case "boolean": return Entry.bool(key, (Boolean) value);
+            case "string": return Entry.string(key, (String) value);
+            case "binary":
+                String base64 = (String) value;
+                return new Entry(key, Base64.getDecoder().decode(base64.startsWith("base64:") ? base64.substring(7) : base64));
+            default: throw new IllegalArgumentException("Unknown type of data entry " + json);
+        }
+    }
+
+    private Object request(String method, String path, String body, String contentType) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("Accept", "application/json");
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", contentType);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String response = in == null ? "" : read(in);
+            if (status >= 400)
+                throw new NodeHttpError(status, method + " " + path + " failed with " + status + ": " + response);
+            return response.isEmpty() ? null : Json.parse(response);
+        } catch (IOException e) {
+            throw new UncheckedIOException(method + " " + url + path + " failed", e);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for (int n; (n = stream.read(chunk)) > 0; )
+                buffer.write(chunk, 0, n);
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static class NodeHttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+
+        NodeHttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package pawnshop.node;
+
+import pawnshop.Entry;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+import pawnshop.state.InvocationFeed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link InvocationFeed} over the REST API of a node: the invoke script transactions of a block and their state
+ * changes.
+ */
+public class NodeInvocationFeed implements InvocationFeed {
+
+    private static final long INVOKE_SCRIPT = 16;
+
+    private final NodeHttp http;
+
+    public NodeInvocationFeed(NodeHttp http) {
+        this.http = http;
+    }
+
+    @Override
+    public int height() {
+        return http.height();
+    }
+
+    @Override
+    public List<ScriptResult> invocations(String dApp, int height) {
+        Map<?, ?> block = (Map<?, ?>) http.get("/blocks/at/" + height);
+        List<?> transactions = block == null ? null : (List<?>) block.get("transactions");
+        if (transactions == null) return Collections.emptyList();
+        List<ScriptResult> results = new ArrayList<>();
+        for (Object o : transactions) {
+            Map<?, ?> tx = (Map<?, ?>) o;
+            if (!Long.valueOf(INVOKE_SCRIPT).equals(tx.get("type")) || !dApp.equals(tx.get("dApp"))) continue;
+            Map<?, ?> info = (Map<?, ?>) http.get("/debug/stateChanges/info/" + tx.get("id"));
+            results.add(scriptResult((Map<?, ?>) info.get("stateChanges")));
+        }
+        return results;
+    }
+
+    public static ScriptResult scriptResult(Map<?, ?> stateChanges) {
+        List<Entry> data = new ArrayList<>();
+        List<Transfer> transfers = new ArrayList<>();
+        if (stateChanges != null) {
+            for (Object e : (List<?>) stateChanges.get("data"))
+                data.add(NodeHttp.dataEntry((Map<?, ?>) e));
+            for (Object t : (List<?>) stateChanges.get("transfers")) {
+                Map<?, ?> transfer = (Map<?, ?>) t;
+                transfers.add(new Transfer((String) transfer.get("address"),
+                        ((Number) transfer.get("amount")).longValue(), (String) transfer.get("asset")));
+            }
+        }
+        return new ScriptResult(data, transfers);
+    }
+
+}
@@ -0,0 +1,220 @@
+package pawnshop.node;
+
+import com.wavesplatform.wavesj.transactions.InvokeScriptTransaction;
+import im.mak.paddle.Account;
+import im.mak.paddle.Node;
+import im.mak.paddle.actions.invoke.Arg;
+import im.mak.paddle.actions.mass.Recipient;
+import im.mak.paddle.api.StateChanges;
+import im.mak.paddle.exceptions.NodeError;
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static im.mak.paddle.actions.invoke.Arg.arg;
+
+/**
+ * {@link Network} over a node with Paddle. Storage is read with {@link NodeHttp}.
+ */
+public class PaddleNetwork implements Network {
+
+    public final Node node;
+    public final NodeHttp http;
+    private final char chainId;
+    private final Actor faucet;
+
+    public PaddleNetwork(String url, char chainId, String faucetSeed) {
+        this(new Node(url, chainId, faucetSeed), url, chainId, faucetSeed);
+    }
+
+    public PaddleNetwork(Node node, String url, char chainId, String faucetSeed) {
+        this.node = node;
+        this.http = new NodeHttp(url);
+        this.chainId = chainId;
+        this.faucet = account(faucetSeed);
+    }
+
+    @Override
+    public char chainId() {
+        return chainId;
+    }
+
+    @Override
+    public int height() {
+        return node.height();
+    }
+
+    @Override
+    public Object data(String address, String key) {
+        try {
+            return value((Map<?, ?>) http.get("/addresses/data/" + address + "/" + NodeHttp.encode(key)));
+        } catch (NodeHttp.NodeHttpError e) {
+            if (e.status == 404) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the keys with one POST of {@code /addresses/data}, the node limits the keys of a request to 1000 by
+     * default.
+     */
+    @Override
+    public Map<String, Object> data(String address, Collection<String> keys) {
+        Map<String, Object> values = new HashMap<>();
+        Object entries = http.post("/addresses/data/" + address,
+                Collections.singletonMap("keys", new ArrayList<>(keys)));
+        for (Object e : (List<?>) entries) {
+            Map<?, ?> entry = (Map<?, ?>) e;
+            values.put((String) entry.get("key"), value(entry));
+        }
+        return values;
+    }
+
+    /**
+     * The whole storage of the account.
+     */
+    public Map<String, Object> data(String address) {
+        Map<String, Object> values = new HashMap<>();
+        for (Object e : (List<?>) http.get("/addresses/data/" + address)) {
+            Map<?, ?> entry = (Map<?, ?>) e;
+            values.put((String) entry.get("key"), value(entry));
+        }
+        return values;
+    }
+
+    @Override
+    public Actor createAccount(long waves) {
+        return actor(new Account(node, waves));
+    }
+
+    @Override
+    public Actor account(String seed) {
+        return actor(new Account(seed, node));
+    }
+
+    @Override
+    public Actor faucet() {
+        return faucet;
+    }
+
+    /**
+     * Value of a data entry as the node returns it in JSON.
+     */
+    static Object value(Map<?, ?> entry) {
+        Object value = entry.get("value");
+        if ("binary".equals(entry.get("type")) && value instanceof String) {
+            String base64 = (String) value;
+            return Base64.getDecoder().decode(base64.startsWith("base64:") ? base64.substring(7) : base64);
+        }
+        return value;
+    }
+
+    public Actor actor(Account account) {
+        return new Actor() {
+            @Override
+            public String address() {
+                return account.address();
+            }
+
+            @Override
+            public long balance(String asset) {
+                return asset == null ? account.balance() : account.balance(asset);
+            }
+
+            @Override
+            public ScriptResult invoke(String dApp, String function, List<Object> args, Payment payment) {
+                String txId = PaddleNetwork.invoke(account, dApp, function, args, payment).getId().toString();
+                return toScriptResult(node.api.stateChanges(txId));
+            }
+
+            @Override
+            public void writeInteger(String key, long value) {
+                account.writes(d -> d.integer(key, value));
+            }
+
+            @Override
+            public void writeData(List<Entry> entries) {
+                account.writes(d -> {
+                    for (Entry e : entries) {
+                        if (e.value instanceof Long) d.integer(e.key, e.asInteger());
+                        else if (e.value instanceof String) d.string(e.key, e.asString());
+                        else if (e.value instanceof Boolean) d.bool(e.key, e.asBoolean());
+                        else d.binary(e.key, (byte[]) e.value);
+                    }
+                });
+            }
+
+            @Override
+            public void transfer(String recipient, long amount, String asset) {
+                account.transfers(t -> t.to(recipient).amount(amount).asset(asset));
+            }
+
+            @Override
+            public void massTransfer(String asset, Map<String, Long> recipients) {
+                List<Recipient> list = new ArrayList<>();
+                recipients.forEach((address, amount) -> list.add(Recipient.to(address, amount)));
+                account.massTransfers(t -> t.asset(asset).recipients(list.toArray(new Recipient[0])));
+            }
+
+            @Override
+            public String toString() {
+                return account.address();
+            }
+        };
+    }
+
+    /**
+     * Invokes the callable as the account and returns the transaction once the node has it in a block.
+     *
+     * @throws ScriptError if the script rejected the invocation
+     */
+    public static InvokeScriptTransaction invoke(Account account, String dApp, String function, List<Object> args,
+                                                 Payment payment) {
+        Arg[] paddleArgs = new Arg[args.size()];
+        for (int i = 0; i < paddleArgs.length; i++)
+            paddleArgs[i] = toArg(args.get(i));
+        try {
+            return account.invokes(i -> {
+                i.dApp(dApp).function(function, paddleArgs);
+                if (payment != null) i.payment(payment.amount, payment.asset);
+            });
+        } catch (NodeError e) {
+            if (e.getMessage() != null && e.getMessage().contains("Error while executing account-script"))
+                throw new ScriptError(e.getMessage());
+            throw e;
+        }
+    }
+
+    private static Arg toArg(Object value) {
+        if (value instanceof String) return arg((String) value);
+        if (value instanceof Boolean) return arg((Boolean) value);
+        if (value instanceof Number) return arg(((Number) value).longValue());
+        if (value instanceof byte[]) return arg((byte[]) value);
+        throw new IllegalArgumentException("Unsupported argument " + value);
+    }
+
+    /**
+     * State changes of an invocation, with entry types taken from the key schema of the script.
+     */
+    public static ScriptResult toScriptResult(StateChanges changes) {
+        List<Entry> data = new ArrayList<>(changes.data.size());
+        changes.data.forEach(e -> data.add(Keys.isString(e.key) ? Entry.string(e.key, e.asString())
+                : Keys.isBoolean(e.key) ? Entry.bool(e.key, e.asBoolean())
+                : Entry.integer(e.key, e.asInteger())));
+        List<Transfer> transfers = new ArrayList<>(changes.transfers.size());
+        changes.transfers.forEach(t -> transfers.add(new Transfer(t.address, t.amount, t.asset)));
+        return new ScriptResult(data, transfers);
+    }
+
+}
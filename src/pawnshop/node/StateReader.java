@@ -0,0 +1,190 @@
+package pawnshop.node;
+
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.state.DataFeed;
+import pawnshop.state.Loan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads account storage through a {@link Network}, many keys per request, and keeps what it read until a block
+ * writes it.
+ * <p>
+ * The reader holds the height of the feed it last caught up with. When the feed is higher, the entries of the blocks
+ * since then, that one included, overwrite the cached values of their keys; other keys stay cached. Keys without a
+ * value are cached as absent. Within one height no block is polled, so a value written later in the current block
+ * shows after the next block. Reads missing from the cache go to the network in requests of up to
+ * {@link #MAX_KEYS_PER_REQUEST} keys.
+ */
+public class StateReader {
+
+    public static final int MAX_KEYS_PER_REQUEST = 1000;
+
+    /**
+     * The keys every derived value of the script depends on.
+     */
+    public static final List<String> PARAM_KEYS = Collections.unmodifiableList(Arrays.asList(
+            Keys.OWNER, Keys.ASSET_TOKEN, Keys.ORACLE, Keys.GRACE_PERIOD, Keys.INTEREST_PERIOD, Keys.BURNDOWN_PERIOD,
+            Keys.MAX_RATE, Keys.DISCOUNT_PERCENTILE, Keys.SERVICE_FEE, Keys.LEND_SIZE));
+
+    private static final Object ABSENT = new Object();
+
+    /**
+     * The parameters of the dApp and the rate of its oracle, null where a key has no value.
+     */
+    public static class Params {
+        public final String owner;
+        public final String assetToken;
+        public final String oracle;
+        public final Long gracePeriod;
+        public final Long interestPeriod;
+        public final Long burndownPeriod;
+        public final Long maxRate;
+        public final Long discountPercentile;
+        public final Long serviceFee;
+        public final Long lendSize;
+        public final Long oracleRate;
+
+        Params(Map<String, Object> data, Long oracleRate) {
+            owner = (String) data.get(Keys.OWNER);
+            assetToken = (String) data.get(Keys.ASSET_TOKEN);
+            oracle = (String) data.get(Keys.ORACLE);
+            gracePeriod = (Long) data.get(Keys.GRACE_PERIOD);
+            interestPeriod = (Long) data.get(Keys.INTEREST_PERIOD);
+            burndownPeriod = (Long) data.get(Keys.BURNDOWN_PERIOD);
+            maxRate = (Long) data.get(Keys.MAX_RATE);
+            discountPercentile = (Long) data.get(Keys.DISCOUNT_PERCENTILE);
+            serviceFee = (Long) data.get(Keys.SERVICE_FEE);
+            lendSize = (Long) data.get(Keys.LEND_SIZE);
+            this.oracleRate = oracleRate;
+        }
+
+        @Override
+        public String toString() {
+            return "Params of owner " + owner + ", token " + assetToken + ", oracle " + oracle + " at " + oracleRate
+                    + ": grace " + gracePeriod + ", interest " + interestPeriod + ", burndown " + burndownPeriod
+                    + ", max rate " + maxRate + ", discount " + discountPercentile + ", service fee " + serviceFee
+                    + ", lend size " + lendSize;
+        }
+    }
+
+    private final Network network;
+    private final DataFeed feed;
+    private final Map<String, Map<String, Object>> cache = new HashMap<>();
+    private int height;
+    private int requests;
+
+    public StateReader(Network network, DataFeed feed) {
+        this.network = network;
+        this.feed = feed;
+        this.height = feed.height();
+    }
+
+    /**
+     * Height of the feed the cache is up to date with.
+     */
+    public synchronized int height() {
+        return height;
+    }
+
+    /**
+     * Number of requests sent to the network.
+     */
+    public synchronized int requests() {
+        return requests;
+    }
+
+    public synchronized Object read(String address, String key) {
+        return read(address, Collections.singletonList(key)).get(key);
+    }
+
+    /**
+     * Values of the keys in the account's storage, in the order of the keys. Keys without a value are left out.
+     */
+    public synchronized Map<String, Object> read(String address, Collection<String> keys) {
+        catchUp();
+        Map<String, Object> cached = cache.computeIfAbsent(address, a -> new HashMap<>());
+        List<String> missing = new ArrayList<>();
+        for (String key : keys)
+            if (!cached.containsKey(key)) missing.add(key);
+        for (int from = 0; from < missing.size(); from += MAX_KEYS_PER_REQUEST) {
+            List<String> chunk = missing.subList(from, Math.min(missing.size(), from + MAX_KEYS_PER_REQUEST));
+            Map<String, Object> values = network.data(address, chunk);
+            requests++;
+            for (String key : chunk)
+                cached.put(key, values.containsKey(key) ? values.get(key) : ABSENT);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            Object value = cached.get(key);
+            if (value != ABSENT) result.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * The parameters of the dApp and the rate of its oracle, read with a request for each account at most.
+     */
+    public synchronized Params params(String dApp) {
+        Map<String, Object> data = read(dApp, PARAM_KEYS);
+        Object oracle = data.get(Keys.ORACLE);
+        Object rate = oracle instanceof String ? read((String) oracle, Keys.ORACLE_DATA) : null;
+        return new Params(data, rate instanceof Long ? (Long) rate : null);
+    }
+
+    /**
+     * The loans of the ids, read together. An id without a {@code start_of_} is left out, a closed loan has its keys
+     * zeroed.
+     */
+    public synchronized Map<String, Loan> loans(String dApp, Collection<String> ids) {
+        List<String> keys = new ArrayList<>(ids.size() * Keys.LOAN_PREFIXES.length);
+        for (String id : ids)
+            for (String prefix : Keys.LOAN_PREFIXES)
+                keys.add(prefix + id);
+        Map<String, Object> data = read(dApp, keys);
+        Map<String, Loan> loans = new LinkedHashMap<>();
+        for (String id : ids) {
+            Object start = data.get(Keys.startOf(id));
+            if (!(start instanceof Long)) continue;
+            Object renter = data.get(Keys.renterOf(id));
+            Object flags = data.get(Keys.lenderFlagsOf(id));
+            loans.put(id, new Loan(id, renter instanceof String && !((String) renter).isEmpty() ? (String) renter : id,
+                    (Long) start, integer(data, Keys.endOfGraceOf(id)), integer(data, Keys.endOfInterestOf(id)),
+                    integer(data, Keys.endOfBurndownOf(id)), integer(data, Keys.rateOf(id)),
+                    integer(data, Keys.depositOf(id)), integer(data, Keys.lendOf(id)),
+                    flags instanceof String ? (String) flags : ""));
+        }
+        return loans;
+    }
+
+    /**
+     * Brings the cached keys up to the height of the feed, taking the last block again since it could have got more
+     * transactions after it was taken.
+     */
+    private void catchUp() {
+        int target = feed.height();
+        if (target == height) return;
+        for (int h = Math.max(height, 1); h <= target; h++) {
+            for (Map.Entry<String, Map<String, Object>> account : cache.entrySet()) {
+                Map<String, Object> cached = account.getValue();
+                for (Entry e : feed.dataChanges(account.getKey(), h))
+                    if (cached.containsKey(e.key)) cached.put(e.key, e.value);
+            }
+        }
+        height = target;
+    }
+
+    private static long integer(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        return value instanceof Long ? (Long) value : 0;
+    }
+
+}
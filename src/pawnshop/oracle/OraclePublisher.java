@@ -0,0 +1,176 @@
+package pawnshop.oracle;
+
+import pawnshop.LatencyHistogram;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Publishes the rate only when it moved by the deviation threshold or when the heartbeat is due.
+ * <p>
+ * Observed prices are coalesced: {@link #offer(long)} only remembers the latest one, and {@link #publishIfNeeded()}
+ * decides on it, so a burst of updates between two publications costs one data transaction at most.
+ * A rate above the contract's maxRate is never posted, borrow would fail on it with "Suspicious rate value".
+ */
+public class OraclePublisher implements AutoCloseable {
+
+    private static final long NONE = -1;
+
+    private final RatePoster poster;
+    private final LongSupplier maxRate;
+    private final long deviationBps;
+    private final long heartbeatMillis;
+    private final LongSupplier clock;
+
+    private long pending = NONE;
+    private long latest = NONE;
+    private long published = NONE;
+    private long publishedAt;
+
+    private final AtomicInteger posts = new AtomicInteger();
+    private final AtomicInteger coalesced = new AtomicInteger();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final Object publishing = new Object();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param maxRate         current maxRate of the dApp, read before each publication
+     * @param deviationBps    minimal change from the published rate, in basis points, that is worth a transaction
+     * @param heartbeatMillis the rate is republished after this time even if it has not moved
+     * @param clock           milliseconds, {@code System::currentTimeMillis} in production
+     */
+    public OraclePublisher(RatePoster poster, LongSupplier maxRate, long deviationBps, long heartbeatMillis,
+                           LongSupplier clock) {
+        this.poster = poster;
+        this.maxRate = maxRate;
+        this.deviationBps = deviationBps;
+        this.heartbeatMillis = heartbeatMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Remembers the price, replacing one that is not published yet.
+     */
+    public synchronized void offer(long price) {
+        if (price <= 0) throw new IllegalArgumentException("Price must be positive: " + price);
+        if (pending != NONE) coalesced.incrementAndGet();
+        pending = price;
+        latest = price;
+    }
+
+    /**
+     * Posts the latest offered price if it deviates enough from the published one or the heartbeat is due.
+     * Offers made while the transaction is being sent are kept for the next call.
+     *
+     * @return true if the rate was posted
+     */
+    public boolean publishIfNeeded() {
+        synchronized (publishing) {
+            long now = clock.getAsLong();
+            long candidate;
+            synchronized (this) {
+                boolean heartbeat = published != NONE && now - publishedAt >= heartbeatMillis;
+                candidate = pending != NONE ? pending : heartbeat ? latest : NONE;
+                pending = NONE;
+                if (candidate == NONE) return false;
+                if (!heartbeat && published != NONE && !deviates(candidate, published)) return false;
+            }
+            if (candidate > maxRate.getAsLong()) {
+                refused.incrementAndGet();
+                return false;
+            }
+            long start = System.nanoTime();
+            try {
+                poster.post(candidate);
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+                synchronized (this) {
+                    if (pending == NONE) pending = candidate;
+                }
+                return false;
+            }
+            latency.recordSince(start);
+            posts.incrementAndGet();
+            synchronized (this) {
+                published = candidate;
+                publishedAt = now;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Polls the source and publishes on a background thread every {@code pollMillis}.
+     */
+    public synchronized OraclePublisher start(PriceSource source, long pollMillis) {
+        if (scheduler != null) throw new IllegalStateException("Already started");
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "oracle-publisher");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                offer(source.price());
+                publishIfNeeded();
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+            }
+        }, 0, pollMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public synchronized long published() {
+        return published;
+    }
+
+    public int posts() {
+        return posts.get();
+    }
+
+    public int coalesced() {
+        return coalesced.get();
+    }
+
+    public int refused() {
+        return refused.get();
+    }
+
+    public int errors() {
+        return errors.get();
+    }
+
+    /**
+     * Time from sending a data transaction to its acceptance by the node.
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+        }
+        if (s == null)
+            return;
+        s.shutdown();
+        try {
+            s.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean deviates(long price, long reference) {
+        return Math.abs(price - reference) * 10_000 >= deviationBps * reference;
+    }
+
+}
@@ -0,0 +1,22 @@
+package pawnshop.oracle;
+
+import im.mak.paddle.Account;
+import pawnshop.Keys;
+
+/**
+ * Posts the rate with a data transaction of the oracle account.
+ */
+public class PaddleRatePoster implements RatePoster {
+
+    private final Account oracle;
+
+    public PaddleRatePoster(Account oracle) {
+        this.oracle = oracle;
+    }
+
+    @Override
+    public void post(long rate) {
+        oracle.writes(d -> d.integer(Keys.ORACLE_DATA, rate));
+    }
+
+}
@@ -0,0 +1,10 @@
+package pawnshop.oracle;
+
+/**
+ * Source of the WAVES price in BTC, in satoshis per WAVES as the script reads it from {@code waves_btc_8}.
+ */
+public interface PriceSource {
+
+    long price();
+
+}
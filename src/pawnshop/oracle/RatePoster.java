@@ -0,0 +1,10 @@
+package pawnshop.oracle;
+
+/**
+ * Writes the rate to the oracle account's {@code waves_btc_8} key and returns when the node has accepted it.
+ */
+public interface RatePoster {
+
+    void post(long rate);
+
+}
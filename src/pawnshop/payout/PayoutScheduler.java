@@ -0,0 +1,156 @@
+package pawnshop.payout;
+
+import pawnshop.PawnshopEngine;
+import pawnshop.ScriptResult;
+import pawnshop.node.Actor;
+import pawnshop.ride.RideScript;
+import pawnshop.state.LenderSlots;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static pawnshop.Keys.*;
+
+/**
+ * Settles the shares lenders are owed and groups the accounts with something to pay out into sendProfits batches.
+ * <p>
+ * sendProfits pays the stored balances only: a settle takes about two thirds of the complexity limit of a callable and
+ * the payout of a full batch over nine tenths of it, so the script cannot fold the settlement into the payout. Every
+ * cohort a lender has a share in that it has not settled gets a settle first. The accounts are the lenders that hold a slot and every address with a {@code profit_for_} or
+ * {@code unclaimied_for_} key, in address order. Each account is paid out on a {@link PawnshopEngine} loaded with
+ * the storage, which tells its transfers and entries; accounts with no transfer are left out. The accounts are then
+ * packed in order, a batch closes when the next account would bring it over
+ * {@value PawnshopEngine#MAX_PAYOUTS} accounts, {@value RideScript#MAX_TRANSFERS} transfers or
+ * {@value RideScript#MAX_DATA_ENTRIES} entries. Accounts of one batch touch different keys, so paying them one after
+ * another on the engine gives what the batch does.
+ */
+public class PayoutScheduler {
+
+    private final String dApp;
+    private final Map<String, Object> data;
+
+    public PayoutScheduler(String dApp, Map<String, Object> data) {
+        this.dApp = dApp;
+        this.data = data;
+    }
+
+    /**
+     * A settle invocation: the lender and the cohort.
+     */
+    public static class Settlement {
+        public final String lender;
+        public final long cohort;
+
+        Settlement(String lender, long cohort) {
+            this.lender = lender;
+            this.cohort = cohort;
+        }
+
+        @Override
+        public String toString() {
+            return lender + " in " + cohort;
+        }
+    }
+
+    /**
+     * The settle invocations that credit every lender with its shares, in the order to send them.
+     */
+    public List<Settlement> settlements() {
+        return settle(new PawnshopEngine(dApp, 0).load(data));
+    }
+
+    /**
+     * The accounts to pay out once the settlements are sent, in batches of sendProfits.
+     */
+    public List<List<String>> batches() {
+        PawnshopEngine engine = new PawnshopEngine(dApp, 0).load(data);
+        settle(engine);
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int transfers = 0, entries = 0;
+        for (String account : accounts()) {
+            ScriptResult payout = engine.sendProfits(dApp, account);
+            if (payout.transfers.isEmpty()) continue;
+            if (batch.size() == PawnshopEngine.MAX_PAYOUTS
+                    || transfers + payout.transfers.size() > RideScript.MAX_TRANSFERS
+                    || entries + payout.data.size() > RideScript.MAX_DATA_ENTRIES) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                transfers = 0;
+                entries = 0;
+            }
+            batch.add(account);
+            transfers += payout.transfers.size();
+            entries += payout.data.size();
+        }
+        if (!batch.isEmpty()) batches.add(batch);
+        return batches;
+    }
+
+    /**
+     * The argument of sendProfits for a batch.
+     */
+    public static String argument(List<String> batch) {
+        return String.join("|", batch);
+    }
+
+    /**
+     * Invokes settle for every settlement, then sendProfits for every batch. Returns the number of invocations sent.
+     * A settle the script rejects stops the run before any payout.
+     */
+    public int apply(Actor payer) {
+        List<Settlement> settlements = settlements();
+        List<List<String>> batches = batches();
+        for (Settlement settlement : settlements)
+            payer.invoke(dApp, "settle", Arrays.asList(settlement.lender, settlement.cohort), null);
+        for (List<String> batch : batches)
+            payer.invoke(dApp, "sendProfits", Collections.singletonList(argument(batch)), null);
+        return settlements.size() + batches.size();
+    }
+
+    /**
+     * Settles on the engine every cohort from each lender's settled one on that holds a share the lender has not
+     * settled. Cohorts without one are left for withdrawBtc to walk, paying out does not need them.
+     */
+    private List<Settlement> settle(PawnshopEngine engine) {
+        List<Settlement> settlements = new ArrayList<>();
+        long count = integer(COHORT_COUNT);
+        for (String lender : LenderSlots.of(data).lenders(string(LENDER_FLAGS))) {
+            int slot = (int) integer(slotOf(lender));
+            for (long cohort = integer(settledCohortOf(lender)); cohort <= count; cohort++) {
+                if (!LenderSlots.isSet(string(cohortFlags(cohort)), slot)) continue;
+                if (integer(cohortProfit(cohort)) == integer(settledProfit(cohort, lender))
+                        && integer(cohortUnclaimed(cohort)) == integer(settledUnclaimed(cohort, lender))
+                        && integer(cohortLoss(cohort)) == integer(settledLoss(cohort, lender)))
+                    continue;
+                engine.settle(dApp, lender, cohort);
+                settlements.add(new Settlement(lender, cohort));
+            }
+        }
+        return settlements;
+    }
+
+    private List<String> accounts() {
+        TreeSet<String> accounts = new TreeSet<>(LenderSlots.of(data).lenders(string(LENDER_FLAGS)));
+        for (String key : data.keySet()) {
+            if (key.startsWith(PROFIT_FOR)) accounts.add(key.substring(PROFIT_FOR.length()));
+            if (key.startsWith(UNCLAIMED_FOR)) accounts.add(key.substring(UNCLAIMED_FOR.length()));
+        }
+        return new ArrayList<>(accounts);
+    }
+
+    private long integer(String key) {
+        Object value = data.get(key);
+        return value instanceof Long ? (Long) value : 0;
+    }
+
+    private String string(String key) {
+        Object value = data.get(key);
+        return value instanceof String ? (String) value : "";
+    }
+
+}
@@ -0,0 +1,143 @@
+package pawnshop.quote;
+
+import pawnshop.PawnshopEngine;
+import pawnshop.ScriptError;
+import pawnshop.state.Loan;
+import pawnshop.state.OpenLoanIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The WBTC amount buyBack requires for every open loan, at any height, without asking the node.
+ * <p>
+ * It is the lend up to the end of grace and the lend plus {@code fraction(lend, height - endOfGrace,
+ * endOfBurndown - endOfGrace)} after it, until the end of interest, from when the loan can't be bought back and the
+ * quote is {@link #EXPIRED}. A paid amount above the quote is refunded, below it the script rejects the invocation.
+ * The loans are held as parallel arrays so that {@link #at(long, long[])} quotes all of them in one pass over
+ * primitives; {@code fraction} is computed in 64 bits when the product fits and with big integers as the script does
+ * otherwise, a quote the script would fail to compute is {@link #UNAVAILABLE}.
+ */
+public class BuyBackQuotes {
+
+    public static final long EXPIRED = -1;
+    public static final long UNAVAILABLE = -2;
+
+    private final String[] ids;
+    private final long[] graceEnd;
+    private final long[] interestEnd;
+    private final long[] burndownEnd;
+    private final long[] lend;
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    private BuyBackQuotes(int size) {
+        ids = new String[size];
+        graceEnd = new long[size];
+        interestEnd = new long[size];
+        burndownEnd = new long[size];
+        lend = new long[size];
+    }
+
+    /**
+     * Quotes of the open loans among the given ones.
+     */
+    public static BuyBackQuotes of(Collection<Loan> loans) {
+        List<Loan> open = new ArrayList<>(loans.size());
+        for (Loan loan : loans)
+            if (loan.isOpen()) open.add(loan);
+        BuyBackQuotes quotes = new BuyBackQuotes(open.size());
+        for (Loan loan : open)
+            quotes.add(loan.id, loan.graceEnd, loan.interestEnd, loan.burndownEnd, loan.lend);
+        return quotes;
+    }
+
+    /**
+     * Quotes of the loans open in the index.
+     */
+    public static BuyBackQuotes of(OpenLoanIndex index) {
+        List<String> ids = index.ids();
+        BuyBackQuotes quotes = new BuyBackQuotes(ids.size());
+        for (String id : ids)
+            quotes.add(id, index.graceEnd(id), index.interestEnd(id), index.burndownEnd(id), index.lend(id));
+        return quotes;
+    }
+
+    private void add(String id, long graceEnd, long interestEnd, long burndownEnd, long lend) {
+        int i = positions.size();
+        ids[i] = id;
+        this.graceEnd[i] = graceEnd;
+        this.interestEnd[i] = interestEnd;
+        this.burndownEnd[i] = burndownEnd;
+        this.lend[i] = lend;
+        positions.put(id, i);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Ids of the loans, in the order of the quotes.
+     */
+    public List<String> ids() {
+        return Collections.unmodifiableList(Arrays.asList(ids));
+    }
+
+    /**
+     * Quote of the loan at the height.
+     *
+     * @throws IllegalArgumentException if the loan is not among the quoted ones
+     */
+    public long quote(String id, long height) {
+        Integer i = positions.get(id);
+        if (i == null) throw new IllegalArgumentException("No open loan " + id);
+        return quote(lend[i], graceEnd[i], interestEnd[i], burndownEnd[i], height);
+    }
+
+    /**
+     * Quotes of all loans at the height, in the order of {@link #ids()}.
+     */
+    public long[] at(long height) {
+        long[] quotes = new long[ids.length];
+        at(height, quotes);
+        return quotes;
+    }
+
+    /**
+     * Writes the quotes of all loans at the height into the array, in the order of {@link #ids()}.
+     */
+    public void at(long height, long[] quotes) {
+        if (quotes.length < ids.length)
+            throw new IllegalArgumentException("Room for " + quotes.length + " quotes of " + ids.length);
+        for (int i = 0; i < ids.length; i++)
+            quotes[i] = quote(lend[i], graceEnd[i], interestEnd[i], burndownEnd[i], height);
+    }
+
+    /**
+     * The amount buyBack requires at the height, {@link #EXPIRED} or {@link #UNAVAILABLE}.
+     */
+    public static long quote(long lend, long graceEnd, long interestEnd, long burndownEnd, long height) {
+        if (height >= interestEnd) return EXPIRED;
+        if (height <= graceEnd) return lend;
+        long elapsed = height - graceEnd;
+        long period = burndownEnd - graceEnd;
+        long profit;
+        if (period > 0 && lend >= 0 && lend <= Long.MAX_VALUE / elapsed) {
+            profit = lend * elapsed / period;
+        } else {
+            try {
+                profit = PawnshopEngine.fraction(lend, elapsed, period);
+            } catch (ScriptError e) {
+                return UNAVAILABLE;
+            }
+        }
+        long required = lend + profit;
+        return ((lend ^ required) & (profit ^ required)) < 0 ? UNAVAILABLE : required;
+    }
+
+}
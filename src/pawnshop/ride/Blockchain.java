@@ -0,0 +1,18 @@
+package pawnshop.ride;
+
+/**
+ * The blockchain state a script reads while it is evaluated.
+ */
+public interface Blockchain {
+
+    char chainId();
+
+    int height();
+
+    /** Value under the key in the account data: Long, String, Boolean, byte[] or null if absent. */
+    Object data(String address, String key);
+
+    /** Balance of the account, {@code asset} is null for WAVES. */
+    long balance(String address, String asset);
+
+}
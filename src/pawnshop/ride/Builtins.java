@@ -0,0 +1,260 @@
+package pawnshop.ride;
+
+import pawnshop.Address;
+import pawnshop.Base58;
+import pawnshop.ScriptError;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static pawnshop.ride.Values.*;
+
+/**
+ * Standard library functions and operators of RIDE v3 that the evaluator supports.
+ */
+class Builtins {
+
+    static Object call(String name, List<Object> args, Evaluation ev, int line) {
+        switch (name) {
+            case "getInteger": return data(args, ev, Long.class);
+            case "getString": return data(args, ev, String.class);
+            case "getBoolean": return data(args, ev, Boolean.class);
+            case "getBinary": return data(args, ev, Bytes.class);
+            case "getIntegerValue": return value(data(args, ev, Long.class));
+            case "getStringValue": return value(data(args, ev, String.class));
+            case "getBooleanValue": return value(data(args, ev, Boolean.class));
+            case "getBinaryValue": return value(data(args, ev, Bytes.class));
+
+            case "value":
+            case "extract":
+                arity(name, args, 1, line);
+                return value(args.get(0));
+            case "valueOrErrorMessage":
+                arity(name, args, 2, line);
+                if (args.get(0) == UNIT) throw new ScriptError(string(args.get(1)));
+                return args.get(0);
+            case "isDefined":
+                arity(name, args, 1, line);
+                return args.get(0) != UNIT;
+            case "throw":
+                throw new ScriptError(args.isEmpty() ? "Explicit script termination" : string(args.get(0)));
+
+            case "toBase58String":
+                arity(name, args, 1, line);
+                return Base58.encode(bytes(args.get(0)));
+            case "fromBase58String":
+                arity(name, args, 1, line);
+                try {
+                    return new Bytes(Base58.decode(string(args.get(0))));
+                } catch (IllegalArgumentException e) {
+                    throw new EvaluationError(e.getMessage());
+                }
+            case "toBase64String":
+                arity(name, args, 1, line);
+                return Base64.getEncoder().encodeToString(bytes(args.get(0)));
+            case "fromBase64String":
+                arity(name, args, 1, line);
+                return new Bytes(Base64.getDecoder().decode(string(args.get(0))));
+            case "toString":
+                arity(name, args, 1, line);
+                if (args.get(0) instanceof Obj) return addressString(args.get(0));
+                if (args.get(0) instanceof Long || args.get(0) instanceof Boolean) return args.get(0).toString();
+                throw new EvaluationError("Can't convert " + typeOf(args.get(0)) + " to String at line " + line);
+            case "parseInt":
+                arity(name, args, 1, line);
+                try {
+                    return Long.parseLong(string(args.get(0)));
+                } catch (NumberFormatException e) {
+                    return UNIT;
+                }
+            case "parseIntValue":
+                return value(call("parseInt", args, ev, line));
+
+            case "addressFromString":
+                arity(name, args, 1, line);
+                return Address.isValid(string(args.get(0)), ev.blockchain.chainId())
+                        ? Values.address(string(args.get(0))) : UNIT;
+            case "addressFromStringValue":
+                return value(call("addressFromString", args, ev, line));
+            case "Address":
+                arity(name, args, 1, line);
+                return new Obj("Address", "bytes", args.get(0));
+
+            case "size":
+                arity(name, args, 1, line);
+                if (args.get(0) instanceof String) return (long) ((String) args.get(0)).length();
+                if (args.get(0) instanceof Bytes) return (long) ((Bytes) args.get(0)).bytes.length;
+                return (long) asList(args.get(0)).size();
+            case "take":
+            case "drop":
+            case "takeRight":
+            case "dropRight":
+                arity(name, args, 2, line);
+                return slice(name, args.get(0), integer(args.get(1)));
+            case "indexOf": {
+                String str = string(args.get(0));
+                int from = args.size() > 2 ? (int) integer(args.get(2)) : 0;
+                int i = str.indexOf(string(args.get(1)), from);
+                return i < 0 ? UNIT : (Object) (long) i;
+            }
+            case "split":
+                arity(name, args, 2, line);
+                return split(string(args.get(0)), string(args.get(1)));
+            case "getElement": {
+                arity(name, args, 2, line);
+                List<Object> list = asList(args.get(0));
+                long i = integer(args.get(1));
+                if (i < 0 || i >= list.size())
+                    throw new EvaluationError("Index " + i + " out of bounds for length " + list.size());
+                return list.get((int) i);
+            }
+            case "fraction":
+                arity(name, args, 3, line);
+                return fraction(integer(args.get(0)), integer(args.get(1)), integer(args.get(2)));
+
+            case "wavesBalance":
+                arity(name, args, 1, line);
+                return ev.blockchain.balance(addressString(args.get(0)), null);
+            case "assetBalance":
+                arity(name, args, 2, line);
+                return ev.blockchain.balance(addressString(args.get(0)),
+                        args.get(1) == UNIT ? null : Base58.encode(bytes(args.get(1))));
+
+            case "DataEntry":
+                arity(name, args, 2, line);
+                toData(args.get(1));
+                return new Obj("DataEntry", "key", string(args.get(0)), "value", args.get(1));
+            case "ScriptTransfer":
+                arity(name, args, 3, line);
+                return new Obj("ScriptTransfer", "recipient", args.get(0), "amount", integer(args.get(1)),
+                        "asset", args.get(2));
+            case "WriteSet":
+                arity(name, args, 1, line);
+                return new Obj("WriteSet", "data", asList(args.get(0)));
+            case "TransferSet":
+                arity(name, args, 1, line);
+                return new Obj("TransferSet", "transfers", asList(args.get(0)));
+            case "ScriptResult":
+                arity(name, args, 2, line);
+                return new Obj("ScriptResult", "writeSet", args.get(0), "transferSet", args.get(1));
+
+            default:
+                throw new EvaluationError("Can't find a function '" + name + "' at line " + line);
+        }
+    }
+
+    static Object operator(String op, Object left, Object right, int line) {
+        if (op.equals("+") && left instanceof String)
+            return string(left) + string(right);
+        if (op.equals("+") && left instanceof Bytes) {
+            byte[] a = bytes(left), b = bytes(right);
+            byte[] sum = new byte[a.length + b.length];
+            System.arraycopy(a, 0, sum, 0, a.length);
+            System.arraycopy(b, 0, sum, a.length, b.length);
+            return new Bytes(sum);
+        }
+        long a = integer(left), b = integer(right);
+        try {
+            switch (op) {
+                case "+": return Math.addExact(a, b);
+                case "-": return Math.subtractExact(a, b);
+                case "*": return Math.multiplyExact(a, b);
+                case "/": return Math.floorDiv(a, b);
+                case "%": return Math.floorMod(a, b);
+                case "<": return a < b;
+                case "<=": return a <= b;
+                case ">": return a > b;
+                case ">=": return a >= b;
+                default: throw new EvaluationError("Unknown operator " + op + " at line " + line);
+            }
+        } catch (ArithmeticException e) {
+            throw new EvaluationError(e.getMessage().contains("zero") ? "/ by zero" : "long overflow");
+        }
+    }
+
+    static long fraction(long value, long numerator, long denominator) {
+        if (denominator == 0) throw new EvaluationError("Fraction: division by zero");
+        BigInteger result = BigInteger.valueOf(value).multiply(BigInteger.valueOf(numerator))
+                .divide(BigInteger.valueOf(denominator));
+        if (result.bitLength() > 63) throw new EvaluationError("Long overflow");
+        return result.longValue();
+    }
+
+    static List<Object> split(String str, String separator) {
+        List<Object> parts = new ArrayList<>();
+        if (separator.isEmpty()) {
+            for (char c : str.toCharArray())
+                parts.add(String.valueOf(c));
+            return parts;
+        }
+        int from = 0;
+        for (int i = str.indexOf(separator); i >= 0; i = str.indexOf(separator, from)) {
+            parts.add(str.substring(from, i));
+            from = i + separator.length();
+        }
+        parts.add(str.substring(from));
+        return Collections.unmodifiableList(parts);
+    }
+
+    private static Object data(List<Object> args, Evaluation ev, Class<?> type) {
+        if (args.size() != 2) throw new EvaluationError("Data access requires an address and a key");
+        Object value;
+        if (args.get(0) instanceof List) {
+            value = UNIT;
+            for (Object entry : asList(args.get(0)))
+                if (((Obj) entry).get("key").equals(args.get(1)))
+                    value = ((Obj) entry).get("value");
+        } else {
+            Object stored = ev.blockchain.data(addressString(args.get(0)), string(args.get(1)));
+            value = stored == null ? UNIT : fromData(stored);
+        }
+        return type.isInstance(value) ? value : UNIT;
+    }
+
+    private static Object slice(String name, Object value, long n) {
+        int length = value instanceof String ? ((String) value).length() : bytes(value).length;
+        int k = (int) Math.max(0, Math.min(n, length));
+        int from, to;
+        switch (name) {
+            case "take": from = 0; to = k; break;
+            case "drop": from = k; to = length; break;
+            case "takeRight": from = length - k; to = length; break;
+            default: from = 0; to = length - k; break;
+        }
+        if (value instanceof String)
+            return ((String) value).substring(from, to);
+        byte[] slice = new byte[to - from];
+        System.arraycopy(bytes(value), from, slice, 0, slice.length);
+        return new Bytes(slice);
+    }
+
+    private static Object value(Object value) {
+        if (value == UNIT) throw new EvaluationError("value() called on unit value");
+        return value;
+    }
+
+    private static void arity(String name, List<Object> args, int n, int line) {
+        if (args.size() != n)
+            throw new EvaluationError("Function '" + name + "' requires " + n + " arguments, but "
+                    + args.size() + " are provided at line " + line);
+    }
+
+    static long integer(Object value) {
+        if (!(value instanceof Long)) throw new EvaluationError("Int expected, but got " + typeOf(value));
+        return (Long) value;
+    }
+
+    static String string(Object value) {
+        if (!(value instanceof String)) throw new EvaluationError("String expected, but got " + typeOf(value));
+        return (String) value;
+    }
+
+    static byte[] bytes(Object value) {
+        if (!(value instanceof Bytes)) throw new EvaluationError("ByteVector expected, but got " + typeOf(value));
+        return ((Bytes) value).bytes;
+    }
+
+}
@@ -0,0 +1,102 @@
+package pawnshop.ride;
+
+/**
+ * Complexity costs of RIDE v3 for the local evaluator: one per constant, two per reference and getter, five per let,
+ * one per condition, and the cost of each standard library function.
+ * <p>
+ * The table approximates the node's estimator and is not calibrated against it, so its figures are approximate. Its
+ * costs lean high: the buyBack the node accepted before cohorts rates 11864 here. The bounds sized with it, the loans
+ * of closeExpiredLoans and the accounts of sendProfits, stay where the table puts them under the limit, and
+ * {@code paddle.ScriptComplexityTest} checks them on a node. The same table serves the static estimate of
+ * {@link Estimator} and the metered evaluation, which counts only what an invocation actually runs; for the figure
+ * the node checks when the script is set, ask the node through {@code pawnshop.complexity.NodeEstimator}.
+ */
+class Complexity {
+
+    static final int CONST = 1;
+    static final int REF = 2;
+    static final int LET = 5;
+    static final int IF = 1;
+    static final int GETTER = 2;
+    static final int MATCH = 5;
+    static final int CASE = 2;
+    /** A step of {@code FOLD<N>}: the size check, the comparison and {@code getElement}. */
+    static final int FOLD_STEP = 5;
+
+    static int function(String name) {
+        switch (name) {
+            case "getInteger":
+            case "getString":
+            case "getBoolean":
+            case "getBinary":
+                return 100;
+            case "getIntegerValue":
+            case "getStringValue":
+            case "getBooleanValue":
+            case "getBinaryValue":
+                return 100 + 13;
+            case "value":
+            case "extract":
+            case "valueOrErrorMessage":
+                return 13;
+            case "isDefined":
+                return 35;
+            case "throw":
+                return 1;
+            case "toBase58String":
+            case "fromBase58String":
+                return 10;
+            case "toBase64String":
+                return 35;
+            case "fromBase64String":
+                return 40;
+            case "toString":
+                return 1;
+            case "parseInt":
+                return 20;
+            case "parseIntValue":
+                return 20 + 13;
+            case "addressFromString":
+                return 124;
+            case "addressFromStringValue":
+                return 124 + 13;
+            case "Address":
+                return 1;
+            case "size":
+            case "take":
+            case "drop":
+            case "fraction":
+                return 1;
+            case "takeRight":
+            case "dropRight":
+                return 19;
+            case "indexOf":
+                return 20;
+            case "split":
+                return 100;
+            case "getElement":
+                return 2;
+            case "wavesBalance":
+                return 109;
+            case "assetBalance":
+                return 100;
+            case "DataEntry":
+                return 2;
+            case "ScriptTransfer":
+                return 3;
+            case "WriteSet":
+            case "TransferSet":
+            case "ScriptResult":
+                return 1;
+            default:
+                return 1;
+        }
+    }
+
+    static int operator(String op, Object left) {
+        if (op.equals("+") && !(left instanceof Long)) return 10;
+        if (op.equals("::")) return 2;
+        return 1;
+    }
+
+}
@@ -0,0 +1,220 @@
+package pawnshop.ride;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.newSetFromMap;
+import static pawnshop.ride.Expr.*;
+
+/**
+ * Static complexity estimate of a callable function with the costs of {@link Complexity}.
+ * <p>
+ * A let costs its value once, on its first reference along a path. A condition costs its worst branch, a match
+ * its worst case, a user function its body at every call and {@code FOLD<N>} its function N times. The cost of
+ * {@code +} depends on the operand type, which is only known for string literals and the functions returning
+ * strings; other operands count as integers.
+ * <p>
+ * The result approximates the node's estimate of the same callable without being calibrated against it; with the
+ * costs of {@link Complexity} leaning high it is expected above the node's, which {@code paddle.ScriptComplexityTest}
+ * checks on a node.
+ */
+class Estimator {
+
+    private static final Object PARAMETER = new Object();
+
+    private final List<Decl> globals;
+
+    Estimator(List<Decl> globals) {
+        this.globals = globals;
+    }
+
+    long callable(Parser.Annotated callable) {
+        Scope scope = new Scope(null);
+        for (Decl decl : globals)
+            scope.declare(decl);
+        scope = new Scope(scope);
+        scope.bind(callable.invocation);
+        for (String param : callable.func.params)
+            scope.bind(param);
+        return cost(callable.func.body, scope, newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private long cost(Expr e, Scope scope, Set<Object> charged) {
+        if (e instanceof Const) return Complexity.CONST;
+        if (e instanceof Ref) {
+            Object def = scope.lookup(((Ref) e).name);
+            if (def instanceof Definition && charged.add(def)) {
+                Definition let = (Definition) def;
+                return Complexity.REF + Complexity.LET + cost(let.value, let.scope, charged);
+            }
+            return Complexity.REF;
+        }
+        if (e instanceof Block) {
+            Scope inner = new Scope(scope);
+            for (Decl decl : ((Block) e).decls)
+                inner.declare(decl);
+            return cost(((Block) e).body, inner, charged);
+        }
+        if (e instanceof Call) {
+            Call call = (Call) e;
+            long cost = 0;
+            for (Expr arg : call.args)
+                cost += cost(arg, scope, charged);
+            Object def = scope.lookup(call.name);
+            if (def instanceof UserFunction)
+                return cost + function((UserFunction) def, charged);
+            return cost + Complexity.function(call.name);
+        }
+        if (e instanceof Getter) return Complexity.GETTER + cost(((Getter) e).target, scope, charged);
+        if (e instanceof Index) {
+            Index index = (Index) e;
+            return Complexity.function("getElement") + cost(index.list, scope, charged) + cost(index.index, scope, charged);
+        }
+        if (e instanceof If) {
+            If branch = (If) e;
+            long cond = cost(branch.cond, scope, charged);
+            return Complexity.IF + cond + worst(scope, charged, branch.then, branch.otherwise);
+        }
+        if (e instanceof Match) {
+            Match match = (Match) e;
+            long value = cost(match.value, scope, charged);
+            Expr[] bodies = new Expr[match.cases.size()];
+            Scope inner = new Scope(scope);
+            for (int i = 0; i < bodies.length; i++) {
+                Case c = match.cases.get(i);
+                if (c.binding != null) inner.bind(c.binding);
+                bodies[i] = c.body;
+            }
+            return Complexity.MATCH + value + Complexity.CASE * bodies.length + worst(inner, charged, bodies);
+        }
+        if (e instanceof Binary) {
+            Binary binary = (Binary) e;
+            long operands = cost(binary.left, scope, charged) + cost(binary.right, scope, charged);
+            boolean strings = isString(binary.left, scope) || isString(binary.right, scope);
+            return operands + Complexity.operator(binary.op, strings ? "" : 0L);
+        }
+        if (e instanceof Unary) return 1 + cost(((Unary) e).operand, scope, charged);
+        if (e instanceof ListLit) {
+            long cost = 0;
+            for (Expr item : ((ListLit) e).items)
+                cost += Complexity.operator("::", null) + cost(item, scope, charged);
+            return cost;
+        }
+        if (e instanceof Fold) {
+            Fold fold = (Fold) e;
+            long cost = cost(fold.list, scope, charged) + cost(fold.init, scope, charged);
+            Object def = scope.lookup(fold.function);
+            if (!(def instanceof UserFunction))
+                throw new EvaluationError("Function '" + fold.function + "' is not found at line " + fold.line);
+            for (int i = 0; i < fold.limit; i++)
+                cost += Complexity.FOLD_STEP + function((UserFunction) def, charged);
+            return cost;
+        }
+        throw new IllegalArgumentException("Unknown expression " + e.getClass().getSimpleName());
+    }
+
+    private long function(UserFunction f, Set<Object> charged) {
+        Scope scope = new Scope(f.scope);
+        for (String param : f.func.params)
+            scope.bind(param);
+        return cost(f.func.body, scope, charged);
+    }
+
+    /**
+     * The most expensive of the alternatives. The lets charged on that path stay charged.
+     */
+    private long worst(Scope scope, Set<Object> charged, Expr... alternatives) {
+        long worst = 0;
+        Set<Object> worstCharged = charged;
+        for (Expr alternative : alternatives) {
+            Set<Object> path = newSetFromMap(new IdentityHashMap<>());
+            path.addAll(charged);
+            long cost = cost(alternative, scope, path);
+            if (cost >= worst) {
+                worst = cost;
+                worstCharged = path;
+            }
+        }
+        charged.addAll(worstCharged);
+        return worst;
+    }
+
+    private boolean isString(Expr e, Scope scope) {
+        if (e instanceof Const) return ((Const) e).value instanceof String;
+        if (e instanceof Binary)
+            return ((Binary) e).op.equals("+")
+                    && (isString(((Binary) e).left, scope) || isString(((Binary) e).right, scope));
+        if (e instanceof Call) {
+            Call call = (Call) e;
+            Object def = scope.lookup(call.name);
+            if (def instanceof UserFunction) return isString(((UserFunction) def).func.body, ((UserFunction) def).scope);
+            switch (call.name) {
+                case "toString":
+                case "toBase58String":
+                case "toBase64String":
+                case "getStringValue":
+                case "take":
+                case "drop":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        if (e instanceof Ref) {
+            Object def = scope.lookup(((Ref) e).name);
+            return def instanceof Definition && isString(((Definition) def).value, ((Definition) def).scope);
+        }
+        if (e instanceof Block) return isString(((Block) e).body, scope);
+        return false;
+    }
+
+    /** A let, charged once per path. Identity matters: the same let in another call is another definition. */
+    private static class Definition {
+        final Expr value;
+        final Scope scope;
+
+        Definition(Expr value, Scope scope) {
+            this.value = value;
+            this.scope = scope;
+        }
+    }
+
+    private static class UserFunction {
+        final Func func;
+        final Scope scope;
+
+        UserFunction(Func func, Scope scope) {
+            this.func = func;
+            this.scope = scope;
+        }
+    }
+
+    private static class Scope {
+        final Scope parent;
+        final Map<String, Object> names = new HashMap<>();
+
+        Scope(Scope parent) {
+            this.parent = parent;
+        }
+
+        void bind(String name) {
+            names.put(name, PARAMETER);
+        }
+
+        void declare(Decl decl) {
+            names.put(decl.name, decl instanceof Let
+                    ? new Definition(((Let) decl).value, this)
+                    : new UserFunction((Func) decl, this));
+        }
+
+        Object lookup(String name) {
+            for (Scope scope = this; scope != null; scope = scope.parent)
+                if (scope.names.containsKey(name)) return scope.names.get(name);
+            return null;
+        }
+    }
+
+}
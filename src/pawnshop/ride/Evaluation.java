@@ -0,0 +1,22 @@
+package pawnshop.ride;
+
+import static pawnshop.ride.Values.Obj;
+
+/**
+ * State of a single script invocation.
+ */
+class Evaluation {
+
+    final Blockchain blockchain;
+    final Obj self;
+    final int height;
+    /** Complexity of what was evaluated so far, see {@link Complexity}. */
+    long complexity;
+
+    Evaluation(Blockchain blockchain, String self) {
+        this.blockchain = blockchain;
+        this.self = Values.address(self);
+        this.height = blockchain.height();
+    }
+
+}
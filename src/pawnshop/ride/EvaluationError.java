@@ -0,0 +1,16 @@
+package pawnshop.ride;
+
+import pawnshop.ScriptError;
+
+/**
+ * A script failure that is not an explicit throw: a type mismatch, overflow, missing value and so on.
+ */
+public class EvaluationError extends ScriptError {
+
+    private static final long serialVersionUID = 1L;
+
+    public EvaluationError(String message) {
+        super(message);
+    }
+
+}
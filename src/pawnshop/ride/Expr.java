@@ -0,0 +1,442 @@
+package pawnshop.ride;
+
+import pawnshop.ScriptError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static pawnshop.ride.Values.*;
+
+/**
+ * Expression tree of a parsed script together with its tree-walking evaluation.
+ */
+abstract class Expr {
+
+    final int line;
+
+    Expr(int line) {
+        this.line = line;
+    }
+
+    abstract Object eval(Env env);
+
+    boolean evalBoolean(Env env) {
+        Object value = eval(env);
+        if (!(value instanceof Boolean))
+            throw new EvaluationError("Boolean expected at line " + line + ", but got " + typeOf(value));
+        return (Boolean) value;
+    }
+
+    /** A scope. Lets are bound lazily and evaluated at most once, as RIDE does. */
+    static class Env {
+        final Env parent;
+        final Evaluation evaluation;
+        private final Map<String, Object> vars = new HashMap<>();
+        private final Map<String, Function> funcs = new HashMap<>();
+
+        Env(Env parent, Evaluation evaluation) {
+            this.parent = parent;
+            this.evaluation = evaluation;
+        }
+
+        Env child() {
+            return new Env(this, evaluation);
+        }
+
+        void bind(String name, Object value) {
+            vars.put(name, value);
+        }
+
+        void declare(Decl decl) {
+            if (decl instanceof Let)
+                vars.put(decl.name, new Lazy(((Let) decl).value, this));
+            else
+                funcs.put(decl.name, new Function((Func) decl, this));
+        }
+
+        Object lookup(String name, int line) {
+            for (Env env = this; env != null; env = env.parent) {
+                Object value = env.vars.get(name);
+                if (value instanceof Lazy) return ((Lazy) value).force();
+                if (value != null) return value;
+            }
+            switch (name) {
+                case "height":
+                    return (long) evaluation.height;
+                case "this":
+                    return evaluation.self;
+                case "unit":
+                    return UNIT;
+                default:
+                    throw new EvaluationError("A definition of '" + name + "' is not found at line " + line);
+            }
+        }
+
+        Function function(String name) {
+            for (Env env = this; env != null; env = env.parent) {
+                Function f = env.funcs.get(name);
+                if (f != null) return f;
+            }
+            return null;
+        }
+    }
+
+    static class Lazy {
+        private final Expr expr;
+        private final Env env;
+        private Object value;
+        private boolean evaluating;
+
+        Lazy(Expr expr, Env env) {
+            this.expr = expr;
+            this.env = env;
+        }
+
+        Object force() {
+            if (value == null) {
+                if (evaluating) throw new EvaluationError("Cyclic definition at line " + expr.line);
+                env.evaluation.complexity += Complexity.LET;
+                evaluating = true;
+                try {
+                    value = expr.eval(env);
+                } finally {
+                    evaluating = false;
+                }
+            }
+            return value;
+        }
+    }
+
+    static class Function {
+        final Func decl;
+        final Env closure;
+
+        Function(Func decl, Env closure) {
+            this.decl = decl;
+            this.closure = closure;
+        }
+
+        Object call(List<Object> args, int line) {
+            if (args.size() != decl.params.size())
+                throw new EvaluationError("Function '" + decl.name + "' requires " + decl.params.size()
+                        + " arguments, but " + args.size() + " are provided at line " + line);
+            Env env = closure.child();
+            for (int i = 0; i < args.size(); i++)
+                env.bind(decl.params.get(i), args.get(i));
+            return decl.body.eval(env);
+        }
+    }
+
+    // declarations
+
+    abstract static class Decl {
+        final String name;
+
+        Decl(String name) {
+            this.name = name;
+        }
+    }
+
+    static class Let extends Decl {
+        final Expr value;
+
+        Let(String name, Expr value) {
+            super(name);
+            this.value = value;
+        }
+    }
+
+    static class Func extends Decl {
+        final List<String> params;
+        final Expr body;
+
+        Func(String name, List<String> params, Expr body) {
+            super(name);
+            this.params = params;
+            this.body = body;
+        }
+    }
+
+    // expressions
+
+    static class Const extends Expr {
+        final Object value;
+
+        Const(int line, Object value) {
+            super(line);
+            this.value = value;
+        }
+
+        @Override
+        Object eval(Env env) {
+            env.evaluation.complexity += Complexity.CONST;
+            return value;
+        }
+    }
+
+    static class Ref extends Expr {
+        final String name;
+
+        Ref(int line, String name) {
+            super(line);
+            this.name = name;
+        }
+
+        @Override
+        Object eval(Env env) {
+            env.evaluation.complexity += Complexity.REF;
+            return env.lookup(name, line);
+        }
+    }
+
+    static class Block extends Expr {
+        final List<Decl> decls;
+        final Expr body;
+
+        Block(int line, List<Decl> decls, Expr body) {
+            super(line);
+            this.decls = decls;
+            this.body = body;
+        }
+
+        @Override
+        Object eval(Env env) {
+            Env scope = env.child();
+            for (Decl decl : decls)
+                scope.declare(decl);
+            return body.eval(scope);
+        }
+    }
+
+    static class Call extends Expr {
+        final String name;
+        final List<Expr> args;
+
+        Call(int line, String name, List<Expr> args) {
+            super(line);
+            this.name = name;
+            this.args = args;
+        }
+
+        @Override
+        Object eval(Env env) {
+            List<Object> values = new ArrayList<>(args.size());
+            for (Expr arg : args)
+                values.add(arg.eval(env));
+            Function f = env.function(name);
+            if (f != null)
+                return f.call(values, line);
+            env.evaluation.complexity += Complexity.function(name);
+            return Builtins.call(name, values, env.evaluation, line);
+        }
+    }
+
+    static class Getter extends Expr {
+        final Expr target;
+        final String field;
+
+        Getter(int line, Expr target, String field) {
+            super(line);
+            this.target = target;
+            this.field = field;
+        }
+
+        @Override
+        Object eval(Env env) {
+            Object value = target.eval(env);
+            env.evaluation.complexity += Complexity.GETTER;
+            if (!(value instanceof Obj))
+                throw new EvaluationError("Can't get '" + field + "' of " + typeOf(value) + " at line " + line);
+            return ((Obj) value).get(field);
+        }
+    }
+
+    static class Index extends Expr {
+        final Expr list;
+        final Expr index;
+
+        Index(int line, Expr list, Expr index) {
+            super(line);
+            this.list = list;
+            this.index = index;
+        }
+
+        @Override
+        Object eval(Env env) {
+            env.evaluation.complexity += Complexity.function("getElement");
+            return Builtins.call("getElement", java.util.Arrays.asList(list.eval(env), index.eval(env)),
+                    env.evaluation, line);
+        }
+    }
+
+    static class If extends Expr {
+        final Expr cond, then, otherwise;
+
+        If(int line, Expr cond, Expr then, Expr otherwise) {
+            super(line);
+            this.cond = cond;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        Object eval(Env env) {
+            env.evaluation.complexity += Complexity.IF;
+            return cond.evalBoolean(env) ? then.eval(env) : otherwise.eval(env);
+        }
+    }
+
+    static class Case {
+        final String binding;
+        final List<String> types;
+        final Expr body;
+
+        Case(String binding, List<String> types, Expr body) {
+            this.binding = binding;
+            this.types = types;
+            this.body = body;
+        }
+    }
+
+    static class Match extends Expr {
+        final Expr value;
+        final List<Case> cases;
+
+        Match(int line, Expr value, List<Case> cases) {
+            super(line);
+            this.value = value;
+            this.cases = cases;
+        }
+
+        @Override
+        Object eval(Env env) {
+            Object v = value.eval(env);
+            String type = typeOf(v);
+            env.evaluation.complexity += Complexity.MATCH;
+            for (Case c : cases) {
+                env.evaluation.complexity += Complexity.CASE;
+                if (c.types.isEmpty() || c.types.contains(type)) {
+                    if (c.binding == null)
+                        return c.body.eval(env);
+                    Env scope = env.child();
+                    scope.bind(c.binding, v);
+                    return c.body.eval(scope);
+                }
+            }
+            throw new EvaluationError("No case matches " + type + " at line " + line);
+        }
+    }
+
+    static class Binary extends Expr {
+        final String op;
+        final Expr left, right;
+
+        Binary(int line, String op, Expr left, Expr right) {
+            super(line);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(Env env) {
+            if (!op.equals("+"))
+                env.evaluation.complexity += Complexity.operator(op, null);
+            switch (op) {
+                case "&&":
+                    return left.evalBoolean(env) && right.evalBoolean(env);
+                case "||":
+                    return left.evalBoolean(env) || right.evalBoolean(env);
+                case "==":
+                    return left.eval(env).equals(right.eval(env));
+                case "!=":
+                    return !left.eval(env).equals(right.eval(env));
+                case "::": {
+                    Object head = left.eval(env);
+                    List<Object> tail = asList(right.eval(env));
+                    List<Object> list = new ArrayList<>(tail.size() + 1);
+                    list.add(head);
+                    list.addAll(tail);
+                    return list;
+                }
+                default:
+                    Object l = left.eval(env);
+                    if (op.equals("+"))
+                        env.evaluation.complexity += Complexity.operator(op, l);
+                    return Builtins.operator(op, l, right.eval(env), line);
+            }
+        }
+    }
+
+    static class Unary extends Expr {
+        final String op;
+        final Expr operand;
+
+        Unary(int line, String op, Expr operand) {
+            super(line);
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        Object eval(Env env) {
+            env.evaluation.complexity += 1;
+            if (op.equals("!"))
+                return !operand.evalBoolean(env);
+            return Builtins.operator("-", 0L, operand.eval(env), line);
+        }
+    }
+
+    static class ListLit extends Expr {
+        final List<Expr> items;
+
+        ListLit(int line, List<Expr> items) {
+            super(line);
+            this.items = items;
+        }
+
+        @Override
+        Object eval(Env env) {
+            env.evaluation.complexity += Complexity.operator("::", null) * items.size();
+            List<Object> list = new ArrayList<>(items.size());
+            for (Expr item : items)
+                list.add(item.eval(env));
+            return list;
+        }
+    }
+
+    static class Fold extends Expr {
+        final int limit;
+        final Expr list, init;
+        final String function;
+
+        Fold(int line, int limit, Expr list, Expr init, String function) {
+            super(line);
+            this.limit = limit;
+            this.list = list;
+            this.init = init;
+            this.function = function;
+        }
+
+        @Override
+        Object eval(Env env) {
+            List<Object> items = asList(list.eval(env));
+            Object acc = init.eval(env);
+            Function f = env.function(function);
+            if (f == null) throw new EvaluationError("Function '" + function + "' is not found at line " + line);
+            int steps = Math.min(items.size(), limit);
+            for (int i = 0; i < steps; i++) {
+                env.evaluation.complexity += Complexity.FOLD_STEP;
+                List<Object> args = new ArrayList<>(2);
+                args.add(acc);
+                args.add(items.get(i));
+                acc = f.call(args, line);
+            }
+            if (items.size() > limit) throw new ScriptError("List size exceed " + limit);
+            return acc;
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package pawnshop.ride;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Lexer {
+
+    enum Kind { IDENT, INT, STRING, OP, EOF }
+
+    static class Token {
+        final Kind kind;
+        final String text;
+        final int line;
+        final boolean newlineBefore;
+
+        Token(Kind kind, String text, int line, boolean newlineBefore) {
+            this.kind = kind;
+            this.text = text;
+            this.line = line;
+            this.newlineBefore = newlineBefore;
+        }
+
+        boolean is(String op) {
+            return (kind == Kind.OP || kind == Kind.IDENT) && text.equals(op);
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.EOF ? "end of script" : "'" + text + "' at line " + line;
+        }
+    }
+
+    private static final String[] OPERATORS = {
+            "=>", "==", "!=", "<=", ">=", "&&", "||", "::",
+            "(", ")", "{", "}", "[", "]", ",", ":", ".", "=", "<", ">", "+", "-", "*", "/", "%", "!", "|", "@"
+    };
+
+    static List<Token> tokenize(String source) {
+        List<Token> tokens = new ArrayList<>();
+        int pos = 0;
+        int line = 1;
+        boolean newline = true;
+        while (pos < source.length()) {
+            char c = source.charAt(pos);
+            if (c == '\n') {
+                line++;
+                newline = true;
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (source.startsWith("{-#", pos)) {
+                int end = source.indexOf("#-}", pos);
+                if (end < 0) throw new IllegalArgumentException("Unterminated directive at line " + line);
+                pos = end + 3;
+            } else if (c == '#') {
+                while (pos < source.length() && source.charAt(pos) != '\n')
+                    pos++;
+            } else if (Character.isDigit(c)) {
+                int start = pos;
+                while (pos < source.length() && Character.isDigit(source.charAt(pos)))
+                    pos++;
+                tokens.add(new Token(Kind.INT, source.substring(start, pos), line, newline));
+                newline = false;
+            } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                int start = pos;
+                while (pos < source.length() && (Character.isLetterOrDigit(source.charAt(pos))
+                        || source.charAt(pos) == '_' || source.charAt(pos) == '$'))
+                    pos++;
+                tokens.add(new Token(Kind.IDENT, source.substring(start, pos), line, newline));
+                newline = false;
+            } else if (c == '"') {
+                StringBuilder sb = new StringBuilder();
+                pos++;
+                while (true) {
+                    if (pos >= source.length()) throw new IllegalArgumentException("Unterminated string at line " + line);
+                    char s = source.charAt(pos++);
+                    if (s == '"') break;
+                    if (s == '\\' && pos < source.length()) {
+                        char e = source.charAt(pos++);
+                        sb.append(e == 'n' ? '\n' : e == 't' ? '\t' : e);
+                    } else {
+                        sb.append(s);
+                    }
+                }
+                tokens.add(new Token(Kind.STRING, sb.toString(), line, newline));
+                newline = false;
+            } else {
+                String op = null;
+                for (String o : OPERATORS)
+                    if (source.startsWith(o, pos)) {
+                        op = o;
+                        break;
+                    }
+                if (op == null) throw new IllegalArgumentException("Unexpected character '" + c + "' at line " + line);
+                tokens.add(new Token(Kind.OP, op, line, newline));
+                newline = false;
+                pos += op.length();
+            }
+        }
+        tokens.add(new Token(Kind.EOF, "", line, true));
+        return tokens;
+    }
+
+}
@@ -0,0 +1,153 @@
+package pawnshop.ride;
+
+import pawnshop.Entry;
+import pawnshop.Payment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static pawnshop.ride.LocalNode.LocalTx;
+
+/**
+ * An account of a {@link LocalNode} with the same verbs as Paddle's {@code Account}.
+ */
+public class LocalAccount {
+
+    private final LocalNode node;
+    private final String address;
+
+    LocalAccount(LocalNode node, String address) {
+        this.node = node;
+        this.address = address;
+    }
+
+    public String address() {
+        return address;
+    }
+
+    public long balance() {
+        return node.balance(address, null);
+    }
+
+    public long balance(String assetId) {
+        return node.balance(address, assetId);
+    }
+
+    public Object data(String key) {
+        return node.data(address, key);
+    }
+
+    public LocalTx writes(Consumer<Data> d) {
+        Data data = new Data();
+        d.accept(data);
+        return node.data(address, data.entries);
+    }
+
+    /** Issues an asset and returns its id. */
+    public String issues(long quantity) {
+        return node.issue(address, quantity);
+    }
+
+    public LocalTx transfers(String recipient, long amount, String assetId) {
+        return node.transfer(address, recipient, amount, assetId);
+    }
+
+    public LocalTx transfers(LocalAccount recipient, long amount, String assetId) {
+        return transfers(recipient.address, amount, assetId);
+    }
+
+    public LocalTx massTransfers(String assetId, Map<String, Long> recipients) {
+        return node.massTransfer(address, assetId, recipients);
+    }
+
+    public LocalTx massTransfers(String assetId, long amount, LocalAccount... recipients) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (LocalAccount r : recipients)
+            map.merge(r.address, amount, Long::sum);
+        return massTransfers(assetId, map);
+    }
+
+    public LocalTx setsScript(RideScript script) {
+        return node.setScript(address, script);
+    }
+
+    public LocalTx invokes(Consumer<Invoke> i) {
+        Invoke invoke = new Invoke(address);
+        i.accept(invoke);
+        return node.invoke(address, invoke.dApp, invoke.function, invoke.args, invoke.payment);
+    }
+
+    @Override
+    public String toString() {
+        return address;
+    }
+
+    public static class Data {
+        final List<Entry> entries = new ArrayList<>();
+
+        public Data integer(String key, long value) {
+            entries.add(Entry.integer(key, value));
+            return this;
+        }
+
+        public Data string(String key, String value) {
+            entries.add(Entry.string(key, value));
+            return this;
+        }
+
+        public Data bool(String key, boolean value) {
+            entries.add(Entry.bool(key, value));
+            return this;
+        }
+
+        public Data binary(String key, byte[] value) {
+            entries.add(new Entry(key, value));
+            return this;
+        }
+
+        public Data entry(Entry entry) {
+            entries.add(entry);
+            return this;
+        }
+    }
+
+    public static class Invoke {
+        String dApp;
+        String function;
+        List<Object> args = new ArrayList<>();
+        Payment payment;
+
+        Invoke(String sender) {
+            this.dApp = sender;
+        }
+
+        public Invoke dApp(LocalAccount dApp) {
+            return dApp(dApp.address);
+        }
+
+        public Invoke dApp(String dApp) {
+            this.dApp = dApp;
+            return this;
+        }
+
+        public Invoke function(String name, Object... args) {
+            this.function = name;
+            this.args = new ArrayList<>(Arrays.asList(args));
+            return this;
+        }
+
+        public Invoke payment(long amount, String assetId) {
+            this.payment = Payment.of(amount, assetId);
+            return this;
+        }
+
+        public Invoke wavesPayment(long amount) {
+            return payment(amount, null);
+        }
+    }
+
+}
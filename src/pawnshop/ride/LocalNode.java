@@ -0,0 +1,311 @@
+package pawnshop.ride;
+
+import pawnshop.Address;
+import pawnshop.Base58;
+import pawnshop.Entry;
+import pawnshop.Payment;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+import pawnshop.state.DataFeed;
+import pawnshop.state.InvocationFeed;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-process stand-in for a private node.
+ * <p>
+ * Transactions are applied instantly at the current height and scripts are evaluated by {@link RideScript},
+ * so a test jumps over grace and interest periods with {@link #waitForHeight(int)} instead of waiting for blocks.
+ * Nodes share nothing, each test class can have its own and run in parallel with the others.
+ * Fees are flat per transaction type and accounts are not required to have keys.
+ */
+public class LocalNode implements Blockchain, DataFeed, InvocationFeed {
+
+    public static final long DATA_FEE = 100000;
+    public static final long TRANSFER_FEE = 100000;
+    public static final long MASS_TRANSFER_FEE = 100000;
+    public static final long MASS_TRANSFER_FEE_PER_RECIPIENT = 50000;
+    public static final int MAX_MASS_TRANSFER_RECIPIENTS = 100;
+    public static final int MAX_DATA_ENTRIES = 100;
+    public static final long ISSUE_FEE = 100000000;
+    public static final long SET_SCRIPT_FEE = 1000000;
+
+    private final char chainId;
+    private int height;
+    private long nonce;
+
+    private final Map<String, Map<String, Object>> data = new HashMap<>();
+    private final Map<String, Map<String, Long>> balances = new HashMap<>();
+    private final Map<String, RideScript> scripts = new HashMap<>();
+    private final Map<String, ScriptResult> stateChanges = new HashMap<>();
+    private final Map<Integer, Map<String, List<Entry>>> blockData = new HashMap<>();
+    private final Map<Integer, Map<String, List<ScriptResult>>> blockInvocations = new HashMap<>();
+
+    public LocalNode() {
+        this('R', 1);
+    }
+
+    public LocalNode(char chainId, int height) {
+        this.chainId = chainId;
+        this.height = height;
+    }
+
+    @Override
+    public char chainId() {
+        return chainId;
+    }
+
+    @Override
+    public synchronized int height() {
+        return height;
+    }
+
+    /** Jumps to the height at once. Transactions sent afterwards are included at this height. */
+    public synchronized int waitForHeight(int target) {
+        height = Math.max(height, target);
+        return height;
+    }
+
+    public synchronized int mine(int blocks) {
+        height += blocks;
+        return height;
+    }
+
+    /** New account with the balance in WAVES, like {@code new Account(node, amount)} of Paddle. */
+    public synchronized LocalAccount createAccount(long wavesBalance) {
+        return account("account#" + (++nonce), wavesBalance);
+    }
+
+    /** Account with an address derived from the name. Funds are added to the existing balance. */
+    public synchronized LocalAccount account(String name, long wavesBalance) {
+        String address = Address.of(name, chainId);
+        credit(address, null, wavesBalance);
+        return new LocalAccount(this, address);
+    }
+
+    @Override
+    public synchronized Object data(String address, String key) {
+        Map<String, Object> account = data.get(address);
+        return account == null ? null : account.get(key);
+    }
+
+    public synchronized Map<String, Object> data(String address) {
+        Map<String, Object> account = data.get(address);
+        return account == null ? Collections.emptyMap() : new HashMap<>(account);
+    }
+
+    public synchronized Map<String, Object> data(String address, Collection<String> keys) {
+        Map<String, Object> account = data.getOrDefault(address, Collections.emptyMap());
+        Map<String, Object> values = new HashMap<>();
+        for (String key : keys)
+            if (account.containsKey(key)) values.put(key, account.get(key));
+        return values;
+    }
+
+    @Override
+    public synchronized long balance(String address, String asset) {
+        Map<String, Long> account = balances.get(address);
+        Long balance = account == null ? null : account.get(asset);
+        return balance == null ? 0 : balance;
+    }
+
+    @Override
+    public synchronized List<Entry> dataChanges(String address, int height) {
+        Map<String, List<Entry>> block = blockData.get(height);
+        List<Entry> entries = block == null ? null : block.get(address);
+        return entries == null ? Collections.emptyList() : new ArrayList<>(entries);
+    }
+
+    @Override
+    public synchronized List<ScriptResult> invocations(String dApp, int height) {
+        Map<String, List<ScriptResult>> block = blockInvocations.get(height);
+        List<ScriptResult> results = block == null ? null : block.get(dApp);
+        return results == null ? Collections.emptyList() : new ArrayList<>(results);
+    }
+
+    public synchronized ScriptResult stateChanges(String txId) {
+        ScriptResult result = stateChanges.get(txId);
+        if (result == null) throw new IllegalArgumentException("No invocation " + txId);
+        return result;
+    }
+
+    // transactions
+
+    synchronized LocalTx data(String sender, List<Entry> entries) {
+        if (entries.size() > MAX_DATA_ENTRIES)
+            throw new IllegalStateException("Number of data entries " + entries.size() + " is greater than "
+                    + MAX_DATA_ENTRIES);
+        charge(sender, DATA_FEE);
+        write(sender, entries);
+        return tx();
+    }
+
+    synchronized String issue(String sender, long quantity) {
+        charge(sender, ISSUE_FEE);
+        String assetId = tx().id;
+        credit(sender, assetId, quantity);
+        return assetId;
+    }
+
+    synchronized LocalTx transfer(String sender, String recipient, long amount, String asset) {
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        deltas.put(key(sender, asset), -amount);
+        addDelta(deltas, recipient, asset, amount);
+        addDelta(deltas, sender, null, -TRANSFER_FEE);
+        applyDeltas(deltas);
+        return tx();
+    }
+
+    synchronized LocalTx massTransfer(String sender, String asset, Map<String, Long> recipients) {
+        if (recipients.size() > MAX_MASS_TRANSFER_RECIPIENTS)
+            throw new IllegalStateException("Number of transfers " + recipients.size() + " is greater than "
+                    + MAX_MASS_TRANSFER_RECIPIENTS);
+        long fee = MASS_TRANSFER_FEE + MASS_TRANSFER_FEE_PER_RECIPIENT * recipients.size();
+        fee = (fee + 99999) / 100000 * 100000;
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        addDelta(deltas, sender, null, -fee);
+        for (Map.Entry<String, Long> r : recipients.entrySet()) {
+            addDelta(deltas, sender, asset, -r.getValue());
+            addDelta(deltas, r.getKey(), asset, r.getValue());
+        }
+        applyDeltas(deltas);
+        return tx();
+    }
+
+    synchronized LocalTx setScript(String sender, RideScript script) {
+        charge(sender, SET_SCRIPT_FEE);
+        scripts.put(sender, script);
+        return tx();
+    }
+
+    /**
+     * Applies an invocation by the sender in the current block. The node checks no signature, any address can send.
+     *
+     * @throws pawnshop.ScriptError if the script rejected the invocation
+     */
+    public synchronized LocalTx invoke(String sender, String dApp, String function, List<Object> args,
+                                       Payment payment) {
+        RideScript script = scripts.get(dApp);
+        if (script == null) throw new IllegalStateException("No contract at address " + dApp);
+        if (payment != null && payment.amount <= 0)
+            throw new IllegalStateException("Non-positive payment amount: " + payment.amount);
+
+        LocalTx tx = new LocalTx(nextId(), height, null);
+        Map<String, Long> deltas = new LinkedHashMap<>();
+        addDelta(deltas, sender, null, -RideScript.INVOKE_FEE);
+        if (payment != null) {
+            addDelta(deltas, sender, payment.asset, -payment.amount);
+            addDelta(deltas, dApp, payment.asset, payment.amount);
+        }
+        checkDeltas(deltas);
+
+        RideScript.Evaluated evaluated = script.evaluate(this, dApp, sender, function, args, payment, Base58.decode(tx.id));
+        ScriptResult result = evaluated.result;
+        for (Transfer t : result.transfers) {
+            addDelta(deltas, dApp, t.asset, -t.amount);
+            addDelta(deltas, t.address, t.asset, t.amount);
+        }
+        applyDeltas(deltas);
+        write(dApp, result.data);
+        stateChanges.put(tx.id, result);
+        blockInvocations.computeIfAbsent(height, h -> new HashMap<>())
+                .computeIfAbsent(dApp, a -> new ArrayList<>()).add(result);
+        return new LocalTx(tx.id, tx.height, result, evaluated.complexity);
+    }
+
+    private void write(String address, List<Entry> entries) {
+        Map<String, Object> account = data.computeIfAbsent(address, a -> new HashMap<>());
+        for (Entry e : entries)
+            account.put(e.key, e.value);
+        blockData.computeIfAbsent(height, h -> new HashMap<>())
+                .computeIfAbsent(address, a -> new ArrayList<>()).addAll(entries);
+    }
+
+    // balances
+
+    private void charge(String sender, long fee) {
+        Map<String, Long> deltas = new HashMap<>();
+        deltas.put(key(sender, null), -fee);
+        applyDeltas(deltas);
+    }
+
+    private void credit(String address, String asset, long amount) {
+        balances.computeIfAbsent(address, a -> new HashMap<>()).merge(asset, amount, Long::sum);
+    }
+
+    private static void addDelta(Map<String, Long> deltas, String address, String asset, long amount) {
+        deltas.merge(key(address, asset), amount, Long::sum);
+    }
+
+    private void checkDeltas(Map<String, Long> deltas) {
+        for (Map.Entry<String, Long> d : deltas.entrySet()) {
+            String[] parts = d.getKey().split(":", -1);
+            String asset = parts[1].isEmpty() ? null : parts[1];
+            long balance = balance(parts[0], asset);
+            if (balance + d.getValue() < 0)
+                throw new IllegalStateException("Transaction application leads to negative " + (asset == null
+                        ? "waves" : "asset " + asset) + " balance of " + parts[0] + ": " + balance + " + " + d.getValue());
+        }
+    }
+
+    private void applyDeltas(Map<String, Long> deltas) {
+        checkDeltas(deltas);
+        for (Map.Entry<String, Long> d : deltas.entrySet()) {
+            String[] parts = d.getKey().split(":", -1);
+            credit(parts[0], parts[1].isEmpty() ? null : parts[1], d.getValue());
+        }
+    }
+
+    private static String key(String address, String asset) {
+        return address + ":" + Objects.toString(asset, "");
+    }
+
+    private LocalTx tx() {
+        return new LocalTx(nextId(), height, null);
+    }
+
+    private String nextId() {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(String.valueOf(chainId).getBytes(StandardCharsets.UTF_8));
+            sha256.update(ByteBuffer.allocate(8).putLong(++nonce).array());
+            return Base58.encode(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A transaction applied by the node. {@code stateChanges} and the complexity of the evaluated path are set for
+     * invocations only.
+     */
+    public static class LocalTx {
+        public final String id;
+        public final int height;
+        public final ScriptResult stateChanges;
+        public final long complexity;
+
+        LocalTx(String id, int height, ScriptResult stateChanges) {
+            this(id, height, stateChanges, 0);
+        }
+
+        LocalTx(String id, int height, ScriptResult stateChanges, long complexity) {
+            this.id = id;
+            this.height = height;
+            this.stateChanges = stateChanges;
+            this.complexity = complexity;
+        }
+    }
+
+}
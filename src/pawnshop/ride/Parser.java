@@ -0,0 +1,295 @@
+package pawnshop.ride;
+
+import pawnshop.ride.Lexer.Kind;
+import pawnshop.ride.Lexer.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static pawnshop.ride.Expr.*;
+
+/**
+ * Recursive descent parser for the expression subset of RIDE v3 that dApp scripts are written in.
+ */
+class Parser {
+
+    private static final List<List<String>> PRIORITIES = Arrays.asList(
+            Arrays.asList("||"),
+            Arrays.asList("&&"),
+            Arrays.asList("==", "!="),
+            Arrays.asList("<", "<=", ">", ">="),
+            Arrays.asList("::"),
+            Arrays.asList("+", "-"),
+            Arrays.asList("*", "/", "%")
+    );
+
+    static class Annotated {
+        final String annotation;
+        final String invocation;
+        final Func func;
+
+        Annotated(String annotation, String invocation, Func func) {
+            this.annotation = annotation;
+            this.invocation = invocation;
+            this.func = func;
+        }
+    }
+
+    private final List<Token> tokens;
+    private int pos;
+
+    final List<Decl> decls = new ArrayList<>();
+    final List<Annotated> annotated = new ArrayList<>();
+
+    Parser(String source) {
+        this.tokens = Lexer.tokenize(source);
+        while (peek().kind != Kind.EOF) {
+            if (peek().is("@")) {
+                next();
+                String annotation = ident();
+                expect("(");
+                String invocation = ident();
+                expect(")");
+                expect("func");
+                annotated.add(new Annotated(annotation, invocation, func()));
+            } else {
+                decls.add(decl());
+            }
+        }
+    }
+
+    private Decl decl() {
+        if (peek().is("let")) {
+            next();
+            String name = ident();
+            expect("=");
+            return new Let(name, expr());
+        }
+        expect("func");
+        return func();
+    }
+
+    private Func func() {
+        String name = ident();
+        expect("(");
+        List<String> params = new ArrayList<>();
+        while (!peek().is(")")) {
+            params.add(ident());
+            expect(":");
+            type();
+            if (!peek().is(")")) expect(",");
+        }
+        expect(")");
+        if (peek().is(":")) {
+            next();
+            type();
+        }
+        expect("=");
+        return new Func(name, params, expr());
+    }
+
+    private List<String> type() {
+        List<String> types = new ArrayList<>();
+        do {
+            if (!types.isEmpty()) next();
+            types.add(ident());
+            if (peek().is("[")) {
+                next();
+                type();
+                expect("]");
+            }
+        } while (peek().is("|"));
+        return types;
+    }
+
+    private boolean isDecl() {
+        return peek().is("let") || peek().is("func");
+    }
+
+    Expr expr() {
+        if (isDecl()) {
+            int line = peek().line;
+            List<Decl> block = new ArrayList<>();
+            while (isDecl())
+                block.add(decl());
+            return new Block(line, block, expr());
+        }
+        return binary(0);
+    }
+
+    private Expr binary(int priority) {
+        if (priority == PRIORITIES.size())
+            return unary();
+        Expr left = binary(priority + 1);
+        List<String> ops = PRIORITIES.get(priority);
+        while (peek().kind == Kind.OP && ops.contains(peek().text)) {
+            Token op = next();
+            if (op.text.equals("::"))
+                return new Binary(op.line, op.text, left, binary(priority));
+            left = new Binary(op.line, op.text, left, binary(priority + 1));
+        }
+        return left;
+    }
+
+    private Expr unary() {
+        if (peek().is("!") || peek().is("-")) {
+            Token op = next();
+            if (op.text.equals("-") && peek().kind == Kind.INT)
+                return postfix(new Const(op.line, -Long.parseLong(next().text)));
+            return new Unary(op.line, op.text, unary());
+        }
+        return postfix(primary());
+    }
+
+    private Expr postfix(Expr expr) {
+        while (true) {
+            if (peek().is(".")) {
+                next();
+                Token name = next();
+                if (name.kind != Kind.IDENT) throw error("identifier", name);
+                if (peek().is("(")) {
+                    List<Expr> args = new ArrayList<>();
+                    args.add(expr);
+                    args.addAll(args());
+                    expr = new Call(name.line, name.text, args);
+                } else {
+                    expr = new Getter(name.line, expr, name.text);
+                }
+            } else if (peek().is("[") && !peek().newlineBefore) {
+                int line = next().line;
+                Expr index = expr();
+                expect("]");
+                expr = new Index(line, expr, index);
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    private Expr primary() {
+        Token t = next();
+        switch (t.kind) {
+            case INT:
+                return new Const(t.line, Long.parseLong(t.text));
+            case STRING:
+                return new Const(t.line, t.text);
+            case OP:
+                if (t.text.equals("(")) {
+                    Expr e = expr();
+                    expect(")");
+                    return e;
+                }
+                if (t.text.equals("{")) {
+                    Expr e = expr();
+                    expect("}");
+                    return e;
+                }
+                if (t.text.equals("[")) {
+                    List<Expr> items = new ArrayList<>();
+                    while (!peek().is("]")) {
+                        items.add(expr());
+                        if (!peek().is("]")) expect(",");
+                    }
+                    expect("]");
+                    return new ListLit(t.line, items);
+                }
+                throw error("expression", t);
+            case IDENT:
+                switch (t.text) {
+                    case "true":
+                        return new Const(t.line, true);
+                    case "false":
+                        return new Const(t.line, false);
+                    case "if": {
+                        Expr cond = expr();
+                        expect("then");
+                        Expr then = expr();
+                        expect("else");
+                        return new If(t.line, cond, then, expr());
+                    }
+                    case "match":
+                        return match(t);
+                    case "FOLD":
+                        return fold(t);
+                    default:
+                        if (peek().is("(") && !peek().newlineBefore)
+                            return new Call(t.line, t.text, args());
+                        return new Ref(t.line, t.text);
+                }
+            default:
+                throw error("expression", t);
+        }
+    }
+
+    private Expr match(Token t) {
+        Expr value = expr();
+        expect("{");
+        List<Case> cases = new ArrayList<>();
+        while (peek().is("case")) {
+            next();
+            String binding = ident();
+            List<String> types = new ArrayList<>();
+            if (peek().is(":")) {
+                next();
+                types = type();
+            }
+            expect("=>");
+            cases.add(new Case(binding.equals("_") ? null : binding, types, expr()));
+        }
+        expect("}");
+        return new Match(t.line, value, cases);
+    }
+
+    private Expr fold(Token t) {
+        expect("<");
+        Token limit = next();
+        if (limit.kind != Kind.INT) throw error("fold limit", limit);
+        expect(">");
+        expect("(");
+        Expr list = expr();
+        expect(",");
+        Expr init = expr();
+        expect(",");
+        String function = ident();
+        expect(")");
+        return new Fold(t.line, Integer.parseInt(limit.text), list, init, function);
+    }
+
+    private List<Expr> args() {
+        expect("(");
+        List<Expr> args = new ArrayList<>();
+        while (!peek().is(")")) {
+            args.add(expr());
+            if (!peek().is(")")) expect(",");
+        }
+        expect(")");
+        return args;
+    }
+
+    private String ident() {
+        Token t = next();
+        if (t.kind != Kind.IDENT) throw error("identifier", t);
+        return t.text;
+    }
+
+    private void expect(String text) {
+        Token t = next();
+        if (!t.is(text)) throw error("'" + text + "'", t);
+    }
+
+    private Token peek() {
+        return tokens.get(pos);
+    }
+
+    private Token next() {
+        Token t = tokens.get(pos);
+        if (t.kind != Kind.EOF) pos++;
+        return t;
+    }
+
+    private IllegalArgumentException error(String expected, Token actual) {
+        return new IllegalArgumentException("Expected " + expected + ", but found " + actual);
+    }
+
+}
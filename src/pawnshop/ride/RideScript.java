@@ -0,0 +1,194 @@
+package pawnshop.ride;
+
+import pawnshop.Base58;
+import pawnshop.Entry;
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static pawnshop.ride.Expr.Env;
+import static pawnshop.ride.Values.*;
+
+/**
+ * A dApp script parsed from its RIDE source and evaluated in-process.
+ * <p>
+ * Only the expression language of STDLIB_VERSION 3 dApps is supported, which is what ride/ scripts use.
+ * Type checking is left to the real compiler: a script that compiles there evaluates the same way here.
+ */
+public class RideScript {
+
+    public static final int MAX_DATA_ENTRIES = 100;
+    public static final int MAX_TRANSFERS = 10;
+    public static final int MAX_KEY_LENGTH = 100;
+    public static final long INVOKE_FEE = 500000;
+    /** Complexity limit of every callable function of a STDLIB_VERSION 3 dApp. */
+    public static final long MAX_CALLABLE_COMPLEXITY = 4000;
+
+    private final List<Expr.Decl> decls;
+    private final Map<String, Parser.Annotated> callables = new LinkedHashMap<>();
+
+    private RideScript(Parser parser) {
+        this.decls = parser.decls;
+        for (Parser.Annotated a : parser.annotated)
+            if (a.annotation.equals("Callable"))
+                callables.put(a.func.name, a);
+    }
+
+    public static RideScript parse(String source) {
+        return new RideScript(new Parser(source));
+    }
+
+    public static RideScript fromFile(String path) {
+        try {
+            return parse(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read script " + path, e);
+        }
+    }
+
+    public Set<String> callables() {
+        return Collections.unmodifiableSet(callables.keySet());
+    }
+
+    public List<String> parameters(String function) {
+        Parser.Annotated callable = callables.get(function);
+        if (callable == null) throw new IllegalArgumentException("No callable function '" + function + "'");
+        return Collections.unmodifiableList(callable.func.params);
+    }
+
+    /**
+     * Static complexity of each callable function, the worst case over all branches with every {@code FOLD}
+     * running to its limit, with the local costs of {@link Complexity}. The node compares its own estimate with
+     * {@link #MAX_CALLABLE_COMPLEXITY} when the script is set; this one approximates it and is not calibrated against it.
+     */
+    public Map<String, Long> estimate() {
+        Map<String, Long> estimates = new LinkedHashMap<>();
+        for (Parser.Annotated callable : callables.values())
+            estimates.put(callable.func.name, new Estimator(decls).callable(callable));
+        return estimates;
+    }
+
+    /**
+     * Evaluates a callable function. Arguments may be Long, Integer, String, Boolean or byte[].
+     *
+     * @throws ScriptError if the script throws or fails to evaluate
+     */
+    public ScriptResult invoke(Blockchain blockchain, String dApp, String caller, String function,
+                               List<Object> args, Payment payment, byte[] txId) {
+        return evaluate(blockchain, dApp, caller, function, args, payment, txId).result;
+    }
+
+    /** Result of an invocation together with the complexity of the path it took. */
+    static class Evaluated {
+        final ScriptResult result;
+        final long complexity;
+
+        Evaluated(ScriptResult result, long complexity) {
+            this.result = result;
+            this.complexity = complexity;
+        }
+    }
+
+    Evaluated evaluate(Blockchain blockchain, String dApp, String caller, String function,
+                       List<Object> args, Payment payment, byte[] txId) {
+        Parser.Annotated callable = callables.get(function);
+        if (callable == null)
+            throw new ScriptError("Cannot find callable function `" + function + "`");
+        if (callable.func.params.size() != args.size())
+            throw new ScriptError("function '" + function + "' takes " + callable.func.params.size()
+                    + " args but " + args.size() + " were given");
+
+        Evaluation evaluation = new Evaluation(blockchain, dApp);
+        Env globals = new Env(null, evaluation);
+        for (Expr.Decl decl : decls)
+            globals.declare(decl);
+
+        Env env = globals.child();
+        env.bind(callable.invocation, new Obj("Invocation",
+                "caller", Values.address(caller),
+                "callerPublicKey", new Bytes(new byte[32]),
+                "payment", payment == null ? UNIT : new Obj("AttachedPayment",
+                        "assetId", payment.asset == null ? UNIT : new Bytes(Base58.decode(payment.asset)),
+                        "amount", payment.amount),
+                "transactionId", new Bytes(txId),
+                "fee", INVOKE_FEE,
+                "feeAssetId", UNIT));
+        for (int i = 0; i < args.size(); i++)
+            env.bind(callable.func.params.get(i), argument(args.get(i)));
+
+        try {
+            ScriptResult result = result(callable.func.body.eval(env));
+            return new Evaluated(result, evaluation.complexity);
+        } catch (StackOverflowError e) {
+            throw new EvaluationError("Evaluation is too deep");
+        }
+    }
+
+    private static Object argument(Object arg) {
+        if (arg instanceof Integer) return (long) (Integer) arg;
+        if (arg instanceof byte[]) return new Bytes((byte[]) arg);
+        if (arg instanceof Long || arg instanceof String || arg instanceof Boolean) return arg;
+        throw new IllegalArgumentException("Unsupported argument " + arg);
+    }
+
+    private static ScriptResult result(Object value) {
+        if (!(value instanceof Obj))
+            throw new EvaluationError("Callable must return WriteSet, TransferSet or ScriptResult, but got " + typeOf(value));
+        Obj obj = (Obj) value;
+        switch (obj.type) {
+            case "WriteSet":
+                return new ScriptResult(data(obj), new ArrayList<>());
+            case "TransferSet":
+                return new ScriptResult(new ArrayList<>(), transfers(obj));
+            case "ScriptResult":
+                return new ScriptResult(data((Obj) obj.get("writeSet")), transfers((Obj) obj.get("transferSet")));
+            default:
+                throw new EvaluationError("Callable must return WriteSet, TransferSet or ScriptResult, but got " + obj.type);
+        }
+    }
+
+    private static List<Entry> data(Obj writeSet) {
+        List<Object> items = asList(writeSet.get("data"));
+        if (items.size() > MAX_DATA_ENTRIES)
+            throw new ScriptError("WriteSet can't contain more than " + MAX_DATA_ENTRIES + " entries");
+        List<Entry> data = new ArrayList<>(items.size());
+        for (Object item : items) {
+            Obj entry = (Obj) item;
+            String key = (String) entry.get("key");
+            if (key.length() > MAX_KEY_LENGTH)
+                throw new ScriptError("Key size must be less than " + MAX_KEY_LENGTH);
+            data.add(new Entry(key, toData(entry.get("value"))));
+        }
+        return data;
+    }
+
+    private static List<Transfer> transfers(Obj transferSet) {
+        List<Object> items = asList(transferSet.get("transfers"));
+        if (items.size() > MAX_TRANSFERS)
+            throw new ScriptError("Too many script transfers: max: " + MAX_TRANSFERS + ", actual: " + items.size());
+        List<Transfer> transfers = new ArrayList<>(items.size());
+        for (Object item : items) {
+            Obj transfer = (Obj) item;
+            long amount = (Long) transfer.get("amount");
+            if (amount < 0)
+                throw new ScriptError("Negative transfer amount: " + amount);
+            Object asset = transfer.get("asset");
+            transfers.add(new Transfer(addressString(transfer.get("recipient")), amount,
+                    asset == UNIT ? null : Base58.encode(Builtins.bytes(asset))));
+        }
+        return transfers;
+    }
+
+}
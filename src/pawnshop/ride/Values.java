@@ -0,0 +1,119 @@
+package pawnshop.ride;
+
+import pawnshop.Base58;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime values of the evaluator besides Long, String, Boolean and java.util.List.
+ */
+class Values {
+
+    static final Object UNIT = new Object() {
+        @Override
+        public String toString() {
+            return "Unit";
+        }
+    };
+
+    static class Bytes {
+        final byte[] bytes;
+
+        Bytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bytes && Arrays.equals(bytes, ((Bytes) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public String toString() {
+            return "base58'" + Base58.encode(bytes) + "'";
+        }
+    }
+
+    /** Instance of a case type such as Address, AttachedPayment or DataEntry. */
+    static class Obj {
+        final String type;
+        final Map<String, Object> fields;
+
+        Obj(String type, Object... namesAndValues) {
+            this.type = type;
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < namesAndValues.length; i += 2)
+                map.put((String) namesAndValues[i], namesAndValues[i + 1]);
+            this.fields = Collections.unmodifiableMap(map);
+        }
+
+        Object get(String field) {
+            if (!fields.containsKey(field)) throw new EvaluationError("Type " + type + " has no field '" + field + "'");
+            return fields.get(field);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Obj && type.equals(((Obj) o).type) && fields.equals(((Obj) o).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + fields.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return type + fields;
+        }
+    }
+
+    static Obj address(String base58) {
+        return new Obj("Address", "bytes", new Bytes(Base58.decode(base58)));
+    }
+
+    static String addressString(Object address) {
+        if (!(address instanceof Obj) || !((Obj) address).type.equals("Address"))
+            throw new EvaluationError("Address expected, but got " + typeOf(address));
+        return Base58.encode(((Bytes) ((Obj) address).get("bytes")).bytes);
+    }
+
+    static String typeOf(Object value) {
+        if (value instanceof Long) return "Int";
+        if (value instanceof String) return "String";
+        if (value instanceof Boolean) return "Boolean";
+        if (value instanceof Bytes) return "ByteVector";
+        if (value instanceof List) return "List";
+        if (value instanceof Obj) return ((Obj) value).type;
+        if (value == UNIT) return "Unit";
+        throw new IllegalStateException("Unknown value " + value);
+    }
+
+    /** Converts a stored data value into a script value. */
+    static Object fromData(Object value) {
+        return value instanceof byte[] ? new Bytes((byte[]) value) : value;
+    }
+
+    /** Converts a script value into a data value. */
+    static Object toData(Object value) {
+        if (value instanceof Bytes) return ((Bytes) value).bytes;
+        if (value instanceof Long || value instanceof String || value instanceof Boolean) return value;
+        throw new EvaluationError("DataEntry value can't be " + typeOf(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> asList(Object value) {
+        if (!(value instanceof List)) throw new EvaluationError("List expected, but got " + typeOf(value));
+        return (List<Object>) value;
+    }
+
+}
@@ -0,0 +1,90 @@
+package pawnshop.risk;
+
+import pawnshop.state.Loan;
+import pawnshop.state.OpenLoanIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static pawnshop.PawnshopEngine.TEN8;
+import static pawnshop.PawnshopEngine.fraction;
+
+/**
+ * Open loans as primitive arrays, their ends relative to the height the book is taken at.
+ */
+public final class LoanBook {
+
+    final long[] deposit;
+    final long[] lend;
+    final long[] graceEnd;
+    final long[] interestEnd;
+    final long[] burndownEnd;
+
+    private LoanBook(int size) {
+        deposit = new long[size];
+        lend = new long[size];
+        graceEnd = new long[size];
+        interestEnd = new long[size];
+        burndownEnd = new long[size];
+    }
+
+    public static LoanBook of(OpenLoanIndex index, int height) {
+        List<String> ids = index.ids();
+        LoanBook book = new LoanBook(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            book.set(i, index.deposit(id), index.lend(id), index.graceEnd(id) - height,
+                    index.interestEnd(id) - height, index.burndownEnd(id) - height);
+        }
+        return book;
+    }
+
+    public static LoanBook of(Collection<Loan> loans, int height) {
+        List<Loan> open = new ArrayList<>(loans.size());
+        for (Loan loan : loans)
+            if (loan.isOpen()) open.add(loan);
+        LoanBook book = new LoanBook(open.size());
+        for (int i = 0; i < open.size(); i++) {
+            Loan loan = open.get(i);
+            book.set(i, loan.deposit, loan.lend, loan.graceEnd - height, loan.interestEnd - height,
+                    loan.burndownEnd - height);
+        }
+        return book;
+    }
+
+    /**
+     * Loans of the same WAVES deposit borrowed at the rate, one every {@code (grace + interest) / loans} blocks up to
+     * the height of the book, as if the dApp had been lending at a steady pace.
+     */
+    public static LoanBook synthetic(int loans, long depositWaves, long rate, long discount, long grace, long interest,
+                                     long burndown) {
+        LoanBook book = new LoanBook(loans);
+        long lend = fraction(depositWaves, rate * discount, TEN8 * 100);
+        for (int i = 0; i < loans; i++) {
+            long start = -(grace + interest) * i / loans;
+            book.set(i, depositWaves, lend, start + grace, start + grace + interest, start + grace + burndown);
+        }
+        return book;
+    }
+
+    private void set(int i, long deposit, long lend, long graceEnd, long interestEnd, long burndownEnd) {
+        this.deposit[i] = deposit;
+        this.lend[i] = lend;
+        this.graceEnd[i] = graceEnd;
+        this.interestEnd[i] = interestEnd;
+        this.burndownEnd[i] = burndownEnd;
+    }
+
+    public int size() {
+        return deposit.length;
+    }
+
+    public long lent() {
+        long total = 0;
+        for (long l : lend)
+            total += l;
+        return total;
+    }
+
+}
@@ -0,0 +1,418 @@
+package pawnshop.risk;
+
+import pawnshop.PawnshopEngine;
+import pawnshop.quote.BuyBackQuotes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static pawnshop.PawnshopEngine.TEN8;
+
+/**
+ * Runs a loan book through random WAVES/BTC rate paths under the rules of the script and gives the distribution of
+ * what the lenders lose.
+ * <p>
+ * The rate follows a geometric random walk from the current one, posted every {@code step} blocks. A new loan is
+ * borrowed every {@code borrowEvery} blocks unless the rate is above {@code maxRate}, lending
+ * {@code deposit * rate * discount / 10^10}. A borrower decides from the last step of grace on and buys back as soon
+ * as the deposit is worth {@code buyBackMargin} percent of what buyBack requires. One who still hasn't bought back at
+ * the last step before the end of interest walks away: {@code discardShare} percent of them discard, the others let
+ * the loan expire and it is closed the first step after. A closed loan leaves its lend lost from the circulating
+ * assets of the lenders and its deposit, less the service fee, to them, valued at the rate of that step.
+ * <p>
+ * Each path is seeded from the seed and its index alone, so a run gives the same report on any number of threads.
+ * Threads take contiguous ranges of paths; the loans of a path live in arrays allocated once per thread, and nothing
+ * is allocated per path or per step.
+ */
+public class RiskSimulator {
+
+    public static class Config {
+        int paths = 100_000;
+        int blocks = 1440 + 43200 + 60;
+        int step = 60;
+        long rate;
+        double volatility = 0.001;
+        double drift;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        long maxRate = 20000;
+        long discount = 80;
+        long grace = 1440;
+        long interest = 43200;
+        long burndown = 1440000;
+        long serviceFee = 10;
+        long lendSize = 10;
+        int lenders = 1;
+        int borrowEvery;
+        long borrowWaves;
+        long buyBackMargin = 100;
+        int discardShare = 50;
+
+        public Config paths(int paths) { this.paths = paths; return this; }
+        /** Blocks each path runs for. */
+        public Config blocks(int blocks) { this.blocks = blocks; return this; }
+        /** Blocks between rate posts and borrower decisions. */
+        public Config step(int step) { this.step = step; return this; }
+        /** The oracle rate at the start of every path. */
+        public Config rate(long rate) { this.rate = rate; return this; }
+        /** Standard deviation of the log rate per block. */
+        public Config volatility(double volatility) { this.volatility = volatility; return this; }
+        /** Mean of the log rate change per block. */
+        public Config drift(double drift) { this.drift = drift; return this; }
+        public Config seed(long seed) { this.seed = seed; return this; }
+        public Config threads(int threads) { this.threads = threads; return this; }
+        public Config maxRate(long maxRate) { this.maxRate = maxRate; return this; }
+        public Config discount(long discount) { this.discount = discount; return this; }
+        public Config grace(long grace) { this.grace = grace; return this; }
+        public Config interest(long interest) { this.interest = interest; return this; }
+        public Config burndown(long burndown) { this.burndown = burndown; return this; }
+        public Config serviceFee(long serviceFee) { this.serviceFee = serviceFee; return this; }
+        public Config lendSize(long lendSize) { this.lendSize = lendSize; return this; }
+        /** Lenders whose circulating assets back the book, {@code lendSize} WBTC each. */
+        public Config lenders(int lenders) { this.lenders = lenders; return this; }
+        /** A new loan of the WAVES every that many blocks, none if 0. */
+        public Config borrows(int every, long waves) { this.borrowEvery = every; this.borrowWaves = waves; return this; }
+        /** Percent of the required amount the deposit must be worth for its borrower to buy it back. */
+        public Config buyBackMargin(long buyBackMargin) { this.buyBackMargin = buyBackMargin; return this; }
+        /** Percent of the borrowers walking away who discard rather than let the loan expire. */
+        public Config discardShare(int discardShare) { this.discardShare = discardShare; return this; }
+    }
+
+    /**
+     * Per path outcomes, sorted. WBTC amounts are in satoshis.
+     */
+    public static class Report {
+        public final int paths;
+        /** Circulating assets of the lenders at the start. */
+        public final long circulating;
+        /** Average loans per path by how they ended, and borrows rejected. */
+        public final double boughtBack;
+        public final double discarded;
+        public final double expired;
+        public final double open;
+        public final double rejected;
+        private final long[] losses;
+        private final long[] results;
+        private final double[] erosion;
+
+        Report(int paths, long circulating, long[] counts, long[] losses, long[] results, double[] erosion) {
+            this.paths = paths;
+            this.circulating = circulating;
+            this.boughtBack = (double) counts[0] / paths;
+            this.discarded = (double) counts[1] / paths;
+            this.expired = (double) counts[2] / paths;
+            this.open = (double) counts[3] / paths;
+            this.rejected = (double) counts[4] / paths;
+            this.losses = losses;
+            this.results = results;
+            this.erosion = erosion;
+            Arrays.sort(losses);
+            Arrays.sort(results);
+            Arrays.sort(erosion);
+        }
+
+        /**
+         * Loss of the lenders at the quantile: the lend of closed loans not covered by the value of their deposits.
+         */
+        public long loss(double quantile) {
+            return losses[index(quantile)];
+        }
+
+        /**
+         * Interest got from buyBacks plus the value of deposits got from closed loans, less their lend.
+         */
+        public long result(double quantile) {
+            return results[index(quantile)];
+        }
+
+        /**
+         * Share of the circulating assets lost to closed loans, at the quantile.
+         */
+        public double erosion(double quantile) {
+            return erosion[index(quantile)];
+        }
+
+        public double meanLoss() {
+            double sum = 0;
+            for (long loss : losses)
+                sum += loss;
+            return sum / paths;
+        }
+
+        public double meanErosion() {
+            double sum = 0;
+            for (double e : erosion)
+                sum += e;
+            return sum / paths;
+        }
+
+        private int index(double quantile) {
+            return Math.max(0, Math.min(paths - 1, (int) Math.ceil(quantile * paths) - 1));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d paths: %.2f bought back, %.2f discarded, %.2f expired, %.2f open, %.2f rejected"
+                            + " per path%nloss: mean %.0f, p50 %d, p95 %d, p99 %d, max %d%n"
+                            + "result: p1 %d, p5 %d, p50 %d%n"
+                            + "erosion of %d circulating: mean %.4f%%, p95 %.4f%%, p99 %.4f%%, max %.4f%%",
+                    paths, boughtBack, discarded, expired, open, rejected, meanLoss(), loss(0.5), loss(0.95),
+                    loss(0.99), loss(1), result(0.01), result(0.05), result(0.5), circulating, meanErosion() * 100,
+                    erosion(0.95) * 100, erosion(0.99) * 100, erosion(1) * 100);
+        }
+    }
+
+    private final LoanBook book;
+    private final Config config;
+
+    public RiskSimulator(LoanBook book, Config config) {
+        if (config.rate <= 0) throw new IllegalArgumentException("The rate to start from is not set");
+        if (config.step <= 0) throw new IllegalArgumentException("The step must be positive");
+        this.book = book;
+        this.config = config;
+    }
+
+    public static Config config() {
+        return new Config();
+    }
+
+    public Report run() {
+        int paths = config.paths;
+        long[] losses = new long[paths];
+        long[] results = new long[paths];
+        double[] erosion = new double[paths];
+        long circulating = config.lenders * config.lendSize * TEN8;
+        int threads = Math.max(1, Math.min(config.threads, paths));
+        AtomicInteger n = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "risk-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<long[]>> counts = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                int from = (int) ((long) paths * t / threads);
+                int to = (int) ((long) paths * (t + 1) / threads);
+                counts.add(pool.submit(() -> {
+                    Worker worker = new Worker(circulating);
+                    for (int path = from; path < to; path++)
+                        worker.run(path, losses, results, erosion);
+                    return worker.counts;
+                }));
+            }
+            long[] total = new long[5];
+            for (Future<long[]> f : counts) {
+                long[] c = f.get();
+                for (int i = 0; i < total.length; i++)
+                    total[i] += c[i];
+            }
+            return new Report(paths, circulating, total, losses, results, erosion);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private final class Worker {
+        final long circulating;
+        final long[] deposit;
+        final long[] lend;
+        final long[] graceEnd;
+        final long[] interestEnd;
+        final long[] burndownEnd;
+        final boolean[] open;
+        /** Bought back, discarded, expired, open and rejected loans of all paths run. */
+        final long[] counts = new long[5];
+        long random;
+        double spare;
+        boolean hasSpare;
+        long wavesValue;
+        long closedLend;
+        long loss;
+
+        Worker(long circulating) {
+            this.circulating = circulating;
+            int capacity = book.size() + (config.borrowEvery > 0 ? config.blocks / config.borrowEvery + 1 : 0);
+            deposit = new long[capacity];
+            lend = new long[capacity];
+            graceEnd = new long[capacity];
+            interestEnd = new long[capacity];
+            burndownEnd = new long[capacity];
+            open = new boolean[capacity];
+        }
+
+        void run(int path, long[] losses, long[] results, double[] erosion) {
+            random = mix(config.seed + path * 0x9E3779B97F4A7C15L);
+            hasSpare = false;
+            int n = book.size();
+            System.arraycopy(book.deposit, 0, deposit, 0, n);
+            System.arraycopy(book.lend, 0, lend, 0, n);
+            System.arraycopy(book.graceEnd, 0, graceEnd, 0, n);
+            System.arraycopy(book.interestEnd, 0, interestEnd, 0, n);
+            System.arraycopy(book.burndownEnd, 0, burndownEnd, 0, n);
+            Arrays.fill(open, 0, n, true);
+            long profit = 0;
+            wavesValue = 0;
+            closedLend = 0;
+            loss = 0;
+
+            int step = config.step;
+            double mu = config.drift * step;
+            double sigma = config.volatility * Math.sqrt(step);
+            double price = config.rate;
+            long nextBorrow = 0;
+            for (int h = 0; h < config.blocks; h += step) {
+                if (h > 0) price *= Math.exp(mu + sigma * gaussian());
+                long rate = Math.max(1, Math.round(price));
+                while (config.borrowEvery > 0 && nextBorrow <= h) {
+                    nextBorrow += config.borrowEvery;
+                    long lent = rate > config.maxRate ? 0
+                            : fraction(config.borrowWaves, rate * config.discount, TEN8 * 100);
+                    if (lent <= 0) {
+                        counts[4]++;
+                        continue;
+                    }
+                    deposit[n] = config.borrowWaves;
+                    lend[n] = lent;
+                    graceEnd[n] = h + config.grace;
+                    interestEnd[n] = h + config.grace + config.interest;
+                    burndownEnd[n] = h + config.grace + config.burndown;
+                    open[n++] = true;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (!open[i]) continue;
+                    if (h > interestEnd[i]) {
+                        close(i, rate);
+                        counts[2]++;
+                        continue;
+                    }
+                    if (h + step <= graceEnd[i]) continue;
+                    long required = BuyBackQuotes.quote(lend[i], graceEnd[i], interestEnd[i], burndownEnd[i], h);
+                    if (required < 0) continue;
+                    if (fraction(deposit[i], rate, TEN8) * 100 >= fraction(required, config.buyBackMargin, 1)) {
+                        long interest = required - lend[i];
+                        profit += interest - fraction(interest, config.serviceFee, 100);
+                        open[i] = false;
+                        counts[0]++;
+                    } else if (h + step >= interestEnd[i] && uniform() * 100 < config.discardShare) {
+                        close(i, rate);
+                        counts[1]++;
+                    }
+                }
+            }
+            for (int i = 0; i < n; i++)
+                if (open[i]) counts[3]++;
+            losses[path] = loss;
+            results[path] = profit + wavesValue - closedLend;
+            erosion[path] = circulating == 0 ? 0 : (double) closedLend / circulating;
+        }
+
+        private void close(int i, long rate) {
+            long waves = deposit[i] - fraction(deposit[i], config.serviceFee, 10000);
+            long value = fraction(waves, rate, TEN8);
+            wavesValue += value;
+            closedLend += lend[i];
+            if (lend[i] > value) loss += lend[i] - value;
+            open[i] = false;
+        }
+
+        private double uniform() {
+            random ^= random >>> 12;
+            random ^= random << 25;
+            random ^= random >>> 27;
+            return ((random * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+        }
+
+        private double gaussian() {
+            if (hasSpare) {
+                hasSpare = false;
+                return spare;
+            }
+            double u, v, s;
+            do {
+                u = 2 * uniform() - 1;
+                v = 2 * uniform() - 1;
+                s = u * u + v * v;
+            } while (s >= 1 || s == 0);
+            double m = Math.sqrt(-2 * Math.log(s) / s);
+            spare = v * m;
+            hasSpare = true;
+            return u * m;
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return z == 0 ? 1 : z;
+    }
+
+    /**
+     * {@code fraction} of the script, in 64 bits when the product fits.
+     */
+    static long fraction(long value, long numerator, long denominator) {
+        if (value >= 0 && numerator >= 0 && (numerator == 0 || value <= Long.MAX_VALUE / numerator))
+            return value * numerator / denominator;
+        return PawnshopEngine.fraction(value, numerator, denominator);
+    }
+
+    /**
+     * Runs a synthetic book: {@code rate=10000 loans=100 deposit=100000000000 paths=1000000 volatility=0.001}, any
+     * other {@link Config} setting by name.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            options.put(option[0], option[1]);
+        }
+        Config config = config();
+        options.forEach((name, value) -> {
+            switch (name) {
+                case "paths": config.paths(Integer.parseInt(value)); break;
+                case "blocks": config.blocks(Integer.parseInt(value)); break;
+                case "step": config.step(Integer.parseInt(value)); break;
+                case "rate": config.rate(Long.parseLong(value)); break;
+                case "volatility": config.volatility(Double.parseDouble(value)); break;
+                case "drift": config.drift(Double.parseDouble(value)); break;
+                case "seed": config.seed(Long.parseLong(value)); break;
+                case "threads": config.threads(Integer.parseInt(value)); break;
+                case "maxRate": config.maxRate(Long.parseLong(value)); break;
+                case "discount": config.discount(Long.parseLong(value)); break;
+                case "grace": config.grace(Long.parseLong(value)); break;
+                case "interest": config.interest(Long.parseLong(value)); break;
+                case "burndown": config.burndown(Long.parseLong(value)); break;
+                case "serviceFee": config.serviceFee(Long.parseLong(value)); break;
+                case "lendSize": config.lendSize(Long.parseLong(value)); break;
+                case "lenders": config.lenders(Integer.parseInt(value)); break;
+                case "buyBackMargin": config.buyBackMargin(Long.parseLong(value)); break;
+                case "discardShare": config.discardShare(Integer.parseInt(value)); break;
+                case "loans": case "deposit": break;
+                default: throw new IllegalArgumentException("Unknown option " + name);
+            }
+        });
+        LoanBook book = LoanBook.synthetic(Integer.parseInt(options.getOrDefault("loans", "100")),
+                Long.parseLong(options.getOrDefault("deposit", String.valueOf(1000 * TEN8))), config.rate,
+                config.discount, config.grace, config.interest, config.burndown);
+        long start = System.nanoTime();
+        Report report = new RiskSimulator(book, config).run();
+        System.out.println(report);
+        System.out.printf("%d ms%n", (System.nanoTime() - start) / 1_000_000);
+    }
+
+}
@@ -0,0 +1,417 @@
+package pawnshop.snapshot;
+
+import pawnshop.Address;
+import pawnshop.Base58;
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.state.DecodedChanges;
+import pawnshop.state.LenderAccount;
+import pawnshop.state.LenderLedger;
+import pawnshop.state.LenderSlots;
+import pawnshop.state.Loan;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loans and lender accounts of the dApp at one height, in a memory-mapped columnar file.
+ * <p>
+ * Rows are sorted by the raw bytes of the loan id or the lender address, so lookups are binary searches and two
+ * snapshots are diffed by a merge join. Values are read straight from the mapping, nothing is parsed on open. Addresses
+ * take 26 bytes, numbers 8 bytes. A loan id takes 26 bytes too: a number is zero-padded, a loan taken before loan ids
+ * has the address of its renter. The renter of a closed loan is all zeros. The lenders of a loan are a bit mask of
+ * {@link LenderSlots lender slots}, bit n set for slot n, and every slot holds the index of its lender row.
+ * <p>
+ * Layout, big-endian, every column aligned to 8 bytes:
+ * <pre>
+ * header    magic, version, height, loans, lenders, slots (int each)
+ * loans     id[26], renter[26], start, graceEnd, interestEnd, burndownEnd, rate, deposit, lend, lenderMask
+ * slots     lender index, -1 if no loan of the snapshot has the slot (int)
+ * lenders   address[26], profit, unclaimed, circulatingAssets ({@link #ABSENT} if the key is not set)
+ * </pre>
+ */
+public class Snapshot {
+
+    public static final long ABSENT = Long.MIN_VALUE;
+
+    static final int MAGIC = 0x504e5331;
+    static final int VERSION = 4;
+    /** Slots a lender mask can hold. */
+    public static final int MAX_SLOTS = 64;
+    private static final int HEADER = 24;
+    private static final int LOAN_COLUMNS = 8;
+    private static final int MASK = 7;
+    private static final int LENDER_COLUMNS = 3;
+
+    private final ByteBuffer buffer;
+    private final int height;
+    private final int loans;
+    private final int lenders;
+    private final int slots;
+
+    private final int idAt;
+    private final int renterAt;
+    private final int loanColumnsAt;
+    private final int slotsAt;
+    private final int lenderAt;
+    private final int lenderColumnsAt;
+
+    private Snapshot(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) throw new IllegalArgumentException("Not a pawnshop snapshot");
+        if (buffer.getInt(4) != VERSION)
+            throw new IllegalArgumentException("Unsupported snapshot version " + buffer.getInt(4));
+        this.height = buffer.getInt(8);
+        this.loans = buffer.getInt(12);
+        this.lenders = buffer.getInt(16);
+        this.slots = buffer.getInt(20);
+
+        this.idAt = HEADER;
+        this.renterAt = idAt + loans * Address.LENGTH;
+        this.loanColumnsAt = align(renterAt + loans * Address.LENGTH);
+        this.slotsAt = loanColumnsAt + LOAN_COLUMNS * loans * 8;
+        this.lenderAt = align(slotsAt + slots * 4);
+        this.lenderColumnsAt = align(lenderAt + lenders * Address.LENGTH);
+        int size = lenderColumnsAt + LENDER_COLUMNS * lenders * 8;
+        if (buffer.capacity() < size) throw new IllegalArgumentException("Truncated snapshot");
+    }
+
+    public static Snapshot open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the loans and lender accounts of the dApp storage. A lender that holds a slot is written with what it is
+     * owed including the shares of the cohorts it has not settled, see {@link LenderLedger#owed}.
+     */
+    public static Snapshot write(Path file, int height, Map<String, Object> data) {
+        List<Entry> entries = new ArrayList<>(data.size());
+        data.forEach((key, value) -> entries.add(new Entry(key, value)));
+        DecodedChanges decoded = new DecodedChanges(entries, Collections.emptyList());
+        LenderSlots slots = LenderSlots.of(data);
+        Object flags = data.get(Keys.LENDER_FLAGS);
+        Set<String> participating = new HashSet<>(slots.lenders(flags instanceof String ? (String) flags : ""));
+        List<LenderAccount> lenders = new ArrayList<>();
+        for (LenderAccount account : decoded.lenders().values()) {
+            if (!participating.contains(account.lender)) {
+                lenders.add(account);
+                continue;
+            }
+            long[] owed = LenderLedger.owed(data, account.lender);
+            lenders.add(new LenderAccount(account.lender, owed[0], owed[1], owed[2]));
+        }
+        return write(file, height, decoded.loans().values(), lenders, slots);
+    }
+
+    /**
+     * Writes the rows to the file, replacing it atomically, and opens the result.
+     * Lenders of loans that have no accounting keys get a row with all values absent.
+     */
+    public static Snapshot write(Path file, int height, Collection<Loan> loans, Collection<LenderAccount> lenders,
+                                 LenderSlots slots) {
+        if (slots.size() > MAX_SLOTS) throw new IllegalArgumentException("More than " + MAX_SLOTS + " lender slots");
+        for (Loan l : loans) {
+            if (loanId(l.id) == null) throw new IllegalArgumentException("Not a loan id: " + l.id);
+            if (!l.renter.isEmpty() && address(l.renter) == null)
+                throw new IllegalArgumentException("Not an address: " + l.renter);
+        }
+        for (LenderAccount l : lenders)
+            if (address(l.lender) == null) throw new IllegalArgumentException("Not an address: " + l.lender);
+        List<Loan> loanRows = new ArrayList<>(loans);
+        loanRows.sort(Comparator.comparing(l -> loanId(l.id), Snapshot::compare));
+        Map<String, LenderAccount> lenderMap = new HashMap<>();
+        for (LenderAccount l : lenders)
+            lenderMap.put(l.lender, l);
+        long used = 0;
+        for (Loan l : loanRows) {
+            used |= mask(l.lenderFlags);
+            for (String lender : l.lenders(slots))
+                lenderMap.putIfAbsent(lender, new LenderAccount(lender, null, null, null));
+        }
+        List<LenderAccount> lenderRows = new ArrayList<>(lenderMap.values());
+        lenderRows.sort(Comparator.comparing(l -> address(l.lender), Snapshot::compare));
+        Map<String, Integer> lenderIndex = new HashMap<>();
+        for (int i = 0; i < lenderRows.size(); i++)
+            lenderIndex.put(lenderRows.get(i).lender, i);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(height)
+                .putInt(loanRows.size()).putInt(lenderRows.size()).putInt(slots.size());
+        int n = loanRows.size(), m = lenderRows.size();
+        int loanColumnsAt = align(HEADER + 2 * n * Address.LENGTH);
+        int slotsAt = loanColumnsAt + LOAN_COLUMNS * n * 8;
+        int lenderAt = align(slotsAt + slots.size() * 4);
+        int lenderColumnsAt = align(lenderAt + m * Address.LENGTH);
+        int size = lenderColumnsAt + LENDER_COLUMNS * m * 8;
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            header.flip();
+            out.put(header);
+            for (int i = 0; i < n; i++) {
+                Loan l = loanRows.get(i);
+                put(out, HEADER + i * Address.LENGTH, loanId(l.id));
+                if (!l.renter.isEmpty()) putAddress(out, HEADER + (n + i) * Address.LENGTH, l.renter);
+                long[] values = {l.start, l.graceEnd, l.interestEnd, l.burndownEnd, l.rate, l.deposit, l.lend,
+                        mask(l.lenderFlags)};
+                for (int c = 0; c < LOAN_COLUMNS; c++)
+                    out.putLong(loanColumnsAt + (c * n + i) * 8, values[c]);
+            }
+            for (int slot = 0; slot < slots.size(); slot++)
+                out.putInt(slotsAt + slot * 4, (used & 1L << slot) != 0 ? lenderIndex.get(slots.lender(slot)) : -1);
+            for (int i = 0; i < m; i++) {
+                LenderAccount l = lenderRows.get(i);
+                putAddress(out, lenderAt + i * Address.LENGTH, l.lender);
+                Long[] values = {l.profit, l.unclaimed, l.circulatingAssets};
+                for (int c = 0; c < LENDER_COLUMNS; c++)
+                    out.putLong(lenderColumnsAt + (c * m + i) * 8, values[c] == null ? ABSENT : values[c]);
+            }
+            out.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return open(file);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int loanCount() {
+        return loans;
+    }
+
+    public int lenderCount() {
+        return lenders;
+    }
+
+    public String id(int i) {
+        checkIndex(i, loans);
+        int at = idAt + i * Address.LENGTH;
+        if (buffer.get(at) != 0) return addressAt(idAt, i);
+        return Long.toString(buffer.getLong(at + Address.LENGTH - 8));
+    }
+
+    /**
+     * The renter of the loan, empty for a closed one.
+     */
+    public String renter(int i) {
+        checkIndex(i, loans);
+        return buffer.get(renterAt + i * Address.LENGTH) == 0 ? "" : addressAt(renterAt, i);
+    }
+
+    public long start(int i) { return loanColumn(0, i); }
+    public long graceEnd(int i) { return loanColumn(1, i); }
+    public long interestEnd(int i) { return loanColumn(2, i); }
+    public long burndownEnd(int i) { return loanColumn(3, i); }
+    public long rate(int i) { return loanColumn(4, i); }
+    public long deposit(int i) { return loanColumn(5, i); }
+    public long lend(int i) { return loanColumn(6, i); }
+    public long lenderMask(int i) { return loanColumn(MASK, i); }
+
+    public boolean isOpen(int i) {
+        return start(i) > 0;
+    }
+
+    /**
+     * Indexes of the lender rows of the loan, in slot order.
+     */
+    public int[] lenderIndexes(int i) {
+        long mask = lenderMask(i);
+        int[] indexes = new int[Long.bitCount(mask)];
+        for (int k = 0; mask != 0; k++, mask &= mask - 1)
+            indexes[k] = buffer.getInt(slotsAt + Long.numberOfTrailingZeros(mask) * 4);
+        return indexes;
+    }
+
+    /**
+     * The loan as stored, except that its lender flags end with the last flagged slot.
+     */
+    public Loan loan(int i) {
+        long mask = lenderMask(i);
+        StringBuilder flags = new StringBuilder();
+        for (int slot = 0; slot < 64 - Long.numberOfLeadingZeros(mask); slot++)
+            flags.append((mask & 1L << slot) != 0 ? '1' : '0');
+        return new Loan(id(i), renter(i), start(i), graceEnd(i), interestEnd(i), burndownEnd(i), rate(i), deposit(i),
+                lend(i), flags.toString());
+    }
+
+    /**
+     * Returns the row of the loan, or -1 if there is none.
+     */
+    public int indexOfLoan(String id) {
+        return search(idAt, loans, loanId(id));
+    }
+
+    public String lender(int i) {
+        return addressAt(lenderAt, i);
+    }
+
+    public long profit(int i) { return lenderColumn(0, i); }
+    public long unclaimed(int i) { return lenderColumn(1, i); }
+    public long circulatingAssets(int i) { return lenderColumn(2, i); }
+
+    public LenderAccount lenderAccount(int i) {
+        return new LenderAccount(lender(i), boxed(profit(i)), boxed(unclaimed(i)), boxed(circulatingAssets(i)));
+    }
+
+    /**
+     * Returns the row of the lender, or -1 if there is none.
+     */
+    public int indexOfLender(String lender) {
+        return search(lenderAt, lenders, address(lender));
+    }
+
+    int compareLoans(int i, Snapshot other, int j) {
+        return compare(buffer, idAt + i * Address.LENGTH, other.buffer, other.idAt + j * Address.LENGTH);
+    }
+
+    int compareLenders(int i, Snapshot other, int j) {
+        return compare(buffer, lenderAt + i * Address.LENGTH, other.buffer, other.lenderAt + j * Address.LENGTH);
+    }
+
+    boolean sameLoan(int i, Snapshot other, int j) {
+        for (int c = 0; c < LOAN_COLUMNS; c++)
+            if (loanColumn(c, i) != other.loanColumn(c, j)) return false;
+        if (compare(buffer, renterAt + i * Address.LENGTH, other.buffer, other.renterAt + j * Address.LENGTH) != 0)
+            return false;
+        int[] a = lenderIndexes(i), b = other.lenderIndexes(j);
+        if (a.length != b.length) return false;
+        for (int k = 0; k < a.length; k++)
+            if (compareLenders(a[k], other, b[k]) != 0) return false;
+        return true;
+    }
+
+    boolean sameLender(int i, Snapshot other, int j) {
+        for (int c = 0; c < LENDER_COLUMNS; c++)
+            if (lenderColumn(c, i) != other.lenderColumn(c, j)) return false;
+        return true;
+    }
+
+    private long loanColumn(int column, int i) {
+        checkIndex(i, loans);
+        return buffer.getLong(loanColumnsAt + (column * loans + i) * 8);
+    }
+
+    private long lenderColumn(int column, int i) {
+        checkIndex(i, lenders);
+        return buffer.getLong(lenderColumnsAt + (column * lenders + i) * 8);
+    }
+
+    private String addressAt(int column, int i) {
+        byte[] bytes = new byte[Address.LENGTH];
+        for (int k = 0; k < bytes.length; k++)
+            bytes[k] = buffer.get(column + i * Address.LENGTH + k);
+        return Base58.encode(bytes);
+    }
+
+    private int search(int column, int count, byte[] key) {
+        if (key == null) return -1;
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(buffer, column + mid * Address.LENGTH, wrapped, 0);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private static int compare(ByteBuffer a, int aAt, ByteBuffer b, int bAt) {
+        for (int k = 0; k < Address.LENGTH; k++) {
+            int c = Integer.compare(a.get(aAt + k) & 0xff, b.get(bAt + k) & 0xff);
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        return compare(ByteBuffer.wrap(a), 0, ByteBuffer.wrap(b), 0);
+    }
+
+    private static byte[] address(String address) {
+        byte[] bytes;
+        try {
+            bytes = Base58.decode(address);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return bytes.length == Address.LENGTH ? bytes : null;
+    }
+
+    /**
+     * The 26 bytes of a loan id: a non-negative number zero-padded, or an address, whose first byte is never zero.
+     */
+    private static byte[] loanId(String id) {
+        if (!id.isEmpty() && id.length() <= 18 && id.chars().allMatch(Character::isDigit))
+            return ByteBuffer.allocate(Address.LENGTH).putLong(Address.LENGTH - 8, Long.parseLong(id)).array();
+        return address(id);
+    }
+
+    private static void putAddress(ByteBuffer out, int at, String address) {
+        byte[] bytes = address(address);
+        if (bytes == null) throw new IllegalArgumentException("Not an address: " + address);
+        put(out, at, bytes);
+    }
+
+    private static void put(ByteBuffer out, int at, byte[] bytes) {
+        for (int k = 0; k < bytes.length; k++)
+            out.put(at + k, bytes[k]);
+    }
+
+    private static long mask(String flags) {
+        if (flags.length() > MAX_SLOTS && flags.indexOf('1', MAX_SLOTS) >= 0)
+            throw new IllegalArgumentException("More than " + MAX_SLOTS + " lender slots: " + flags);
+        long mask = 0;
+        for (int slot = 0; slot < flags.length() && slot < MAX_SLOTS; slot++)
+            if (flags.charAt(slot) == '1') mask |= 1L << slot;
+        return mask;
+    }
+
+    private static Long boxed(long value) {
+        return value == ABSENT ? null : value;
+    }
+
+    private static void checkIndex(int i, int count) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Row " + i + " of " + count);
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot at " + height + ": " + loans + " loans, " + lenders + " lenders";
+    }
+
+}
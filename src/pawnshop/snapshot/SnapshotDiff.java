@@ -0,0 +1,85 @@
+package pawnshop.snapshot;
+
+import pawnshop.state.LenderAccount;
+import pawnshop.state.Loan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Differences between two snapshots, found by one merge join over the sorted rows. Only changed rows are decoded.
+ */
+public class SnapshotDiff {
+
+    public final int fromHeight;
+    public final int toHeight;
+    /** Loans open in the newer snapshot that were absent or closed in the older one. */
+    public final List<Loan> opened;
+    /** Loans open in the older snapshot that are absent or closed in the newer one, as they were. */
+    public final List<Loan> closed;
+    /** Loans open in both with different values, as they are now. */
+    public final List<Loan> changed;
+    /** Lender rows that appeared or changed, as they are now. */
+    public final List<LenderAccount> lenders;
+
+    private SnapshotDiff(int fromHeight, int toHeight, List<Loan> opened, List<Loan> closed, List<Loan> changed,
+                         List<LenderAccount> lenders) {
+        this.fromHeight = fromHeight;
+        this.toHeight = toHeight;
+        this.opened = Collections.unmodifiableList(opened);
+        this.closed = Collections.unmodifiableList(closed);
+        this.changed = Collections.unmodifiableList(changed);
+        this.lenders = Collections.unmodifiableList(lenders);
+    }
+
+    public static SnapshotDiff between(Snapshot from, Snapshot to) {
+        List<Loan> opened = new ArrayList<>(), closed = new ArrayList<>(), changed = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < from.loanCount() || j < to.loanCount()) {
+            int c = i == from.loanCount() ? 1 : j == to.loanCount() ? -1 : from.compareLoans(i, to, j);
+            if (c < 0) {
+                if (from.isOpen(i)) closed.add(from.loan(i));
+                i++;
+            } else if (c > 0) {
+                if (to.isOpen(j)) opened.add(to.loan(j));
+                j++;
+            } else {
+                boolean wasOpen = from.isOpen(i), isOpen = to.isOpen(j);
+                if (!wasOpen && isOpen) opened.add(to.loan(j));
+                else if (wasOpen && !isOpen) closed.add(from.loan(i));
+                else if (wasOpen && !from.sameLoan(i, to, j)) changed.add(to.loan(j));
+                i++;
+                j++;
+            }
+        }
+
+        List<LenderAccount> lenders = new ArrayList<>();
+        i = 0;
+        j = 0;
+        while (j < to.lenderCount()) {
+            int c = i == from.lenderCount() ? 1 : from.compareLenders(i, to, j);
+            if (c < 0) {
+                i++;
+            } else if (c > 0) {
+                lenders.add(to.lenderAccount(j++));
+            } else {
+                if (!from.sameLender(i, to, j)) lenders.add(to.lenderAccount(j));
+                i++;
+                j++;
+            }
+        }
+        return new SnapshotDiff(from.height(), to.height(), opened, closed, changed, lenders);
+    }
+
+    public boolean isEmpty() {
+        return opened.isEmpty() && closed.isEmpty() && changed.isEmpty() && lenders.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "From " + fromHeight + " to " + toHeight + ": " + opened.size() + " opened, " + closed.size()
+                + " closed, " + changed.size() + " changed loans, " + lenders.size() + " changed lenders";
+    }
+
+}
@@ -0,0 +1,86 @@
+package pawnshop.snapshot;
+
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.node.NodeHttp;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pulls the per-loan, per-lender and cohort keys of the dApp from a node and writes them to a {@link Snapshot}.
+ * <p>
+ * Entries are fetched one page per key prefix and shard, where a shard is a range of the last character of the key,
+ * a digit of a loan id or a character of an address, so no single response holds the whole storage, and one more page
+ * for {@code lender_addresses}, {@code lender_flags} and {@code cohort_count}. A snapshot is only written when the
+ * height did not change while paging.
+ */
+public class SnapshotExporter {
+
+    static final String ALPHABET = "0123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz";
+
+    private final NodeHttp http;
+    private final String dApp;
+    private final int shards;
+    private final int attempts;
+
+    /**
+     * @param shards pages per key prefix, 1 to 59
+     */
+    public SnapshotExporter(NodeHttp http, String dApp, int shards) {
+        if (shards < 1 || shards > ALPHABET.length())
+            throw new IllegalArgumentException("Shards must be from 1 to " + ALPHABET.length());
+        this.http = http;
+        this.dApp = dApp;
+        this.shards = shards;
+        this.attempts = 3;
+    }
+
+    public Snapshot export(Path file) {
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            int height = http.height();
+            List<Entry> entries = fetch();
+            if (http.height() == height) {
+                Map<String, Object> data = new HashMap<>();
+                for (Entry e : entries)
+                    data.put(e.key, e.value);
+                return Snapshot.write(file, height, data);
+            }
+        }
+        throw new IllegalStateException("The height kept changing while paging the data of " + dApp);
+    }
+
+    List<Entry> fetch() {
+        List<Entry> entries = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        Collections.addAll(prefixes, Keys.LOAN_PREFIXES);
+        Collections.addAll(prefixes, Keys.LENDER_PREFIXES);
+        Collections.addAll(prefixes, Keys.SETTLEMENT_PREFIXES);
+        for (String prefix : prefixes)
+            for (String regex : regexes(prefix, shards))
+                for (Object e : (List<?>) http.get("/addresses/data/" + dApp + "?matches=" + NodeHttp.encode(regex)))
+                    entries.add(NodeHttp.dataEntry((Map<?, ?>) e));
+        for (Object e : (List<?>) http.get("/addresses/data/" + dApp + "?matches="
+                + NodeHttp.encode("^(" + Keys.LENDER_ADDRESSES + "|" + Keys.LENDER_FLAGS + "|" + Keys.COHORT_COUNT + ")$")))
+            entries.add(NodeHttp.dataEntry((Map<?, ?>) e));
+        return entries;
+    }
+
+    /**
+     * Regular expressions that split the keys of the prefix by their last character.
+     */
+    static List<String> regexes(String prefix, int shards) {
+        List<String> regexes = new ArrayList<>();
+        int size = ALPHABET.length();
+        for (int s = 0; s < shards; s++) {
+            String chars = ALPHABET.substring(s * size / shards, (s + 1) * size / shards);
+            regexes.add("^" + prefix + ".*[" + chars + "]$");
+        }
+        return regexes;
+    }
+
+}
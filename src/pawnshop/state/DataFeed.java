@@ -0,0 +1,19 @@
+package pawnshop.state;
+
+import pawnshop.Entry;
+
+import java.util.List;
+
+/**
+ * Source of the data entries written to an account, block by block.
+ */
+public interface DataFeed {
+
+    int height();
+
+    /**
+     * Entries written to the account's storage in the block at the height, in the order they were applied.
+     */
+    List<Entry> dataChanges(String address, int height);
+
+}
@@ -0,0 +1,181 @@
+package pawnshop.state;
+
+import pawnshop.Entry;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static pawnshop.Keys.*;
+
+/**
+ * State changes of one invocation indexed once by exact key, so that lookups do not rescan the entry list.
+ * Loan keys are grouped into typed records by the loan id suffix of the key, lender keys by the address suffix.
+ */
+public class DecodedChanges {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Map<String, Long>> loanKeys = new LinkedHashMap<>();
+    private final Map<String, Map<String, Long>> lenderKeys = new LinkedHashMap<>();
+    private final Map<String, String> loanLenders = new HashMap<>();
+    private final Map<String, String> loanRenters = new HashMap<>();
+    private final Map<TransferKey, Transfer> transfers = new LinkedHashMap<>();
+
+    private final Map<String, Loan> loans = new LinkedHashMap<>();
+    private final Map<String, LenderAccount> lenders = new LinkedHashMap<>();
+
+    public static DecodedChanges of(ScriptResult result) {
+        return new DecodedChanges(result.data, result.transfers);
+    }
+
+    public DecodedChanges(List<Entry> data, List<Transfer> transfers) {
+        for (Entry e : data) {
+            entries.put(e.key, e);
+            String prefix = prefixOf(e.key);
+            if (prefix == null)
+                continue;
+            String suffix = e.key.substring(prefix.length());
+            if (prefix.equals(LENDER_FLAGS_OF)) {
+                group(loanKeys, suffix);
+                loanLenders.put(suffix, e.asString());
+            } else if (prefix.equals(RENTER_OF)) {
+                group(loanKeys, suffix);
+                loanRenters.put(suffix, e.asString());
+            } else if (isLoanPrefix(prefix)) {
+                group(loanKeys, suffix).put(prefix, e.asInteger());
+            } else {
+                group(lenderKeys, suffix).put(prefix, e.asInteger());
+            }
+        }
+        for (Transfer t : transfers)
+            this.transfers.merge(new TransferKey(t.address, t.asset), t,
+                    (a, b) -> new Transfer(a.address, a.amount + b.amount, a.asset));
+
+        // a loan taken before loan ids has no renter_of_ in the storage, its id is the renter
+        loanKeys.forEach((id, keys) -> {
+            if (keys.size() == LOAN_PREFIXES.length - 2 && loanLenders.containsKey(id))
+                loans.put(id, new Loan(id, loanRenters.getOrDefault(id, id), keys.get(START_OF), keys.get(END_OF_GRACE_OF),
+                        keys.get(END_OF_INTEREST_OF), keys.get(END_OF_BURNDOWN_OF), keys.get(RATE_OF),
+                        keys.get(DEPOSIT_OF), keys.get(LEND_OF), loanLenders.get(id)));
+        });
+        lenderKeys.forEach((lender, keys) -> lenders.put(lender, new LenderAccount(lender, keys.get(PROFIT_FOR),
+                keys.get(UNCLAIMED_FOR), keys.get(CIRCULATING_ASSETS_OF))));
+    }
+
+    public Entry entry(String key) {
+        return entries.get(key);
+    }
+
+    public boolean has(String key) {
+        return entries.containsKey(key);
+    }
+
+    public Long integer(String key) {
+        Entry e = entries.get(key);
+        return e == null ? null : e.asInteger();
+    }
+
+    public String string(String key) {
+        Entry e = entries.get(key);
+        return e == null ? null : e.asString();
+    }
+
+    public Boolean bool(String key) {
+        Entry e = entries.get(key);
+        return e == null ? null : e.asBoolean();
+    }
+
+    /**
+     * Returns the loan with the id if the invocation wrote all of its keys (borrowing or closing), otherwise null.
+     */
+    public Loan loan(String id) {
+        return loans.get(id);
+    }
+
+    public Map<String, Loan> loans() {
+        return Collections.unmodifiableMap(loans);
+    }
+
+    /**
+     * Returns the id of the loan a borrow opened, the {@code loan_count} it wrote, or null for other invocations.
+     */
+    public String borrowedLoan() {
+        Long count = integer(LOAN_COUNT);
+        return count == null ? null : String.valueOf(count);
+    }
+
+    /**
+     * Returns the accounting keys written for the lender, or null if none were.
+     */
+    public LenderAccount lender(String lender) {
+        return lenders.get(lender);
+    }
+
+    public Map<String, LenderAccount> lenders() {
+        return Collections.unmodifiableMap(lenders);
+    }
+
+    /**
+     * Returns the transfer of the asset (null for WAVES) to the recipient, or null if there is none.
+     * Several transfers of the same asset to the same recipient are summed up.
+     */
+    public Transfer transfer(String recipient, String asset) {
+        return transfers.get(new TransferKey(recipient, asset));
+    }
+
+    public List<Transfer> transfersTo(String recipient) {
+        List<Transfer> result = new ArrayList<>();
+        for (Transfer t : transfers.values())
+            if (t.address.equals(recipient))
+                result.add(t);
+        return result;
+    }
+
+    public List<Transfer> transfersExcept(String recipient) {
+        List<Transfer> result = new ArrayList<>();
+        for (Transfer t : transfers.values())
+            if (!t.address.equals(recipient))
+                result.add(t);
+        return result;
+    }
+
+    private static Map<String, Long> group(Map<String, Map<String, Long>> groups, String suffix) {
+        return groups.computeIfAbsent(suffix, a -> new HashMap<>());
+    }
+
+    private static boolean isLoanPrefix(String prefix) {
+        for (String p : LOAN_PREFIXES)
+            if (p.equals(prefix))
+                return true;
+        return false;
+    }
+
+    private static class TransferKey {
+        final String recipient;
+        final String asset;
+
+        TransferKey(String recipient, String asset) {
+            this.recipient = recipient;
+            this.asset = asset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TransferKey)) return false;
+            TransferKey that = (TransferKey) o;
+            return recipient.equals(that.recipient) && Objects.equals(asset, that.asset);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(recipient, asset);
+        }
+    }
+
+}
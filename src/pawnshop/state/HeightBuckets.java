@@ -0,0 +1,157 @@
+package pawnshop.state;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Integer slots grouped by a height.
+ * <p>
+ * Each height is a bucket, an intrusive doubly linked list over {@code next}/{@code prev}, so adding and removing a slot
+ * is O(1). A Fenwick tree over the bucket sizes answers "how many slots at or below height H" and finds the next
+ * non-empty bucket in O(log n). When a height falls outside of the buckets they are reallocated to span the occupied
+ * ones and the new height with as much room again above, so the buckets follow the heights in use rather than every
+ * height ever seen.
+ */
+class HeightBuckets {
+
+    private static final int NONE = -1;
+
+    private long base;
+    private int[] head = new int[0];
+    private int[] sizes = new int[0];
+    private int[] tree = new int[1];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Number of buckets allocated.
+     */
+    int span() {
+        return head.length;
+    }
+
+    void add(int slot, long height) {
+        ensureSlot(slot);
+        int bucket = bucket(height);
+        next[slot] = head[bucket];
+        prev[slot] = NONE;
+        if (head[bucket] != NONE) prev[head[bucket]] = slot;
+        head[bucket] = slot;
+        sizes[bucket]++;
+        update(bucket, 1);
+        size++;
+    }
+
+    void remove(int slot, long height) {
+        int bucket = (int) (height - base);
+        if (prev[slot] != NONE) next[prev[slot]] = next[slot];
+        else head[bucket] = next[slot];
+        if (next[slot] != NONE) prev[next[slot]] = prev[slot];
+        sizes[bucket]--;
+        update(bucket, -1);
+        size--;
+    }
+
+    /**
+     * Number of slots with a height less than or equal to the given one.
+     */
+    int countAtOrBelow(long height) {
+        if (size == 0 || height < base) return 0;
+        return prefix((int) Math.min(height - base, head.length - 1));
+    }
+
+    /**
+     * Lowest height with a slot, or {@link Long#MAX_VALUE} if empty.
+     */
+    long lowest() {
+        return size == 0 ? Long.MAX_VALUE : base + find(1);
+    }
+
+    /**
+     * Visits the slots with a height less than or equal to the given one, lowest heights first.
+     */
+    void forEachAtOrBelow(long height, IntConsumer action) {
+        int count = countAtOrBelow(height);
+        int visited = 0;
+        while (visited < count) {
+            int bucket = find(visited + 1);
+            for (int slot = head[bucket]; slot != NONE; slot = next[slot]) {
+                action.accept(slot);
+                visited++;
+            }
+        }
+    }
+
+    private int bucket(long height) {
+        if (height < base || height - base >= head.length) {
+            long low = height, high = height;
+            if (size > 0) {
+                low = Math.min(low, base + find(1));
+                high = Math.max(high, base + find(size));
+            }
+            resize(low, Math.max(16, 2 * (int) (high - low + 1)));
+        }
+        return (int) (height - base);
+    }
+
+    /**
+     * Moves the buckets to start at the base, the occupied ones must fall within the new length.
+     */
+    private void resize(long newBase, int length) {
+        int[] newHead = new int[length];
+        int[] newSizes = new int[length];
+        Arrays.fill(newHead, NONE);
+        long from = Math.max(base, newBase), to = Math.min(base + head.length, newBase + length);
+        if (from < to) {
+            System.arraycopy(head, (int) (from - base), newHead, (int) (from - newBase), (int) (to - from));
+            System.arraycopy(sizes, (int) (from - base), newSizes, (int) (from - newBase), (int) (to - from));
+        }
+        base = newBase;
+        head = newHead;
+        sizes = newSizes;
+        tree = new int[length + 1];
+        for (int i = 1; i <= length; i++) {
+            tree[i] += sizes[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= length) tree[parent] += tree[i];
+        }
+    }
+
+    private void ensureSlot(int slot) {
+        if (slot >= next.length) {
+            int length = Math.max(slot + 1, next.length * 2);
+            next = Arrays.copyOf(next, length);
+            prev = Arrays.copyOf(prev, length);
+        }
+    }
+
+    private void update(int bucket, int delta) {
+        for (int i = bucket + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+    private int prefix(int bucket) {
+        int sum = 0;
+        for (int i = bucket + 1; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+
+    /** Index of the bucket holding the k-th slot in height order, k starting from 1. */
+    private int find(int k) {
+        int pos = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            if (pos + step < tree.length && tree[pos + step] < k) {
+                pos += step;
+                k -= tree[pos];
+            }
+        }
+        return pos;
+    }
+
+}
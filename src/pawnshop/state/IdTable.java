@@ -0,0 +1,88 @@
+package pawnshop.state;
+
+/**
+ * Loan ids mapped to int slots without boxing.
+ * <p>
+ * An open-addressing table with linear probing over an array of ids and an array of slots, kept at most half full. A
+ * removal shifts the ids probed past it back into place instead of leaving a tombstone, so lookups never walk over
+ * removed ids.
+ */
+class IdTable {
+
+    static final int NONE = -1;
+
+    private String[] keys = new String[16];
+    private int[] values = new int[16];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The slot of the id, or {@link #NONE}.
+     */
+    int get(String id) {
+        for (int i = index(id); keys[i] != null; i = next(i))
+            if (keys[i].equals(id)) return values[i];
+        return NONE;
+    }
+
+    void put(String id, int slot) {
+        if (2 * (size + 1) > keys.length) rehash(2 * keys.length);
+        int i = index(id);
+        for (; keys[i] != null; i = next(i)) {
+            if (keys[i].equals(id)) {
+                values[i] = slot;
+                return;
+            }
+        }
+        keys[i] = id;
+        values[i] = slot;
+        size++;
+    }
+
+    /**
+     * Removes the id and returns its slot, or {@link #NONE} if it was not there.
+     */
+    int remove(String id) {
+        int i = index(id);
+        while (keys[i] != null && !keys[i].equals(id))
+            i = next(i);
+        if (keys[i] == null) return NONE;
+        int slot = values[i];
+        int mask = keys.length - 1;
+        int gap = i;
+        for (int j = next(i); keys[j] != null; j = next(j)) {
+            // an id moves into the gap unless its home lies between the gap and where it is now
+            if (((j - index(keys[j])) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        keys[gap] = null;
+        size--;
+        return slot;
+    }
+
+    private int index(String id) {
+        int h = id.hashCode() * 0x9E3779B9;
+        return (h ^ h >>> 16) & (keys.length - 1);
+    }
+
+    private int next(int i) {
+        return (i + 1) & (keys.length - 1);
+    }
+
+    private void rehash(int length) {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[length];
+        values = new int[length];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != null) put(oldKeys[i], oldValues[i]);
+    }
+
+}
@@ -0,0 +1,19 @@
+package pawnshop.state;
+
+import pawnshop.ScriptResult;
+
+import java.util.List;
+
+/**
+ * Source of the state changes of a dApp, one invocation at a time, block by block.
+ */
+public interface InvocationFeed {
+
+    int height();
+
+    /**
+     * State changes of the invocations of the dApp in the block at the height, in the order they were applied.
+     */
+    List<ScriptResult> invocations(String dApp, int height);
+
+}
@@ -0,0 +1,27 @@
+package pawnshop.state;
+
+/**
+ * Accounting keys of one lender (or of the owner, who gets the service fee the same way).
+ * A field is null when the key was not written.
+ */
+public class LenderAccount {
+
+    public final String lender;
+    public final Long profit;
+    public final Long unclaimed;
+    public final Long circulatingAssets;
+
+    public LenderAccount(String lender, Long profit, Long unclaimed, Long circulatingAssets) {
+        this.lender = lender;
+        this.profit = profit;
+        this.unclaimed = unclaimed;
+        this.circulatingAssets = circulatingAssets;
+    }
+
+    @Override
+    public String toString() {
+        return "Lender " + lender + ": profit " + profit + ", unclaimed " + unclaimed
+                + ", circulating " + circulatingAssets;
+    }
+
+}
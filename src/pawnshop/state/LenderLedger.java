@@ -0,0 +1,398 @@
+package pawnshop.state;
+
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static pawnshop.Keys.ASSET_TOKEN;
+import static pawnshop.Keys.COHORT_COUNT;
+import static pawnshop.Keys.LENDER_ADDRESSES;
+import static pawnshop.Keys.LENDER_FLAGS;
+import static pawnshop.Keys.LENDER_PREFIXES;
+import static pawnshop.Keys.LEND_SIZE;
+import static pawnshop.Keys.LOAN_PREFIXES;
+import static pawnshop.Keys.OWNER;
+import static pawnshop.Keys.SERVICE_FEE;
+import static pawnshop.PawnshopEngine.TEN8;
+import static pawnshop.PawnshopEngine.fraction;
+
+/**
+ * Off-chain copy of what every lender is owed, {@code profit_for_}, {@code unclaimied_for_} and
+ * {@code curculating_assets_of_}, as if every closing paid the lenders of the loan at once,
+ * kept up to date invocation by invocation.
+ * <p>
+ * The script credits a closing to the cohort of the loan and lenders settle their cohorts later, so the stored keys
+ * of a lender lag behind. The ledger is the reference model of the lazy accounting: it distributes every closing
+ * over the lenders of the loan, takes payouts from the transfers, and compares each account it touched with the
+ * stored keys plus the shares not settled yet. It also predicts the cohort and owner keys each borrow and closing
+ * writes. A mismatch is recorded as a {@link Drift} and the stored value wins. {@link #reconcile(Map)} does the same
+ * against the full storage.
+ * <p>
+ * The script divides every distribution by the number of lenders with integer division. What does not divide is
+ * counted as dust: profit and WAVES dust stay on the dApp unassigned, circulating dust is BTC lost on failed loans
+ * that no lender's stake was charged for. Stakes shrink with every failed loan a lender takes part in, see
+ * {@link #shrunkStakes(long)}.
+ */
+public class LenderLedger {
+
+    /**
+     * A value that differs from what the ledger expected. {@code expected} is null for an unknown loan. For an account
+     * the actual value includes the shares of cohorts the lender has not settled.
+     */
+    public static class Drift {
+        public final int height;
+        public final String key;
+        public final Long expected;
+        public final Long actual;
+
+        Drift(int height, String key, Long expected, Long actual) {
+            this.height = height;
+            this.key = key;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        @Override
+        public String toString() {
+            return "Drift at " + height + " of " + key + ": expected " + expected + ", actual " + actual;
+        }
+    }
+
+    private final Map<String, Long> balances = new HashMap<>();
+    private final Map<String, Object> stored = new HashMap<>();
+    private final Map<String, Loan> loans = new HashMap<>();
+    private final Map<String, Long> cohorts = new HashMap<>();
+    private final List<Drift> drifts = new ArrayList<>();
+    private LenderSlots slots = LenderSlots.EMPTY;
+    private long profitDust, unclaimedDust, circulatingDust;
+    private int height;
+
+    /**
+     * Builds the ledger from the whole dApp storage at the end of the block at the height.
+     */
+    public static LenderLedger load(Map<String, Object> data, int height) {
+        LenderLedger ledger = new LenderLedger();
+        List<Entry> entries = new ArrayList<>(data.size());
+        data.forEach((key, value) -> entries.add(new Entry(key, value)));
+        ledger.adopt(entries);
+        for (Loan loan : new DecodedChanges(entries, Collections.emptyList()).loans().values()) {
+            if (!loan.isOpen()) continue;
+            ledger.loans.put(loan.id, loan);
+            Object cohort = data.get(Keys.cohortOf(loan.id));
+            if (cohort instanceof Long) ledger.cohorts.put(loan.id, (Long) cohort);
+        }
+        for (String account : accounts(ledger.stored))
+            ledger.take(account, owed(ledger.stored, account));
+        ledger.height = height;
+        return ledger;
+    }
+
+    /**
+     * Height of the last block applied.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Applies the blocks that the feed has completed since the last one applied, that is all but the current one.
+     * Returns the number of blocks applied.
+     */
+    public int follow(InvocationFeed feed, String dApp) {
+        int last = feed.height() - 1;
+        int applied = 0;
+        for (int h = height + 1; h <= last; h++) {
+            for (ScriptResult invocation : feed.invocations(dApp, h))
+                apply(h, invocation);
+            height = h;
+            applied++;
+        }
+        return applied;
+    }
+
+    /**
+     * Applies the state changes of one invocation in the block at the height.
+     */
+    public void apply(int height, ScriptResult invocation) {
+        DecodedChanges changes = new DecodedChanges(invocation.data, invocation.transfers);
+        Map<String, Long> expected = new LinkedHashMap<>();
+        Set<String> touched = new LinkedHashSet<>(changes.lenders().keySet());
+        for (Loan loan : changes.loans().values()) {
+            if (loan.isOpen()) {
+                Long cohort = changes.integer(Keys.cohortOf(loan.id));
+                if (cohort != null) {
+                    expected.put(Keys.cohortOpen(cohort), value(expected, Keys.cohortOpen(cohort)) + 1);
+                    cohorts.put(loan.id, cohort);
+                }
+                loans.put(loan.id, loan);
+                continue;
+            }
+            Loan closed = loans.remove(loan.id);
+            if (closed == null) {
+                drifts.add(new Drift(height, Keys.startOf(loan.id), null, 0L));
+                continue;
+            }
+            List<String> lenders = closed.lenders(slots);
+            touched.addAll(lenders);
+            Long cohort = cohorts.remove(loan.id);
+            if (cohort != null)
+                expected.put(Keys.cohortOpen(cohort), value(expected, Keys.cohortOpen(cohort)) - 1);
+            boolean isProfit = cohort != null
+                    ? changes.has(Keys.cohortProfit(cohort))
+                    : owner() != null && changes.has(Keys.profitFor(owner()));
+            if (isProfit) distributeProfit(height, closed, cohort, lenders, expected);
+            else distributeLoss(closed, cohort, lenders, expected);
+        }
+        expected.forEach((key, value) -> {
+            Long actual = changes.integer(key);
+            if (!value.equals(actual)) drifts.add(new Drift(height, key, value, actual));
+        });
+        adopt(invocation.data);
+        for (LenderAccount paid : changes.lenders().values())
+            payOut(changes, paid);
+        for (String account : touched)
+            check(height, account, owed(stored, account), drifts);
+    }
+
+    /**
+     * Compares the ledger with the whole dApp storage and takes the stored values. Returns the differences found.
+     */
+    public List<Drift> reconcile(Map<String, Object> data) {
+        List<Drift> found = new ArrayList<>();
+        Set<String> accounts = accounts(data);
+        for (String key : balances.keySet())
+            accounts.add(key.substring(Keys.prefixOf(key).length()));
+        for (String account : accounts)
+            check(height, account, owed(data, account), found);
+        stored.clear();
+        slots = LenderSlots.of(data);
+        data.forEach((key, value) -> {
+            if (isMirrored(key)) stored.put(key, value);
+        });
+        drifts.addAll(found);
+        return found;
+    }
+
+    public long profit(String lender) {
+        return balances.getOrDefault(Keys.profitFor(lender), 0L);
+    }
+
+    public long unclaimed(String lender) {
+        return balances.getOrDefault(Keys.unclaimedFor(lender), 0L);
+    }
+
+    public long circulatingAssets(String lender) {
+        return balances.getOrDefault(Keys.circulatingAssetsOf(lender), 0L);
+    }
+
+    public LenderAccount account(String lender) {
+        return new LenderAccount(lender, balances.get(Keys.profitFor(lender)), balances.get(Keys.unclaimedFor(lender)),
+                balances.get(Keys.circulatingAssetsOf(lender)));
+    }
+
+    /**
+     * The lenders currently participating in the dApp.
+     */
+    public List<String> lenders() {
+        return slots.lenders(string(stored, LENDER_FLAGS));
+    }
+
+    /**
+     * BTC of the deposit the lender has lost on failed loans.
+     */
+    public long stakeLoss(String lender) {
+        return integer(stored, LEND_SIZE) * TEN8 - circulatingAssets(lender);
+    }
+
+    /**
+     * Participating lenders that lost more than the share of the deposit, in basis points.
+     */
+    public List<String> shrunkStakes(long maxLossBps) {
+        long threshold = fraction(integer(stored, LEND_SIZE) * TEN8, maxLossBps, 10000);
+        List<String> result = new ArrayList<>();
+        for (String lender : lenders())
+            if (stakeLoss(lender) > threshold) result.add(lender);
+        return result;
+    }
+
+    /** BTC profit that did not divide among the lenders of bought back loans. */
+    public long profitDust() {
+        return profitDust;
+    }
+
+    /** WAVES deposits of failed loans that did not divide among their lenders. */
+    public long unclaimedDust() {
+        return unclaimedDust;
+    }
+
+    /** BTC of failed loans that was not charged to any lender's stake. */
+    public long circulatingDust() {
+        return circulatingDust;
+    }
+
+    public int openLoans() {
+        return loans.size();
+    }
+
+    public List<Drift> drifts() {
+        return Collections.unmodifiableList(new ArrayList<>(drifts));
+    }
+
+    /**
+     * The balances of the account in the storage with the shares of every cohort it has not settled yet: the script
+     * settles one cohort per {@code settle} call, the ledger walks all of them.
+     * Returns {@code profit_for_}, {@code unclaimied_for_} and {@code curculating_assets_of_}.
+     */
+    public static long[] owed(Map<String, Object> data, String account) {
+        long[] owed = {
+                integer(data, Keys.profitFor(account)), integer(data, Keys.unclaimedFor(account)),
+                integer(data, Keys.circulatingAssetsOf(account))};
+        Object slotValue = data.get(Keys.slotOf(account));
+        int slot = slotValue instanceof Long ? (int) (long) (Long) slotValue : -1;
+        if (slot < 0 || !isSet(string(data, LENDER_FLAGS), slot)) return owed;
+        long count = integer(data, COHORT_COUNT);
+        for (long cohort = integer(data, Keys.settledCohortOf(account)); cohort <= count; cohort++) {
+            if (!isSet(string(data, Keys.cohortFlags(cohort)), slot)) continue;
+            owed[0] += integer(data, Keys.cohortProfit(cohort)) - integer(data, Keys.settledProfit(cohort, account));
+            owed[1] += integer(data, Keys.cohortUnclaimed(cohort)) - integer(data, Keys.settledUnclaimed(cohort, account));
+            owed[2] -= integer(data, Keys.cohortLoss(cohort)) - integer(data, Keys.settledLoss(cohort, account));
+        }
+        return owed;
+    }
+
+    private void distributeProfit(int height, Loan loan, Long cohort, List<String> lenders, Map<String, Long> expected) {
+        long btc = height > loan.graceEnd
+                ? fraction(loan.lend, height - loan.graceEnd, loan.burndownEnd - loan.graceEnd)
+                : 0;
+        long servicePart = fraction(btc, serviceFee(), 100);
+        long distribute = btc - servicePart;
+        long share = lenders.isEmpty() ? 0 : Math.floorDiv(distribute, lenders.size());
+        profitDust += distribute - share * lenders.size();
+        if (cohort != null)
+            expected.put(Keys.cohortProfit(cohort), value(expected, Keys.cohortProfit(cohort)) + share);
+        if (owner() != null) {
+            expected.put(Keys.profitFor(owner()), value(expected, Keys.profitFor(owner())) + servicePart);
+            balances.merge(Keys.profitFor(owner()), servicePart, Long::sum);
+        }
+        for (String lender : lenders)
+            balances.merge(Keys.profitFor(lender), share, Long::sum);
+    }
+
+    private void distributeLoss(Loan loan, Long cohort, List<String> lenders, Map<String, Long> expected) {
+        long wavesServicePart = fraction(loan.deposit, serviceFee(), 10000);
+        long wavesDistribute = loan.deposit - wavesServicePart;
+        long share = lenders.isEmpty() ? 0 : Math.floorDiv(wavesDistribute, lenders.size());
+        long loss = lenders.isEmpty() ? 0 : Math.floorDiv(loan.lend, lenders.size());
+        unclaimedDust += wavesDistribute - share * lenders.size();
+        circulatingDust += loan.lend - loss * lenders.size();
+        if (cohort != null) {
+            expected.put(Keys.cohortUnclaimed(cohort), value(expected, Keys.cohortUnclaimed(cohort)) + share);
+            expected.put(Keys.cohortLoss(cohort), value(expected, Keys.cohortLoss(cohort)) + loss);
+        }
+        if (owner() != null) {
+            expected.put(Keys.unclaimedFor(owner()), value(expected, Keys.unclaimedFor(owner())) + wavesServicePart);
+            balances.merge(Keys.unclaimedFor(owner()), wavesServicePart, Long::sum);
+        }
+        for (String lender : lenders) {
+            balances.merge(Keys.unclaimedFor(lender), share, Long::sum);
+            balances.merge(Keys.circulatingAssetsOf(lender), -loss, Long::sum);
+        }
+    }
+
+    /**
+     * Takes what the invocation paid out to the account: a deposit sets the stake, a withdrawal pays it back, a
+     * profit taking pays the profit and the unclaimed WAVES.
+     */
+    private void payOut(DecodedChanges changes, LenderAccount account) {
+        String lender = account.lender;
+        Transfer btc = changes.transfer(lender, string(stored, ASSET_TOKEN));
+        Transfer waves = changes.transfer(lender, null);
+        if (changes.has(LENDER_ADDRESSES) && account.circulatingAssets != null) {
+            balances.put(Keys.circulatingAssetsOf(lender), account.circulatingAssets);
+        } else if (account.profit == null || account.unclaimed == null) {
+            return;
+        } else if (Long.valueOf(-1).equals(changes.integer(Keys.slotOf(lender)))) {
+            if (btc != null) balances.merge(Keys.circulatingAssetsOf(lender), -btc.amount, Long::sum);
+        } else {
+            if (btc != null) balances.merge(Keys.profitFor(lender), -btc.amount, Long::sum);
+            if (waves != null) balances.merge(Keys.unclaimedFor(lender), -waves.amount, Long::sum);
+        }
+    }
+
+    private void check(int height, String account, long[] actual, List<Drift> found) {
+        String[] keys = {Keys.profitFor(account), Keys.unclaimedFor(account), Keys.circulatingAssetsOf(account)};
+        for (int i = 0; i < keys.length; i++) {
+            long mine = balances.getOrDefault(keys[i], 0L);
+            if (mine != actual[i]) found.add(new Drift(height, keys[i], mine, actual[i]));
+        }
+        take(account, actual);
+    }
+
+    private void take(String account, long[] owed) {
+        balances.put(Keys.profitFor(account), owed[0]);
+        balances.put(Keys.unclaimedFor(account), owed[1]);
+        balances.put(Keys.circulatingAssetsOf(account), owed[2]);
+    }
+
+    private static Set<String> accounts(Map<String, Object> data) {
+        Set<String> accounts = new LinkedHashSet<>();
+        for (String key : data.keySet())
+            for (String prefix : LENDER_PREFIXES)
+                if (key.startsWith(prefix)) accounts.add(key.substring(prefix.length()));
+        return accounts;
+    }
+
+    private long value(Map<String, Long> expected, String key) {
+        Long value = expected.get(key);
+        return value != null ? value : integer(stored, key);
+    }
+
+    private void adopt(List<Entry> entries) {
+        for (Entry e : entries) {
+            if (isMirrored(e.key)) stored.put(e.key, e.value);
+            if (e.key.equals(LENDER_ADDRESSES)) slots = new LenderSlots(e.asString());
+        }
+    }
+
+    private String owner() {
+        Object owner = stored.get(OWNER);
+        return owner instanceof String ? (String) owner : null;
+    }
+
+    private long serviceFee() {
+        return integer(stored, SERVICE_FEE);
+    }
+
+    /** Everything but the keys of single loans, which the ledger keeps as {@link Loan} records. */
+    private static boolean isMirrored(String key) {
+        if (key.startsWith(Keys.COHORT_OF)) return false;
+        for (String prefix : LOAN_PREFIXES)
+            if (key.startsWith(prefix)) return false;
+        return true;
+    }
+
+    private static boolean isSet(String flags, int slot) {
+        return slot < flags.length() && flags.charAt(slot) == '1';
+    }
+
+    private static long integer(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        return value instanceof Long ? (Long) value : 0;
+    }
+
+    private static String string(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        return value instanceof String ? (String) value : "";
+    }
+
+}
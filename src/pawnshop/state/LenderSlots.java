@@ -0,0 +1,78 @@
+package pawnshop.state;
+
+import pawnshop.Keys;
+import pawnshop.PawnshopEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The lender of every slot as {@code lender_addresses} holds them, 35 characters per slot.
+ * <p>
+ * A flags string, {@code lender_flags}, {@code enabled_lender_flags} or the {@code lender_flags_of_} of a loan, has
+ * {@code '1'} at the index of every slot in the set. A slot keeps the address of its last lender after a withdrawal,
+ * so only slots flagged somewhere name a lender.
+ */
+public class LenderSlots {
+
+    public static final LenderSlots EMPTY = new LenderSlots("");
+
+    private final String addresses;
+
+    public LenderSlots(String addresses) {
+        if (addresses.length() % PawnshopEngine.ADDRESS_SIZE != 0)
+            throw new IllegalArgumentException("Not a list of addresses: " + addresses);
+        this.addresses = addresses;
+    }
+
+    /**
+     * The slots of the whole dApp storage, empty if there is no {@code lender_addresses}.
+     */
+    public static LenderSlots of(Map<String, Object> data) {
+        Object addresses = data.get(Keys.LENDER_ADDRESSES);
+        return addresses instanceof String ? new LenderSlots((String) addresses) : EMPTY;
+    }
+
+    public String addresses() {
+        return addresses;
+    }
+
+    public int size() {
+        return addresses.length() / PawnshopEngine.ADDRESS_SIZE;
+    }
+
+    public String lender(int slot) {
+        if (slot < 0 || slot >= size()) throw new IndexOutOfBoundsException("Slot " + slot + " of " + size());
+        return addresses.substring(slot * PawnshopEngine.ADDRESS_SIZE, (slot + 1) * PawnshopEngine.ADDRESS_SIZE);
+    }
+
+    /**
+     * The lenders of the flagged slots, in slot order.
+     */
+    public List<String> lenders(String flags) {
+        if (flags.indexOf('1') < 0) return Collections.emptyList();
+        List<String> lenders = new ArrayList<>();
+        for (int slot = 0; slot < flags.length(); slot++)
+            if (flags.charAt(slot) == '1') lenders.add(lender(slot));
+        return lenders;
+    }
+
+    public static boolean isSet(String flags, int slot) {
+        return slot >= 0 && slot < flags.length() && flags.charAt(slot) == '1';
+    }
+
+    public static int count(String flags) {
+        int count = 0;
+        for (int i = 0; i < flags.length(); i++)
+            if (flags.charAt(i) == '1') count++;
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "Lender slots " + size();
+    }
+
+}
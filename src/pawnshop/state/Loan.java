@@ -0,0 +1,56 @@
+package pawnshop.state;
+
+import java.util.List;
+
+/**
+ * The nine {@code *_of_} keys of one loan, keyed by its id. A closed loan has all of them zeroed.
+ * <p>
+ * The lenders are the slots flagged in {@code lender_flags_of_}, see {@link LenderSlots}. A loan taken before loan ids
+ * has the address of its renter for the id and no {@code renter_of_}.
+ */
+public class Loan {
+
+    public final String id;
+    public final String renter;
+    public final long start;
+    public final long graceEnd;
+    public final long interestEnd;
+    public final long burndownEnd;
+    public final long rate;
+    public final long deposit;
+    public final long lend;
+    public final String lenderFlags;
+
+    public Loan(String id, String renter, long start, long graceEnd, long interestEnd, long burndownEnd,
+                long rate, long deposit, long lend, String lenderFlags) {
+        this.id = id;
+        this.renter = renter;
+        this.start = start;
+        this.graceEnd = graceEnd;
+        this.interestEnd = interestEnd;
+        this.burndownEnd = burndownEnd;
+        this.rate = rate;
+        this.deposit = deposit;
+        this.lend = lend;
+        this.lenderFlags = lenderFlags;
+    }
+
+    public boolean isOpen() {
+        return start > 0;
+    }
+
+    public List<String> lenders(LenderSlots slots) {
+        return slots.lenders(lenderFlags);
+    }
+
+    public int lenderCount() {
+        return LenderSlots.count(lenderFlags);
+    }
+
+    @Override
+    public String toString() {
+        return "Loan " + id + " of " + renter + " [" + start + ", " + graceEnd + ", " + interestEnd + ", " + burndownEnd
+                + "] rate " + rate + ", deposit " + deposit + ", lend " + lend + ", lenders " + lenderFlags;
+    }
+
+}
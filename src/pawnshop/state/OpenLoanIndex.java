@@ -0,0 +1,245 @@
+package pawnshop.state;
+
+import pawnshop.Entry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static pawnshop.Keys.*;
+
+/**
+ * In-memory index of the open loans of the dApp, ordered by the end of grace and the end of interest.
+ * <p>
+ * Loan fields are kept in primitive arrays addressed by a slot, loan ids map to slots through an {@link IdTable}. The
+ * index is built once from the whole dApp storage with {@link #load(Map, int)} and then follows it block by block:
+ * {@link #apply(int, List)} takes the entries written in a block and {@link #follow(DataFeed, String)} pulls them
+ * from a feed. A loan expires when the height is greater than its end of interest, then anyone can close it with
+ * closeExpiredFor.
+ * <p>
+ * A loan whose end of interest is not after its end of grace, taken while the interest period was 0, has no interest
+ * period. Such loans are left out of the grace ends and kept in a tree of their own by the end of interest, so the
+ * loans in their interest period are counted with prefix sums of the trees whether or not there are any.
+ */
+public class OpenLoanIndex {
+
+    private final IdTable slots = new IdTable();
+    private String[] ids = new String[16];
+    private long[] graceEnd = new long[16];
+    private long[] interestEnd = new long[16];
+    private long[] burndownEnd = new long[16];
+    private long[] lend = new long[16];
+    private long[] deposit = new long[16];
+    private int[] free = new int[16];
+    private int freeCount;
+    private int used;
+    private long lendTotal;
+    private long depositTotal;
+
+    private final HeightBuckets byGraceEnd = new HeightBuckets();
+    private final HeightBuckets byInterestEnd = new HeightBuckets();
+    /** The loans without an interest period by the end of interest, they are not in {@link #byGraceEnd}. */
+    private final HeightBuckets withoutInterestByInterestEnd = new HeightBuckets();
+
+    private int height;
+
+    public static OpenLoanIndex load(Map<String, Object> data, int height) {
+        OpenLoanIndex index = new OpenLoanIndex();
+        data.forEach((key, value) -> {
+            if (key.startsWith(START_OF) && value instanceof Long && (Long) value > 0) {
+                String id = key.substring(START_OF.length());
+                Object renter = data.get(renterOf(id));
+                index.put(new Loan(id, renter instanceof String ? (String) renter : id, (Long) value,
+                        (Long) data.get(endOfGraceOf(id)), (Long) data.get(endOfInterestOf(id)),
+                        (Long) data.get(endOfBurndownOf(id)),
+                        (Long) data.get(rateOf(id)), (Long) data.get(depositOf(id)),
+                        (Long) data.get(lendOf(id)), (String) data.get(lenderFlagsOf(id))));
+            }
+        });
+        index.height = height;
+        return index;
+    }
+
+    /**
+     * Height of the last applied block.
+     */
+    public int height() {
+        return height;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Ids of the open loans, in no particular order.
+     */
+    public List<String> ids() {
+        List<String> result = new ArrayList<>(slots.size());
+        for (int slot = 0; slot < used; slot++)
+            if (ids[slot] != null) result.add(ids[slot]);
+        return result;
+    }
+
+    public boolean contains(String id) {
+        return slots.get(id) != IdTable.NONE;
+    }
+
+    public long interestEnd(String id) {
+        return interestEnd[slot(id)];
+    }
+
+    public long graceEnd(String id) {
+        return graceEnd[slot(id)];
+    }
+
+    public long burndownEnd(String id) {
+        return burndownEnd[slot(id)];
+    }
+
+    public long lend(String id) {
+        return lend[slot(id)];
+    }
+
+    public long deposit(String id) {
+        return deposit[slot(id)];
+    }
+
+    /**
+     * BTC lent on the open loans.
+     */
+    public long lendTotal() {
+        return lendTotal;
+    }
+
+    /**
+     * WAVES deposited on the open loans.
+     */
+    public long depositTotal() {
+        return depositTotal;
+    }
+
+    public void put(Loan loan) {
+        remove(loan.id);
+        int slot = freeCount > 0 ? free[--freeCount] : used++;
+        ensureCapacity(slot);
+        slots.put(loan.id, slot);
+        ids[slot] = loan.id;
+        graceEnd[slot] = loan.graceEnd;
+        interestEnd[slot] = loan.interestEnd;
+        burndownEnd[slot] = loan.burndownEnd;
+        lend[slot] = loan.lend;
+        deposit[slot] = loan.deposit;
+        lendTotal += loan.lend;
+        depositTotal += loan.deposit;
+        byInterestEnd.add(slot, loan.interestEnd);
+        if (loan.interestEnd > loan.graceEnd) byGraceEnd.add(slot, loan.graceEnd);
+        else withoutInterestByInterestEnd.add(slot, loan.interestEnd);
+    }
+
+    public boolean remove(String id) {
+        int slot = slots.remove(id);
+        if (slot == IdTable.NONE) return false;
+        byInterestEnd.remove(slot, interestEnd[slot]);
+        if (interestEnd[slot] > graceEnd[slot]) byGraceEnd.remove(slot, graceEnd[slot]);
+        else withoutInterestByInterestEnd.remove(slot, interestEnd[slot]);
+        lendTotal -= lend[slot];
+        depositTotal -= deposit[slot];
+        ids[slot] = null;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+        return true;
+    }
+
+    /**
+     * Applies the entries written to the dApp in the block at the height. The script writes all keys of a loan at once,
+     * so a loan is opened or closed only by a complete set of them.
+     */
+    public void apply(int height, List<Entry> entries) {
+        for (Loan loan : new DecodedChanges(entries, Collections.emptyList()).loans().values()) {
+            if (loan.isOpen()) put(loan);
+            else remove(loan.id);
+        }
+        this.height = Math.max(this.height, height);
+    }
+
+    /**
+     * Applies the blocks from the last applied one up to the current height of the feed. The last applied block is
+     * taken again because it could get more transactions since, entries hold absolute values so this is harmless.
+     *
+     * @return the number of applied blocks
+     */
+    public int follow(DataFeed feed, String dApp) {
+        int target = feed.height();
+        int from = Math.max(height, 1);
+        for (int h = from; h <= target; h++)
+            apply(h, feed.dataChanges(dApp, h));
+        return Math.max(0, target - from + 1);
+    }
+
+    /**
+     * Number of loans with the end of interest at or before the height.
+     */
+    public int countExpiringBy(long height) {
+        return byInterestEnd.countAtOrBelow(height);
+    }
+
+    /**
+     * Ids of the loans with the end of interest at or before the height, earliest first.
+     * Loans that can be closed by anyone at height h are {@code expiringBy(h - 1)}.
+     */
+    public List<String> expiringBy(long height) {
+        List<String> result = new ArrayList<>(countExpiringBy(height));
+        forEachExpiringBy(height, result::add);
+        return result;
+    }
+
+    public void forEachExpiringBy(long height, Consumer<String> action) {
+        byInterestEnd.forEachAtOrBelow(height, slot -> action.accept(ids[slot]));
+    }
+
+    /**
+     * The nearest end of interest among open loans, or {@link Long#MAX_VALUE} if there are none.
+     */
+    public long nextExpiry() {
+        return byInterestEnd.lowest();
+    }
+
+    /**
+     * Number of loans past grace and not yet expired at the height, i.e. those that buyBack with interest. A loan with
+     * an interest period that expired by the height is past grace too, so it is among the grace ends counted.
+     */
+    public int countInInterestPeriod(long height) {
+        int expired = byInterestEnd.countAtOrBelow(height) - withoutInterestByInterestEnd.countAtOrBelow(height);
+        return byGraceEnd.countAtOrBelow(height - 1) - expired;
+    }
+
+    public List<String> inInterestPeriod(long height) {
+        List<String> result = new ArrayList<>();
+        byGraceEnd.forEachAtOrBelow(height - 1, slot -> {
+            if (interestEnd[slot] > height) result.add(ids[slot]);
+        });
+        return result;
+    }
+
+    private int slot(String id) {
+        int slot = slots.get(id);
+        if (slot == IdTable.NONE) throw new IllegalArgumentException("No open loan " + id);
+        return slot;
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot < ids.length) return;
+        int length = ids.length * 2;
+        ids = Arrays.copyOf(ids, length);
+        graceEnd = Arrays.copyOf(graceEnd, length);
+        interestEnd = Arrays.copyOf(interestEnd, length);
+        burndownEnd = Arrays.copyOf(burndownEnd, length);
+        lend = Arrays.copyOf(lend, length);
+        deposit = Arrays.copyOf(deposit, length);
+    }
+
+}
@@ -5,26 +5,24 @@ import im.mak.paddle.Account;
 import im.mak.paddle.Node;
 import im.mak.paddle.exceptions.NodeError;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
 import paddle.util.Changes;
+import paddle.util.PawnshopFixture;
+import pawnshop.Keys;
 
-import static im.mak.paddle.Async.async;
 import static im.mak.paddle.actions.invoke.Arg.arg;
-import static im.mak.paddle.util.Script.fromFile;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
 import static paddle.util.Token.tokens;
 
-@TestMethodOrder(OrderAnnotation.class)
-@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+/**
+ * Each boundary case borrows on its own dApp, so the cases wait for their blocks concurrently.
+ */
+@Execution(ExecutionMode.CONCURRENT)
 class BorrowSatoshiTest {
 
-    private Node node;
-    private Account oracle, owner, dApp, alice, bob, carol;
-    private String btcId;
-
-    private final String oracleRateKey = "waves_btc_8";
     private final int initialOracleRate = 15000;
     private final int maxRate = 50000;
     private final int discount = 80; // should lend only 80% of rate
@@ -32,68 +30,51 @@ class BorrowSatoshiTest {
     private final int interestPeriod = 4;
     private final int burndownPeriod = 4;
 
-    private int aliceHeight, bobHeight, carolHeight;
+    private PawnshopFixture fixture;
+    private Node node;
+    private Account dApp, user;
+    private String btcId;
 
-    @BeforeAll
+    @BeforeEach
     void before() {
-        node = new Node("http://localhost:6869", 'R', "waves private node seed with waves tokens");
-
-        async(
-                () -> oracle = new Account(node, tokens(1)),
-                () -> owner = new Account(node, tokens(1)),
-                () -> dApp = new Account(node, tokens(5)),
-                () -> alice = new Account(node, tokens(1)),
-                () -> bob = new Account(node, tokens(1)),
-                () -> carol = new Account(node, tokens(1))
-        );
-        async(
-                () -> oracle.writes(d -> d.integer(oracleRateKey, initialOracleRate)),
-                () -> btcId = dApp.issues(a -> a.quantity(tokens(100)).decimals(8)).getId().toString(),
-                () -> dApp.setsScript(s -> s.script(fromFile("ride/pawnshop_wbtc.ride")))
-        );
-        dApp.invokes(i -> i.function("init", arg(owner.address()), arg(btcId), arg(oracle.address()),
-                arg(maxRate), arg(discount), arg(gracePeriod), arg(interestPeriod), arg(burndownPeriod)
-        ));
+        fixture = PawnshopFixture.with()
+                .oracleRate(initialOracleRate).maxRate(maxRate).discount(discount)
+                .periods(gracePeriod, interestPeriod, burndownPeriod)
+                .deploy();
+        node = fixture.node;
+        dApp = fixture.dApp;
+        btcId = fixture.btcId;
+        user = fixture.accounts(tokens(1)).get(0);
+    }
+
+    private int borrowOneSatoshi() {
+        return user.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(8334)).getHeight();
     }
 
     @Test
-    @Order(1)
     void usersCantBorrowOneSatoshiLessThanRate() {
         assertThat(assertThrows(NodeError.class, () ->
-                alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(8333))
+                user.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(8333))
         )).hasMessageContaining("payment can't be less than 8334 wavelets (price of 1 satoshi)");
     }
 
     @Test
-    @Order(10)
-    void usersCanBorrowOneSatoshi() {
-        async(
-                () -> aliceHeight = alice.invokes(i -> i
-                        .dApp(dApp).function("borrow").wavesPayment(8334)).getHeight(),
-                () -> bobHeight = bob.invokes(i -> i
-                        .dApp(dApp).function("borrow").wavesPayment(8334)).getHeight(),
-                () -> carolHeight = carol.invokes(i -> i
-                        .dApp(dApp).function("borrow").wavesPayment(8334)).getHeight()
-        );
-    }
+    void userCanBuybackInLastGrace() {
+        int height = borrowOneSatoshi();
+        node.waitForHeight(height + gracePeriod);
 
-    @Test
-    @Order(20)
-    void aliceCanBuybackInLastGrace() {
-        node.waitForHeight(aliceHeight + gracePeriod);
-
-        InvokeScriptTransaction tx = alice.invokes(i -> i
+        InvokeScriptTransaction tx = user.invokes(i -> i
                 .dApp(dApp)
-                .function("buyBack")
+                .function("buyBack", arg("1"))
                 .payment(tokens(0.00000001), btcId)
         );
 
-        Changes changes = Changes.of(alice, node.api.stateChanges(tx.getId().toString()));
+        Changes changes = Changes.of(user, node.api.stateChanges(tx.getId().toString()));
 
         assertAll("Check state changes",
-                () -> assertThat(tx.getHeight()).isEqualTo(aliceHeight + gracePeriod),
+                () -> assertThat(tx.getHeight()).isEqualTo(height + gracePeriod),
 
-                () -> assertThat(changes.data).hasSize(7).allMatch(v -> v.asInteger() == 0),
+                () -> assertClosed(changes),
                 () -> assertThat(changes.transfers).hasSize(1),
 
                 () -> assertThat(changes.transferToUser().amount).isEqualTo(8334),
@@ -102,43 +83,52 @@ class BorrowSatoshiTest {
     }
 
     @Test
-    @Order(30)
-    void bobCanBuybackInLastBlockOfInterest() {
-        node.waitForHeight(bobHeight + gracePeriod + interestPeriod - 1);
+    void userCanBuybackInLastBlockOfInterest() {
+        int height = borrowOneSatoshi();
+        node.waitForHeight(height + gracePeriod + interestPeriod - 1);
 
-        InvokeScriptTransaction tx = bob.invokes(i -> i
+        InvokeScriptTransaction tx = user.invokes(i -> i
                 .dApp(dApp)
-                .function("buyBack")
+                .function("buyBack", arg("1"))
                 .payment(tokens(0.00000001), btcId)
         );
 
-        Changes changes = Changes.of(bob, node.api.stateChanges(tx.getId().toString()));
+        Changes changes = Changes.of(user, node.api.stateChanges(tx.getId().toString()));
 
-        System.out.println();
         assertAll("Check state changes",
-                () -> assertThat(tx.getHeight()).isEqualTo(bobHeight + gracePeriod + interestPeriod - 1),
+                () -> assertThat(tx.getHeight()).isEqualTo(height + gracePeriod + interestPeriod - 1),
 
-                () -> assertThat(changes.data).hasSize(7).allMatch(d -> d.asInteger() == 0),
-                () -> assertThat(changes.transfers).hasSize(2),
+                () -> assertClosed(changes),
+                // 3 of 4 burndown blocks of 1 satoshi round down to no interest
+                () -> assertThat(changes.transfers).hasSize(1),
 
-                () -> assertThat(changes.transferToUser().amount).isEqualTo(2083),
-                () -> assertThat(changes.transferToUser().asset).isNull(),
+                () -> assertThat(changes.transferToUser().amount).isEqualTo(8334),
+                () -> assertThat(changes.transferToUser().asset).isNull()
+        );
+    }
 
-                () -> assertThat(changes.transferToAnother().address).isEqualTo(owner.address()),
-                () -> assertThat(changes.transferToAnother().amount).isEqualTo(6251),
-                () -> assertThat(changes.transferToAnother().asset).isNull()
+    /**
+     * The loan keys, its cohort and the owner's profit: all zero but the empty lender flags and renter of the loan.
+     */
+    private void assertClosed(Changes changes) {
+        assertAll(
+                () -> assertThat(changes.data).hasSize(13),
+                () -> assertThat(changes.data).filteredOn(d -> Keys.isString(d.key))
+                        .extracting(d -> d.key).containsExactly(Keys.lenderFlagsOf("1"), Keys.renterOf("1")),
+                () -> assertThat(changes.data).filteredOn(d -> Keys.isString(d.key)).allMatch(d -> d.asString().isEmpty()),
+                () -> assertThat(changes.data).filteredOn(d -> !Keys.isString(d.key)).allMatch(d -> d.asInteger() == 0)
         );
     }
 
     @Test
-    @Order(30)
-    void carolCantBuybackAfterInterest() {
-        node.waitForHeight(carolHeight + gracePeriod + interestPeriod);
+    void userCantBuybackAfterInterest() {
+        int height = borrowOneSatoshi();
+        node.waitForHeight(height + gracePeriod + interestPeriod);
 
         assertThat(assertThrows(NodeError.class, () ->
-                carol.invokes(i -> i
+                user.invokes(i -> i
                         .dApp(dApp)
-                        .function("buyBack")
+                        .function("buyBack", arg("1"))
                         .payment(tokens(0.00000001), btcId))
         )).hasMessageContaining("your loan has expired");
     }
@@ -0,0 +1,73 @@
+package paddle;
+
+import im.mak.paddle.Account;
+import im.mak.paddle.Node;
+import im.mak.paddle.exceptions.NodeError;
+import org.junit.jupiter.api.Test;
+import paddle.util.Changes;
+import paddle.util.PawnshopFixture;
+import pawnshop.Keys;
+
+import java.util.List;
+
+import static im.mak.paddle.actions.invoke.Arg.arg;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+/**
+ * closeExpiredLoans lists a loan taken before loan ids, a duplicate or a live loan next to an expired one, and the
+ * expired one closes alone.
+ */
+class CloseExpiredLoansTest {
+
+    private final int gracePeriod = 2;
+    private final int interestPeriod = 2;
+    private final int burndownPeriod = 4;
+
+    @Test
+    void skipsLegacyDuplicateAndLiveLoans() {
+        PawnshopFixture fixture = PawnshopFixture.with().periods(gracePeriod, interestPeriod, burndownPeriod).deploy();
+        Node node = fixture.node;
+        Account dApp = fixture.dApp, owner = fixture.owner;
+        List<Account> users = fixture.accounts(tokens(100), tokens(1));
+        Account alice = users.get(0), legacy = users.get(1);
+
+        int height = 0;
+        for (int n = 0; n < 3; n++)
+            height = alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(tokens(10))).getHeight();
+        int start = height;
+        dApp.writes(d -> d
+                .integer(Keys.startOf(legacy.address()), start)
+                .integer(Keys.endOfInterestOf(legacy.address()), start)
+                .integer(Keys.depositOf(legacy.address()), tokens(10))
+                .integer(Keys.lendOf(legacy.address()), 8000)
+                .integer(Keys.cohortOf(legacy.address()), 0)
+                .integer(Keys.cohortOpen(0), 4));
+        node.waitForHeight(start + gracePeriod + interestPeriod + 1);
+        alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(tokens(10)));
+
+        Changes withLegacy = close(node, owner, dApp, legacy.address() + "|1");
+        Changes duplicate = close(node, owner, dApp, "2|2");
+        Changes withLive = close(node, owner, dApp, "4|3");
+
+        assertAll(
+                () -> assertThat(withLegacy.decoded.loans()).containsOnlyKeys("1"),
+                () -> assertThat(withLegacy.decoded.integer(Keys.cohortOpen(0))).isEqualTo(4L),
+                () -> assertThat(duplicate.decoded.loans()).containsOnlyKeys("2"),
+                () -> assertThat(duplicate.decoded.integer(Keys.cohortOpen(0))).isEqualTo(3L),
+                () -> assertThat(withLive.decoded.loans()).containsOnlyKeys("3"),
+                () -> assertThat(withLive.decoded.integer(Keys.cohortOpen(0))).isEqualTo(2L),
+                () -> assertThat(assertThrows(NodeError.class, () -> owner.invokes(i -> i.dApp(dApp)
+                        .function("closeExpiredLoans", arg("4|" + legacy.address())))))
+                        .hasMessageContaining("no expired loan to close")
+        );
+    }
+
+    private static Changes close(Node node, Account caller, Account dApp, String loans) {
+        return Changes.of(caller, node.api.stateChanges(caller.invokes(i -> i.dApp(dApp)
+                .function("closeExpiredLoans", arg(loans))).getId().toString()));
+    }
+
+}
@@ -0,0 +1,38 @@
+package paddle;
+
+import org.junit.jupiter.api.Test;
+import paddle.util.PawnshopFixture;
+import pawnshop.fuzz.DifferentialFuzzer;
+import pawnshop.fuzz.DifferentialFuzzer.Report;
+import pawnshop.fuzz.PaddleChain;
+import pawnshop.ride.RideScript;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+
+/**
+ * A sample of the fuzzer's sequences replayed on the node, each on its own dApp, against the engine: the local node
+ * the fuzzer runs on is itself a model of the node. The sequences are short, since every block is waited for.
+ */
+class NodeReplayTest {
+
+    @Test
+    void theNodeAndTheEngineAgreeOnASampleOfSequences() throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get("ride/pawnshop_wbtc.ride")), StandardCharsets.UTF_8);
+        int participants = 4;
+        Report report = new DifferentialFuzzer(RideScript.parse(source), DifferentialFuzzer.config()
+                .sequences(300).length(15).participants(participants).seed(1).threads(3))
+                .replay(n -> new PaddleChain(PawnshopFixture.network(), PawnshopFixture.pool(), source, n), 3);
+
+        assertAll(
+                () -> assertThat(report.failures).as(report.toString()).isEmpty(),
+                () -> assertThat(report.accepted).isNotEmpty()
+        );
+    }
+
+}
@@ -6,11 +6,13 @@ import im.mak.paddle.Node;
 import im.mak.paddle.exceptions.NodeError;
 import org.junit.jupiter.api.*;
 import paddle.util.Changes;
+import paddle.util.PawnshopFixture;
+import pawnshop.Keys;
+
+import java.util.ArrayList;
+import java.util.List;
 
-import static im.mak.paddle.Async.async;
 import static im.mak.paddle.actions.invoke.Arg.arg;
-import static im.mak.paddle.actions.mass.Recipient.to;
-import static im.mak.paddle.util.Script.fromFile;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -25,6 +27,7 @@ class PawnshopTest {
     private Account oracle, issuer, owner, dApp, alice, bob, cooper;
     private String btcId;
     private int bobHeight, cooperHeight;
+    private String aliceLoan, bobLoan, cooperLoan;
 
     private final String oracleRateKey = "waves_btc_8";
     private final int initialOracleRate = 10000;
@@ -38,27 +41,24 @@ class PawnshopTest {
 
     @BeforeAll
     void before() {
-        node = new Node("http://localhost:6869", 'R', "waves private node seed with waves tokens");
-
-        async(
-                () -> issuer = new Account(node, tokens(2)),
-                () -> oracle = new Account(node, tokens(1)),
-                () -> owner = new Account(node, tokens(2)),
-                () -> dApp = new Account(node, tokens(1)),
-                () -> alice = new Account(node, tokens(30000)),
-                () -> bob = new Account(node, tokens(30000)),
-                () -> cooper = new Account(node, tokens(20000))
-        );
-        async(
-                () -> oracle.writes(d -> d.integer(oracleRateKey, initialOracleRate)),
-                () -> {
-                    btcId = issuer.issues(a -> a.quantity(tokens(24_000_000)).decimals(8)).getId().toString();
-                    issuer.massTransfers(t -> t.asset(btcId).recipients(
-                            to(dApp, tokens(11)), to(alice, tokens(1))
-                    ));
-                },
-                () -> dApp.setsScript(s -> s.script(fromFile("ride/pawnshop_wbtc.ride")))
-        );
+        PawnshopFixture fixture = PawnshopFixture.with()
+                .oracleRate(initialOracleRate).maxRate(maxRate).discount(discount)
+                .periods(gracePeriod, interestPeriod, burndownPeriod)
+                .dAppFunds(tokens(1), tokens(11))
+                .notInitialized()
+                .deploy();
+        node = fixture.node;
+        oracle = fixture.oracle;
+        issuer = fixture.issuer;
+        owner = fixture.owner;
+        dApp = fixture.dApp;
+        btcId = fixture.btcId;
+
+        List<Account> users = fixture.accounts(tokens(30000), tokens(30000), tokens(20000));
+        alice = users.get(0);
+        bob = users.get(1);
+        cooper = users.get(2);
+        fixture.fundBtc(tokens(1), alice);
     }
 
     @Test
@@ -131,9 +131,13 @@ class PawnshopTest {
         Changes changes = Changes.of(alice, node.api.stateChanges(
                 invokeTx.getId().toString()
         ));
+        // no lender has deposited, so the loan joins cohort 0 of no lenders and opens no cohort
+        List<String> written = loanKeys(changes.loan);
+        written.add(Keys.LOAN_COUNT);
+        written.add(Keys.cohortOpen(0));
 
         assertAll(
-                () -> assertThat(changes.data).hasSize(7),
+                () -> assertThat(changes.data).extracting(d -> d.key).containsExactlyInAnyOrderElementsOf(written),
                 () -> assertThat(changes.transfers).hasSize(1),
 
                 () -> assertThat(changes.lend()).isEqualTo(
@@ -148,37 +152,41 @@ class PawnshopTest {
                 () -> assertThat(changes.transferToUser().asset).isEqualTo(btcId),
                 () -> assertThat(changes.transferToUser().amount).isEqualTo(changes.lend())
         );
+        aliceLoan = changes.loan;
 
-        NodeError error = assertThrows(NodeError.class, () ->
-                alice.invokes(i -> i
-                        .dApp(dApp)
-                        .function("borrow")
-                        .wavesPayment(alicePayment)
-                )
-        );
-        assertThat(error).hasMessageContaining(alice.address() + " already has an open loan");
+        Changes second = Changes.of(alice, node.api.stateChanges(alice.invokes(i -> i
+                .dApp(dApp)
+                .function("borrow")
+                .wavesPayment(alicePayment)
+        ).getId().toString()));
+        assertThat(second.loan).isNotEqualTo(aliceLoan);
+        alice.invokes(i -> i.dApp(dApp).function("buyBack", arg(second.loan)).payment(second.lend(), btcId));
     }
 
     @Test
     @Order(15)
     @DisplayName("Bob borrows 0.5 btc for 5k waves")
     void bobBorrows05btcFor5kWaves() {
-        bobHeight = bob.invokes(i -> i
+        InvokeScriptTransaction tx = bob.invokes(i -> i
                 .dApp(dApp)
                 .function("borrow")
                 .wavesPayment(tokens(5000))
-        ).getHeight();
+        );
+        bobHeight = tx.getHeight();
+        bobLoan = Changes.of(bob, node.api.stateChanges(tx.getId().toString())).loan;
     }
 
     @Test
     @Order(20)
     @DisplayName("Cooper borrows 0.3 btc for 3k waves")
     void cooperBorrows03btcFor3kWaves() {
-        cooperHeight = cooper.invokes(i -> i
+        InvokeScriptTransaction tx = cooper.invokes(i -> i
                 .dApp(dApp)
                 .function("borrow")
                 .wavesPayment(tokens(3000))
-        ).getHeight();
+        );
+        cooperHeight = tx.getHeight();
+        cooperLoan = Changes.of(cooper, node.api.stateChanges(tx.getId().toString())).loan;
     }
 
     @Test
@@ -187,17 +195,17 @@ class PawnshopTest {
     void aliceCantBuybackWithDifferentToken() {
         assertAll(
                 () -> assertThat(assertThrows(NodeError.class, () ->
-                        alice.invokes(i -> i.dApp(dApp).function("buyBack")
+                        alice.invokes(i -> i.dApp(dApp).function("buyBack", arg(aliceLoan))
                                 .wavesPayment(tokens(0.8))
                         ))).hasMessageContaining("Error"),
 
                 () -> assertThat(assertThrows(NodeError.class, () ->
-                        alice.invokes(i -> i.dApp(dApp).function("buyBack")
+                        alice.invokes(i -> i.dApp(dApp).function("buyBack", arg(aliceLoan))
                                 .payment(tokens(0.8) - 1, btcId)
                         ))).hasMessageContaining("User must return"),
 
                 () -> assertThat(assertThrows(NodeError.class, () ->
-                        alice.invokes(i -> i.dApp(dApp).function("buyBack")
+                        alice.invokes(i -> i.dApp(dApp).function("buyBack", arg(aliceLoan))
                                 .payment(tokens(0.8) + 1, btcId)
                         ))).hasMessageContaining("User must return")
         );
@@ -209,7 +217,7 @@ class PawnshopTest {
     void aliceCanBuybackAll() {
         InvokeScriptTransaction invokeTx = alice.invokes(i -> i
                 .dApp(dApp)
-                .function("buyBack")
+                .function("buyBack", arg(aliceLoan))
                 .payment(tokens(0.8), btcId)
         );
         Changes changes = Changes.of(alice, node.api.stateChanges(
@@ -217,7 +225,8 @@ class PawnshopTest {
         ));
 
         assertAll(
-                () -> assertThat(changes.data).hasSize(7),
+                () -> assertThat(changes.data).extracting(d -> d.key)
+                        .containsExactlyInAnyOrderElementsOf(closedKeys(aliceLoan)),
                 () -> assertThat(changes.transfers).hasSize(1),
 
                 () -> assertThat(changes.lend()).isEqualTo(0),
@@ -238,7 +247,7 @@ class PawnshopTest {
     @DisplayName("Alice can't buyback again")
     void aliceCantBuybackAgain() {
         assertThat(assertThrows(NodeError.class, () ->
-                alice.invokes(i -> i.dApp(dApp).function("buyBack")
+                alice.invokes(i -> i.dApp(dApp).function("buyBack", arg(aliceLoan))
                         .payment(tokens(0.8), btcId)
                 )
         )).hasMessageContaining("No open loan");
@@ -273,14 +282,14 @@ class PawnshopTest {
     void aliceCanPerformTheOperationAgain() {
         oracle.writes(d -> d.integer(oracleRateKey, 20000));
 
-        alice.invokes(i -> i
+        String loan = Changes.of(alice, node.api.stateChanges(alice.invokes(i -> i
                 .dApp(dApp)
                 .function("borrow")
                 .wavesPayment(tokens(2000))
-        );
+        ).getId().toString())).loan;
         alice.invokes(i -> i
                 .dApp(dApp)
-                .function("buyBack")
+                .function("buyBack", arg(loan))
                 .payment(2000L * 20000 * discount / 100, btcId)
         );
     }
@@ -302,8 +311,11 @@ class PawnshopTest {
                 ).getId().toString()
         ));
 
+        List<String> written = closedKeys(changes.loan);
+        written.add("registered_return_of_" + txId);
+
         assertAll(
-                () -> assertThat(changes.data).hasSize(8),
+                () -> assertThat(changes.data).extracting(d -> d.key).containsExactlyInAnyOrderElementsOf(written),
                 () -> assertThat(changes.transfers).hasSize(1),
 
                 () -> assertThat(changes.lend()).isEqualTo(0),
@@ -327,7 +339,7 @@ class PawnshopTest {
         node.waitForHeight(bobHeight + gracePeriod + 2);
         Changes changes = Changes.of(bob, node.api.stateChanges(bob.invokes(i -> i
                 .dApp(dApp)
-                .function("buyBack")
+                .function("buyBack", arg(bobLoan))
                 .payment(tokens(0.4), btcId)
         ).getId().toString()));
         assertThat(changes.transferToUser().amount).isEqualTo(tokens(4000)); // 2 of 10 burndown, loses 20% of deposit
@@ -341,11 +353,34 @@ class PawnshopTest {
         owner.invokes(i -> i
                 .dApp(dApp)
                 .function("closeExpiredFor",
-                        arg(cooper.address())
+                        arg(cooperLoan)
                 )
         );
     }
 
+    /**
+     * The keys of a loan the script writes on borrow and on closing: the loan record and the cohort of the loan.
+     */
+    private static List<String> loanKeys(String loan) {
+        List<String> keys = new ArrayList<>();
+        for (String prefix : Keys.LOAN_PREFIXES)
+            keys.add(prefix + loan);
+        keys.add(Keys.cohortOf(loan));
+        return keys;
+    }
+
+    /**
+     * The keys a buyBack of a loan of cohort 0 writes: the loan keys, the open count and profit of the cohort and the
+     * profit of the owner.
+     */
+    private List<String> closedKeys(String loan) {
+        List<String> keys = loanKeys(loan);
+        keys.add(Keys.cohortOpen(0));
+        keys.add(Keys.cohortProfit(0));
+        keys.add(Keys.profitFor(owner.address()));
+        return keys;
+    }
+
     //TODO assert all throw
     //TODO restoreBuyBack - если по ошибке трансфер. А сделать restore для borrow?
     //TODO что если нет бабла/битков на dapp?
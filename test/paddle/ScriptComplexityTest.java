@@ -0,0 +1,77 @@
+package paddle;
+
+import org.junit.jupiter.api.Test;
+import paddle.util.PawnshopFixture;
+import pawnshop.PawnshopEngine;
+import pawnshop.complexity.NodeEstimator;
+import pawnshop.node.NodeHttp;
+import pawnshop.ride.RideScript;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+
+/**
+ * The node's estimate of every callable against the limit, and against the local estimate that
+ * {@code ComplexityProfilerTest} gates the script with. The window of closeExpiredLoans is sized with the local
+ * estimate; here the node confirms that it fits and that one more loan does not.
+ */
+class ScriptComplexityTest {
+
+    @Test
+    void everyCallableFitsTheLimitAndTheLocalEstimateIsNeverBelowTheNode() throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get("ride/pawnshop_wbtc.ride")), StandardCharsets.UTF_8);
+        Map<String, Long> node = new NodeEstimator(new NodeHttp(PawnshopFixture.URL)).estimate(source);
+        Map<String, Long> local = RideScript.parse(source).estimate();
+
+        assertAll(
+                () -> assertThat(node.keySet()).containsExactlyInAnyOrderElementsOf(local.keySet()),
+                () -> node.forEach((callable, estimate) -> assertThat(estimate).as(callable)
+                        .isLessThanOrEqualTo(RideScript.MAX_CALLABLE_COMPLEXITY)),
+                () -> node.forEach((callable, estimate) -> assertThat(local.get(callable)).as(callable)
+                        .isGreaterThanOrEqualTo(estimate))
+        );
+    }
+
+    @Test
+    void closeExpiredLoansListsAsManyLoansAsTheNodeAllows() throws IOException {
+        String source = new String(Files.readAllBytes(Paths.get("ride/pawnshop_wbtc.ride")), StandardCharsets.UTF_8);
+        NodeEstimator estimator = new NodeEstimator(new NodeHttp(PawnshopFixture.URL));
+        int loans = PawnshopEngine.MAX_CLOSING_LOANS;
+
+        assertAll(
+                () -> assertThat(closingComplexity(estimator, source, loans))
+                        .isLessThanOrEqualTo(RideScript.MAX_CALLABLE_COMPLEXITY),
+                () -> assertThat(closingComplexity(estimator, source, loans + 1))
+                        .isGreaterThan(RideScript.MAX_CALLABLE_COMPLEXITY)
+        );
+    }
+
+    /**
+     * The node's estimate of closeExpiredLoans with its window and both of its {@code FOLD}s set to the number of
+     * loans, or {@code Long.MAX_VALUE} if the node refuses to compile a callable that complex.
+     */
+    private static long closingComplexity(NodeEstimator estimator, String source, int loans) {
+        List<String> window = new ArrayList<>();
+        for (int i = 0; i < loans; i++)
+            window.add(Integer.toString(i));
+        String resized = source
+                .replaceFirst("let closingWindow = \\[[0-9, ]*]", "let closingWindow = [" + String.join(", ", window) + "]")
+                .replace("FOLD<" + PawnshopEngine.MAX_CLOSING_LOANS + ">(closingWindow",
+                        "FOLD<" + loans + ">(closingWindow");
+        try {
+            return estimator.estimate(resized).get("closeExpiredLoans");
+        } catch (NodeHttp.NodeHttpError e) {
+            assertThat(e).hasMessageContaining("complex");
+            return Long.MAX_VALUE;
+        }
+    }
+
+}
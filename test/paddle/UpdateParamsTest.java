@@ -6,10 +6,14 @@ import im.mak.paddle.Node;
 import im.mak.paddle.exceptions.NodeError;
 import org.junit.jupiter.api.*;
 import paddle.util.Changes;
+import paddle.util.PawnshopFixture;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static im.mak.paddle.Async.async;
 import static im.mak.paddle.actions.invoke.Arg.arg;
-import static im.mak.paddle.util.Script.fromFile;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -35,43 +39,37 @@ class UpdateParamsTest {
 
     private int aliceHeight, bobHeight, carolHeight;
     private int daveHeight, eveHeight, frankHeight;
+    private final Map<Account, String> loans = new ConcurrentHashMap<>();
 
     @BeforeAll
     void before() {
-        node = new Node("http://localhost:6869", 'R', "waves private node seed with waves tokens");
-
-        async(
-                () -> oracle = new Account(node, tokens(1)),
-                () -> owner = new Account(node, tokens(1)),
-                () -> dApp = new Account(node, tokens(4)),
-                // these users will borrow for initial rate
-                () -> alice = new Account(node, tokens(100)),
-                () -> bob = new Account(node, tokens(100)),
-                () -> carol = new Account(node, tokens(100)),
-                // these users will borrow for updated rate
-                () -> dave = new Account(node, tokens(100)),
-                () -> eve = new Account(node, tokens(100)),
-                () -> frank = new Account(node, tokens(100))
-        );
-        async(
-                () -> oracle.writes(d -> d.integer(oracleRateKey, initialOracleRate)),
-                () -> btcId = dApp.issues(a -> a.quantity(tokens(24_000)).decimals(8)).getId().toString(),
-                () -> dApp.setsScript(s -> s.script(fromFile("ride/pawnshop_wbtc.ride")))
-        );
-        dApp.invokes(i -> i.function("init",
-                arg(owner.address()), arg(btcId), arg(oracle.address()), arg(maxRate),
-                arg(discount), arg(gracePeriod), arg(interestPeriod), arg(burndownPeriod)
-        ));
+        PawnshopFixture fixture = PawnshopFixture.with()
+                .oracleRate(initialOracleRate).maxRate(maxRate).discount(discount)
+                .periods(gracePeriod, interestPeriod, burndownPeriod)
+                .dAppFunds(tokens(4), tokens(24_000))
+                .deploy();
+        node = fixture.node;
+        oracle = fixture.oracle;
+        owner = fixture.owner;
+        dApp = fixture.dApp;
+        btcId = fixture.btcId;
+
+        // the first three borrow for initial rate, the others for updated rate
+        List<Account> users = fixture.accounts(
+                tokens(100), tokens(100), tokens(100), tokens(100), tokens(100), tokens(100));
+        alice = users.get(0);
+        bob = users.get(1);
+        carol = users.get(2);
+        dave = users.get(3);
+        eve = users.get(4);
+        frank = users.get(5);
     }
 
     @Test @Order(1)
     void usersCanBorrowOnInitialRates() { async(
-            () -> aliceHeight = alice.invokes(i -> i
-                    .dApp(dApp).function("borrow").wavesPayment(tokens(50))).getHeight(),
-            () -> bobHeight = bob.invokes(i -> i
-                    .dApp(dApp).function("borrow").wavesPayment(tokens(50))).getHeight(),
-            () -> carolHeight = carol.invokes(i -> i
-                    .dApp(dApp).function("borrow").wavesPayment(tokens(50))).getHeight()
+            () -> aliceHeight = borrow(alice),
+            () -> bobHeight = borrow(bob),
+            () -> carolHeight = borrow(carol)
     ); }
 
     @Test @Order(5)
@@ -87,7 +85,7 @@ class UpdateParamsTest {
         node.waitForHeight(aliceHeight + gracePeriod);
 
         InvokeScriptTransaction tx = alice.invokes(i -> i
-                .dApp(dApp).function("buyBack").payment(tokens(0.0045), btcId)
+                .dApp(dApp).function("buyBack", arg(loans.get(alice))).payment(tokens(0.0045), btcId)
         );
 
         Changes changes = Changes.of(alice, node.api.stateChanges(tx.getId().toString()));
@@ -108,7 +106,7 @@ class UpdateParamsTest {
         node.waitForHeight(bobHeight + gracePeriod + 1);
 
         InvokeScriptTransaction tx = bob.invokes(i -> i
-                .dApp(dApp).function("buyBack").payment(tokens(0.0045), btcId)
+                .dApp(dApp).function("buyBack", arg(loans.get(bob))).payment(tokens(0.0045), btcId)
         );
 
         Changes changes = Changes.of(bob, node.api.stateChanges(tx.getId().toString()));
@@ -133,19 +131,16 @@ class UpdateParamsTest {
         node.waitForHeight(carolHeight + gracePeriod + interestPeriod);
 
         assertThat(assertThrows(NodeError.class,
-                () -> carol.invokes(i -> i.dApp(dApp).function("buyBack").payment(tokens(0.0045), btcId))
+                () -> carol.invokes(i -> i.dApp(dApp).function("buyBack", arg(loans.get(carol))).payment(tokens(0.0045), btcId))
         )).hasMessageContaining("your loan has expired");
     }
 
     @Test @Order(35)
     void usersCanBorrowOnUpdatedRates() {
         async(
-                () -> daveHeight = dave.invokes(i -> i.dApp(dApp).function("borrow")
-                        .wavesPayment(tokens(50))).getHeight(),
-                () -> eveHeight = eve.invokes(i -> i.dApp(dApp).function("borrow")
-                        .wavesPayment(tokens(50))).getHeight(),
-                () -> frankHeight = frank.invokes(i -> i.dApp(dApp).function("borrow")
-                        .wavesPayment(tokens(50))).getHeight()
+                () -> daveHeight = borrow(dave),
+                () -> eveHeight = borrow(eve),
+                () -> frankHeight = borrow(frank)
         );
 
         assertAll("all users received tokens",
@@ -160,7 +155,7 @@ class UpdateParamsTest {
         node.waitForHeight(daveHeight + updatedGracePeriod);
 
         InvokeScriptTransaction tx = dave.invokes(i -> i
-                .dApp(dApp).function("buyBack").payment(tokens(0.006), btcId)
+                .dApp(dApp).function("buyBack", arg(loans.get(dave))).payment(tokens(0.006), btcId)
         );
 
         Changes changes = Changes.of(dave, node.api.stateChanges(tx.getId().toString()));
@@ -181,7 +176,7 @@ class UpdateParamsTest {
         node.waitForHeight(eveHeight + updatedGracePeriod + updatedInterestPeriod - 1);
 
         InvokeScriptTransaction tx = eve.invokes(i -> i
-                .dApp(dApp).function("buyBack").payment(tokens(0.006), btcId)
+                .dApp(dApp).function("buyBack", arg(loans.get(eve))).payment(tokens(0.006), btcId)
         );
 
         Changes changes = Changes.of(eve, node.api.stateChanges(tx.getId().toString()));
@@ -206,7 +201,7 @@ class UpdateParamsTest {
         node.waitForHeight(frankHeight + updatedGracePeriod + updatedInterestPeriod);
 
         assertThat(assertThrows(NodeError.class,
-                () -> frank.invokes(i -> i.dApp(dApp).function("buyBack").payment(tokens(0.006), btcId))
+                () -> frank.invokes(i -> i.dApp(dApp).function("buyBack", arg(loans.get(frank))).payment(tokens(0.006), btcId))
         )).hasMessageContaining("your loan has expired");
     }
 
@@ -216,14 +211,20 @@ class UpdateParamsTest {
                 arg(oracle.address()), arg(maxRate), arg(newDiscount),
                 arg(1), arg(1), arg(1)));
 
-        aliceHeight = alice.invokes(i -> i
-                .dApp(dApp).function("borrow").wavesPayment(tokens(50))).getHeight();
+        aliceHeight = borrow(alice);
 
         node.waitForHeight(aliceHeight + gracePeriod + 1);
 
         assertThat(assertThrows(NodeError.class,
-                () -> alice.invokes(i -> i.dApp(dApp).function("buyBack").payment(tokens(0.006), btcId))
+                () -> alice.invokes(i -> i.dApp(dApp).function("buyBack", arg(loans.get(alice))).payment(tokens(0.006), btcId))
         )).hasMessageContaining("your loan has expired");
     }
 
+    private int borrow(Account renter) {
+        InvokeScriptTransaction tx = renter.invokes(i -> i
+                .dApp(dApp).function("borrow").wavesPayment(tokens(50)));
+        loans.put(renter, Changes.of(renter, node.api.stateChanges(tx.getId().toString())).loan);
+        return tx.getHeight();
+    }
+
 }
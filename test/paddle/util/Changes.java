@@ -2,58 +2,78 @@ package paddle.util;
 
 import im.mak.paddle.Account;
 import im.mak.paddle.api.StateChanges;
-import im.mak.paddle.api.deser.ScriptTransfer;
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.Transfer;
+import pawnshop.state.DecodedChanges;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class Changes extends StateChanges {
 
     public String address = "";
+    public String loan = "";
+    public DecodedChanges decoded;
 
     public static Changes of(Account account, StateChanges stateChanges) {
         Changes changes = new Changes();
         changes.data = stateChanges.data;
         changes.transfers = stateChanges.transfers;
         changes.address = account.address();
+
+        List<Entry> entries = new ArrayList<>(stateChanges.data.size());
+        stateChanges.data.forEach(e -> entries.add(
+                Keys.isString(e.key) ? Entry.string(e.key, e.asString())
+                        : Keys.isBoolean(e.key) || e.key.startsWith("registered_return_of_")
+                        ? Entry.bool(e.key, e.asBoolean())
+                        : Entry.integer(e.key, e.asInteger())));
+        List<Transfer> transfers = new ArrayList<>(stateChanges.transfers.size());
+        stateChanges.transfers.forEach(t -> transfers.add(new Transfer(t.address, t.amount, t.asset)));
+        changes.decoded = new DecodedChanges(entries, transfers);
+        changes.loan = changes.decoded.borrowedLoan() != null ? changes.decoded.borrowedLoan()
+                : changes.decoded.loans().keySet().stream().findFirst().orElse(changes.address);
         return changes;
     }
 
     public long start() {
-        return data.stream().filter(e -> e.key.contains("start_of_" + address)).findFirst().get().asInteger();
+        return decoded.integer(Keys.startOf(loan));
     }
 
     public long graceEnd() {
-        return data.stream().filter(e -> e.key.contains("end_of_grace_of_" + address)).findFirst().get().asInteger();
+        return decoded.integer(Keys.endOfGraceOf(loan));
     }
 
     public long interestEnd() {
-        return data.stream().filter(e -> e.key.contains("end_of_interest_of_" + address)).findFirst().get().asInteger();
+        return decoded.integer(Keys.endOfInterestOf(loan));
     }
 
     public long burndownEnd() {
-        return data.stream().filter(e -> e.key.contains("end_of_burndown_of_" + address)).findFirst().get().asInteger();
+        return decoded.integer(Keys.endOfBurndownOf(loan));
     }
 
     public long rate() {
-        return data.stream().filter(e -> e.key.contains("rate_of_" + address)).findFirst().get().asInteger();
+        return decoded.integer(Keys.rateOf(loan));
     }
 
     public long deposit() {
-        return data.stream().filter(e -> e.key.contains("deposit_of_" + address)).findFirst().get().asInteger();
+        return decoded.integer(Keys.depositOf(loan));
     }
 
     public long lend() {
-        return data.stream().filter(e -> e.key.contains("lend_of_" + address)).findFirst().get().asInteger();
+        return decoded.integer(Keys.lendOf(loan));
     }
 
     public boolean registeredTx(String txId) {
-        return data.stream().filter(e -> e.key.equals("registered_return_of_" + txId)).findFirst().get().asBoolean();
+        return decoded.bool("registered_return_of_" + txId);
     }
 
-    public ScriptTransfer transferToUser() {
-        return transfers.stream().filter(t -> t.address.equals(address)).findFirst().get();
+    public Transfer transferToUser() {
+        return decoded.transfersTo(address).get(0);
     }
 
-    public ScriptTransfer transferToAnother() {
-        return transfers.stream().filter(t -> !t.address.equals(address)).findFirst().get();
+    public Transfer transferToAnother() {
+        return decoded.transfersExcept(address).get(0);
     }
 
 }
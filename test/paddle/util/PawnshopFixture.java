@@ -0,0 +1,159 @@
+package paddle.util;
+
+import im.mak.paddle.Account;
+import im.mak.paddle.Node;
+import im.mak.paddle.actions.mass.Recipient;
+import pawnshop.node.AccountPool;
+import pawnshop.node.Actor;
+import pawnshop.node.PaddleNetwork;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static im.mak.paddle.Async.async;
+import static im.mak.paddle.actions.invoke.Arg.arg;
+import static im.mak.paddle.actions.mass.Recipient.to;
+import static im.mak.paddle.util.Script.fromFile;
+import static paddle.util.Token.tokens;
+
+/**
+ * An isolated deployment of the dApp for one test class or method: its own dApp, oracle, owner and issuer accounts
+ * and its own BTC asset. Fixtures share only the node, so test classes and methods using separate fixtures can run
+ * concurrently and wait for blocks at the same time.
+ */
+public class PawnshopFixture {
+
+    public static final String ORACLE_RATE_KEY = "waves_btc_8";
+
+    public static final String URL = "http://localhost:6869";
+    private static final String FAUCET_SEED = "waves private node seed with waves tokens";
+
+    private static Node node;
+    private static PaddleNetwork network;
+    private static AccountPool pool;
+
+    public static synchronized Node node() {
+        if (node == null)
+            node = new Node(URL, 'R', FAUCET_SEED);
+        return node;
+    }
+
+    public static synchronized PaddleNetwork network() {
+        if (network == null)
+            network = new PaddleNetwork(node(), URL, 'R', FAUCET_SEED);
+        return network;
+    }
+
+    public static synchronized AccountPool pool() {
+        if (pool == null)
+            pool = new AccountPool(network());
+        return pool;
+    }
+
+    public static Setup with() {
+        return new Setup();
+    }
+
+    public static class Setup {
+        long oracleRate = 10000;
+        long maxRate = 50000;
+        long discount = 80;
+        long gracePeriod = 5, interestPeriod = 4, burndownPeriod = 10;
+        long serviceFee = 10, lendSize = 1;
+        long dAppWaves = tokens(5), dAppBtc = tokens(100), btcSupply = tokens(24_000_000);
+        boolean initialized = true;
+
+        public Setup oracleRate(long rate) { this.oracleRate = rate; return this; }
+        public Setup maxRate(long maxRate) { this.maxRate = maxRate; return this; }
+        public Setup discount(long discount) { this.discount = discount; return this; }
+        public Setup periods(long grace, long interest, long burndown) {
+            this.gracePeriod = grace;
+            this.interestPeriod = interest;
+            this.burndownPeriod = burndown;
+            return this;
+        }
+        public Setup serviceFee(long serviceFee) { this.serviceFee = serviceFee; return this; }
+        public Setup lendSize(long lendSize) { this.lendSize = lendSize; return this; }
+        public Setup dAppFunds(long waves, long btc) { this.dAppWaves = waves; this.dAppBtc = btc; return this; }
+        public Setup btcSupply(long supply) { this.btcSupply = supply; return this; }
+        /**
+         * Leaves the dApp with its script set but without {@code init}, for the tests of {@code init} itself.
+         */
+        public Setup notInitialized() { this.initialized = false; return this; }
+
+        public PawnshopFixture deploy() {
+            return new PawnshopFixture(this);
+        }
+    }
+
+    public final Node node = node();
+    public final Setup setup;
+    public final Account oracle, owner, issuer, dApp;
+    public final String btcId;
+
+    private PawnshopFixture(Setup setup) {
+        this.setup = setup;
+        List<Account> accounts = accounts(tokens(1), tokens(1), tokens(2), setup.dAppWaves);
+        oracle = accounts.get(0);
+        owner = accounts.get(1);
+        issuer = accounts.get(2);
+        dApp = accounts.get(3);
+
+        String[] asset = new String[1];
+        async(
+                () -> oracle.writes(d -> d.integer(ORACLE_RATE_KEY, setup.oracleRate)),
+                () -> asset[0] = issuer.issues(a -> a.quantity(setup.btcSupply).decimals(8)).getId().toString(),
+                () -> dApp.setsScript(s -> s.script(fromFile("ride/pawnshop_wbtc.ride")))
+        );
+        btcId = asset[0];
+        if (setup.dAppBtc > 0)
+            issuer.transfers(t -> t.to(dApp).amount(setup.dAppBtc).asset(btcId));
+        if (setup.initialized)
+            init();
+    }
+
+    public void init() {
+        dApp.invokes(i -> i.function("init",
+                arg(owner.address()), arg(btcId), arg(oracle.address()), arg(setup.maxRate),
+                arg(setup.discount), arg(setup.gracePeriod), arg(setup.interestPeriod), arg(setup.burndownPeriod),
+                arg(setup.serviceFee), arg(setup.lendSize)
+        ));
+    }
+
+    /**
+     * Creates accounts with the given amounts of WAVES, funded by one mass transfer per amount and hundred accounts.
+     */
+    public List<Account> accounts(long... waves) {
+        Map<Long, Integer> counts = new LinkedHashMap<>();
+        for (long amount : waves)
+            counts.merge(amount, 1, Integer::sum);
+        Map<Long, Iterator<Actor>> funded = new HashMap<>();
+        counts.forEach((amount, count) -> funded.put(amount, pool().create(count, amount).iterator()));
+
+        List<Account> accounts = new ArrayList<>();
+        for (long amount : waves) {
+            Actor actor = funded.get(amount).next();
+            accounts.add(new Account(pool().seed(actor), node));
+        }
+        return accounts;
+    }
+
+    /**
+     * Sends BTC of this fixture to the accounts in one mass transfer, up to a hundred of them.
+     */
+    public void fundBtc(long amount, Account... accounts) {
+        Recipient[] recipients = new Recipient[accounts.length];
+        for (int i = 0; i < accounts.length; i++)
+            recipients[i] = to(accounts[i], amount);
+        issuer.massTransfers(t -> t.asset(btcId).recipients(recipients));
+    }
+
+    public void setOracleRate(long rate) {
+        oracle.writes(d -> d.integer(ORACLE_RATE_KEY, rate));
+    }
+
+}
@@ -0,0 +1,36 @@
+package pawnshop;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++)
+            histogram.record(i * 1_000_000);
+
+        assertAll(
+                () -> assertThat(histogram.count()).isEqualTo(1000),
+                () -> assertThat(histogram.meanNanos()).isEqualTo(500_500_000),
+                () -> assertThat(histogram.maxNanos()).isEqualTo(1_000_000_000),
+                () -> assertThat(histogram.percentileNanos(50)).isBetween(500_000_000L, 625_000_000L),
+                () -> assertThat(histogram.percentileNanos(99)).isBetween(990_000_000L, 1_000_000_000L),
+                () -> assertThat(histogram.percentileNanos(100)).isEqualTo(1_000_000_000)
+        );
+    }
+
+    @Test
+    void everyValueFallsIntoABucketThatContainsIt() {
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertThat(LatencyHistogram.upperBound(bucket)).isGreaterThanOrEqualTo(value);
+            if (bucket > 0) assertThat(LatencyHistogram.upperBound(bucket - 1)).isLessThan(value);
+        }
+        assertThat(LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+}
@@ -0,0 +1,429 @@
+package pawnshop;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class PawnshopEngineTest {
+
+    private final String dApp = Address.of("dApp", 'R');
+    private final String owner = Address.of("owner", 'R');
+    private final String oracle = Address.of("oracle", 'R');
+    private final String btcId = Base58.encode(Address.sha256("btc".getBytes()));
+    private final String alice = Address.of("alice", 'R');
+    private final String bob = Address.of("bob", 'R');
+    private final String ivanov = Address.of("ivanov", 'R');
+    private final String masha = Address.of("masha", 'R');
+
+    private final int gracePeriod = 5;
+    private final int interestPeriod = 4;
+    private final int burndownPeriod = 10;
+
+    private PawnshopEngine engine;
+
+    @BeforeEach
+    void before() {
+        engine = new PawnshopEngine(dApp, 100).postOracle(oracle, 10000);
+        engine.init(dApp, owner, btcId, oracle, 50000, 80, gracePeriod, interestPeriod, burndownPeriod, 10, 10);
+        engine.depositBtc(ivanov, Payment.of(tokens(10), btcId));
+        engine.depositBtc(masha, Payment.of(tokens(10), btcId));
+    }
+
+    @Test
+    void onlyDappCanInitAndOnlyOwnerCanUpdate() {
+        assertAll(
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.init(owner, owner, btcId, oracle,
+                        50000, 80, 5, 4, 10, 10, 10))).hasMessage("only dapp itself can init"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.updateParams(alice, oracle,
+                        50000, 80, 5, 4, 10, 10, 10))).hasMessage("only owner can update params"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.updateParams(owner, oracle,
+                        50000, 80, 5, 11, 10, 10, 10))).hasMessage("interest must be less or equal to burndown")
+        );
+    }
+
+    @Test
+    @DisplayName("Borrowing one satoshi needs a whole satoshi worth of WAVES")
+    void usersCanBorrowOneSatoshi() {
+        engine.postOracle(oracle, 15000);
+
+        assertThat(assertThrows(ScriptError.class, () -> engine.borrow(alice, Payment.waves(8333))))
+                .hasMessage("payment can't be less than 8334 wavelets (price of 1 satoshi)");
+        assertThat(engine.borrow(alice, Payment.waves(8334)).transfers)
+                .containsExactly(new Transfer(alice, 1, btcId));
+    }
+
+    @Test
+    @DisplayName("Alice borrows 0.8 btc for 10k waves")
+    void aliceBorrows() {
+        ScriptResult result = engine.borrow(alice, Payment.waves(tokens(10000)));
+
+        assertAll(
+                () -> assertThat(result.data).containsExactly(
+                        Entry.integer("loan_count", 1),
+                        Entry.integer("start_of_1", 100),
+                        Entry.integer("end_of_grace_of_1", 105),
+                        Entry.integer("end_of_interest_of_1", 109),
+                        Entry.integer("end_of_burndown_of_1", 115),
+                        Entry.integer("rate_of_1", 8000),
+                        Entry.integer("deposit_of_1", tokens(10000)),
+                        Entry.integer("lend_of_1", tokens(0.8)),
+                        Entry.string("lender_flags_of_1", "11"),
+                        Entry.string("renter_of_1", alice),
+                        Entry.integer("cohort_of_1", 1),
+                        Entry.integer("cohort_open_1", 1)),
+                () -> assertThat(result.transfers).containsExactly(new Transfer(alice, tokens(0.8), btcId))
+        );
+    }
+
+    @Test
+    void oneAddressHoldsManyLoans() {
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        ScriptResult second = engine.borrow(alice, Payment.waves(tokens(5000)));
+        engine.borrow(bob, Payment.waves(tokens(1000)));
+        engine.advance(gracePeriod);
+
+        assertAll(
+                () -> assertThat(second.data).contains(
+                        Entry.integer("loan_count", 2),
+                        Entry.string("renter_of_2", alice),
+                        Entry.integer("cohort_open_1", 2)),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.buyBack(bob, "1", Payment.of(tokens(1), btcId))))
+                        .hasMessage("No open loan for caller"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.discard(bob, "2")))
+                        .hasMessage("only renter can discard the loan"),
+                () -> assertThat(engine.buyBack(alice, "2", Payment.of(tokens(0.4), btcId)).transfers)
+                        .containsExactly(new Transfer(alice, tokens(5000), null)),
+                () -> assertThat(engine.get("renter_of_2")).isEqualTo(""),
+                () -> assertThat(engine.get("start_of_1")).isEqualTo(100L),
+                () -> assertThat(engine.get("cohort_open_1")).isEqualTo(2L),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.buyBack(alice, "2", Payment.of(tokens(1), btcId))))
+                        .hasMessage("No open loan for caller"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.discard(alice, "2")))
+                        .hasMessage("only renter can discard the loan")
+        );
+    }
+
+    @Test
+    void aliceCanBuybackInLastBlockOfGraceWithoutProfit() {
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.advance(gracePeriod);
+
+        ScriptResult result = engine.buyBack(alice, "1", Payment.of(tokens(0.8) + 5, btcId));
+
+        assertAll(
+                () -> assertThat(result.data).hasSize(9 + 2 + 2),
+                () -> assertThat(result.transfers).containsExactly(
+                        new Transfer(alice, tokens(10000), null),
+                        new Transfer(alice, 5, btcId)),
+                () -> assertThat(engine.get("cohort_open_1")).isEqualTo(0L),
+                () -> assertThat(engine.get("cohort_profit_1")).isEqualTo(0L)
+        );
+    }
+
+    @Test
+    void bobPaysInterestAfterGrace() {
+        engine.borrow(bob, Payment.waves(tokens(5000)));
+        engine.advance(gracePeriod + 2);
+
+        assertThat(assertThrows(ScriptError.class, () -> engine.buyBack(bob, "1", Payment.of(tokens(0.4), btcId))))
+                .hasMessage("User must return 40000000 satoshis, but returning 40000000");
+
+        // 2 of 10 burndown blocks: 20% interest, 10% of it is the service fee
+        ScriptResult result = engine.buyBack(bob, "1", Payment.of(tokens(0.48), btcId));
+
+        assertAll(
+                () -> assertThat(result.transfers).containsExactly(new Transfer(bob, tokens(5000), null)),
+                () -> assertThat(engine.get("profit_for_" + owner)).isEqualTo(tokens(0.008)),
+                () -> assertThat(engine.get("cohort_profit_1")).isEqualTo(tokens(0.036)),
+                () -> assertThat(engine.get("profit_for_" + masha)).isNull(),
+                () -> assertThat(engine.settle(bob, masha, 1).data).contains(
+                        Entry.integer("profit_for_" + masha, tokens(0.036)),
+                        Entry.integer("settled_profit_1_" + masha, tokens(0.036))),
+                () -> assertThat(engine.takeProfit(masha).transfers).containsExactly(
+                        new Transfer(masha, tokens(0.036), btcId), new Transfer(masha, 0, null))
+        );
+    }
+
+    @Test
+    void expiredLoanIsClosedByAnyoneAndSharedBetweenLenders() {
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.advance(gracePeriod + interestPeriod);
+
+        assertThat(assertThrows(ScriptError.class, () -> engine.buyBack(alice, "1", Payment.of(tokens(1), btcId))))
+                .hasMessage("your loan has expired");
+        assertThat(assertThrows(ScriptError.class, () -> engine.closeExpiredFor(bob, "1")))
+                .hasMessage("Only expired rents can be closed by non-lender. Expiring on height 109, current height: 109");
+        assertThat(assertThrows(ScriptError.class, () -> engine.withdrawBtc(ivanov)))
+                .hasMessageStartingWith("withdraw not allowed, you have open lends");
+
+        engine.advance(1);
+        engine.closeExpiredFor(bob, "1");
+
+        assertAll(
+                () -> assertThat(engine.get("start_of_1")).isEqualTo(0L),
+                () -> assertThat(engine.get("unclaimied_for_" + owner)).isEqualTo(tokens(10)),
+                () -> assertThat(engine.get("cohort_unclaimed_1")).isEqualTo(tokens(4995)),
+                () -> assertThat(engine.get("cohort_loss_1")).isEqualTo(tokens(0.4)),
+                () -> assertThat(engine.get("curculating_assets_of_" + ivanov)).isEqualTo(tokens(10)),
+                () -> assertThat(engine.withdrawBtc(ivanov).transfers).containsExactly(
+                        new Transfer(ivanov, tokens(9.6), btcId)),
+                () -> assertThat(engine.get("unclaimied_for_" + ivanov)).isEqualTo(tokens(4995)),
+                () -> assertThat(engine.get("curculating_assets_of_" + ivanov)).isEqualTo(0L),
+                () -> assertThat(engine.get("lender_flags")).isEqualTo("01"),
+                () -> assertThat(engine.get("enabled_lender_flags")).isEqualTo("01"),
+                () -> assertThat(engine.get("cohort_flags_1")).isEqualTo("01"),
+                () -> assertThat(engine.get("slot_of_" + ivanov)).isEqualTo(-1L),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.withdrawBtc(ivanov)))
+                        .hasMessage("is not lender")
+        );
+    }
+
+    @Test
+    void closeExpiredLoansSkipsWhatItCannotClose() {
+        String legacy = Address.of("legacy", 'R');
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.borrow(bob, Payment.waves(tokens(10000)));
+        Map<String, Object> legacyLoan = new HashMap<>();
+        legacyLoan.put("start_of_" + legacy, 90L);
+        legacyLoan.put("end_of_interest_of_" + legacy, 99L);
+        legacyLoan.put("deposit_of_" + legacy, tokens(10000));
+        legacyLoan.put("lend_of_" + legacy, tokens(0.8));
+        legacyLoan.put("cohort_of_" + legacy, 1L);
+        legacyLoan.put("cohort_open_1", 3L);
+        engine.load(legacyLoan);
+        engine.advance(gracePeriod + interestPeriod + 1);
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+
+        ScriptResult withLegacy = engine.closeExpiredLoans(owner, legacy + "|1");
+        ScriptResult withLive = engine.closeExpiredLoans(owner, "3|2");
+
+        assertAll(
+                () -> assertThat(withLegacy.data).extracting(e -> e.key)
+                        .contains("start_of_1").doesNotContain("start_of_" + legacy),
+                () -> assertThat(withLive.data).extracting(e -> e.key)
+                        .contains("start_of_2").doesNotContain("start_of_3"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.closeExpiredLoans(owner, "2|2")))
+                        .hasMessage("no expired loan to close"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.closeExpiredLoans(owner, "1|2|3")))
+                        .hasMessage("at most 2 loans per invocation"),
+                () -> assertThat(engine.get("start_of_" + legacy)).isEqualTo(90L),
+                () -> assertThat(engine.get("start_of_3")).isEqualTo(110L),
+                () -> assertThat(engine.get("cohort_open_1")).isEqualTo(2L),
+                () -> assertThat(engine.get("cohort_unclaimed_1")).isEqualTo(tokens(2 * 4995)),
+                () -> assertThat(engine.get("unclaimied_for_" + owner)).isEqualTo(tokens(20))
+        );
+    }
+
+    @Test
+    void closeExpiredLoansClosesEachLoanOnceInIdOrder() {
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.borrow(bob, Payment.waves(tokens(10000)));
+        engine.advance(gracePeriod + interestPeriod + 1);
+
+        ScriptResult outOfOrder = engine.closeExpiredLoans(owner, "2|1");
+        ScriptResult duplicate = engine.closeExpiredLoans(owner, "1|1");
+
+        assertAll(
+                () -> assertThat(outOfOrder.data).extracting(e -> e.key)
+                        .contains("start_of_2").doesNotContain("start_of_1"),
+                () -> assertThat(outOfOrder.data).contains(Entry.integer("cohort_open_1", 1)),
+                () -> assertThat(duplicate.data).filteredOn(e -> e.key.equals("start_of_1")).hasSize(1),
+                () -> assertThat(duplicate.data).contains(Entry.integer("cohort_open_1", 0)),
+                () -> assertThat(engine.get("cohort_loss_1")).isEqualTo(tokens(0.8))
+        );
+    }
+
+    @Test
+    void newLenderTakesTheFirstFreeSlot() {
+        engine.withdrawBtc(ivanov);
+        ScriptResult result = engine.depositBtc(bob, Payment.of(tokens(10), btcId));
+
+        assertAll(
+                () -> assertThat(result.data).containsExactly(
+                        Entry.integer("curculating_assets_of_" + bob, tokens(10)),
+                        Entry.integer("slot_of_" + bob, 0),
+                        Entry.string("lender_addresses", bob + masha),
+                        Entry.string("lender_flags", "11"),
+                        Entry.string("enabled_lender_flags", "11"),
+                        Entry.string("cohort_flags_1", "11"),
+                        Entry.integer("settled_cohort_of_" + bob, 1),
+                        Entry.integer("settled_profit_1_" + bob, 0),
+                        Entry.integer("settled_unclaimed_1_" + bob, 0),
+                        Entry.integer("settled_loss_1_" + bob, 0)),
+                () -> assertThat(engine.borrow(alice, Payment.waves(tokens(100))).data).endsWith(
+                        Entry.integer("cohort_of_1", 1),
+                        Entry.integer("cohort_open_1", 1)),
+                () -> assertThat(engine.get("slot_of_" + ivanov)).isEqualTo(-1L),
+                () -> assertThat(engine.depositBtc(ivanov, Payment.of(tokens(10), btcId)).data).contains(
+                        Entry.integer("slot_of_" + ivanov, 2),
+                        Entry.string("lender_addresses", bob + masha + ivanov),
+                        Entry.integer("cohort_count", 2),
+                        Entry.string("cohort_flags_2", "111"))
+        );
+    }
+
+    @Test
+    void disabledLenderDoesNotParticipateInNewLoans() {
+        engine.enableLending(ivanov, false);
+        ScriptResult result = engine.borrow(alice, Payment.waves(tokens(10000)));
+
+        assertAll(
+                () -> assertThat(result.data).contains(
+                        Entry.string("lender_flags_of_1", "01"),
+                        Entry.integer("cohort_of_1", 1)),
+                () -> assertThat(engine.get("cohort_flags_1")).isEqualTo("01"),
+                () -> assertThat(engine.get("cohort_count")).isEqualTo(1L),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.enableLending(ivanov, false)))
+                        .hasMessage("is already disabled lender"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.enableLending(alice, true)))
+                        .hasMessage("is not lender")
+        );
+    }
+
+    @Test
+    void failsToBorrowIfRateIsSuspicious() {
+        engine.postOracle(oracle, 50001);
+
+        assertThat(assertThrows(ScriptError.class, () -> engine.borrow(alice, Payment.waves(tokens(2000)))))
+                .hasMessage("Suspicious rate value: actual: 50001, max: 50000");
+        assertThat(engine.get("start_of_1")).isNull();
+    }
+
+    @Test
+    void adminCanPauseLoansAndDeposits() {
+        engine.enableNewLoans(owner, false);
+        engine.enableDepositBtc(owner, false);
+
+        assertAll(
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.borrow(alice, Payment.waves(tokens(1)))))
+                        .hasMessage("New loans temporarily disabled"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.depositBtc(bob, Payment.of(tokens(10), btcId))))
+                        .hasMessage("New deposits temporarily disabled"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.enableNewLoans(owner, false)))
+                        .hasMessage("the value already set"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.enableNewLoans(alice, true)))
+                        .hasMessage("admin permissions required")
+        );
+    }
+
+    @Test
+    void manyLifecyclesLeaveNoOpenLends() {
+        for (int i = 0; i < 10_000; i++) {
+            String loan = String.valueOf(i + 1);
+            engine.borrow(alice, Payment.waves(tokens(100)));
+            engine.advance(gracePeriod + i % (interestPeriod + 2));
+            if (engine.height() < (long) engine.get("end_of_interest_of_" + loan))
+                engine.buyBack(alice, loan, Payment.of(tokens(1), btcId));
+            else
+                engine.discard(alice, loan);
+        }
+
+        assertThat(engine.get("cohort_open_1")).isEqualTo(0L);
+        assertThat(engine.get("cohort_count")).isEqualTo(1L);
+        assertThat(engine.withdrawBtc(ivanov).data).contains(Entry.integer("slot_of_" + ivanov, -1));
+    }
+
+    @Test
+    void lendersSettleTheSharesOfTheirCohortsOnce() {
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.enableLending(masha, false);
+        engine.borrow(bob, Payment.waves(tokens(10000)));
+        engine.advance(gracePeriod + interestPeriod + 1);
+        ScriptResult closing = engine.closeExpiredFor(alice, "2");
+        engine.closeExpiredFor(alice, "1");
+
+        assertAll(
+                () -> assertThat(closing.data).hasSize(9 + 2 + 3),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.closeExpiredFor(alice, "1")))
+                        .hasMessage("the loan is already closed"),
+                () -> assertThat(engine.get("cohort_flags_2")).isEqualTo("10"),
+                () -> assertThat(engine.get("unclaimied_for_" + ivanov)).isNull(),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.withdrawBtc(ivanov)))
+                        .hasMessage("cohort 1 is not settled, invoke settle first"),
+                () -> assertThat(engine.settle(ivanov, ivanov, 1).data).containsExactly(
+                        Entry.integer("profit_for_" + ivanov, 0),
+                        Entry.integer("unclaimied_for_" + ivanov, tokens(9990)),
+                        Entry.integer("curculating_assets_of_" + ivanov, tokens(10) - tokens(0.8)),
+                        Entry.integer("settled_cohort_of_" + ivanov, 2)),
+                () -> assertThat(engine.settle(ivanov, ivanov, 2).data).containsExactly(
+                        Entry.integer("profit_for_" + ivanov, 0),
+                        Entry.integer("unclaimied_for_" + ivanov, tokens(9990)),
+                        Entry.integer("curculating_assets_of_" + ivanov, tokens(10) - tokens(0.8)),
+                        Entry.integer("settled_profit_2_" + ivanov, 0),
+                        Entry.integer("settled_unclaimed_2_" + ivanov, 0),
+                        Entry.integer("settled_loss_2_" + ivanov, 0)),
+                () -> assertThat(engine.closeExpiredFor(alice, "3").data).contains(
+                        Entry.integer("cohort_unclaimed_2", tokens(9990))),
+                () -> assertThat(engine.settle(ivanov, ivanov, 2).data).startsWith(
+                        Entry.integer("profit_for_" + ivanov, 0),
+                        Entry.integer("unclaimied_for_" + ivanov, tokens(9990 + 9990))),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.settle(ivanov, ivanov, 1)))
+                        .hasMessage("cohort 1 is settled"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.settle(ivanov, ivanov, 3)))
+                        .hasMessage("no cohort 3"),
+                () -> assertThat(engine.takeProfit(ivanov).transfers).containsExactly(
+                        new Transfer(ivanov, 0, btcId), new Transfer(ivanov, tokens(9990 + 9990), null)),
+                () -> assertThat(engine.get("curculating_assets_of_" + ivanov))
+                        .isEqualTo(tokens(10) - tokens(0.8) - tokens(0.8)),
+                () -> assertThat(engine.takeProfit(ivanov).transfers).containsExactly(
+                        new Transfer(ivanov, 0, btcId), new Transfer(ivanov, 0, null)),
+                () -> assertThat(engine.settle(masha, masha, 1).data).endsWith(
+                        Entry.integer("settled_cohort_of_" + masha, 2)),
+                () -> assertThat(assertThrows(ScriptError.class, () -> engine.settle(masha, masha, 3)))
+                        .hasMessage("no cohort 3"),
+                () -> assertThat(engine.settle(masha, masha, 2).data).containsExactly(
+                        Entry.integer("settled_cohort_of_" + masha, 3)),
+                () -> assertThat(engine.takeProfit(masha).transfers).containsExactly(
+                        new Transfer(masha, 0, btcId), new Transfer(masha, tokens(9990), null)),
+                () -> assertThat(engine.get("settled_cohort_of_" + masha)).isEqualTo(3L)
+        );
+    }
+
+    @Test
+    void lendersJoinAndLeaveTheLastCohortInPlaceWhileItHasNoOpenLoans() {
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.advance(gracePeriod + interestPeriod + 1);
+        engine.closeExpiredFor(bob, "1");
+        ScriptResult left = engine.enableLending(ivanov, false);
+        ScriptResult joined = engine.enableLending(ivanov, true);
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        ScriptResult leftWithOpenLoans = engine.enableLending(masha, false);
+
+        assertAll(
+                () -> assertThat(left.data).containsExactly(
+                        Entry.string("enabled_lender_flags", "01"),
+                        Entry.string("cohort_flags_1", "01"),
+                        Entry.integer("profit_for_" + ivanov, 0),
+                        Entry.integer("unclaimied_for_" + ivanov, tokens(4995)),
+                        Entry.integer("curculating_assets_of_" + ivanov, tokens(10) - tokens(0.4))),
+                () -> assertThat(joined.data).containsExactly(
+                        Entry.string("enabled_lender_flags", "11"),
+                        Entry.string("cohort_flags_1", "11"),
+                        Entry.integer("settled_cohort_of_" + ivanov, 1),
+                        Entry.integer("settled_profit_1_" + ivanov, 0),
+                        Entry.integer("settled_unclaimed_1_" + ivanov, tokens(4995)),
+                        Entry.integer("settled_loss_1_" + ivanov, tokens(0.4))),
+                () -> assertThat(engine.get("cohort_of_2")).isEqualTo(1L),
+                () -> assertThat(leftWithOpenLoans.data).containsExactly(Entry.string("enabled_lender_flags", "10")),
+                () -> assertThat(engine.settle(masha, masha, 1).data).startsWith(
+                        Entry.integer("profit_for_" + masha, 0),
+                        Entry.integer("unclaimied_for_" + masha, tokens(4995))),
+                () -> assertThat(engine.settle(ivanov, ivanov, 1).data).startsWith(
+                        Entry.integer("profit_for_" + ivanov, 0),
+                        Entry.integer("unclaimied_for_" + ivanov, tokens(4995))),
+                () -> assertThat(engine.borrow(alice, Payment.waves(tokens(10000))).data).contains(
+                        Entry.integer("cohort_count", 2),
+                        Entry.string("cohort_flags_2", "10"))
+        );
+    }
+
+}
@@ -0,0 +1,92 @@
+package pawnshop;
+
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+import pawnshop.ride.RideScript;
+
+import static paddle.util.Token.tokens;
+
+/**
+ * The dApp deployed with the parameters most tests share, either on a {@link LocalNode} or in a
+ * {@link PawnshopEngine}: oracle rate 10000, max rate 50000, discount 80, periods 5, 4 and 10, service fee 10 and
+ * lend size 10. Every lender deposits 10 BTC.
+ */
+public class Pawnshops {
+
+    public static final String ORACLE_RATE_KEY = "waves_btc_8";
+
+    public static Setup with() {
+        return new Setup();
+    }
+
+    public static Local localDeployed(LocalNode node) {
+        return with().localDeployed(node);
+    }
+
+    public static PawnshopEngine engineWithLenders(String dApp, String owner, String btcId, String oracle,
+                                                   String... lenders) {
+        return with().engineWithLenders(dApp, owner, btcId, oracle, lenders);
+    }
+
+    public static class Setup {
+        long gracePeriod = 5, interestPeriod = 4, burndownPeriod = 10;
+        long serviceFee = 10;
+
+        public Setup periods(long grace, long interest, long burndown) {
+            this.gracePeriod = grace;
+            this.interestPeriod = interest;
+            this.burndownPeriod = burndown;
+            return this;
+        }
+        public Setup serviceFee(long serviceFee) { this.serviceFee = serviceFee; return this; }
+
+        /**
+         * Creates the oracle, owner and dApp accounts on the node, sets the script and calls {@code init}.
+         */
+        public Local localDeployed(LocalNode node) {
+            return new Local(node, this);
+        }
+
+        /**
+         * An engine at height 100 after {@code init} and a deposit of each lender, in order.
+         */
+        public PawnshopEngine engineWithLenders(String dApp, String owner, String btcId, String oracle,
+                                                String... lenders) {
+            PawnshopEngine engine = new PawnshopEngine(dApp, 100).postOracle(oracle, 10000);
+            engine.init(dApp, owner, btcId, oracle, 50000, 80, gracePeriod, interestPeriod, burndownPeriod,
+                    serviceFee, 10);
+            for (String lender : lenders)
+                engine.depositBtc(lender, Payment.of(tokens(10), btcId));
+            return engine;
+        }
+    }
+
+    public static class Local {
+        public final LocalNode node;
+        public final LocalAccount oracle, owner, dApp;
+        public final String btcId;
+
+        private Local(LocalNode node, Setup setup) {
+            this.node = node;
+            oracle = node.createAccount(tokens(1));
+            owner = node.createAccount(tokens(1));
+            dApp = node.createAccount(tokens(5));
+            oracle.writes(d -> d.integer(ORACLE_RATE_KEY, 10000));
+            btcId = dApp.issues(tokens(1000));
+            dApp.setsScript(RideScript.fromFile("ride/pawnshop_wbtc.ride"));
+            dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(), 50000, 80,
+                    setup.gracePeriod, setup.interestPeriod, setup.burndownPeriod, setup.serviceFee, 10));
+        }
+
+        /**
+         * Creates an account with 1 WAVES that deposits 10 BTC sent by the dApp.
+         */
+        public LocalAccount lender() {
+            LocalAccount lender = node.createAccount(tokens(1));
+            dApp.transfers(lender, tokens(10), btcId);
+            lender.invokes(r -> r.dApp(dApp).function("depositBtc").payment(tokens(10), btcId));
+            return lender;
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package pawnshop.backtest;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Address;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static pawnshop.PawnshopEngine.fraction;
+import static paddle.util.Token.tokens;
+
+class ParameterSweepTest {
+
+    private final String ivanov = Address.of("ivanov", 'W');
+    private final String masha = Address.of("masha", 'W');
+    private final String alice = Address.of("alice", 'W');
+    private final String bob = Address.of("bob", 'W');
+
+    private final List<HistoryEvent> history = Arrays.asList(
+            HistoryEvent.oracle(100, 10000),
+            HistoryEvent.deposit(100, ivanov),
+            HistoryEvent.deposit(100, masha),
+            HistoryEvent.borrow(101, alice, "1", tokens(10000)),
+            HistoryEvent.borrow(101, bob, "2", tokens(5000)),
+            HistoryEvent.borrow(102, alice, "3", tokens(1)),
+            HistoryEvent.oracle(103, 12000),
+            HistoryEvent.buyBack(108, alice, "1"),
+            HistoryEvent.discard(109, bob, "2"),
+            HistoryEvent.closeExpired(112, "3"));
+
+    @Test
+    void replaysTheRecordedChoicesUnderEachCombination() throws Exception {
+        StringWriter ndjson = new StringWriter();
+        History.write(ndjson, history);
+        List<HistoryEvent> read = History.read(new BufferedReader(new StringReader(ndjson.toString())));
+        List<BacktestParams> grid = BacktestParams.grid(new long[]{80, 50}, new long[]{5}, new long[]{4, 10},
+                new long[]{7}, new long[]{10}, new long[]{10, 20});
+        Backtest backtest = new Backtest(read, 50000);
+
+        List<Backtest.Result> results = new ParameterSweep(backtest, 4).run(grid);
+        Backtest.Result base = results.get(0);
+        List<Backtest.Result> sequential = new ArrayList<>();
+        for (BacktestParams params : grid)
+            sequential.add(backtest.replay(params));
+        long lend1 = tokens(0.8), lend2 = tokens(0.4);
+        long profit = fraction(lend1, 2, 7);
+
+        assertAll(
+                () -> assertThat(read).extracting(HistoryEvent::toJson)
+                        .containsExactlyElementsOf(() -> history.stream().map(HistoryEvent::toJson).iterator()),
+                () -> assertThat(grid).hasSize(4),
+                () -> assertThat(results).extracting(r -> r.params).containsExactlyElementsOf(grid),
+                () -> assertThat(results).extracting(Backtest.Result::toString)
+                        .containsExactlyElementsOf(() -> sequential.stream().map(Object::toString).iterator()),
+                () -> assertThat(base.borrows).isEqualTo(3),
+                () -> assertThat(base.boughtBack).isEqualTo(1),
+                () -> assertThat(base.discarded).isEqualTo(1),
+                () -> assertThat(base.expired).isEqualTo(1),
+                () -> assertThat(base.open).isZero(),
+                () -> assertThat(base.deposited).isEqualTo(tokens(20)),
+                () -> assertThat(base.ownerFeeBtc).isEqualTo(fraction(profit, 10, 100)),
+                () -> assertThat(base.lenderProfit).isEqualTo(profit - fraction(profit, 10, 100)),
+                () -> assertThat(base.lenderLoss).isEqualTo(lend2 + tokens(0.00008)),
+                () -> assertThat(base.liquidatedWaves).isEqualTo(tokens(5001)),
+                () -> assertThat(base.ownerFeeWaves).isEqualTo(fraction(tokens(5000), 10, 10000)
+                        + fraction(tokens(1), 10, 10000)),
+                () -> assertThat(base.lenderWaves).isEqualTo(tokens(5001) - base.ownerFeeWaves),
+                () -> assertThat(results.get(1).deposited).isEqualTo(tokens(40)),
+                () -> assertThat(results.get(1).lenderYield()).isLessThan(base.lenderYield()),
+                () -> assertThat(results.get(2).lent).isEqualTo(base.lent * 50 / 80)
+        );
+    }
+
+    @Test
+    void aBuyBackAfterTheReplayedInterestExpiresTheLoan() {
+        List<HistoryEvent> late = Arrays.asList(
+                HistoryEvent.oracle(100, 10000),
+                HistoryEvent.deposit(100, ivanov),
+                HistoryEvent.borrow(100, alice, "7", tokens(100)),
+                HistoryEvent.buyBack(110, alice, "7"));
+        Backtest backtest = new Backtest(late, 50000);
+
+        Backtest.Result shortInterest = backtest.replay(new BacktestParams(80, 5, 4, 7, 10, 10));
+        Backtest.Result longInterest = backtest.replay(new BacktestParams(80, 5, 7, 7, 10, 10));
+        Backtest.Result noLoan = new Backtest(late, 5000).replay(new BacktestParams(80, 5, 7, 7, 10, 10));
+
+        assertAll(
+                () -> assertThat(shortInterest.boughtBack).isZero(),
+                () -> assertThat(shortInterest.expired).isEqualTo(1),
+                () -> assertThat(shortInterest.lenderLoss).isEqualTo(tokens(0.008)),
+                () -> assertThat(shortInterest.lenderWavesInBtc)
+                        .isEqualTo(fraction(tokens(100) - fraction(tokens(100), 10, 10000), 10000, tokens(1))),
+                () -> assertThat(longInterest.boughtBack).isEqualTo(1),
+                () -> assertThat(longInterest.expired).isZero(),
+                () -> assertThat(longInterest.lenderProfit).isPositive(),
+                () -> assertThat(noLoan.rejectedBorrows).isEqualTo(1),
+                () -> assertThat(noLoan.boughtBack).isZero()
+        );
+    }
+
+}
@@ -0,0 +1,69 @@
+package pawnshop.client;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Keys;
+import pawnshop.Pawnshops;
+import pawnshop.ScriptError;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class PawnshopClientTest {
+
+    @Test
+    void confirmsPipelinedInvocationsOncePerBlock() throws InterruptedException {
+        LocalNode node = new LocalNode();
+        Pawnshops.Local pawnshop = Pawnshops.localDeployed(node);
+        LocalAccount dApp = pawnshop.dApp;
+        String btcId = pawnshop.btcId;
+        pawnshop.lender();
+        List<String> borrowers = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+            borrowers.add(node.createAccount(tokens(2)).address());
+
+        List<CompletableFuture<Outcome>> closings = new ArrayList<>();
+        CompletableFuture<Outcome> rejected;
+        int start = node.height();
+        try (PawnshopClient client = new PawnshopClient(new LocalTransport(node), dApp.address(), btcId, 8, 1, 20)) {
+            for (int i = 0; i < borrowers.size(); i++) {
+                String borrower = borrowers.get(i);
+                boolean buysBack = i % 2 == 0;
+                closings.add(client.borrow(borrower, tokens(1)).thenCompose(borrowed -> buysBack
+                        ? client.buyBack(borrower, borrowed.loan().id, borrowed.loan().lend)
+                        : client.discard(borrower, borrowed.loan().id)));
+            }
+            rejected = client.discard(borrowers.get(0), "999");
+            CompletableFuture<Void> all = CompletableFuture.allOf(closings.toArray(new CompletableFuture<?>[0]));
+            for (long deadline = System.currentTimeMillis() + 10_000;
+                 !all.isDone() && System.currentTimeMillis() < deadline; ) {
+                Thread.sleep(50);
+                node.mine(1);
+            }
+            assertThat(all).isCompleted();
+            int mined = node.height() - start;
+            assertAll(
+                    () -> assertThat(client.pending()).isZero(),
+                    () -> assertThat(client.confirmationRequests()).isLessThanOrEqualTo(mined)
+            );
+        }
+
+        assertAll(
+                () -> assertThat(closings).allSatisfy(f -> assertThat(f.join().loan().isOpen()).isFalse()),
+                () -> assertThat(closings).extracting(f -> f.join().loan().id).doesNotHaveDuplicates(),
+                () -> assertThat(node.data(dApp.address(), Keys.LOAN_COUNT)).isEqualTo(30L),
+                () -> assertThat(node.data(dApp.address(), Keys.cohortOpen(1))).isEqualTo(0L),
+                () -> assertThat(assertThrows(CompletionException.class, rejected::join))
+                        .hasCauseInstanceOf(ScriptError.class)
+        );
+    }
+
+}
@@ -0,0 +1,62 @@
+package pawnshop.complexity;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.complexity.ComplexityProfiler.Report;
+import pawnshop.ride.RideScript;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static pawnshop.complexity.ComplexityProfiler.*;
+
+class ComplexityProfilerTest {
+
+    @Test
+    void pathsDoNotGrowWithLendersAndEveryCallableFitsTheLimit() {
+        Report report = new ComplexityProfiler(RideScript.fromFile("ride/pawnshop_wbtc.ride")).profile(20);
+
+        // the first lender opens the cohort the others join with checkpoints, and the last one toggles lending and
+        // has its shares credited, so the paths reading those keys settle one lender later
+        assertAll(
+                () -> assertThat(report.estimates).allSatisfy((callable, estimate) ->
+                        assertThat(estimate).as(callable).isLessThanOrEqualTo(RideScript.MAX_CALLABLE_COMPLEXITY)),
+                () -> assertThat(steps(report.paths.get(BORROW), 2, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(BUY_BACK_WITH_INTEREST), 2, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(CLOSE_EXPIRED_FOR), 2, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(CLOSE_EXPIRED_LOANS), 2, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(DISCARD), 2, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(WITHDRAW_BTC), 2, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(DISABLE_LENDING), 3, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(DEPOSIT_BTC), 3, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(TAKE_PROFIT), 3, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(SETTLE), 3, 20)).containsOnly(0L),
+                () -> assertThat(steps(report.paths.get(SEND_PROFITS), PAYEES + 3, 20)).containsOnly(0L),
+                () -> assertThat(report.paths.get(UPDATE_PARAMS).values()).containsOnly(report.estimates.get("updateParams")),
+                () -> assertThat(report.paths.get(CLOSE_EXPIRED_FOR)).containsKey(0),
+                () -> assertThat(report.maxLenders(BORROW)).isEqualTo(20),
+                () -> assertThat(report.max(SETTLE)).isLessThanOrEqualTo(report.estimates.get("settle")),
+                () -> assertThat(report.max(WITHDRAW_BTC)).isLessThanOrEqualTo(report.estimates.get("withdrawBtc")),
+                () -> assertThat(report.max(BUY_BACK_WITH_INTEREST)).isLessThanOrEqualTo(report.estimates.get("buyBack")),
+                () -> assertThat(report.max(CLOSE_EXPIRED_FOR)).isLessThanOrEqualTo(report.estimates.get("closeExpiredFor")),
+                () -> assertThat(report.max(CLOSE_EXPIRED_LOANS)).isLessThanOrEqualTo(report.estimates.get("closeExpiredLoans")),
+                () -> assertThat(report.max(SEND_PROFITS)).isLessThanOrEqualTo(report.estimates.get("sendProfits")),
+                () -> assertThat(report.max(DISCARD)).isLessThanOrEqualTo(report.estimates.get("discard")),
+                () -> assertThat(report.max(BORROW)).isLessThanOrEqualTo(report.estimates.get("borrow")),
+                () -> assertThat(report.nodeEstimates).isFalse(),
+                () -> assertThat(report.toString()).contains("static estimate, " + APPROXIMATE)
+        );
+    }
+
+    private static List<Long> steps(Map<Integer, Long> complexity, int from, int to) {
+        List<Long> steps = new ArrayList<>();
+        for (int n = from; n <= to; n++) {
+            long step = complexity.get(n) - complexity.get(n - 1);
+            if (!steps.contains(step)) steps.add(step);
+        }
+        return steps;
+    }
+
+}
@@ -0,0 +1,74 @@
+package pawnshop.fuzz;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.fuzz.DifferentialFuzzer.Report;
+import pawnshop.ride.RideScript;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static pawnshop.fuzz.Op.Kind.*;
+
+class DifferentialFuzzerTest {
+
+    @Test
+    void scriptAndEngineAgreeOnRandomSequences() {
+        Report report = new DifferentialFuzzer(RideScript.fromFile("ride/pawnshop_wbtc.ride"),
+                DifferentialFuzzer.config().sequences(300).length(40).seed(1).threads(4)).run();
+
+        assertAll(
+                () -> assertThat(report.failures).as(report.toString()).isEmpty(),
+                () -> assertThat(report.accepted).containsKeys(INIT, BORROW, BUY_BACK, DISCARD, CLOSE_EXPIRED_FOR,
+                        DEPOSIT_BTC, ENABLE_LENDING, WITHDRAW_BTC, TAKE_PROFIT, SETTLE, UPDATE_PARAMS),
+                () -> assertThat(report.rejected).isPositive()
+        );
+    }
+
+    @Test
+    void replaysASampleOfTheSequencesOnTheGivenChains() {
+        RideScript script = RideScript.fromFile("ride/pawnshop_wbtc.ride");
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(script,
+                DifferentialFuzzer.config().sequences(300).length(40).seed(1).threads(2));
+        List<Integer> deployed = new ArrayList<>();
+
+        Report report = fuzzer.replay(participants -> {
+            synchronized (deployed) {
+                deployed.add(participants);
+            }
+            return new DifferentialRunner.LocalChain(script, participants);
+        }, 5);
+
+        assertAll(
+                () -> assertThat(report.sequences).isEqualTo(5),
+                () -> assertThat(report.failures).as(report.toString()).isEmpty(),
+                () -> assertThat(deployed).containsOnly(6).hasSize(5),
+                () -> assertThat(report.accepted).containsKeys(INIT, BORROW)
+        );
+    }
+
+    @Test
+    void shrinksToTheStepsThatFail() {
+        List<Op> sequence = new OpGenerator(7, 4).sequence(60);
+        Op borrow = new Op(BORROW, 5, 9, 0, 123_456_789, false, null);
+        Op buyBack = new Op(BUY_BACK, 3, 9, 0, 999, true, null);
+        sequence.add(20, borrow);
+        sequence.add(45, buyBack);
+
+        Shrinker shrinker = new Shrinker(ops -> {
+            int borrowed = -1;
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                if (op.kind == BORROW && op.actor == 9 && op.amount > 1000) borrowed = i;
+                if (op.kind == BUY_BACK && op.actor == 9 && op.amount > 0 && borrowed >= 0) return true;
+            }
+            return false;
+        });
+
+        assertThat(shrinker.shrink(sequence)).containsExactly(
+                new Op(BORROW, 0, 9, 0, 1883, false, null),
+                new Op(BUY_BACK, 0, 9, 0, 1, false, null));
+    }
+
+}
@@ -0,0 +1,153 @@
+package pawnshop.keeper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pawnshop.Pawnshops;
+import pawnshop.ScriptError;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+import pawnshop.state.OpenLoanIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class LiquidationKeeperTest {
+
+    private final int gracePeriod = 5;
+    private final int interestPeriod = 4;
+
+    private LocalNode node;
+    private LocalAccount dApp, keeper;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+    private LiquidationKeeper liquidationKeeper;
+
+    @BeforeEach
+    void before() {
+        node = new LocalNode();
+        Pawnshops.Local pawnshop = Pawnshops.with().periods(gracePeriod, interestPeriod, 10).localDeployed(node);
+        dApp = pawnshop.dApp;
+        pawnshop.lender();
+        keeper = node.createAccount(tokens(10));
+
+        for (int i = 0; i < 40; i++) {
+            node.createAccount(tokens(1)).invokes(r -> r.dApp(dApp).function("borrow").wavesPayment(tokens(0.5)));
+        }
+    }
+
+    @AfterEach
+    void after() {
+        liquidationKeeper.close();
+    }
+
+    private LiquidationKeeper keeper(Consumer<String> closeExpiredFor) {
+        return keeper(closeExpiredFor, 1);
+    }
+
+    private LiquidationKeeper keeper(Consumer<String> closeExpiredFor, int batchSize) {
+        Liquidator liquidator = new Liquidator() {
+            @Override
+            public void closeExpiredFor(String loan) {
+                closeExpiredFor.accept(loan);
+            }
+
+            @Override
+            public void closeExpiredLoans(List<String> loans) {
+                batches.add(loans);
+                keeper.invokes(i -> i.dApp(dApp).function("closeExpiredLoans", String.join("|", loans)));
+            }
+        };
+        OpenLoanIndex index = OpenLoanIndex.load(node.data(dApp.address()), node.height());
+        liquidationKeeper = new LiquidationKeeper(node, dApp.address(), index, liquidator, 8, 3, 1, batchSize);
+        return liquidationKeeper;
+    }
+
+    private void close(String renter) {
+        calls.computeIfAbsent(renter, r -> new AtomicInteger()).incrementAndGet();
+        keeper.invokes(i -> i.dApp(dApp).function("closeExpiredFor", renter));
+    }
+
+    @Test
+    void closesEveryExpiredLoanOnce() throws InterruptedException {
+        LiquidationKeeper k = keeper(this::close);
+
+        node.waitForHeight(node.height() + gracePeriod + interestPeriod);
+        assertThat(k.tick()).isZero();
+
+        node.mine(1);
+        assertThat(k.tick()).isEqualTo(40);
+        assertThat(k.tick()).isZero();
+        k.awaitIdle();
+        node.mine(1);
+
+        assertAll(
+                () -> assertThat(k.tick()).isZero(),
+                () -> assertThat(k.liquidated()).isEqualTo(40),
+                () -> assertThat(calls).hasSize(40).allSatisfy((r, n) -> assertThat(n.get()).isEqualTo(1)),
+                () -> assertThat(node.data(dApp.address(), "cohort_open_1")).isEqualTo(0L),
+                () -> assertThat(node.data(dApp.address()))
+                        .containsEntry("cohort_unclaimed_1", tokens(40 * 0.5 * 0.999))
+        );
+    }
+
+    @Test
+    void closesExpiredLoansInBatches() throws InterruptedException {
+        LiquidationKeeper k = keeper(this::close, LiquidationKeeper.MAX_BATCH_SIZE);
+
+        node.waitForHeight(node.height() + gracePeriod + interestPeriod + 1);
+        assertThat(k.tick()).isEqualTo(20);
+        k.awaitIdle();
+
+        assertAll(
+                () -> assertThat(batches).hasSize(20).allSatisfy(batch -> assertThat(batch)
+                        .hasSize(2).isSortedAccordingTo(Comparator.comparingLong(Long::parseLong))),
+                () -> assertThat(calls).isEmpty(),
+                () -> assertThat(k.liquidated()).isEqualTo(40),
+                () -> assertThat(k.failed()).isZero(),
+                () -> assertThat(OpenLoanIndex.load(node.data(dApp.address()), node.height()).size()).isZero(),
+                () -> assertThat(node.data(dApp.address(), "cohort_open_1")).isEqualTo(0L),
+                () -> assertThat(node.data(dApp.address()))
+                        .containsEntry("cohort_unclaimed_1", tokens(40 * 0.5 * 0.999)),
+                () -> assertThat(assertThrows(ScriptError.class, () -> keeper.invokes(i -> i.dApp(dApp)
+                        .function("closeExpiredLoans", "1|41"))))
+                        .hasMessageContaining("no expired loan to close"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> keeper.invokes(i -> i.dApp(dApp)
+                        .function("closeExpiredLoans", "1|2|3"))))
+                        .hasMessageContaining("at most 2 loans per invocation")
+        );
+    }
+
+    @Test
+    void retriesFailedSubmissions() throws InterruptedException {
+        Map<String, Boolean> failedOnce = new ConcurrentHashMap<>();
+        LiquidationKeeper k = keeper(renter -> {
+            if (failedOnce.putIfAbsent(renter, true) == null)
+                throw new IllegalStateException("connection reset");
+            close(renter);
+        });
+
+        node.waitForHeight(node.height() + gracePeriod + interestPeriod + 1);
+        k.tick();
+        k.awaitIdle();
+
+        assertAll(
+                () -> assertThat(k.retries()).isEqualTo(40),
+                () -> assertThat(k.liquidated()).isEqualTo(40),
+                () -> assertThat(k.failed()).isZero(),
+                () -> assertThat(OpenLoanIndex.load(node.data(dApp.address()), node.height()).size()).isZero()
+        );
+    }
+
+}
@@ -0,0 +1,134 @@
+package pawnshop.load;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.node.Actor;
+import pawnshop.node.LocalNetwork;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+import pawnshop.ride.RideScript;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static paddle.util.Token.tokens;
+
+class LoadGeneratorTest {
+
+    @Test
+    void drivesBorrowersThroughLoanCycles() throws InterruptedException {
+        LocalNode node = new LocalNode();
+        LocalAccount oracle = node.createAccount(tokens(10));
+        LocalAccount owner = node.createAccount(tokens(1));
+        LocalAccount dApp = node.createAccount(tokens(10));
+        oracle.writes(d -> d.integer("waves_btc_8", 10000));
+        String btcId = dApp.issues(tokens(1000));
+        dApp.setsScript(RideScript.fromFile("ride/pawnshop_wbtc.ride"));
+        dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(), 50000, 80, 2, 2, 4, 10, 10));
+        LocalAccount treasury = node.createAccount(tokens(10));
+        dApp.transfers(treasury, tokens(500), btcId);
+
+        ScheduledExecutorService miner = Executors.newSingleThreadScheduledExecutor();
+        miner.scheduleAtFixedRate(() -> node.mine(1), 10, 10, TimeUnit.MILLISECONDS);
+        LoadReport report;
+        try {
+            report = new LoadGenerator(new LocalNetwork(node), dApp.address(), btcId,
+                    LocalNetwork.actor(treasury), LocalNetwork.actor(oracle), new LoadGenerator.Config()
+                    .borrowers(20).invocationsPerSecond(2000).durationMillis(500).maxHoldMillis(60)
+                    .lenders(3).oracle(10000, 0.05, 20).lenderChurnMillis(30)).run();
+        } finally {
+            miner.shutdownNow();
+        }
+        Map<String, Object> state = node.data(dApp.address());
+
+        assertAll(
+                () -> assertThat(report.failed()).isZero(),
+                () -> assertThat(report.stats("borrow").accepted()).isPositive(),
+                () -> assertThat(report.stats("buyBack").accepted()).isPositive(),
+                () -> assertThat(report.stats("discard").accepted()).isPositive(),
+                () -> assertThat(report.stats("oracle").accepted()).isPositive(),
+                () -> assertThat(report.stats("depositBtc").accepted()).isEqualTo(3),
+                () -> assertThat(report.throughput()).isPositive(),
+                () -> assertThat(report.rejections().keySet()).allMatch(m -> !m.contains("borrow: ")
+                        || m.contains("Suspicious") || m.contains("already has an open loan")),
+                () -> assertThat(state.keySet().stream().filter(k -> k.startsWith("cohort_open_"))
+                        .mapToLong(k -> (Long) state.get(k)).min().orElse(0)).isGreaterThanOrEqualTo(0),
+                () -> assertThat(report.toString()).contains("tx/s")
+        );
+    }
+
+    @Test
+    void countsBorrowersThatRunOutOfWaves() throws InterruptedException {
+        LocalNode node = new LocalNode();
+        LocalAccount oracle = node.createAccount(tokens(10));
+        LocalAccount owner = node.createAccount(tokens(1));
+        LocalAccount dApp = node.createAccount(tokens(10));
+        oracle.writes(d -> d.integer("waves_btc_8", 10000));
+        String btcId = dApp.issues(tokens(1000));
+        dApp.setsScript(RideScript.fromFile("ride/pawnshop_wbtc.ride"));
+        dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(), 50000, 80, 2, 2, 4, 10, 10));
+        LocalAccount treasury = node.createAccount(tokens(10));
+        dApp.transfers(treasury, tokens(100), btcId);
+
+        // enough for one borrow and its discard, every borrower discards
+        LoadReport report = new LoadGenerator(new LocalNetwork(node), dApp.address(), btcId,
+                LocalNetwork.actor(treasury), LocalNetwork.actor(oracle), new LoadGenerator.Config()
+                .borrowers(3).borrowWaves(tokens(1)).borrowerFunds(tokens(1.01), tokens(0.01)).buyBackShare(0)
+                .durationMillis(300).lenders(0).oracle(10000, 0, 1000)).run();
+
+        assertAll(
+                () -> assertThat(report.exhaustedBorrowers()).isEqualTo(3),
+                () -> assertThat(report.stats("borrow").accepted()).isEqualTo(3),
+                () -> assertThat(report.stats("discard").accepted()).isEqualTo(3),
+                () -> assertThat(report.toString()).contains("3 borrowers ran out of WAVES")
+        );
+    }
+
+    @Test
+    void lendersWithdrawAndDepositAgainAtTheirOwnRate() throws InterruptedException {
+        LocalNode node = new LocalNode();
+        LocalAccount oracle = node.createAccount(tokens(10));
+        LocalAccount owner = node.createAccount(tokens(1));
+        LocalAccount dApp = node.createAccount(tokens(10));
+        oracle.writes(d -> d.integer("waves_btc_8", 10000));
+        String btcId = dApp.issues(tokens(1000));
+        dApp.setsScript(RideScript.fromFile("ride/pawnshop_wbtc.ride"));
+        dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(), 50000, 80, 2, 2, 4, 10, 10));
+        LocalAccount treasury = node.createAccount(tokens(10));
+        dApp.transfers(treasury, tokens(500), btcId);
+
+        ScheduledExecutorService miner = Executors.newSingleThreadScheduledExecutor();
+        miner.scheduleAtFixedRate(() -> node.mine(1), 10, 10, TimeUnit.MILLISECONDS);
+        LoadReport report;
+        try {
+            // a single borrower at a low rate leaves the cohorts without open loans most of the time
+            report = new LoadGenerator(new LocalNetwork(node), dApp.address(), btcId,
+                    LocalNetwork.actor(treasury), LocalNetwork.actor(oracle), new LoadGenerator.Config()
+                    .borrowers(1).invocationsPerSecond(20).durationMillis(600).buyBackShare(1)
+                    .lenders(3).oracle(10000, 0, 1000).lenderChurnMillis(60_000).depositChurnMillis(20)).run();
+        } finally {
+            miner.shutdownNow();
+        }
+
+        assertAll(
+                () -> assertThat(report.failed()).isZero(),
+                () -> assertThat(report.stats("borrow").accepted()).isPositive(),
+                () -> assertThat(report.stats("withdrawBtc").accepted()).isPositive(),
+                () -> assertThat(report.stats("depositBtc").accepted()).isGreaterThan(3),
+                () -> assertThat(report.stats("enableLending").accepted()).isZero()
+        );
+    }
+
+    @Test
+    void rejectionsAreGroupedWithoutAddressesAndNumbers() {
+        assertThat(LoadGenerator.normalize("Error while executing account-script: "
+                + "3MwHAghvVSNQUvsYHsHSR4tAEYiVarQRrtG already has an open loan"))
+                .isEqualTo("<address> already has an open loan");
+        assertThat(LoadGenerator.normalize("User must return 800 satoshis, but returning 799"))
+                .isEqualTo("User must return N satoshis, but returning N");
+    }
+
+}
@@ -0,0 +1,101 @@
+package pawnshop.metrics;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Keys;
+import pawnshop.Pawnshops;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static paddle.util.Token.tokens;
+
+class PawnshopMetricsTest {
+
+    @Test
+    void followsTheBlocksToTheStateOfAFreshLoad() throws IOException {
+        LocalNode node = new LocalNode();
+        Pawnshops.Local pawnshop = Pawnshops.localDeployed(node);
+        LocalAccount oracle = pawnshop.oracle, dApp = pawnshop.dApp;
+        String btcId = pawnshop.btcId;
+        LocalAccount ivanov = pawnshop.lender();
+        LocalAccount petrov = pawnshop.lender();
+        node.mine(1);
+        PawnshopMetrics metrics = PawnshopMetrics.load(dApp.address(), node.data(dApp.address()),
+                node.data(oracle.address()), node.height());
+
+        LocalAccount sidorov = node.createAccount(tokens(500));
+        dApp.transfers(sidorov, tokens(1), btcId);
+        for (int i = 0; i < 3; i++)
+            sidorov.invokes(r -> r.dApp(dApp).function("borrow").wavesPayment(tokens(100)));
+        node.mine(3);
+        petrov.invokes(r -> r.dApp(dApp).function("enableLending", false));
+        sidorov.invokes(r -> r.dApp(dApp).function("borrow").wavesPayment(tokens(50)));
+        sidorov.invokes(r -> r.dApp(dApp).function("discard", "2"));
+        node.mine(4);
+        metrics.follow(node);
+        String inBlock = metrics.scrape();
+        metrics.follow(node);
+        String again = metrics.scrape();
+        oracle.writes(d -> d.integer("waves_btc_8", 40000));
+        metrics.follow(node);
+        Map<String, Object> data = node.data(dApp.address());
+        PawnshopMetrics fresh = PawnshopMetrics.load(dApp.address(), data, node.data(oracle.address()), node.height());
+
+        long lend = (Long) data.get(Keys.lendOf("1")) / 2 * 2;
+        long last = (Long) data.get(Keys.lendOf("4"));
+        String body;
+        try (MetricsServer server = new MetricsServer(metrics, node, 0)) {
+            body = get("http://127.0.0.1:" + server.port() + "/metrics");
+        }
+        assertAll(
+                () -> assertThat(again).isSameAs(inBlock),
+                () -> assertThat(metrics.scrape()).isNotEqualTo(inBlock).isEqualTo(fresh.scrape()),
+                () -> assertThat(body).isEqualTo(fresh.scrape()),
+                () -> assertThat(metrics.openLoans()).isEqualTo(3),
+                () -> assertThat(metrics.inInterest()).isEqualTo(2),
+                () -> assertThat(metrics.inGrace()).isEqualTo(1),
+                () -> assertThat(metrics.expired()).isZero(),
+                () -> assertThat(metrics.lent(ivanov.address())).isEqualTo(lend + last),
+                () -> assertThat(metrics.lent(petrov.address())).isEqualTo(lend),
+                () -> assertThat(metrics.utilization(petrov.address())).isCloseTo(lend / 1e9, within(1e-12)),
+                () -> assertThat(body)
+                        .contains("pawnshop_lend_outstanding " + (2 * lend + last) + "\n")
+                        .contains("pawnshop_deposit_locked " + tokens(250) + "\n")
+                        .contains("pawnshop_loans{period=\"expired\"} 0\n")
+                        .contains("pawnshop_oracle_rate 40000\n")
+                        .contains("pawnshop_oracle_rate_ratio 0.8\n")
+                        .contains("pawnshop_unclaimed_pending{account=\"" + ivanov.address() + "\"} ")
+                        .contains("pawnshop_unclaimed_pending_total " + tokens(100) + "\n")
+        );
+
+        node.mine(4);
+        metrics.follow(node);
+        assertAll(
+                () -> assertThat(metrics.expired()).isEqualTo(2),
+                () -> assertThat(metrics.closable()).isEqualTo(2),
+                () -> assertThat(metrics.inInterest()).isEqualTo(1)
+        );
+    }
+
+    private static String get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; )
+                out.write(buffer, 0, n);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package pawnshop.migrate;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Address;
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.node.LocalNetwork;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+import pawnshop.ride.RideScript;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class LenderSlotMigrationTest {
+
+    @Test
+    void openLoansKeepTheirLendersAfterMigration() {
+        LocalNode node = new LocalNode('R', 100);
+        LocalAccount oracle = node.createAccount(tokens(1));
+        LocalAccount owner = node.createAccount(tokens(1));
+        LocalAccount dApp = node.createAccount(tokens(200));
+        LocalAccount alice = node.createAccount(tokens(1));
+        LocalAccount ivanov = node.createAccount(tokens(1));
+        LocalAccount petrov = node.createAccount(tokens(1));
+        LocalAccount masha = node.createAccount(tokens(1));
+        String bob = Address.of("bob", 'R');
+        oracle.writes(d -> d.integer("waves_btc_8", 10000));
+        String btcId = dApp.issues(tokens(1000));
+        dApp.transfers(alice, tokens(1), btcId);
+        dApp.setsScript(RideScript.fromFile("ride/pawnshop_wbtc.ride"));
+        dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(), 50000, 80, 5, 4, 10, 10, 10));
+
+        String i = ivanov.address(), p = petrov.address(), m = masha.address(), a = alice.address();
+        dApp.writes(d -> d.string("lenders", i + "|" + p + "|" + m).string("enabledLenders", i + "|" + m)
+                .integer(Keys.circulatingAssetsOf(i), tokens(10)).integer(Keys.circulatingAssetsOf(p), tokens(10))
+                .integer(Keys.circulatingAssetsOf(m), tokens(10))
+                .integer("open_lends_of_" + i, 1).integer("open_lends_of_" + m, 1)
+                .integer(Keys.startOf(a), 100).integer(Keys.endOfGraceOf(a), 105).integer(Keys.endOfInterestOf(a), 109)
+                .integer(Keys.endOfBurndownOf(a), 115).integer(Keys.rateOf(a), 8000)
+                .integer(Keys.depositOf(a), tokens(100)).integer(Keys.lendOf(a), tokens(0.008))
+                .string("lenders_of_" + a, i + "|" + m)
+                .integer(Keys.startOf(bob), 0).string("lenders_of_" + bob, "")
+                .bool(Keys.ENABLE_NEW_LOANS, false).bool(Keys.ENABLE_DEPOSIT_BTC, false));
+
+        LenderSlotMigration migration = new LenderSlotMigration(node.data(dApp.address()));
+        assertThat(migration.apply(LocalNetwork.actor(dApp))).isEqualTo(1);
+
+        node.mine(7);
+        alice.invokes(r -> r.dApp(dApp).function("buyBack", a).payment(tokens(0.0096), btcId));
+        // the lenders start before the first cohort
+        petrov.invokes(r -> r.dApp(dApp).function("settle", p, 0));
+        petrov.invokes(r -> r.dApp(dApp).function("withdrawBtc"));
+        masha.invokes(r -> r.dApp(dApp).function("settle", m, 0));
+        masha.invokes(r -> r.dApp(dApp).function("settle", m, 1));
+        masha.invokes(r -> r.dApp(dApp).function("takeProfit"));
+        Map<String, Object> data = node.data(dApp.address());
+
+        assertAll(
+                () -> assertThat(data.get(Keys.LENDER_ADDRESSES)).isEqualTo(i + p + m),
+                () -> assertThat(data.get(Keys.slotOf(m))).isEqualTo(2L),
+                () -> assertThat(data.get(Keys.LENDER_FLAGS)).isEqualTo("101"),
+                () -> assertThat(data.get(Keys.ENABLED_LENDER_FLAGS)).isEqualTo("101"),
+                () -> assertThat(data.get("lenders")).isEqualTo(""),
+                () -> assertThat(data.get("lenders_of_" + a)).isEqualTo(""),
+                () -> assertThat(data.get(Keys.lenderFlagsOf(a))).isEqualTo(""),
+                () -> assertThat(data.get(Keys.renterOf(a))).isEqualTo(""),
+                () -> assertThat(data.get(Keys.cohortFlags(1))).isEqualTo("101"),
+                () -> assertThat(data.get(Keys.cohortOpen(1))).isEqualTo(0L),
+                () -> assertThat(data.get(Keys.cohortProfit(1))).isEqualTo(tokens(0.00072)),
+                () -> assertThat(data.get(Keys.profitFor(i))).isNull(),
+                () -> assertThat(data.get(Keys.profitFor(p))).isEqualTo(0L),
+                () -> assertThat(masha.balance(btcId)).isEqualTo(tokens(0.00072)),
+                () -> assertThat(data.get(Keys.settledProfit(1, m))).isEqualTo(tokens(0.00072)),
+                () -> assertThat(petrov.balance(btcId)).isEqualTo(tokens(10)),
+                () -> assertThat(new LenderSlotMigration(data).entries()).isEmpty()
+        );
+    }
+
+    @Test
+    void splitsIntoDataTransactionsWithTheLenderListsLast() {
+        String ivanov = Address.of("ivanov", 'R'), masha = Address.of("masha", 'R');
+        Map<String, Object> data = new HashMap<>();
+        data.put("lenders", ivanov + "|" + masha);
+        data.put("enabledLenders", masha);
+        for (int n = 0; n < 120; n++) {
+            String renter = Address.of("renter" + n, 'R');
+            data.put(Keys.startOf(renter), n % 2 == 0 ? 0L : 100L);
+            data.put("lenders_of_" + renter, n % 2 == 0 ? "" : n % 3 == 0 ? masha : ivanov + "|" + masha);
+        }
+        List<List<Entry>> batches = new LenderSlotMigration(data).batches();
+        List<Entry> entries = new LenderSlotMigration(data).entries();
+        String third = Address.of("renter3", 'R'), fifth = Address.of("renter5", 'R');
+
+        data.put("lenders_of_" + third, Address.of("stranger", 'R'));
+        assertAll(
+                () -> assertThat(batches).extracting(List::size).containsExactly(100, 92),
+                () -> assertThat(entries).contains(
+                        Entry.string(Keys.lenderFlagsOf(third), "01"), Entry.integer(Keys.cohortOf(third), 1),
+                        Entry.string(Keys.lenderFlagsOf(fifth), "11"), Entry.integer(Keys.cohortOf(fifth), 2),
+                        Entry.string(Keys.cohortFlags(1), "01"), Entry.integer(Keys.cohortOpen(1), 20),
+                        Entry.string(Keys.cohortFlags(2), "11"), Entry.integer(Keys.cohortOpen(2), 40),
+                        Entry.integer(Keys.COHORT_COUNT, 2)),
+                () -> assertThat(batches.get(1)).endsWith(
+                        Entry.string(Keys.LENDER_ADDRESSES, ivanov + masha),
+                        Entry.string(Keys.LENDER_FLAGS, "11"),
+                        Entry.string(Keys.ENABLED_LENDER_FLAGS, "01"),
+                        Entry.string("lenders", ""),
+                        Entry.string("enabledLenders", "")),
+                () -> assertThat(assertThrows(IllegalStateException.class, () -> new LenderSlotMigration(data).entries()))
+                        .hasMessage("Lender " + Address.of("stranger", 'R') + " does not participate"),
+                () -> assertThat(assertThrows(IllegalStateException.class,
+                        () -> new LenderSlotMigration(data).apply(null)))
+                        .hasMessage("Disable new loans and new deposits before migrating")
+        );
+    }
+
+}
@@ -0,0 +1,67 @@
+package pawnshop.node;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class AccountPoolTest {
+
+    @Test
+    void fundsHundredAccountsPerMassTransfer() {
+        LocalNode node = new LocalNode();
+        LocalNetwork network = new LocalNetwork(node);
+        LocalAccount issuer = node.createAccount(tokens(10));
+        String btcId = issuer.issues(tokens(1000));
+        long faucetBefore = network.faucet().balance(null);
+        long issuerWavesBefore = issuer.balance();
+
+        List<Actor> accounts;
+        try (AccountPool pool = new AccountPool(network)) {
+            accounts = pool.create(250, tokens(2), LocalNetwork.actor(issuer), btcId, tokens(0.5));
+        }
+
+        // two transactions for 100 recipients and one for 50, in WAVES and in BTC
+        long fees = 2 * 5_100_000 + 2_600_000;
+        assertAll(
+                () -> assertThat(accounts).hasSize(250),
+                () -> assertThat(accounts.stream().map(Actor::address).distinct()).hasSize(250),
+                () -> assertThat(accounts).allMatch(a -> a.balance(null) == tokens(2)),
+                () -> assertThat(accounts).allMatch(a -> a.balance(btcId) == tokens(0.5)),
+                () -> assertThat(network.faucet().balance(null)).isEqualTo(faucetBefore - 250 * tokens(2) - fees),
+                () -> assertThat(issuer.balance()).isEqualTo(issuerWavesBefore - fees),
+                () -> assertThat(issuer.balance(btcId)).isEqualTo(tokens(1000) - 250 * tokens(0.5))
+        );
+    }
+
+    @Test
+    void releasedAccountsAreLeasedAgain() {
+        LocalNetwork network = new LocalNetwork(new LocalNode());
+        try (AccountPool pool = new AccountPool(network)) {
+            List<Actor> accounts = pool.create(3, tokens(1));
+            assertThat(pool.leased()).isEqualTo(3);
+            assertThat(assertThrows(IllegalStateException.class, pool::lease))
+                    .hasMessage("The account pool is exhausted");
+
+            pool.release(accounts.get(1));
+            pool.release(accounts.get(2));
+            assertAll(
+                    () -> assertThat(pool.available()).isEqualTo(2),
+                    () -> assertThat(pool.lease()).isSameAs(accounts.get(1)),
+                    () -> assertThat(pool.leased()).isEqualTo(2),
+                    () -> assertThat(network.account(pool.seed(accounts.get(0))).address())
+                            .isEqualTo(accounts.get(0).address()),
+                    () -> assertThat(assertThrows(IllegalArgumentException.class,
+                            () -> pool.release(network.createAccount(tokens(1)))))
+                            .hasMessageEndingWith("is not an account of the pool")
+            );
+        }
+    }
+
+}
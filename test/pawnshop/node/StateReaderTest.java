@@ -0,0 +1,76 @@
+package pawnshop.node;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Pawnshops;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+import pawnshop.state.Loan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static paddle.util.Token.tokens;
+
+class StateReaderTest {
+
+    @Test
+    void readsManyKeysAtOnceAndKeepsThemUntilABlockWritesThem() {
+        LocalNode node = new LocalNode();
+        Pawnshops.Local pawnshop = Pawnshops.localDeployed(node);
+        LocalAccount oracle = pawnshop.oracle, owner = pawnshop.owner, dApp = pawnshop.dApp;
+        String btcId = pawnshop.btcId;
+        pawnshop.lender();
+        LocalAccount petrov = node.createAccount(tokens(500));
+        dApp.transfers(petrov, tokens(1), btcId);
+        for (int i = 0; i < 3; i++)
+            petrov.invokes(r -> r.dApp(dApp).function("borrow").wavesPayment(tokens(100)));
+        node.mine(1);
+        StateReader reader = new StateReader(new LocalNetwork(node), node);
+        List<String> ids = Arrays.asList("1", "2", "3", "4");
+
+        StateReader.Params params = reader.params(dApp.address());
+        Map<String, Loan> loans = reader.loans(dApp.address(), ids);
+        reader.params(dApp.address());
+        reader.loans(dApp.address(), ids);
+        int requests = reader.requests();
+        Object lend = node.data(dApp.address(), "lend_of_2");
+
+        petrov.invokes(r -> r.dApp(dApp).function("discard", "2"));
+        oracle.writes(d -> d.integer("waves_btc_8", 12000));
+        Long sameBlock = reader.params(dApp.address()).oracleRate;
+        node.mine(1);
+        StateReader.Params next = reader.params(dApp.address());
+        Map<String, Loan> after = reader.loans(dApp.address(), ids);
+
+        List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < 2500; i++)
+            unknown.add("unknown_" + i);
+        Map<String, Object> none = reader.read(dApp.address(), unknown);
+
+        assertAll(
+                () -> assertThat(params.owner).isEqualTo(owner.address()),
+                () -> assertThat(params.assetToken).isEqualTo(btcId),
+                () -> assertThat(params.oracle).isEqualTo(oracle.address()),
+                () -> assertThat(params.gracePeriod).isEqualTo(5),
+                () -> assertThat(params.lendSize).isEqualTo(10),
+                () -> assertThat(params.oracleRate).isEqualTo(10000),
+                () -> assertThat(loans).containsOnlyKeys("1", "2", "3"),
+                () -> assertThat(loans.get("2").renter).isEqualTo(petrov.address()),
+                () -> assertThat(loans.get("2").lenderFlags).isEqualTo("1"),
+                () -> assertThat(loans.get("2").lend).isEqualTo(lend).isPositive(),
+                () -> assertThat(requests).isEqualTo(3),
+                () -> assertThat(sameBlock).isEqualTo(10000),
+                () -> assertThat(next.oracleRate).isEqualTo(12000),
+                () -> assertThat(after.get("2").isOpen()).isFalse(),
+                () -> assertThat(after.get("3").isOpen()).isTrue(),
+                () -> assertThat(none).isEmpty(),
+                () -> assertThat(reader.requests()).isEqualTo(requests + 3),
+                () -> assertThat(reader.height()).isEqualTo(node.height())
+        );
+    }
+
+}
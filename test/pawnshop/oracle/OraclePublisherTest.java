@@ -0,0 +1,104 @@
+package pawnshop.oracle;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static paddle.util.Token.tokens;
+
+class OraclePublisherTest {
+
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final AtomicLong maxRate = new AtomicLong(50000);
+    private final List<Long> posted = new ArrayList<>();
+    private OraclePublisher publisher;
+
+    @BeforeEach
+    void before() {
+        // 1% deviation, a heartbeat every minute
+        publisher = new OraclePublisher(posted::add, maxRate::get, 100, 60_000, clock::get);
+    }
+
+    @Test
+    void publishesOnlyOnDeviationOrHeartbeat() {
+        publisher.offer(10000);
+        publisher.publishIfNeeded();
+        publisher.offer(10099);
+        publisher.publishIfNeeded();
+        publisher.offer(9900);
+        publisher.publishIfNeeded();
+
+        clock.addAndGet(59_999);
+        publisher.publishIfNeeded();
+        clock.addAndGet(1);
+        publisher.publishIfNeeded();
+
+        assertAll(
+                () -> assertThat(posted).containsExactly(10000L, 9900L, 9900L),
+                () -> assertThat(publisher.published()).isEqualTo(9900),
+                () -> assertThat(publisher.latency().count()).isEqualTo(3)
+        );
+    }
+
+    @Test
+    void burstIsCoalescedIntoOneTransaction() {
+        for (long price = 10000; price < 11000; price += 10)
+            publisher.offer(price);
+        publisher.publishIfNeeded();
+        publisher.publishIfNeeded();
+
+        assertThat(posted).containsExactly(10990L);
+        assertThat(publisher.coalesced()).isEqualTo(99);
+    }
+
+    @Test
+    void refusesRateAboveMaxRate() {
+        publisher.offer(50001);
+
+        assertThat(publisher.publishIfNeeded()).isFalse();
+        assertThat(publisher.refused()).isEqualTo(1);
+
+        maxRate.set(60000);
+        publisher.offer(50001);
+
+        assertThat(publisher.publishIfNeeded()).isTrue();
+        assertThat(posted).containsExactly(50001L);
+    }
+
+    @Test
+    void failedPostIsRetriedWithTheLatestPrice() {
+        OraclePublisher flaky = new OraclePublisher(rate -> {
+            if (posted.add(rate) && posted.size() == 1) throw new IllegalStateException("node is down");
+        }, maxRate::get, 100, 60_000, clock::get);
+
+        flaky.offer(10000);
+        flaky.publishIfNeeded();
+        flaky.publishIfNeeded();
+
+        assertThat(flaky.errors()).isEqualTo(1);
+        assertThat(posted).containsExactly(10000L, 10000L);
+        assertThat(flaky.published()).isEqualTo(10000);
+    }
+
+    @Test
+    void postsToTheOracleAccount() throws InterruptedException {
+        LocalNode node = new LocalNode();
+        LocalAccount oracle = node.createAccount(tokens(1));
+        AtomicLong price = new AtomicLong(11200);
+
+        try (OraclePublisher daemon = new OraclePublisher(rate -> oracle.writes(d -> d.integer("waves_btc_8", rate)),
+                () -> 50000, 50, 60_000, System::currentTimeMillis).start(price::get, 1)) {
+            while (daemon.posts() == 0) Thread.sleep(1);
+        }
+
+        assertThat(oracle.data("waves_btc_8")).isEqualTo(11200L);
+    }
+
+}
@@ -0,0 +1,106 @@
+package pawnshop.payout;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Keys;
+import pawnshop.Pawnshops;
+import pawnshop.ScriptError;
+import pawnshop.Transfer;
+import pawnshop.node.LocalNetwork;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class PayoutSchedulerTest {
+
+    @Test
+    void paysEveryAccountOutInBatchesThatFitAnInvocation() {
+        LocalNode node = new LocalNode();
+        Pawnshops.Local pawnshop = Pawnshops.localDeployed(node);
+        LocalAccount owner = pawnshop.owner, dApp = pawnshop.dApp;
+        String btcId = pawnshop.btcId;
+        LocalAccount keeper = node.createAccount(tokens(1));
+        List<LocalAccount> lenders = new ArrayList<>();
+        for (int i = 0; i < 12; i++)
+            lenders.add(pawnshop.lender());
+        List<LocalAccount> renters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            LocalAccount renter = node.createAccount(tokens(101));
+            dApp.transfers(renter, tokens(1), btcId);
+            renter.invokes(r -> r.dApp(dApp).function("borrow").wavesPayment(tokens(100)));
+            renters.add(renter);
+        }
+        node.mine(7);
+        renters.get(0).invokes(r -> r.dApp(dApp).function("buyBack", "1").payment(tokens(0.01), btcId));
+        renters.get(1).invokes(r -> r.dApp(dApp).function("discard", "2"));
+        Map<String, Long> before = new HashMap<>();
+        for (LocalAccount account : lenders)
+            before.put(account.address(), account.balance());
+        long ownerWaves = owner.balance();
+        List<Transfer> unsettled = owner.invokes(r -> r.dApp(dApp)
+                .function("sendProfits", lenders.get(0).address())).stateChanges.transfers;
+
+        PayoutScheduler scheduler = new PayoutScheduler(dApp.address(), node.data(dApp.address()));
+        List<PayoutScheduler.Settlement> settlements = scheduler.settlements();
+        List<List<String>> batches = scheduler.batches();
+        int sent = scheduler.apply(LocalNetwork.actor(keeper));
+        Map<String, Object> data = node.data(dApp.address());
+
+        assertAll(
+                () -> assertThat(unsettled).isEmpty(),
+                () -> assertThat(settlements).hasSize(12).allSatisfy(settlement ->
+                        assertThat(settlement.cohort).isEqualTo(1L)),
+                () -> assertThat(batches).extracting(List::size).containsExactly(5, 5, 3),
+                () -> assertThat(sent).isEqualTo(12 + 3),
+                () -> assertThat(new PayoutScheduler(dApp.address(), data).settlements()).isEmpty(),
+                () -> assertThat(new PayoutScheduler(dApp.address(), data).batches()).isEmpty(),
+                () -> assertThat(lenders).allSatisfy(l -> assertAll(
+                        () -> assertThat(l.balance(btcId)).isPositive(),
+                        () -> assertThat(l.balance()).isGreaterThan(before.get(l.address())),
+                        () -> assertThat(data.get(Keys.profitFor(l.address()))).isEqualTo(0L))),
+                () -> assertThat(data.get(Keys.cohortOpen(1))).isEqualTo(1L),
+                () -> assertThat(owner.balance(btcId)).isPositive(),
+                () -> assertThat(owner.balance()).isGreaterThan(ownerWaves)
+        );
+    }
+
+    @Test
+    void rejectsBatchesTheScriptCannotPay() {
+        LocalNode node = new LocalNode();
+        Pawnshops.Local pawnshop = Pawnshops.localDeployed(node);
+        LocalAccount owner = pawnshop.owner, dApp = pawnshop.dApp;
+        List<String> accounts = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            accounts.add(node.createAccount(0).address());
+        String o = owner.address();
+
+        assertAll(
+                () -> assertThat(assertThrows(ScriptError.class, () -> owner.invokes(r -> r.dApp(dApp)
+                        .function("sendProfits", PayoutScheduler.argument(accounts)))))
+                        .hasMessageContaining("at most 5 accounts per payout"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> owner.invokes(r -> r.dApp(dApp)
+                        .function("sendProfits", o + "|" + accounts.get(0) + "|" + o))))
+                        .hasMessageContaining("address " + o + " is listed twice"),
+                () -> assertThat(assertThrows(ScriptError.class, () -> owner.invokes(r -> r.dApp(dApp)
+                        .function("sendProfits", o + "|garbage"))))
+                        .hasMessageContaining("incorrect address garbage"),
+                () -> assertThat(owner.invokes(r -> r.dApp(dApp)
+                        .function("sendProfits", PayoutScheduler.argument(accounts.subList(0, 5)))).stateChanges)
+                        .satisfies(changes -> assertAll(
+                                () -> assertThat(changes.data).hasSize(10)
+                                        .allSatisfy(entry -> assertThat(entry.value).isEqualTo(0L)),
+                                () -> assertThat(changes.transfers).isEmpty())),
+                () -> assertThat(new PayoutScheduler(dApp.address(), Collections.emptyMap()).batches()).isEmpty()
+        );
+    }
+
+}
@@ -0,0 +1,93 @@
+package pawnshop.quote;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Address;
+import pawnshop.PawnshopEngine;
+import pawnshop.Pawnshops;
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.state.OpenLoanIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class BuyBackQuotesTest {
+
+    private final String dApp = Address.of("dApp", 'R');
+    private final String owner = Address.of("owner", 'R');
+    private final String oracle = Address.of("oracle", 'R');
+    private final String btcId = Address.of("btc", 'R');
+    private final String ivanov = Address.of("ivanov", 'R');
+    private final List<String> renters = Arrays.asList(
+            Address.of("alice", 'R'), Address.of("bob", 'R'), Address.of("petrov", 'R'));
+
+    @Test
+    void quotesTheAmountTheScriptRequires() {
+        PawnshopEngine engine = Pawnshops.with().periods(5, 4, 7).engineWithLenders(dApp, owner, btcId, oracle, ivanov);
+        engine.borrow(renters.get(0), Payment.waves(tokens(3333)));
+        engine.advance(3).borrow(renters.get(1), Payment.waves(tokens(1234.5678)));
+        engine.advance(4).borrow(renters.get(2), Payment.waves(tokens(77)));
+        Map<String, Object> snapshot = new HashMap<>(engine.state());
+        BuyBackQuotes quotes = BuyBackQuotes.of(OpenLoanIndex.load(snapshot, 107));
+        long[] out = new long[quotes.size()];
+
+        List<String> mismatches = new ArrayList<>();
+        for (int height = 100; height < 125; height++) {
+            quotes.at(height, out);
+            for (int i = 0; i < quotes.size(); i++) {
+                String id = quotes.ids().get(i);
+                String renter = renters.get(Integer.parseInt(id) - 1);
+                long quote = out[i];
+                if (quote != quotes.quote(id, height)) mismatches.add(id + " at " + height + " differs by id");
+                PawnshopEngine at = new PawnshopEngine(dApp, height).postOracle(oracle, 10000).load(snapshot);
+                if (quote == BuyBackQuotes.EXPIRED) {
+                    ScriptError e = assertThrows(ScriptError.class,
+                            () -> at.buyBack(renter, id, Payment.of(tokens(10), btcId)));
+                    if (!e.getMessage().equals("your loan has expired")) mismatches.add(id + " at " + height);
+                    continue;
+                }
+                PawnshopEngine below = new PawnshopEngine(dApp, height).postOracle(oracle, 10000).load(snapshot);
+                ScriptError less = assertThrows(ScriptError.class,
+                        () -> below.buyBack(renter, id, Payment.of(quote - 1, btcId)));
+                ScriptResult exact = at.buyBack(renter, id, Payment.of(quote, btcId));
+                if (!less.getMessage().startsWith("User must return") || exact.transfers.size() != 1)
+                    mismatches.add(id + " at " + height + " quoted " + quote);
+            }
+        }
+
+        assertAll(
+                () -> assertThat(quotes.size()).isEqualTo(3),
+                () -> assertThat(quotes.at(107)).containsExactlyInAnyOrder(
+                        (long) snapshot.get("lend_of_1") + (long) snapshot.get("lend_of_1") * 2 / 7,
+                        (long) snapshot.get("lend_of_2"), (long) snapshot.get("lend_of_3")),
+                () -> assertThat(quotes.quote("1", 109)).isEqualTo(BuyBackQuotes.EXPIRED),
+                () -> assertThat(mismatches).isEmpty()
+        );
+    }
+
+    @Test
+    void largeLendsFallBackToTheScriptFraction() {
+        long lend = Long.MAX_VALUE / 3;
+
+        assertAll(
+                () -> assertThat(BuyBackQuotes.quote(lend, 10, 20, 30, 15))
+                        .isEqualTo(lend + PawnshopEngine.fraction(lend, 5, 20)),
+                () -> assertThat(BuyBackQuotes.quote(lend, 10, 20, 30, 10)).isEqualTo(lend),
+                () -> assertThat(BuyBackQuotes.quote(Long.MAX_VALUE - 10, 10, 20, 30, 19))
+                        .isEqualTo(BuyBackQuotes.UNAVAILABLE),
+                () -> assertThat(BuyBackQuotes.quote(lend, 10, 20, 10, 15)).isEqualTo(BuyBackQuotes.UNAVAILABLE),
+                () -> assertThrows(IllegalArgumentException.class, () -> BuyBackQuotes.of(
+                        OpenLoanIndex.load(new HashMap<>(), 1)).quote("1", 1))
+        );
+    }
+
+}
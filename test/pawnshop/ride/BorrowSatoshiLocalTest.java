@@ -0,0 +1,113 @@
+package pawnshop.ride;
+
+import org.junit.jupiter.api.*;
+import pawnshop.Entry;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.Transfer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import static paddle.util.Token.tokens;
+import static pawnshop.ride.LocalNode.LocalTx;
+
+@TestMethodOrder(OrderAnnotation.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BorrowSatoshiLocalTest {
+
+    private LocalNode node;
+    private LocalAccount oracle, owner, dApp, alice, bob, carol;
+    private String btcId;
+
+    private final String oracleRateKey = "waves_btc_8";
+    private final int initialOracleRate = 15000;
+    private final int maxRate = 50000;
+    private final int discount = 80; // should lend only 80% of rate
+    private final int gracePeriod = 5;
+    private final int interestPeriod = 4;
+    private final int burndownPeriod = 4;
+
+    private int aliceHeight, bobHeight, carolHeight;
+
+    @BeforeAll
+    void before() {
+        node = new LocalNode();
+
+        oracle = node.createAccount(tokens(1));
+        owner = node.createAccount(tokens(1));
+        dApp = node.createAccount(tokens(5));
+        alice = node.createAccount(tokens(1));
+        bob = node.createAccount(tokens(1));
+        carol = node.createAccount(tokens(1));
+
+        oracle.writes(d -> d.integer(oracleRateKey, initialOracleRate));
+        btcId = dApp.issues(tokens(100));
+        dApp.setsScript(RideScript.fromFile("ride/pawnshop_wbtc.ride"));
+        dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(),
+                maxRate, discount, gracePeriod, interestPeriod, burndownPeriod, 10, 10));
+    }
+
+    @Test
+    @Order(1)
+    void usersCantBorrowOneSatoshiLessThanRate() {
+        assertThat(assertThrows(ScriptError.class, () ->
+                alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(8333))
+        )).hasMessage("payment can't be less than 8334 wavelets (price of 1 satoshi)");
+    }
+
+    @Test
+    @Order(10)
+    void usersCanBorrowOneSatoshi() {
+        aliceHeight = alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(8334)).height;
+        bobHeight = bob.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(8334)).height;
+        carolHeight = carol.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(8334)).height;
+
+        assertThat(alice.balance(btcId)).isEqualTo(1);
+    }
+
+    @Test
+    @Order(20)
+    void aliceCanBuybackInLastGrace() {
+        node.waitForHeight(aliceHeight + gracePeriod);
+
+        LocalTx tx = alice.invokes(i -> i.dApp(dApp).function("buyBack", "1").payment(tokens(0.00000001), btcId));
+        ScriptResult changes = node.stateChanges(tx.id);
+
+        assertAll("Check state changes",
+                () -> assertThat(tx.height).isEqualTo(aliceHeight + gracePeriod),
+
+                () -> assertThat(changes.data.subList(0, 7)).allMatch(d -> d.asInteger() == 0),
+                () -> assertThat(changes.data.get(7).asString()).isEmpty(),
+                () -> assertThat(changes.data.get(8)).isEqualTo(Entry.string("renter_of_1", "")),
+                () -> assertThat(changes.transfers).containsExactly(new Transfer(alice.address(), 8334, null))
+        );
+    }
+
+    @Test
+    @Order(30)
+    void bobCanBuybackInLastBlockOfInterest() {
+        node.waitForHeight(bobHeight + gracePeriod + interestPeriod - 1);
+
+        LocalTx tx = bob.invokes(i -> i.dApp(dApp).function("buyBack", "2").payment(tokens(0.00000001), btcId));
+
+        assertAll("Check state changes",
+                () -> assertThat(tx.height).isEqualTo(bobHeight + gracePeriod + interestPeriod - 1),
+                // 3 of 4 burndown blocks of 1 satoshi round down to no interest
+                () -> assertThat(tx.stateChanges.transfers).containsExactly(new Transfer(bob.address(), 8334, null)),
+                () -> assertThat(bob.balance(btcId)).isZero()
+        );
+    }
+
+    @Test
+    @Order(40)
+    void carolCantBuybackAfterInterest() {
+        node.waitForHeight(carolHeight + gracePeriod + interestPeriod);
+
+        assertThat(assertThrows(ScriptError.class, () ->
+                carol.invokes(i -> i.dApp(dApp).function("buyBack", "3").payment(tokens(0.00000001), btcId))
+        )).hasMessage("your loan has expired");
+    }
+
+}
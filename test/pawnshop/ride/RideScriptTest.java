@@ -0,0 +1,105 @@
+package pawnshop.ride;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pawnshop.Payment;
+import pawnshop.PawnshopEngine;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class RideScriptTest {
+
+    private LocalNode node;
+    private LocalAccount dApp, owner, oracle, alice, ivanov, masha;
+    private String btcId;
+    private PawnshopEngine engine;
+
+    @BeforeEach
+    void before() {
+        node = new LocalNode('R', 100);
+        dApp = node.createAccount(tokens(5));
+        owner = node.createAccount(tokens(3));
+        oracle = node.createAccount(tokens(1));
+        alice = node.createAccount(tokens(20000));
+        ivanov = node.createAccount(tokens(1));
+        masha = node.createAccount(tokens(1));
+        btcId = owner.issues(tokens(1000));
+        owner.massTransfers(btcId, tokens(10), ivanov, masha);
+        owner.transfers(dApp, tokens(100), btcId);
+        owner.transfers(alice, tokens(1), btcId);
+        oracle.writes(d -> d.integer("waves_btc_8", 10000));
+        dApp.setsScript(RideScript.fromFile("ride/pawnshop_wbtc.ride"));
+
+        engine = new PawnshopEngine(dApp.address(), node.height()).postOracle(oracle.address(), 10000);
+
+        same(dApp.invokes(i -> i.function("init", owner.address(), btcId, oracle.address(), 50000, 80, 5, 4, 10, 10, 10))
+                .stateChanges, engine.init(dApp.address(), owner.address(), btcId, oracle.address(), 50000, 80, 5, 4, 10, 10, 10));
+        same(ivanov.invokes(i -> i.dApp(dApp).function("depositBtc").payment(tokens(10), btcId)).stateChanges,
+                engine.depositBtc(ivanov.address(), Payment.of(tokens(10), btcId)));
+        same(masha.invokes(i -> i.dApp(dApp).function("depositBtc").payment(tokens(10), btcId)).stateChanges,
+                engine.depositBtc(masha.address(), Payment.of(tokens(10), btcId)));
+    }
+
+    @Test
+    void scriptAndEngineAgreeOnBuybackWithInterest() {
+        same(alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(tokens(10000))).stateChanges,
+                engine.borrow(alice.address(), Payment.waves(tokens(10000))));
+        engine.setHeight(node.waitForHeight(node.height() + 7));
+        same(alice.invokes(i -> i.dApp(dApp).function("buyBack", "1").payment(tokens(0.97), btcId)).stateChanges,
+                engine.buyBack(alice.address(), "1", Payment.of(tokens(0.97), btcId)));
+        same(alice.invokes(i -> i.dApp(dApp).function("settle", masha.address(), 1)).stateChanges,
+                engine.settle(alice.address(), masha.address(), 1));
+        same(masha.invokes(i -> i.dApp(dApp).function("takeProfit")).stateChanges,
+                engine.takeProfit(masha.address()));
+
+        assertAll(
+                () -> assertThat(masha.balance(btcId)).isEqualTo(tokens(0.072)),
+                () -> assertThat(alice.balance(btcId)).isEqualTo(tokens(0.84)),
+                () -> assertThat(node.data(dApp.address())).isEqualTo(engine.state())
+        );
+    }
+
+    @Test
+    void scriptAndEngineAgreeOnExpiredLoan() {
+        same(alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(tokens(10000))).stateChanges,
+                engine.borrow(alice.address(), Payment.waves(tokens(10000))));
+        engine.setHeight(node.waitForHeight(node.height() + 10));
+        same(owner.invokes(i -> i.dApp(dApp).function("closeExpiredFor", "1")).stateChanges,
+                engine.closeExpiredFor(owner.address(), "1"));
+        same(ivanov.invokes(i -> i.dApp(dApp).function("settle", ivanov.address(), 1)).stateChanges,
+                engine.settle(ivanov.address(), ivanov.address(), 1));
+        same(ivanov.invokes(i -> i.dApp(dApp).function("withdrawBtc")).stateChanges,
+                engine.withdrawBtc(ivanov.address()));
+
+        assertAll(
+                () -> assertThat(assertThrows(ScriptError.class, () ->
+                        alice.invokes(i -> i.dApp(dApp).function("discard", "1"))))
+                        .hasMessage("only renter can discard the loan"),
+                () -> assertThat(ivanov.balance(btcId)).isEqualTo(tokens(9.6)),
+                () -> assertThat(node.data(dApp.address())).isEqualTo(engine.state())
+        );
+    }
+
+    @Test
+    void failedInvocationChangesNothing() {
+        long balance = alice.balance();
+        oracle.writes(d -> d.integer("waves_btc_8", 50001));
+
+        assertThat(assertThrows(ScriptError.class, () ->
+                alice.invokes(i -> i.dApp(dApp).function("borrow").wavesPayment(tokens(10000)))
+        )).hasMessage("Suspicious rate value: actual: 50001, max: 50000");
+        assertThat(alice.balance()).isEqualTo(balance);
+        assertThat(node.data(dApp.address())).isEqualTo(engine.state());
+    }
+
+    private void same(ScriptResult script, ScriptResult model) {
+        assertThat(model.data).containsExactlyElementsOf(script.data);
+        assertThat(model.transfers).containsExactlyElementsOf(script.transfers);
+    }
+
+}
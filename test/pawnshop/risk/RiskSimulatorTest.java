@@ -0,0 +1,95 @@
+package pawnshop.risk;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Address;
+import pawnshop.PawnshopEngine;
+import pawnshop.Pawnshops;
+import pawnshop.Payment;
+import pawnshop.state.OpenLoanIndex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static pawnshop.PawnshopEngine.fraction;
+import static paddle.util.Token.tokens;
+
+class RiskSimulatorTest {
+
+    private RiskSimulator.Config config() {
+        return RiskSimulator.config().rate(10000).grace(5).interest(4).burndown(7).blocks(20).step(1)
+                .lenders(2).lendSize(10).seed(42);
+    }
+
+    @Test
+    void aSteadyRateGetsEveryLoanBoughtBack() {
+        LoanBook book = LoanBook.synthetic(9, tokens(1000), 10000, 80, 5, 4, 40);
+
+        RiskSimulator.Report report = new RiskSimulator(book, config().paths(100).volatility(0)).run();
+
+        assertAll(
+                () -> assertThat(book.lent()).isEqualTo(9 * tokens(0.08)),
+                () -> assertThat(report.boughtBack).isEqualTo(9),
+                () -> assertThat(report.discarded + report.expired + report.open).isZero(),
+                () -> assertThat(report.loss(1)).isZero(),
+                () -> assertThat(report.result(0)).isEqualTo(report.result(1)).isPositive(),
+                () -> assertThat(report.erosion(1)).isZero()
+        );
+    }
+
+    @Test
+    void aCrashLeavesTheLoansToTheLenders() {
+        LoanBook book = LoanBook.synthetic(1, tokens(1000), 10000, 80, 5, 4, 7);
+
+        RiskSimulator.Report report = new RiskSimulator(book, config().paths(50).volatility(0).drift(-0.2)
+                .discardShare(100)).run();
+
+        assertAll(
+                () -> assertThat(report.boughtBack).isZero(),
+                () -> assertThat(report.discarded).isEqualTo(1),
+                () -> assertThat(report.loss(0)).isEqualTo(report.loss(1)).isPositive()
+                        .isLessThanOrEqualTo(book.lent()),
+                () -> assertThat(report.result(1)).isEqualTo(-report.loss(1)),
+                () -> assertThat(report.erosion(0.5)).isEqualTo((double) book.lent() / tokens(20))
+        );
+    }
+
+    @Test
+    void theReportDoesNotDependOnTheThreads() {
+        LoanBook book = LoanBook.synthetic(20, tokens(1000), 10000, 80, 5, 4, 7);
+        RiskSimulator.Config config = config().paths(2000).volatility(0.05).borrows(3, tokens(500)).maxRate(11000);
+
+        String one = new RiskSimulator(book, config.threads(1)).run().toString();
+        RiskSimulator.Report four = new RiskSimulator(book, config.threads(4)).run();
+
+        assertAll(
+                () -> assertThat(four.toString()).isEqualTo(one),
+                () -> assertThat(four.rejected).isPositive(),
+                () -> assertThat(four.boughtBack).isPositive(),
+                () -> assertThat(four.discarded).isPositive(),
+                () -> assertThat(four.expired).isPositive(),
+                () -> assertThat(four.loss(0.99)).isGreaterThanOrEqualTo(four.loss(0.5)),
+                () -> assertThat(four.erosion(0.99)).isGreaterThan(0)
+        );
+    }
+
+    @Test
+    void readsTheBookOfTheDApp() {
+        String dApp = Address.of("dApp", 'R');
+        String oracle = Address.of("oracle", 'R');
+        String btcId = Address.of("btc", 'R');
+        PawnshopEngine engine = Pawnshops.with().periods(5, 4, 7).engineWithLenders(dApp, Address.of("owner", 'R'),
+                btcId, oracle, Address.of("ivanov", 'R'));
+        engine.borrow(Address.of("alice", 'R'), Payment.waves(tokens(1234)));
+        engine.advance(2).borrow(Address.of("bob", 'R'), Payment.waves(tokens(100)));
+        LoanBook book = LoanBook.of(OpenLoanIndex.load(engine.state(), 102), 102);
+
+        assertAll(
+                () -> assertThat(book.size()).isEqualTo(2),
+                () -> assertThat(book.lent()).isEqualTo(fraction(tokens(1234), 800000, tokens(100))
+                        + fraction(tokens(100), 800000, tokens(100))),
+                () -> assertThat(LoanBook.synthetic(1, tokens(1234), 10000, 80, 5, 4, 7).lent())
+                        .isEqualTo(engine.get("lend_of_1")),
+                () -> assertThat(book.graceEnd).containsExactlyInAnyOrder(3, 5)
+        );
+    }
+
+}
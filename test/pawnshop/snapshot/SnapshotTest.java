@@ -0,0 +1,196 @@
+package pawnshop.snapshot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pawnshop.Address;
+import pawnshop.Base58;
+import pawnshop.Keys;
+import pawnshop.PawnshopEngine;
+import pawnshop.Pawnshops;
+import pawnshop.Payment;
+import pawnshop.node.Json;
+import pawnshop.node.NodeHttp;
+import pawnshop.state.LenderAccount;
+import pawnshop.state.LenderLedger;
+import pawnshop.state.LenderSlots;
+import pawnshop.state.Loan;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static paddle.util.Token.tokens;
+
+class SnapshotTest {
+
+    private final String dApp = Address.of("dApp", 'R');
+    private final String oracle = Address.of("oracle", 'R');
+    private final String owner = Address.of("owner", 'R');
+    private final String ivanov = Address.of("ivanov", 'R');
+    private final String petrov = Address.of("petrov", 'R');
+    private final String btcId = Base58.encode("btc".getBytes());
+
+    private PawnshopEngine engine() {
+        return Pawnshops.engineWithLenders(dApp, owner, btcId, oracle, ivanov, petrov);
+    }
+
+    private static String renter(int i) {
+        return Address.of("renter" + i, 'R');
+    }
+
+    @Test
+    void reopensWhatWasWrittenAndFindsRowsByKey(@TempDir Path dir) {
+        Loan alice = new Loan("12", renter(1), 100, 105, 109, 119, 10000, tokens(100), 800000, "011");
+        Loan bob = new Loan(renter(2), "", 0, 0, 0, 0, 0, 0, 0, "");
+        LenderAccount ivanovAccount = new LenderAccount(ivanov, 10L, 5L, 2L);
+
+        Snapshot.write(dir.resolve("state.snap"), 321, Arrays.asList(alice, bob),
+                Collections.singletonList(ivanovAccount), new LenderSlots(petrov + ivanov + petrov));
+        Snapshot snapshot = Snapshot.open(dir.resolve("state.snap"));
+
+        int a = snapshot.indexOfLoan("12");
+        int b = snapshot.indexOfLoan(renter(2));
+        int i = snapshot.indexOfLender(ivanov);
+        int p = snapshot.indexOfLender(petrov);
+        assertAll(
+                () -> assertThat(snapshot.height()).isEqualTo(321),
+                () -> assertThat(snapshot.loanCount()).isEqualTo(2),
+                () -> assertThat(snapshot.lenderCount()).isEqualTo(2),
+                () -> assertThat(snapshot.loan(a)).isEqualToComparingFieldByField(alice),
+                () -> assertThat(snapshot.isOpen(b)).isFalse(),
+                () -> assertThat(snapshot.id(b)).isEqualTo(renter(2)),
+                () -> assertThat(snapshot.renter(b)).isEmpty(),
+                () -> assertThat(snapshot.lenderIndexes(a)).containsExactly(i, p),
+                () -> assertThat(snapshot.lenderMask(a)).isEqualTo(0b110),
+                () -> assertThat(snapshot.lenderAccount(i)).isEqualToComparingFieldByField(ivanovAccount),
+                () -> assertThat(snapshot.lenderAccount(p)).isEqualToComparingFieldByField(
+                        new LenderAccount(petrov, null, null, null)),
+                () -> assertThat(snapshot.indexOfLoan(renter(3))).isEqualTo(-1),
+                () -> assertThat(snapshot.indexOfLoan("2")).isEqualTo(-1),
+                () -> assertThat(snapshot.indexOfLoan("garbage")).isEqualTo(-1),
+                () -> assertThat(assertThrows(IllegalArgumentException.class, () -> Snapshot.write(
+                        dir.resolve("bad.snap"), 1, Collections.singletonList(new Loan("garbage", "", 0, 0, 0, 0, 0, 0, 0, "")),
+                        Collections.emptyList(), LenderSlots.EMPTY))).hasMessage("Not a loan id: garbage")
+        );
+    }
+
+    @Test
+    void diffsSnapshotsOfConsecutiveStates(@TempDir Path dir) {
+        PawnshopEngine engine = engine();
+        for (int i = 0; i < 40; i++)
+            engine.borrow(renter(i), Payment.waves(tokens(100)));
+        Snapshot before = snapshot(engine, dir.resolve("before.snap"));
+
+        engine.advance(3);
+        engine.buyBack(renter(7), "8", Payment.of(tokens(1), btcId));
+        engine.borrow(renter(40), Payment.waves(tokens(100)));
+        engine.discard(renter(8), "9");
+        Snapshot after = snapshot(engine, dir.resolve("after.snap"));
+
+        SnapshotDiff diff = SnapshotDiff.between(before, after);
+        assertAll(
+                () -> assertThat(before.loanCount()).isEqualTo(40),
+                () -> assertThat(diff.fromHeight).isEqualTo(100),
+                () -> assertThat(diff.toHeight).isEqualTo(103),
+                () -> assertThat(diff.opened).extracting(l -> l.id).containsExactly("41"),
+                () -> assertThat(diff.opened).extracting(l -> l.renter).containsExactly(renter(40)),
+                () -> assertThat(diff.closed).extracting(l -> l.id).containsExactlyInAnyOrder("8", "9"),
+                () -> assertThat(diff.changed).isEmpty(),
+                // the lenders are owed their shares of the closed loans before they settle them
+                () -> assertThat(diff.lenders).extracting(l -> l.lender)
+                        .containsExactlyInAnyOrder(owner, ivanov, petrov),
+                () -> assertThat(SnapshotDiff.between(after, after).isEmpty()).isTrue()
+        );
+    }
+
+    @Test
+    void exportsThroughTheDataApiInShards(@TempDir Path dir) throws IOException {
+        PawnshopEngine engine = engine();
+        for (int i = 0; i < 25; i++)
+            engine.borrow(renter(i), Payment.waves(tokens(100)));
+        engine.advance(7);
+        engine.buyBack(renter(3), "4", Payment.of(tokens(1), btcId));
+
+        AtomicInteger pages = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/blocks/height", x -> respond(x, Collections.singletonMap("height", engine.height())));
+        server.createContext("/addresses/data/" + dApp, x -> {
+            pages.incrementAndGet();
+            String query = x.getRequestURI().getRawQuery();
+            Pattern matches = Pattern.compile(URLDecoder.decode(query.substring("matches=".length()), "UTF-8"));
+            List<Object> entries = new ArrayList<>();
+            engine.state().forEach((key, value) -> {
+                if (!matches.matcher(key).matches()) return;
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("key", key);
+                entry.put("type", value instanceof Long ? "integer" : value instanceof Boolean ? "boolean" : "string");
+                entry.put("value", value);
+                entries.add(entry);
+            });
+            respond(x, entries);
+        });
+        server.start();
+        Snapshot snapshot;
+        try {
+            snapshot = new SnapshotExporter(new NodeHttp("http://127.0.0.1:" + server.getAddress().getPort()),
+                    dApp, 4).export(dir.resolve("node.snap"));
+        } finally {
+            server.stop(0);
+        }
+
+        int closed = snapshot.indexOfLoan("4");
+        int open = snapshot.indexOfLoan("5");
+        assertAll(
+                () -> assertThat(pages.get()).isEqualTo(4 * (Keys.LOAN_PREFIXES.length + Keys.LENDER_PREFIXES.length
+                        + Keys.SETTLEMENT_PREFIXES.length) + 1),
+                () -> assertThat(snapshot.height()).isEqualTo(107),
+                () -> assertThat(snapshot.loanCount()).isEqualTo(25),
+                () -> assertThat(snapshot.isOpen(closed)).isFalse(),
+                () -> assertThat(snapshot.lend(open)).isEqualTo(engine.get(Keys.lendOf("5"))),
+                () -> assertThat(snapshot.loan(open).lenderFlags).isEqualTo(engine.get(Keys.lenderFlagsOf("5"))),
+                () -> assertThat(snapshot.circulatingAssets(snapshot.indexOfLender(ivanov)))
+                        .isEqualTo(engine.get(Keys.circulatingAssetsOf(ivanov))),
+                () -> assertThat(snapshot.profit(snapshot.indexOfLender(owner)))
+                        .isEqualTo(engine.get(Keys.profitFor(owner))),
+                () -> assertThat(engine.get(Keys.profitFor(ivanov))).isNull(),
+                () -> assertThat(snapshot.profit(snapshot.indexOfLender(ivanov)))
+                        .isPositive().isEqualTo(LenderLedger.owed(engine.state(), ivanov)[0])
+        );
+    }
+
+    @Test
+    void shardsCoverEveryLastCharacterOnce() {
+        List<String> regexes = SnapshotExporter.regexes("start_of_", 5);
+        for (char c : SnapshotExporter.ALPHABET.toCharArray())
+            assertThat(regexes.stream().filter(r -> ("start_of_3x" + c).matches(r))).hasSize(1);
+    }
+
+    private Snapshot snapshot(PawnshopEngine engine, Path file) {
+        return Snapshot.write(file, engine.height(), engine.state());
+    }
+
+    private static void respond(HttpExchange exchange, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
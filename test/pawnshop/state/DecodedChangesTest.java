@@ -0,0 +1,99 @@
+package pawnshop.state;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pawnshop.Address;
+import pawnshop.Base58;
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.PawnshopEngine;
+import pawnshop.Pawnshops;
+import pawnshop.Payment;
+import pawnshop.Transfer;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static paddle.util.Token.tokens;
+
+class DecodedChangesTest {
+
+    private final String dApp = Address.of("dApp", 'R');
+    private final String owner = Address.of("owner", 'R');
+    private final String oracle = Address.of("oracle", 'R');
+    private final String btcId = Base58.encode("btc".getBytes());
+    private final String alice = Address.of("alice", 'R');
+    private final String ivanov = Address.of("ivanov", 'R');
+    private final String masha = Address.of("masha", 'R');
+
+    private PawnshopEngine engine;
+
+    @BeforeEach
+    void before() {
+        engine = Pawnshops.engineWithLenders(dApp, owner, btcId, oracle, ivanov, masha);
+    }
+
+    @Test
+    void borrowIsDecodedIntoLoanAndLenderRecords() {
+        DecodedChanges changes = DecodedChanges.of(engine.borrow(alice, Payment.waves(tokens(10000))));
+        Loan loan = changes.loan("1");
+
+        assertAll(
+                () -> assertThat(changes.borrowedLoan()).isEqualTo("1"),
+                () -> assertThat(loan.renter).isEqualTo(alice),
+                () -> assertThat(loan.isOpen()).isTrue(),
+                () -> assertThat(Arrays.asList(loan.start, loan.graceEnd, loan.interestEnd, loan.burndownEnd))
+                        .containsExactly(100L, 105L, 109L, 115L),
+                () -> assertThat(loan.rate).isEqualTo(8000),
+                () -> assertThat(loan.deposit).isEqualTo(tokens(10000)),
+                () -> assertThat(loan.lend).isEqualTo(tokens(0.8)),
+                () -> assertThat(loan.lenderFlags).isEqualTo("11"),
+                () -> assertThat(loan.lenders(LenderSlots.of(engine.state()))).containsExactly(ivanov, masha),
+                () -> assertThat(changes.integer(Keys.cohortOf("1"))).isEqualTo(1),
+                () -> assertThat(changes.integer(Keys.cohortOpen(1))).isEqualTo(1),
+                () -> assertThat(changes.lenders()).isEmpty(),
+                () -> assertThat(changes.transfer(alice, btcId)).isEqualTo(new Transfer(alice, tokens(0.8), btcId)),
+                () -> assertThat(changes.transfer(alice, null)).isNull()
+        );
+    }
+
+    @Test
+    void closingByBuybackZeroesTheLoan() {
+        engine.borrow(alice, Payment.waves(tokens(10000)));
+        engine.advance(7);
+        DecodedChanges changes = DecodedChanges.of(engine.buyBack(alice, "1", Payment.of(tokens(0.96), btcId)));
+        Loan loan = changes.loan("1");
+
+        assertAll(
+                () -> assertThat(loan.isOpen()).isFalse(),
+                () -> assertThat(loan.lenderCount()).isZero(),
+                () -> assertThat(changes.lender(owner).profit).isEqualTo(tokens(0.016)),
+                () -> assertThat(changes.integer(Keys.cohortProfit(1))).isEqualTo(tokens(0.072)),
+                () -> assertThat(changes.integer(Keys.cohortOpen(1))).isZero(),
+                () -> assertThat(changes.lenders()).containsOnlyKeys(owner),
+                () -> assertThat(changes.transfersTo(alice)).containsExactly(new Transfer(alice, tokens(10000), null)),
+                () -> assertThat(changes.transfersExcept(alice)).isEmpty()
+        );
+    }
+
+    @Test
+    void keysAreMatchedExactlyNotBySubstring() {
+        String shortName = "3Mx";
+        DecodedChanges changes = new DecodedChanges(Arrays.asList(
+                Entry.integer("unclaimied_for_" + shortName + "y", 1),
+                Entry.integer("lend_of_" + shortName + "y", 5),
+                Entry.integer("profit_for_" + shortName, 7),
+                Entry.integer("maxRate", 1)), Collections.emptyList());
+
+        assertAll(
+                () -> assertThat(changes.integer("lend_of_" + shortName)).isNull(),
+                () -> assertThat(changes.loan(shortName + "y")).isNull(),
+                () -> assertThat(changes.lender(shortName).unclaimed).isNull(),
+                () -> assertThat(changes.lender(shortName).profit).isEqualTo(7),
+                () -> assertThat(changes.integer("maxRate")).isEqualTo(1)
+        );
+    }
+
+}
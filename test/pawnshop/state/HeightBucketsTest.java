@@ -0,0 +1,50 @@
+package pawnshop.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+
+class HeightBucketsTest {
+
+    @Test
+    void bucketsFollowTheHeightsInUse() {
+        HeightBuckets buckets = new HeightBuckets();
+        int window = 100;
+        for (int slot = 0; slot < 100_000; slot++) {
+            if (slot >= window) buckets.remove(slot % window, slot - window);
+            buckets.add(slot % window, slot);
+        }
+
+        assertAll(
+                () -> assertThat(buckets.span()).isLessThanOrEqualTo(4 * window),
+                () -> assertThat(buckets.size()).isEqualTo(window),
+                () -> assertThat(buckets.lowest()).isEqualTo(100_000 - window),
+                () -> assertThat(buckets.countAtOrBelow(100_000 - window / 2 - 1)).isEqualTo(window / 2),
+                () -> assertThat(buckets.countAtOrBelow(Long.MAX_VALUE / 2)).isEqualTo(window)
+        );
+    }
+
+    @Test
+    void keepsTheSlotsWhenAHeightFallsBelowOrAboveTheBuckets() {
+        HeightBuckets buckets = new HeightBuckets();
+        buckets.add(0, 1000);
+        buckets.add(1, 1010);
+        buckets.add(2, 500);
+        buckets.add(3, 5000);
+        buckets.remove(1, 1010);
+        List<Integer> visited = new ArrayList<>();
+        buckets.forEachAtOrBelow(5000, visited::add);
+
+        assertAll(
+                () -> assertThat(visited).containsExactly(2, 0, 3),
+                () -> assertThat(buckets.lowest()).isEqualTo(500),
+                () -> assertThat(buckets.countAtOrBelow(999)).isEqualTo(1),
+                () -> assertThat(buckets.countAtOrBelow(4999)).isEqualTo(2)
+        );
+    }
+
+}
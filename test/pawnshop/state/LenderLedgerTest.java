@@ -0,0 +1,220 @@
+package pawnshop.state;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Address;
+import pawnshop.Base58;
+import pawnshop.Entry;
+import pawnshop.Keys;
+import pawnshop.PawnshopEngine;
+import pawnshop.Pawnshops;
+import pawnshop.Payment;
+import pawnshop.ScriptError;
+import pawnshop.ScriptResult;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static paddle.util.Token.tokens;
+
+class LenderLedgerTest {
+
+    @Test
+    void predictsEveryDistributionOfTheScript() {
+        LocalNode node = new LocalNode();
+        Pawnshops.Local pawnshop = Pawnshops.with().periods(3, 4, 10).serviceFee(7).localDeployed(node);
+        LocalAccount owner = pawnshop.owner, dApp = pawnshop.dApp;
+        String btcId = pawnshop.btcId;
+        List<LocalAccount> lenders = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            lenders.add(pawnshop.lender());
+        node.mine(1);
+        LenderLedger ledger = LenderLedger.load(node.data(dApp.address()), node.height() - 1);
+
+        List<LocalAccount> renters = new ArrayList<>();
+        List<String> loans = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            if (i == 15) lenders.get(2).invokes(r -> r.dApp(dApp).function("enableLending", false));
+            LocalAccount renter = node.createAccount(tokens(2));
+            dApp.transfers(renter, tokens(1), btcId);
+            long amount = tokens(0.5) + 7 * i;
+            renter.invokes(r -> r.dApp(dApp).function("borrow").wavesPayment(amount));
+            renters.add(renter);
+            loans.add(String.valueOf(i + 1));
+            if (i % 4 == 0) node.mine(1);
+        }
+        for (int block = 0; block < 16; block++) {
+            node.mine(1);
+            for (int i = block; i < renters.size(); i += 16) {
+                LocalAccount renter = renters.get(i);
+                String loan = loans.get(i);
+                if (i % 3 == 0) renter.invokes(r -> r.dApp(dApp).function("discard", loan));
+                else if (i % 3 == 1) tryBuyBack(renter, loan, dApp, btcId);
+            }
+            ledger.follow(node, dApp.address());
+        }
+        LocalAccount keeper = node.createAccount(tokens(1));
+        for (String loan : loans)
+            if ((Long) node.data(dApp.address(), Keys.startOf(loan)) > 0)
+                keeper.invokes(r -> r.dApp(dApp).function("closeExpiredFor", loan));
+        node.mine(1);
+        ledger.follow(node, dApp.address());
+
+        String first = lenders.get(0).address(), third = lenders.get(2).address();
+        assertAll(
+                () -> assertThat(ledger.drifts()).isEmpty(),
+                () -> assertThat(ledger.height()).isEqualTo(node.height() - 1),
+                () -> assertThat(ledger.openLoans()).isZero(),
+                () -> assertThat(ledger.reconcile(node.data(dApp.address()))).isEmpty(),
+                () -> assertThat(ledger.profit(first)).isPositive(),
+                () -> assertThat(ledger.profit(owner.address())).isPositive(),
+                () -> assertThat(ledger.unclaimed(first)).isPositive(),
+                () -> assertThat(ledger.unclaimedDust() + ledger.circulatingDust()).isPositive(),
+                () -> assertThat(ledger.stakeLoss(first)).isGreaterThan(ledger.stakeLoss(third)),
+                () -> assertThat(ledger.stakeLoss(third)).isPositive(),
+                () -> assertThat(ledger.shrunkStakes(0)).containsExactlyInAnyOrder(
+                        first, lenders.get(1).address(), third),
+                () -> assertThat(ledger.shrunkStakes(10000)).isEmpty(),
+                () -> assertThat(ledger.lenders()).hasSize(3)
+        );
+    }
+
+    @Test
+    void settlesCohortsToTheSharesOfTheEagerDistribution() {
+        String dApp = Address.of("dApp", 'R'), oracle = Address.of("oracle", 'R'), owner = Address.of("owner", 'R');
+        String btcId = Base58.encode("btc".getBytes());
+        PawnshopEngine engine = Pawnshops.with().periods(3, 4, 10).serviceFee(7)
+                .engineWithLenders(dApp, owner, btcId, oracle);
+        LenderLedger ledger = LenderLedger.load(engine.state(), engine.height());
+        List<String> lenders = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            lenders.add(Address.of("lender" + i, 'R'));
+        Map<String, String> renters = new HashMap<>();
+        Random random = new Random(17);
+        int settlements = 0;
+
+        for (int step = 0; step < 3000; step++) {
+            String lender = lenders.get(random.nextInt(lenders.size()));
+            List<String> loans = new ArrayList<>(renters.keySet());
+            String loan = loans.isEmpty() ? "1" : loans.get(random.nextInt(loans.size()));
+            ScriptResult result;
+            try {
+                switch (random.nextInt(10)) {
+                    case 0:
+                    case 1:
+                        String renter = Address.of("renter" + step, 'R');
+                        result = engine.borrow(renter, Payment.waves(tokens(1) + random.nextInt(100000000)));
+                        renters.put(String.valueOf(engine.get(Keys.LOAN_COUNT)), renter);
+                        break;
+                    case 2:
+                        result = engine.buyBack(renters.get(loan), loan, Payment.of(tokens(1), btcId));
+                        break;
+                    case 3:
+                        int closing = random.nextInt(3);
+                        if (closing == 0) result = engine.discard(renters.get(loan), loan);
+                        else if (closing == 1) result = engine.closeExpiredFor(owner, loan);
+                        else {
+                            Collections.shuffle(loans, random);
+                            List<String> batch = new ArrayList<>(
+                                    loans.subList(0, Math.min(loans.size(), PawnshopEngine.MAX_CLOSING_LOANS)));
+                            batch.sort(Comparator.comparingLong(Long::parseLong));
+                            result = engine.closeExpiredLoans(owner, String.join("|", batch));
+                        }
+                        break;
+                    case 4:
+                        result = engine.enableLending(lender, random.nextBoolean());
+                        break;
+                    case 5:
+                        result = engine.depositBtc(lender, Payment.of(tokens(10), btcId));
+                        break;
+                    case 6:
+                        result = engine.withdrawBtc(lender);
+                        settlements++;
+                        break;
+                    case 7:
+                        if (random.nextBoolean()) {
+                            result = engine.takeProfit(lender);
+                            break;
+                        }
+                        Object settledCohort = engine.get(Keys.settledCohortOf(lender));
+                        result = engine.settle(owner, lender,
+                                (settledCohort instanceof Long ? (Long) settledCohort : 0) + random.nextInt(3));
+                        settlements++;
+                        break;
+                    case 8:
+                        List<String> payees = new ArrayList<>(lenders);
+                        payees.add(owner);
+                        Collections.shuffle(payees, random);
+                        result = engine.sendProfits(owner, String.join("|", payees.subList(0, 4)));
+                        break;
+                    default:
+                        engine.advance(1);
+                        continue;
+                }
+            } catch (ScriptError e) {
+                continue;
+            }
+            ledger.apply(engine.height(), result);
+        }
+
+        int settled = settlements;
+        assertAll(
+                () -> assertThat(settled).isGreaterThan(80),
+                () -> assertThat((Long) engine.get(Keys.COHORT_COUNT)).isGreaterThan(20L),
+                () -> assertThat(ledger.drifts()).isEmpty(),
+                () -> assertThat(ledger.reconcile(engine.state())).isEmpty(),
+                () -> assertThat(lenders).allSatisfy(l -> assertThat(LenderLedger.owed(engine.state(), l))
+                        .containsExactly(ledger.profit(l), ledger.unclaimed(l), ledger.circulatingAssets(l)))
+        );
+    }
+
+    @Test
+    void flagsValuesThatDifferFromThePrediction() {
+        String lender = Address.of("lender", 'R');
+        LenderLedger ledger = LenderLedger.load(Collections.singletonMap(Keys.LENDER_ADDRESSES, lender), 10);
+        ledger.apply(11, new ScriptResult(loanKeys("3MRenter", 11, 1000, "1",
+                Entry.integer(Keys.profitFor(lender), 0)), Collections.emptyList()));
+        ledger.apply(12, new ScriptResult(loanKeys("3MOther", 12, 1000, "1",
+                Entry.integer(Keys.profitFor(lender), 5)), Collections.emptyList()));
+        ledger.apply(13, new ScriptResult(loanKeys("3MStranger", 0, 0, "",
+                Entry.integer(Keys.profitFor(lender), 5)), Collections.emptyList()));
+
+        assertThat(ledger.drifts()).extracting(d -> d.height + " " + d.key + " " + d.expected + " " + d.actual)
+                .containsExactly(
+                        "12 profit_for_" + lender + " 0 5",
+                        "13 start_of_3MStranger null 0");
+        assertThat(ledger.profit(lender)).isEqualTo(5);
+    }
+
+    private static void tryBuyBack(LocalAccount renter, String loan, LocalAccount dApp, String btcId) {
+        try {
+            renter.invokes(r -> r.dApp(dApp).function("buyBack", loan).payment(tokens(1), btcId));
+        } catch (ScriptError e) {
+            assertThat(e).hasMessageContaining("your loan has expired");
+        }
+    }
+
+    private static List<Entry> loanKeys(String renter, long start, long lend, String lenderFlags, Entry... more) {
+        List<Entry> entries = new ArrayList<>(Arrays.asList(
+                Entry.integer(Keys.startOf(renter), start),
+                Entry.integer(Keys.endOfGraceOf(renter), start == 0 ? 0 : start + 5),
+                Entry.integer(Keys.endOfInterestOf(renter), start == 0 ? 0 : start + 9),
+                Entry.integer(Keys.endOfBurndownOf(renter), start == 0 ? 0 : start + 15),
+                Entry.integer(Keys.rateOf(renter), start == 0 ? 0 : 8000),
+                Entry.integer(Keys.depositOf(renter), start == 0 ? 0 : 100000),
+                Entry.integer(Keys.lendOf(renter), lend),
+                Entry.string(Keys.lenderFlagsOf(renter), lenderFlags)));
+        entries.addAll(Arrays.asList(more));
+        return entries;
+    }
+
+}
@@ -0,0 +1,168 @@
+package pawnshop.state;
+
+import org.junit.jupiter.api.Test;
+import pawnshop.Address;
+import pawnshop.Base58;
+import pawnshop.PawnshopEngine;
+import pawnshop.Pawnshops;
+import pawnshop.Payment;
+import pawnshop.ScriptResult;
+import pawnshop.ride.LocalAccount;
+import pawnshop.ride.LocalNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static paddle.util.Token.tokens;
+
+class OpenLoanIndexTest {
+
+    private final String dApp = Address.of("dApp", 'R');
+    private final String oracle = Address.of("oracle", 'R');
+    private final String btcId = Base58.encode("btc".getBytes());
+
+    @Test
+    void followsBorrowingAndClosingBlockByBlock() {
+        PawnshopEngine engine = Pawnshops.engineWithLenders(dApp, Address.of("owner", 'R'), btcId, oracle,
+                Address.of("ivanov", 'R'));
+        OpenLoanIndex index = new OpenLoanIndex();
+
+        List<String> loans = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ScriptResult borrowed = engine.borrow(Address.of("renter" + i, 'R'), Payment.waves(tokens(100)));
+            loans.add(DecodedChanges.of(borrowed).borrowedLoan());
+            index.apply(engine.height(), borrowed.data);
+            engine.advance(1);
+        }
+        // loan i: end of grace 105 + i, end of interest 109 + i
+        index.apply(engine.height(), engine.buyBack(Address.of("renter25", 'R'), loans.get(25),
+                Payment.of(tokens(1), btcId)).data);
+
+        assertAll(
+                () -> assertThat(index.size()).isEqualTo(29),
+                () -> assertThat(index.height()).isEqualTo(130),
+                () -> assertThat(index.nextExpiry()).isEqualTo(109),
+                () -> assertThat(index.expiringBy(112)).containsExactlyInAnyOrder(
+                        loans.get(0), loans.get(1), loans.get(2), loans.get(3)),
+                () -> assertThat(index.countExpiringBy(129)).isEqualTo(21),
+                () -> assertThat(index.inInterestPeriod(120)).containsExactlyInAnyOrder(
+                        loans.get(12), loans.get(13), loans.get(14)),
+                () -> assertThat(index.countInInterestPeriod(120)).isEqualTo(3),
+                () -> assertThat(index.contains(loans.get(25))).isFalse(),
+                () -> assertThat(index.interestEnd(loans.get(29))).isEqualTo(138)
+        );
+    }
+
+    @Test
+    void matchesBruteForceUnderRandomUpdates() {
+        Random random = new Random(42);
+        OpenLoanIndex index = new OpenLoanIndex();
+        Map<String, long[]> expected = new HashMap<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            String loan = String.valueOf(random.nextInt(2000));
+            if (random.nextInt(3) == 0) {
+                index.remove(loan);
+                expected.remove(loan);
+            } else {
+                long grace = 1_000_000 + random.nextInt(5000);
+                long interest = grace + random.nextInt(100);
+                index.put(new Loan(loan, "renter" + loan, 1, grace, interest, interest + 10, 1, 1, 1, ""));
+                expected.put(loan, new long[]{grace, interest});
+            }
+            if (i % 500 == 0) {
+                long h = 1_000_000 + random.nextInt(5200);
+                assertThat(index.size()).isEqualTo(expected.size());
+                assertThat(index.countExpiringBy(h))
+                        .isEqualTo(expected.values().stream().filter(l -> l[1] <= h).count());
+                assertThat(index.expiringBy(h)).containsExactlyInAnyOrderElementsOf(
+                        expected.keySet().stream().filter(r -> expected.get(r)[1] <= h)::iterator);
+                assertThat(index.countInInterestPeriod(h))
+                        .isEqualTo(expected.values().stream().filter(l -> l[0] < h && h < l[1]).count());
+            }
+        }
+    }
+
+    @Test
+    void countsLoansWithoutAnInterestPeriodWithTheTrees() {
+        OpenLoanIndex index = new OpenLoanIndex();
+        index.put(new Loan("1", "renter1", 80, 100, 100, 110, 1, 1, 1, ""));
+        index.put(new Loan("2", "renter2", 80, 100, 90, 110, 1, 1, 1, ""));
+        index.put(new Loan("3", "renter3", 80, 100, 110, 120, 1, 1, 1, ""));
+
+        assertAll(
+                () -> assertThat(index.countInInterestPeriod(95)).isZero(),
+                () -> assertThat(index.countInInterestPeriod(105)).isEqualTo(1),
+                () -> assertThat(index.inInterestPeriod(105)).containsExactly("3"),
+                () -> assertThat(index.countInInterestPeriod(110)).isZero(),
+                () -> assertThat(index.expiringBy(100)).containsExactlyInAnyOrder("1", "2"),
+                () -> assertThat(index.remove("2")).isTrue(),
+                () -> assertThat(index.countInInterestPeriod(95)).isZero(),
+                () -> assertThat(index.expiringBy(100)).containsExactly("1")
+        );
+    }
+
+    @Test
+    void matchesBruteForceWithLoansWithoutInterestAndRisingHeights() {
+        Random random = new Random(7);
+        OpenLoanIndex index = new OpenLoanIndex();
+        Map<String, long[]> expected = new HashMap<>();
+
+        for (int i = 0; i < 50_000; i++) {
+            long now = 1_000_000 + i / 10;
+            String loan = String.valueOf(random.nextInt(3000));
+            if (random.nextInt(3) == 0) {
+                assertThat(index.remove(loan)).isEqualTo(expected.remove(loan) != null);
+            } else {
+                long grace = now + random.nextInt(50);
+                long interest = grace + random.nextInt(40) - 15;
+                index.put(new Loan(loan, "renter" + loan, now, grace, interest, grace + 30, 1, 1, 1, ""));
+                expected.put(loan, new long[]{grace, interest});
+            }
+            if (i % 1000 == 0) {
+                long h = now + random.nextInt(60);
+                assertThat(index.ids()).containsExactlyInAnyOrderElementsOf(expected.keySet());
+                assertThat(index.countInInterestPeriod(h))
+                        .isEqualTo(expected.values().stream().filter(l -> l[0] < h && h < l[1]).count());
+                assertThat(index.inInterestPeriod(h)).containsExactlyInAnyOrderElementsOf(
+                        expected.keySet().stream().filter(r -> expected.get(r)[0] < h && h < expected.get(r)[1])::iterator);
+                assertThat(index.countExpiringBy(h))
+                        .isEqualTo(expected.values().stream().filter(l -> l[1] <= h).count());
+                assertThat(index.nextExpiry())
+                        .isEqualTo(expected.values().stream().mapToLong(l -> l[1]).min().orElse(Long.MAX_VALUE));
+            }
+        }
+    }
+
+    @Test
+    void catchesUpWithTheNode() {
+        LocalNode node = new LocalNode('R', 50);
+        LocalAccount dApp = node.account("dApp", tokens(1));
+        String alice = Address.of("alice", 'R');
+
+        OpenLoanIndex index = OpenLoanIndex.load(node.data(dApp.address()), node.height());
+        dApp.writes(d -> d.integer("start_of_" + alice, 50).integer("end_of_grace_of_" + alice, 55)
+                .integer("end_of_interest_of_" + alice, 60).integer("end_of_burndown_of_" + alice, 65)
+                .integer("rate_of_" + alice, 8000).integer("deposit_of_" + alice, 100)
+                .integer("lend_of_" + alice, 1).string("lender_flags_of_" + alice, ""));
+        node.mine(3);
+
+        assertThat(index.follow(node, dApp.address())).isEqualTo(4);
+        assertThat(index.expiringBy(60)).containsExactly(alice);
+
+        dApp.writes(d -> d.integer("start_of_" + alice, 0).integer("end_of_grace_of_" + alice, 0)
+                .integer("end_of_interest_of_" + alice, 0).integer("end_of_burndown_of_" + alice, 0)
+                .integer("rate_of_" + alice, 0).integer("deposit_of_" + alice, 0)
+                .integer("lend_of_" + alice, 0).string("lender_flags_of_" + alice, ""));
+        index.follow(node, dApp.address());
+
+        assertThat(index.size()).isZero();
+        assertThat(OpenLoanIndex.load(node.data(dApp.address()), node.height()).size()).isZero();
+    }
+
+}
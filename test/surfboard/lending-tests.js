@@ -2,10 +2,19 @@ const lib = require('./lib.js')
 
 describe('lenders test suite', async function () {
     const query = (key) => accountDataByKey(key, address(accounts.dapp))
-    const queryLenders = () => query("lenders")
-    const queryEnabledLenders = () => query("enabledLenders")
-    const queryOpenLends = (acc) => query("open_lends_of_" + acc)
+    const queryFlags = async (key) => (await query(key)).value
+    // the addresses of the slots set in the flags, slot n is at n * 35 of lender_addresses
+    const queryLendersOf = async (flagsKey) => {
+        const flags = await queryFlags(flagsKey)
+        const addresses = (await query("lender_addresses")).value
+        return [...flags].map((flag, slot) => flag == "1" ? addresses.substr(slot * 35, 35) : null)
+            .filter(a => a != null).join("|")
+    }
+    const queryLenders = () => queryLendersOf("lender_flags")
+    const queryEnabledLenders = () => queryLendersOf("enabled_lender_flags")
+    const queryCohortOpen = (cohort) => query("cohort_open_" + cohort)
     var tokenId = null
+    var bobLoan = null
     before(async function () {
         await setupAccounts(
             {
@@ -83,43 +92,44 @@ describe('lenders test suite', async function () {
 
     it('ivanov becomes lender', async function () { 
         await lib.depositBtc(accounts.ivanov, tokenId)
-        expect((await queryLenders()).value).to.equal(address(accounts.ivanov))
-        expect((await queryEnabledLenders()).value).to.equal(address(accounts.ivanov))
+        expect(await queryFlags("lender_flags")).to.equal("1")
+        expect(await queryLenders()).to.equal(address(accounts.ivanov))
+        expect(await queryEnabledLenders()).to.equal(address(accounts.ivanov))
     })
 
     it('bob takes loan', async function () {
         await lib.postOracle(accounts.oracle, 1 * lib.u1)
         const tx = await lib.borrow(accounts.bob, 1 * lib.u1)
         const sc = await stateChanges(tx.id)
-        const bobAddress = address(accounts.bob)
-        const [so, eog, eoi, eob, r, d, l, ls] = lib.parseData(sc.data, bobAddress)
-        expect(ls).to.equal(address(accounts.ivanov))
-        expect((await queryOpenLends(address(accounts.ivanov))).value).to.equal(1)
+        bobLoan = lib.loanOf(sc.data)
+        const [so, eog, eoi, eob, r, d, l, ls] = lib.parseData(sc.data, bobLoan)
+        expect(ls).to.equal("1")
+        expect((await queryCohortOpen(1)).value).to.equal(1)
     })
 
     it('masha becomes lender', async function () {
          await lib.depositBtc(accounts.masha, tokenId)
          const sm = address(accounts.ivanov) +  "|" + address(accounts.masha)
-         expect((await queryLenders()).value).to.equal(sm)
-         expect((await queryEnabledLenders()).value).to.equal(sm)
+         expect(await queryLenders()).to.equal(sm)
+         expect(await queryEnabledLenders()).to.equal(sm)
         })
     
     it('rob becomes lender', async function () { 
         await lib.depositBtc(accounts.rob, tokenId) 
         const smr = address(accounts.ivanov) +  "|" + address(accounts.masha) + "|" + address(accounts.rob)
-        expect((await queryLenders()).value).to.equal(smr)
-        expect((await queryEnabledLenders()).value).to.equal(smr)
+        expect(await queryFlags("enabled_lender_flags")).to.equal("111")
+        expect(await queryLenders()).to.equal(smr)
+        expect(await queryEnabledLenders()).to.equal(smr)
     })
     it('ivanov cant quit until the loan is closed', async function () {
         await expect(broadcast(lib.buildWithdrawBtcTx(accounts.ivanov))).to.be.rejectedWith("withdraw not allowed")
     })
 
     it('bob returns his loan', async function () {
-        const tx = lib.buildBuyBackTx(accounts.bob, 1 * lib.u1, tokenId)
+        const tx = lib.buildBuyBackTx(accounts.bob, bobLoan, 1 * lib.u1, tokenId)
         await broadcast(tx)
         await waitForTx(tx.id)
 
-        const bobAddress = address(accounts.bob)
         const sc = await stateChanges(tx.id)
 
         const transfer = sc.transfers[0]
@@ -128,42 +138,50 @@ describe('lenders test suite', async function () {
         expect(transfer.amount).to.equal(lib.u1)
 
         
-        const [so, eog, eoi, eob, r, d, l,ls] = lib.parseData(sc.data, bobAddress)
+        const [so, eog, eoi, eob, r, d, l,ls] = lib.parseData(sc.data, bobLoan)
         expect(ls).to.equal("")
         expect(transfer.address).to.equal(address(accounts.bob))
         expect(transfer.asset).to.equal(null)
         expect(transfer.amount).to.equal(1 * lib.u1)
 
-        const [profit, unclaimed] = lib.parsePayouts(sc.data, address(accounts.ivanov))
+        const [profit, unclaimed] = lib.parseCohort(sc.data, 1)
         expect(profit).to.equal(0)
         expect(unclaimed).to.equal(null)
-        expect((await queryOpenLends(address(accounts.ivanov))).value).to.equal(0)
+        expect((await queryCohortOpen(1)).value).to.equal(0)
 
     })
 
    it('rob freezes his account for future loans', async function () { 
        await lib.enableLending(accounts.rob, false)
        const smr = address(accounts.ivanov) +  "|" + address(accounts.masha) + "|" + address(accounts.rob)
-       expect((await queryLenders()).value).to.equal(smr)
-       expect((await queryEnabledLenders()).value).to.equal(address(accounts.ivanov) +  "|" + address(accounts.masha)) 
+       expect(await queryFlags("lender_flags")).to.equal("111")
+       expect(await queryFlags("enabled_lender_flags")).to.equal("110")
+       expect(await queryLenders()).to.equal(smr)
+       expect(await queryEnabledLenders()).to.equal(address(accounts.ivanov) +  "|" + address(accounts.masha)) 
     }) 
 
    it('alice takes loan', async function () {
     await lib.postOracle(accounts.oracle, 1 * lib.u1)
     const tx = await lib.borrow(accounts.alice, 1 * lib.u1)
     const sc = await stateChanges(tx.id)
-    const bobAddress = address(accounts.alice)
-    const [so, eog, eoi, eob, r, d, l,ls] = lib.parseData(sc.data, address(accounts.alice))
-    expect(ls).to.equal(address(accounts.ivanov) + "|" + address(accounts.masha))
-    expect((await queryOpenLends(address(accounts.ivanov))).value).to.equal(1)
-    expect((await queryOpenLends(address(accounts.masha))).value).to.equal(1)
-    expect((await queryOpenLends(address(accounts.rob)))).to.equal(null)
+    const [so, eog, eoi, eob, r, d, l,ls] = lib.parseData(sc.data, lib.loanOf(sc.data))
+    expect(ls).to.equal("110")
+    expect(sc.data.find(k => k.key == "cohort_of_" + lib.loanOf(sc.data)).value).to.equal(4)
+    expect((await queryCohortOpen(4)).value).to.equal(1)
 })
 
+   it('rob cant quit until he settles cohort 3', async function () {
+    await expect(broadcast(lib.buildWithdrawBtcTx(accounts.rob))).to.be.rejectedWith("cohort 3 is not settled")
+    await lib.settle(accounts.rob, address(accounts.rob), 3)
+    expect((await query("settled_cohort_of_" + address(accounts.rob))).value).to.equal(4)
+   })
+
    it('bob can quit', async function () {
     const tx = await lib.withdrawBtc(accounts.rob)
     const sm = address(accounts.ivanov) +  "|" + address(accounts.masha)
-    expect((await queryLenders()).value).to.equal(sm)
-    expect((await queryEnabledLenders()).value).to.equal(sm)
+    expect(await queryFlags("lender_flags")).to.equal("110")
+    expect((await query("slot_of_" + address(accounts.rob))).value).to.equal(-1)
+    expect(await queryLenders()).to.equal(sm)
+    expect(await queryEnabledLenders()).to.equal(sm)
    })
 })
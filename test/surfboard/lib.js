@@ -4,18 +4,21 @@ const lib = {
 
 
 
-    parseData: (data, addr) => {
-        const so = data.find(k => k.key == "start_of_" + addr).value
-        const eog = data.find(k => k.key == "end_of_grace_of_" + addr).value
-        const eoi = data.find(k => k.key == "end_of_interest_of_" + addr).value
-        const eob = data.find(k => k.key == "end_of_burndown_of_" + addr).value
-        const r = data.find(k => k.key == "rate_of_" + addr).value
-        const d = data.find(k => k.key == "deposit_of_" + addr).value
-        const l = data.find(k => k.key == "lend_of_" + addr).value
-        const ls = data.find(k => k.key == "lenders_of_" + addr).value
+    parseData: (data, loan) => {
+        const so = data.find(k => k.key == "start_of_" + loan).value
+        const eog = data.find(k => k.key == "end_of_grace_of_" + loan).value
+        const eoi = data.find(k => k.key == "end_of_interest_of_" + loan).value
+        const eob = data.find(k => k.key == "end_of_burndown_of_" + loan).value
+        const r = data.find(k => k.key == "rate_of_" + loan).value
+        const d = data.find(k => k.key == "deposit_of_" + loan).value
+        const l = data.find(k => k.key == "lend_of_" + loan).value
+        const ls = data.find(k => k.key == "lender_flags_of_" + loan).value
         return [so, eog, eoi, eob, r, d, l, ls]
     },
 
+    // id of the loan opened by a borrow
+    loanOf: (data) => String(data.find(k => k.key == "loan_count").value),
+
 
     parsePayouts: (data, addr) => {
         const x = data.find(k => k.key == "profit_for_" + addr)
@@ -25,6 +28,15 @@ const lib = {
         return [profit, unclaimed]
     },
 
+    // what a closing added to the shares of the lenders of a cohort
+    parseCohort: (data, cohort) => {
+        const value = (key) => {
+            const x = data.find(k => k.key == key + cohort)
+            return (x==null) ? null : x.value
+        }
+        return [value("cohort_profit_"), value("cohort_unclaimed_"), value("cohort_loss_")]
+    },
+
     postOracle: async (oracleAcc, oracleValue) => {
         const tx = data({
             data: [
@@ -57,6 +69,16 @@ const lib = {
         }, account);
     },
 
+    buildSettleTx: (account, lender, cohort) => {
+        return invokeScript({
+            dApp: address(accounts.dapp),
+            call: {
+                function: "settle", args: [{ type: "string", value: lender }, { type: "integer", value: cohort }]
+            },
+            payment: []
+        }, account);
+    },
+
     
     buildDepositBtcTx: (account, assetId, amount = 10 * lib.u1) => {
         return invokeScript({
@@ -102,6 +124,13 @@ const lib = {
         return tx;
     },
 
+    settle: async (account, lender, cohort) => {
+        const tx = lib.buildSettleTx(account, lender, cohort)
+        await broadcast(tx);
+        await waitForTx(tx.id);
+        return tx;
+    },
+
     depositBtc: async (account, assetId) => {
         const tx = lib.buildDepositBtcTx(account, assetId)
         await broadcast(tx);
@@ -123,11 +152,11 @@ const lib = {
         return tx;
     },
 
-    buildBuyBackTx: (account, amount, assetId) => {
+    buildBuyBackTx: (account, loan, amount, assetId) => {
         return invokeScript({
             dApp: address(accounts.dapp),
             call: {
-                function: "buyBack", args: []
+                function: "buyBack", args: [{ type: "string", value: loan }]
             },
             payment: [{ amount: amount, assetId: assetId }]
         },
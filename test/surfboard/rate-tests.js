@@ -74,8 +74,7 @@ describe('rates test suite', async function () {
     it('when rate is 11200 and no-discount, exaclty 11200 sat for 1 waves', async function () {
         const tx = await lib.borrow(accounts.alice, 1 * lib.u1)
         const sc = await stateChanges(tx.id)
-        const aliceAddress = address(accounts.alice)
-        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, aliceAddress)
+        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, lib.loanOf(sc.data))
         expect(r).to.equal(11200)
         expect(l).to.equal(11200)
         expect(d).to.equal(1 * lib.u1)
@@ -85,8 +84,7 @@ describe('rates test suite', async function () {
         await lib.postOracle(accounts.oracle, 1 * lib.u1)
         const tx = await lib.borrow(accounts.bob, 1 * lib.u1)
         const sc = await stateChanges(tx.id)
-        const bobAddress = address(accounts.bob)
-        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, bobAddress)
+        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, lib.loanOf(sc.data))
         expect(r).to.equal(1 * lib.u1)
         expect(l).to.equal(1 * lib.u1)
         expect(d).to.equal(1 * lib.u1)
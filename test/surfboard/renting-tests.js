@@ -15,6 +15,9 @@ describe('user test suite', async function () {
 
     var bobHeight = null
     var cooperHeight = null
+    var aliceLoan = null
+    var bobLoan = null
+    var cooperLoan = null
 
     before(async function () {
         await setupAccounts(
@@ -93,8 +96,8 @@ describe('user test suite', async function () {
     it('Alice borrows some btc 10k waves', async function () {
         const tx = await lib.borrow(accounts.alice, alicePmt)
         const sc = await stateChanges(tx.id)
-        const aliceAddress = address(accounts.alice)
-        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, aliceAddress)
+        aliceLoan = lib.loanOf(sc.data)
+        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, aliceLoan)
         expect(l).to.equal(alicePmt * initialOracleRate / lib.u1 * discount / 100)
         expect(eog - so).to.equal(gracePeriod)
         expect(eoi - eog).to.equal(interestPeriod)
@@ -109,35 +112,36 @@ describe('user test suite', async function () {
     })
     it('Bob borrows some btc for 5k waves', async function () {
         const tx = await lib.borrow(accounts.bob, 5 * 1000 * lib.u1);
+        bobLoan = lib.loanOf((await stateChanges(tx.id)).data)
         bobHeight = await currentHeight()
     })
 
     it('Cooper borrows some btc for 3k waves', async function () {
         const tx = await lib.borrow(accounts.cooper, 3 * 1000 * lib.u1);
+        cooperLoan = lib.loanOf((await stateChanges(tx.id)).data)
         cooperHeight = await currentHeight()
     })
 
     it('Alice cant buy back with less tokens', async function () {
-        const bad1 = lib.buildBuyBackTx(accounts.alice, 0.8 * lib.u1, null)
+        const bad1 = lib.buildBuyBackTx(accounts.alice, aliceLoan, 0.8 * lib.u1, null)
         await expect(broadcast(bad1)).to.be.rejectedWith("Error")
     })
 
     it('Alice cant buy back with different token', async function () {
-        const bad2 = lib.buildBuyBackTx(accounts.alice, 0.8 * lib.u1 - 1, tokenId)
+        const bad2 = lib.buildBuyBackTx(accounts.alice, aliceLoan, 0.8 * lib.u1 - 1, tokenId)
         await expect(broadcast(bad2)).to.be.rejectedWith("User must return")
     })
 
     it('Alice buys back 10k waves for 0.8 btc that has been borrowed', async function () {
         this.timeout(20000)
-        const tx = lib.buildBuyBackTx(accounts.alice, 0.8 * lib.u1, tokenId)
+        const tx = lib.buildBuyBackTx(accounts.alice, aliceLoan, 0.8 * lib.u1, tokenId)
         await broadcast(tx)
         await waitForTx(tx.id)
 
-        const aliceAddress = address(accounts.alice)
         const sc = await stateChanges(tx.id)
         const transfer = sc.transfers[0]
 
-        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, aliceAddress)
+        const [so, eog, eoi, eob, r, d, l] = lib.parseData(sc.data, aliceLoan)
 
         expect(eog).to.equal(0)
         expect(eoi).to.equal(0)
@@ -156,7 +160,7 @@ describe('user test suite', async function () {
 
 
     it('Alice cant buyback again', async function () {
-        const tx = lib.buildBuyBackTx(accounts.alice, 0.8 * lib.u1, tokenId)
+        const tx = lib.buildBuyBackTx(accounts.alice, aliceLoan, 0.8 * lib.u1, tokenId)
         await expect(broadcast(tx)).to.be.rejectedWith("No open loan")
     })
 
@@ -171,9 +175,10 @@ describe('user test suite', async function () {
     })
 
     it('Alice can perform the operation again', async function () {
-        await lib.borrow(accounts.alice, 2 * 1000 * lib.u1)
+        const borrowed = await lib.borrow(accounts.alice, 2 * 1000 * lib.u1)
+        const loan = lib.loanOf((await stateChanges(borrowed.id)).data)
         const toBuyBack = 2000 * 20000 * 0.8
-        const bb = lib.buildBuyBackTx(accounts.alice, toBuyBack, tokenId)
+        const bb = lib.buildBuyBackTx(accounts.alice, loan, toBuyBack, tokenId)
         await broadcast(bb)
         await waitForTx(bb.id)
     })
@@ -188,7 +193,7 @@ describe('user test suite', async function () {
         const tx = invokeScript({
             dApp: address(accounts.dapp),
             call: {
-                function: "buyBack", args: []
+                function: "buyBack", args: [{ type: "string", value: bobLoan }]
             },
             payment: [{ amount: 0.4 * lib.u1 + 0.1*lib.u1, assetId: tokenId }]
         },
@@ -201,7 +206,7 @@ describe('user test suite', async function () {
         const actualHeight = t0.height
         const expectedProfit =  0.4 * lib.u1 * (actualHeight - (bobHeight+gracePeriod))/burndownPeriod
 
-        const [profit, unclaimed] = lib.parsePayouts(sc.data, address(accounts.ivanov))
+        const [profit, unclaimed] = lib.parseCohort(sc.data, 1)
 
         expect(profit).to.equal(expectedProfit * 0.9)
         expect(unclaimed).to.equal(null)
@@ -221,7 +226,7 @@ describe('user test suite', async function () {
         const tx = invokeScript({
             dApp: address(accounts.dapp),
             call: {
-                function: "closeExpiredFor", args: [{ type: "string", value: address(accounts.cooper) }]
+                function: "closeExpiredFor", args: [{ type: "string", value: cooperLoan }]
             }
         },
             accounts.owner
@@ -231,13 +236,19 @@ describe('user test suite', async function () {
 
         const sc = await stateChanges(tx.id)
 
-        const [profit, unclaimed] = lib.parsePayouts(sc.data, address(accounts.ivanov))
+        const [profit, unclaimed, loss] = lib.parseCohort(sc.data, 1)
         expect(profit).to.equal(null)
         expect(unclaimed).to.equal(3 * lib.u1 * 1000 * 0.9)
+        expect(loss).to.equal(24000000)
         
         const [profitOwner, unclaimedOwner] = lib.parsePayouts(sc.data, address(accounts.owner))
         expect(profitOwner).to.equal(null)
         expect(unclaimedOwner).to.equal(3 * lib.u1 * 1000 * 0.1)
+    })
+
+    it('ivanov settles his share of cohort 1', async function () {
+        const tx = await lib.settle(accounts.ivanov, address(accounts.ivanov), 1)
+        const sc = await stateChanges(tx.id)
         const expectedCurculatingAssets = 10*lib.u1 - 24000000
         expect(sc.data.find(k => k.key == "curculating_assets_of_" + address(accounts.ivanov)).value)
             .to